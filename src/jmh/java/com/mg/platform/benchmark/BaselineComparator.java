@@ -0,0 +1,103 @@
+package com.mg.platform.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 对比 JMH 结果与基线：输出每个基准的耗时与每次调用分配字节数（gc.alloc.rate.norm）变化
+ * 用法：BaselineComparator &lt;baseline.json&gt; &lt;result.json&gt; [threshold=0.20] [failOnRegression=false]
+ * 更新基线：将 target/jmh-result.json 复制到 src/jmh/baseline/jmh-baseline.json
+ */
+public final class BaselineComparator {
+    private static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+
+    private BaselineComparator() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparator <baseline.json> <result.json> [threshold] [failOnRegression]");
+            System.exit(2);
+        }
+        File baselineFile = new File(args[0]);
+        File resultFile = new File(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.20;
+        boolean failOnRegression = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+        if (!resultFile.exists()) {
+            System.err.println("No JMH result found at " + resultFile);
+            System.exit(2);
+        }
+        if (!baselineFile.exists()) {
+            System.out.println("No baseline at " + baselineFile + "; copy " + resultFile + " there to create one.");
+            return;
+        }
+
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Metrics> baseline = read(mapper.readTree(baselineFile));
+        Map<String, Metrics> current = read(mapper.readTree(resultFile));
+
+        int regressions = 0;
+        System.out.printf("%-80s %14s %14s %8s %12s %12s %8s%n",
+                "Benchmark", "base ns/op", "now ns/op", "delta", "base B/op", "now B/op", "delta");
+        for (Map.Entry<String, Metrics> entry : current.entrySet()) {
+            Metrics now = entry.getValue();
+            Metrics base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.printf("%-80s %14s %14.1f %8s %12s %12.1f %8s%n",
+                        entry.getKey(), "-", now.score, "new", "-", now.allocBytes, "new");
+                continue;
+            }
+            double timeDelta = delta(base.score, now.score);
+            double allocDelta = delta(base.allocBytes, now.allocBytes);
+            boolean regressed = timeDelta > threshold || allocDelta > threshold;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-80s %14.1f %14.1f %+7.1f%% %12.1f %12.1f %+7.1f%%%s%n",
+                    entry.getKey(), base.score, now.score, timeDelta * 100,
+                    base.allocBytes, now.allocBytes, allocDelta * 100, regressed ? "  REGRESSION" : "");
+        }
+
+        System.out.printf("%d regression(s) above %.0f%% threshold%n", regressions, threshold * 100);
+        if (regressions > 0 && failOnRegression) {
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Metrics> read(JsonNode results) {
+        Map<String, Metrics> metrics = new LinkedHashMap<>();
+        for (JsonNode result : results) {
+            JsonNode alloc = result.path("secondaryMetrics").path(ALLOC_METRIC);
+            if (alloc.isMissingNode()) {
+                // 老版本 JMH 的 gc profiler 指标名带有 "·" 前缀
+                alloc = result.path("secondaryMetrics").path("·" + ALLOC_METRIC);
+            }
+            metrics.put(result.path("benchmark").asText(), new Metrics(
+                    result.path("primaryMetric").path("score").asDouble(),
+                    alloc.path("score").asDouble(0.0)));
+        }
+        return metrics;
+    }
+
+    private static double delta(double base, double now) {
+        if (base == 0) {
+            return now == 0 ? 0 : 1;
+        }
+        return (now - base) / base;
+    }
+
+    private static final class Metrics {
+        private final double score;
+        private final double allocBytes;
+
+        private Metrics(double score, double allocBytes) {
+            this.score = score;
+            this.allocBytes = allocBytes;
+        }
+    }
+}
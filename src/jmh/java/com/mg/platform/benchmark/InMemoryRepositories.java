@@ -0,0 +1,81 @@
+package com.mg.platform.benchmark;
+
+import com.mg.platform.domain.CapabilityRoutingPolicy;
+import com.mg.platform.domain.Merchant;
+import com.mg.platform.domain.ProviderApiKey;
+import com.mg.platform.domain.ProviderCapability;
+import com.mg.platform.repo.CapabilityRoutingPolicyRepository;
+import com.mg.platform.repo.MerchantRepository;
+import com.mg.platform.repo.ProviderApiKeyRepository;
+import com.mg.platform.repo.ProviderCapabilityRepository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基准测试用的内存 Repository：只实现 RoutingSnapshotManager 加载快照用到的方法
+ */
+public final class InMemoryRepositories {
+    private InMemoryRepositories() {
+    }
+
+    public static ProviderCapabilityRepository capabilities(List<ProviderCapability> capabilities) {
+        return repository(ProviderCapabilityRepository.class, Map.of("findByStatusWithProvider", capabilities));
+    }
+
+    public static CapabilityRoutingPolicyRepository policies(List<CapabilityRoutingPolicy> policies) {
+        return repository(CapabilityRoutingPolicyRepository.class, Map.of("findAll", policies));
+    }
+
+    public static ProviderApiKeyRepository apiKeys(List<ProviderApiKey> apiKeys) {
+        return repository(ProviderApiKeyRepository.class, Map.of("findByStatus", apiKeys));
+    }
+
+    public static MerchantRepository merchants(List<Merchant> merchants) {
+        return repository(MerchantRepository.class, Map.of("findAllById", merchants));
+    }
+
+    /**
+     * 不做任何事的事务管理器（内存数据不需要事务）
+     */
+    public static PlatformTransactionManager noOpTransactionManager() {
+        return new PlatformTransactionManager() {
+            @Override
+            public TransactionStatus getTransaction(TransactionDefinition definition) {
+                return new SimpleTransactionStatus();
+            }
+
+            @Override
+            public void commit(TransactionStatus status) {
+            }
+
+            @Override
+            public void rollback(TransactionStatus status) {
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T repository(Class<T> type, Map<String, Object> results) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (results.containsKey(method.getName())) {
+                return results.get(method.getName());
+            }
+            switch (method.getName()) {
+                case "toString":
+                    return "InMemory" + type.getSimpleName();
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+            }
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package com.mg.platform.common.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * API Key 解密基准（ApiKeyMaterialCache 未命中时执行）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CryptoUtilBenchmark {
+    private CryptoUtil cryptoUtil;
+    private String cipherText;
+
+    @Setup
+    public void setUp() {
+        cryptoUtil = new CryptoUtil();
+        ReflectionTestUtils.setField(cryptoUtil, "secretKey", "benchmark-key-16");
+        cryptoUtil.init();
+        cipherText = cryptoUtil.encrypt("api-key-0123456789abcdef0123456789abcdef");
+    }
+
+    @Benchmark
+    public String decrypt() {
+        return cryptoUtil.decrypt(cipherText);
+    }
+}
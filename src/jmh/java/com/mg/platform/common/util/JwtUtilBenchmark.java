@@ -0,0 +1,34 @@
+package com.mg.platform.common.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 设备 token 校验基准（每次设备请求都会执行）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtUtilBenchmark {
+    private JwtUtil jwtUtil;
+    private String deviceToken;
+
+    @Setup
+    public void setUp() {
+        jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", "benchmark-secret-key-change-this-min-256-bits-long");
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 86400000L);
+        jwtUtil.init();
+        deviceToken = jwtUtil.generateDeviceToken(1001L, 1L);
+    }
+
+    @Benchmark
+    public Boolean validateDeviceToken() {
+        return jwtUtil.validateDeviceToken(deviceToken, 1001L);
+    }
+}
@@ -0,0 +1,184 @@
+package com.mg.platform.service;
+
+import com.mg.platform.benchmark.InMemoryRepositories;
+import com.mg.platform.common.dto.AiResolveRequest;
+import com.mg.platform.common.util.CryptoUtil;
+import com.mg.platform.domain.CapabilityRoutingPolicy;
+import com.mg.platform.domain.Merchant;
+import com.mg.platform.domain.ModelProvider;
+import com.mg.platform.domain.ProviderApiKey;
+import com.mg.platform.domain.ProviderCapability;
+import com.mg.platform.service.routing.ApiKeyMaterialCache;
+import com.mg.platform.service.routing.ApiKeyPool;
+import com.mg.platform.service.routing.ProviderCircuitBreaker;
+import com.mg.platform.service.routing.ProviderHealthScoreboard;
+import com.mg.platform.service.routing.RoutePlanCache;
+import com.mg.platform.service.routing.RoutingSnapshot.CapabilityRoute;
+import com.mg.platform.service.routing.RoutingSnapshotManager;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * resolve 热路径基准：路由快照由内存 Repository 加载（不访问数据库）
+ * 数据规模：5 个能力 × 8 个 provider，每个 provider 2 个 key，50 个商家各有 MERCHANT policy
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResolveServiceBenchmark {
+    private static final String[] CAPABILITIES = {"segmentation", "background_removal", "face_swap", "upscale", "style_transfer"};
+    private static final int PROVIDERS = 8;
+    private static final int MERCHANTS = 50;
+
+    private ResolveService resolveService;
+    private AiResolveRequest globalRequest;
+    private AiResolveRequest merchantRequest;
+    private List<CapabilityRoute> routes;
+    private List<String> prefer;
+    private Map<String, Object> defaultParams;
+    private Map<String, Object> hintParams;
+
+    @Setup
+    public void setUp() {
+        CryptoUtil cryptoUtil = new CryptoUtil();
+        ReflectionTestUtils.setField(cryptoUtil, "secretKey", "benchmark-key-16");
+        ReflectionTestUtils.invokeMethod(cryptoUtil, "init");
+
+        LocalDateTime now = LocalDateTime.now();
+        List<ModelProvider> providers = new ArrayList<>();
+        List<ProviderApiKey> apiKeys = new ArrayList<>();
+        for (int p = 0; p < PROVIDERS; p++) {
+            ModelProvider provider = new ModelProvider();
+            provider.setId((long) p + 1);
+            provider.setCode("provider_" + p);
+            provider.setStatus("ACTIVE");
+            provider.setCostTier(p % 3 + 1);
+            providers.add(provider);
+            for (int k = 0; k < 2; k++) {
+                ProviderApiKey key = new ProviderApiKey();
+                key.setId((long) p * 2 + k + 1);
+                key.setProvider(provider);
+                key.setApiKeyCipher(cryptoUtil.encrypt("api-key-" + p + "-" + k + "-0123456789abcdef"));
+                key.setStatus("ACTIVE");
+                key.setCreatedAt(now);
+                key.setUpdatedAt(now);
+                apiKeys.add(key);
+            }
+        }
+
+        List<ProviderCapability> capabilities = new ArrayList<>();
+        long capabilityId = 1;
+        for (String capability : CAPABILITIES) {
+            for (ModelProvider provider : providers) {
+                ProviderCapability cap = new ProviderCapability();
+                cap.setId(capabilityId++);
+                cap.setProvider(provider);
+                cap.setCapability(capability);
+                cap.setEndpoint("https://" + provider.getCode() + ".example.com/v1/" + capability);
+                cap.setStatus("ACTIVE");
+                cap.setPriority((int) (100 + provider.getId()));
+                cap.setDefaultTimeoutMs(8000);
+                cap.setDefaultParamsJson("{\"model\":\"v2\",\"quality\":\"high\",\"format\":\"png\","
+                        + "\"width\":1024,\"height\":1536,\"options\":{\"edge\":\"soft\",\"feather\":2}}");
+                capabilities.add(cap);
+            }
+        }
+
+        List<Merchant> merchants = new ArrayList<>();
+        List<CapabilityRoutingPolicy> policies = new ArrayList<>();
+        long policyId = 1;
+        for (String capability : CAPABILITIES) {
+            CapabilityRoutingPolicy global = new CapabilityRoutingPolicy();
+            global.setId(policyId++);
+            global.setScope("GLOBAL");
+            global.setCapability(capability);
+            global.setPreferProvidersJson("[\"provider_3\",\"provider_1\",\"provider_5\"]");
+            global.setRetryCount(2);
+            global.setFailoverOnHttpCodesJson("[429,502,503]");
+            global.setStatus("ACTIVE");
+            global.setCreatedAt(now);
+            policies.add(global);
+        }
+        for (int m = 0; m < MERCHANTS; m++) {
+            Merchant merchant = new Merchant();
+            merchant.setId((long) m + 1);
+            merchant.setCode("M" + String.format("%03d", m + 1));
+            merchants.add(merchant);
+
+            CapabilityRoutingPolicy policy = new CapabilityRoutingPolicy();
+            policy.setId(policyId++);
+            policy.setScope("MERCHANT");
+            policy.setMerchant(merchant);
+            policy.setCapability("segmentation");
+            policy.setPreferProvidersJson("[\"provider_6\",\"provider_2\"]");
+            policy.setMaxCostTier(2);
+            policy.setRetryCount(1);
+            policy.setStatus("ACTIVE");
+            policy.setCreatedAt(now);
+            policies.add(policy);
+        }
+
+        ApiKeyPool apiKeyPool = new ApiKeyPool();
+        RoutingSnapshotManager snapshotManager = new RoutingSnapshotManager(
+                InMemoryRepositories.capabilities(capabilities),
+                InMemoryRepositories.policies(policies),
+                InMemoryRepositories.apiKeys(apiKeys),
+                InMemoryRepositories.merchants(merchants),
+                apiKeyPool,
+                InMemoryRepositories.noOpTransactionManager());
+        snapshotManager.refresh();
+
+        resolveService = new ResolveService(snapshotManager, new ApiKeyMaterialCache(cryptoUtil),
+                new ProviderHealthScoreboard(), apiKeyPool, new RoutePlanCache(), new ProviderCircuitBreaker());
+
+        globalRequest = new AiResolveRequest();
+        globalRequest.setCapability("background_removal");
+
+        merchantRequest = new AiResolveRequest();
+        merchantRequest.setCapability("segmentation");
+        merchantRequest.setMerchantCode("M025");
+        merchantRequest.setHintParams(Map.of("quality", "medium", "seed", 42, "background", "#FFFFFF"));
+
+        routes = snapshotManager.current().getRoutes("segmentation");
+        prefer = List.of("provider_6", "provider_2", "provider_missing");
+        defaultParams = routes.get(0).getDefaultParams();
+        hintParams = merchantRequest.getHintParams();
+    }
+
+    @Benchmark
+    public Object resolveGlobalPolicy() {
+        return resolveService.resolve(globalRequest);
+    }
+
+    @Benchmark
+    public Object resolveMerchantPolicyWithHints() {
+        return resolveService.resolve(merchantRequest);
+    }
+
+    @Benchmark
+    public List<CapabilityRoute> sortByPrefer() {
+        return resolveService.sortByPrefer(routes, prefer);
+    }
+
+    /**
+     * 合并后完整遍历一次（模拟序列化输出）
+     */
+    @Benchmark
+    public void mergeParams(Blackhole blackhole) {
+        Map<String, Object> merged = resolveService.mergeParams(defaultParams, hintParams);
+        for (Map.Entry<String, Object> entry : merged.entrySet()) {
+            blackhole.consume(entry.getKey());
+            blackhole.consume(entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.mg.platform.common.dto;
+
+import lombok.Data;
+
+/**
+ * 设备上报的 provider 调用结果（用于健康记分板）
+ */
+@Data
+public class AiOutcomeReport {
+    /**
+     * resolve 响应中签发的租约 ID，上报只接受该租约内下发过的 provider
+     */
+    private String leaseId;
+    private String capability;
+    private String providerCode;
+    private Long latencyMs;
+    private Boolean success;
+    private Integer httpStatus;
+}
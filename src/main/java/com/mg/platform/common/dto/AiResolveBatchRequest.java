@@ -0,0 +1,17 @@
+package com.mg.platform.common.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * 批量 resolve 请求（一次会话需要多个能力时使用）
+ */
+@Data
+public class AiResolveBatchRequest {
+    /**
+     * 公共 merchantCode，子请求未指定时使用
+     */
+    private String merchantCode;
+    private List<AiResolveRequest> requests;
+}
@@ -0,0 +1,35 @@
+package com.mg.platform.common.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 批量 resolve 响应，results 与请求顺序一致
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AiResolveBatchResponse {
+    private List<Item> results;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Item {
+        private int index;
+        private boolean success;
+        private String message;
+        private AiResolveResponse data;
+
+        public static Item success(int index, AiResolveResponse data) {
+            return new Item(index, true, "Success", data);
+        }
+
+        public static Item error(int index, String message) {
+            return new Item(index, false, message, null);
+        }
+    }
+}
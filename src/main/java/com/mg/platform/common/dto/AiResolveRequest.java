@@ -11,6 +11,11 @@ public class AiResolveRequest {
     private String templateCode;
     private String versionSemver;
     private String merchantCode;
+    /**
+     * direct（默认）：返回 provider endpoint 和 API Key，由设备直接调用
+     * proxy：返回平台转发地址，不下发 API Key
+     */
+    private String mode;
     private List<String> prefer;
     private Constraints constraints;
     private Map<String, Object> hintParams;
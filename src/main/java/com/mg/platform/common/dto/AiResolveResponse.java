@@ -2,6 +2,7 @@ package com.mg.platform.common.dto;
 
 import lombok.Data;
 
+import java.util.List;
 import java.util.Map;
 
 @Data
@@ -9,11 +10,33 @@ public class AiResolveResponse {
     private String mode;
     private String capability;
     private Direct direct;
+    /**
+     * 主 provider 失败后的备选（按 policy.retry_count 截取），未配置重试时为 null
+     */
+    private Failover failover;
+    /**
+     * 路由版本标签（同响应头 ETag），设备缓存决策后用 If-None-Match 重新验证
+     */
+    private String version;
+    /**
+     * 租约时长（秒）：设备可在此时间内直接复用本次结果
+     */
+    private Integer leaseTtlSeconds;
+    /**
+     * 租约 ID（仅带设备 token 的请求签发）：上报调用结果时携带，304 重新验证时放在 X-Route-Lease 请求头中续期
+     */
+    private String leaseId;
 
     @Data
     public static class Direct {
         private String providerCode;
+        /**
+         * direct 模式为 provider endpoint；proxy 模式为平台转发地址
+         */
         private String endpoint;
+        /**
+         * proxy 模式下为 null（API Key 只保留在平台）
+         */
         private Auth auth;
         private Integer timeoutMs;
         private Map<String, Object> params;
@@ -24,4 +47,14 @@ public class AiResolveResponse {
         private String type;
         private String apiKey;
     }
+
+    @Data
+    public static class Failover {
+        private Integer retryCount;
+        /**
+         * 返回这些 HTTP 状态码（或超时 / 网络错误）时切换到下一个备选
+         */
+        private List<Integer> onHttpCodes;
+        private List<Direct> candidates;
+    }
 }
@@ -15,6 +15,7 @@ public class ProviderApiKeyDTO {
     private String providerCode;
     private String name;
     private String status;
+    private Integer rpmLimit;
     private LocalDateTime createdAt;
     private LocalDateTime updatedAt;
 
@@ -27,6 +28,7 @@ public class ProviderApiKeyDTO {
         dto.setProviderCode(apiKey.getProvider().getCode());
         dto.setName(apiKey.getName());
         dto.setStatus(apiKey.getStatus());
+        dto.setRpmLimit(apiKey.getRpmLimit());
         dto.setCreatedAt(apiKey.getCreatedAt());
         dto.setUpdatedAt(apiKey.getUpdatedAt());
         return dto;
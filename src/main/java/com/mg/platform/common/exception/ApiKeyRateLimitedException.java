@@ -0,0 +1,20 @@
+package com.mg.platform.common.exception;
+
+/**
+ * provider 有 ACTIVE key，但所有 key 的每分钟预算都已用完
+ */
+public class ApiKeyRateLimitedException extends NoActiveApiKeyException {
+    /**
+     * 最早恢复预算的 key 还需等待的秒数（用作 Retry-After）
+     */
+    private final long retryAfterSeconds;
+
+    public ApiKeyRateLimitedException(String message, long retryAfterSeconds) {
+        super(message, "API_KEY_RATE_LIMITED");
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -4,8 +4,12 @@ public class NoActiveApiKeyException extends RuntimeException {
     private final String errorCode;
 
     public NoActiveApiKeyException(String message) {
+        this(message, "NO_ACTIVE_API_KEY");
+    }
+
+    protected NoActiveApiKeyException(String message, String errorCode) {
         super(message);
-        this.errorCode = "NO_ACTIVE_API_KEY";
+        this.errorCode = errorCode;
     }
 
     public String getErrorCode() {
@@ -0,0 +1,30 @@
+package com.mg.platform.common.exception;
+
+/**
+ * 平台调用 provider 失败（超时 / 网络错误），或 provider 熔断中不可用
+ */
+public class ProviderCallException extends RuntimeException {
+    public static final String TIMEOUT = "PROVIDER_TIMEOUT";
+    public static final String UNAVAILABLE = "PROVIDER_UNAVAILABLE";
+    public static final String CIRCUIT_OPEN = "PROVIDER_CIRCUIT_OPEN";
+
+    private final String errorCode;
+
+    public ProviderCallException(String message, String errorCode) {
+        super(message);
+        this.errorCode = errorCode;
+    }
+
+    public ProviderCallException(String message, String errorCode, Throwable cause) {
+        super(message, cause);
+        this.errorCode = errorCode;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    public boolean isTimeout() {
+        return TIMEOUT.equals(errorCode);
+    }
+}
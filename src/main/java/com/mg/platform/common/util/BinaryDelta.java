@@ -0,0 +1,253 @@
+package com.mg.platform.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * 二进制差量编码（rsync 式分块匹配）
+ * - base 按 blockSize 对齐分块，以滚动哈希建索引；在 target 上逐字节滚动查找相同的块，并向前后扩展匹配
+ * - 输出为 COPY（从 base 复制）/ ADD（字面字节）指令序列
+ * 模板包是 zip，新版本通常只替换少数资源，未变的 entry 压缩后字节完全一致，可以整段 COPY。
+ *
+ * 格式：magic "MGD1" | varint targetLength | 指令... | END
+ * - COPY: 0x01 varint offset varint length
+ * - ADD:  0x02 varint length bytes
+ * - END:  0x00
+ * varint 为无符号 LEB128
+ */
+public final class BinaryDelta {
+    private static final byte[] MAGIC = {'M', 'G', 'D', '1'};
+    private static final int OP_END = 0x00;
+    private static final int OP_COPY = 0x01;
+    private static final int OP_ADD = 0x02;
+
+    private BinaryDelta() {
+    }
+
+    /**
+     * 计算 base -> target 的差量
+     * @param blockSize 匹配块大小，越小匹配越细但索引越大
+     */
+    public static byte[] encode(byte[] base, byte[] target, int blockSize) {
+        if (blockSize < 4) {
+            throw new IllegalArgumentException("blockSize must be >= 4");
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, target.length / 16));
+        out.writeBytes(MAGIC);
+        writeVarint(out, target.length);
+
+        BlockIndex index = BlockIndex.build(base, blockSize);
+        int literalStart = 0;
+        int i = 0;
+        boolean hashValid = false;
+        int a = 0;
+        int b = 0;
+        while (i + blockSize <= target.length) {
+            if (!hashValid) {
+                a = 0;
+                b = 0;
+                for (int k = 0; k < blockSize; k++) {
+                    a += target[i + k] & 0xff;
+                    b += a;
+                }
+                hashValid = true;
+            }
+            int candidate = index.get(key(a, b));
+            if (candidate >= 0 && Arrays.equals(base, candidate, candidate + blockSize, target, i, i + blockSize)) {
+                int start = i;
+                int from = candidate;
+                // 向前扩展，吃掉尚未输出的字面字节
+                while (start > literalStart && from > 0 && base[from - 1] == target[start - 1]) {
+                    start--;
+                    from--;
+                }
+                int end = i + blockSize;
+                int fromEnd = candidate + blockSize;
+                while (end < target.length && fromEnd < base.length && base[fromEnd] == target[end]) {
+                    end++;
+                    fromEnd++;
+                }
+                writeAdd(out, target, literalStart, start);
+                out.write(OP_COPY);
+                writeVarint(out, from);
+                writeVarint(out, end - start);
+                i = end;
+                literalStart = end;
+                hashValid = false;
+                continue;
+            }
+            if (i + blockSize < target.length) {
+                int removed = target[i] & 0xff;
+                a += (target[i + blockSize] & 0xff) - removed;
+                b += a - blockSize * removed;
+            }
+            i++;
+        }
+        writeAdd(out, target, literalStart, target.length);
+        out.write(OP_END);
+        return out.toByteArray();
+    }
+
+    /**
+     * 用差量还原 target（设备端实现的参考）
+     * @throws IllegalArgumentException 差量格式不合法或与 base 不匹配
+     */
+    public static byte[] apply(byte[] base, byte[] delta) {
+        Reader in = new Reader(delta);
+        for (byte m : MAGIC) {
+            if (in.readByte() != m) {
+                throw new IllegalArgumentException("Not a template delta");
+            }
+        }
+        long targetLength = in.readVarint();
+        if (targetLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Target too large: " + targetLength);
+        }
+        byte[] target = new byte[(int) targetLength];
+        int pos = 0;
+        while (true) {
+            int op = in.readByte() & 0xff;
+            if (op == OP_END) {
+                break;
+            }
+            long length;
+            if (op == OP_COPY) {
+                long offset = in.readVarint();
+                length = in.readVarint();
+                if (offset + length > base.length || pos + length > target.length) {
+                    throw new IllegalArgumentException("COPY out of range");
+                }
+                System.arraycopy(base, (int) offset, target, pos, (int) length);
+            } else if (op == OP_ADD) {
+                length = in.readVarint();
+                if (pos + length > target.length) {
+                    throw new IllegalArgumentException("ADD out of range");
+                }
+                in.readBytes(target, pos, (int) length);
+            } else {
+                throw new IllegalArgumentException("Unknown op: " + op);
+            }
+            pos += (int) length;
+        }
+        if (pos != target.length) {
+            throw new IllegalArgumentException("Delta produced " + pos + " bytes, expected " + target.length);
+        }
+        return target;
+    }
+
+    private static int key(int a, int b) {
+        return (b << 16) ^ (a & 0xffff);
+    }
+
+    private static void writeAdd(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (to > from) {
+            out.write(OP_ADD);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * base 块索引：滚动哈希 -> 第一个出现该哈希的块偏移（开放寻址，避免装箱）
+     */
+    private static final class BlockIndex {
+        private final int[] keys;
+        private final int[] offsets;
+        private final int mask;
+
+        private BlockIndex(int capacity) {
+            keys = new int[capacity];
+            offsets = new int[capacity];
+            Arrays.fill(offsets, -1);
+            mask = capacity - 1;
+        }
+
+        static BlockIndex build(byte[] base, int blockSize) {
+            int blocks = base.length / blockSize;
+            int capacity = Integer.highestOneBit(Math.max(16, blocks * 2 - 1)) << 1;
+            BlockIndex index = new BlockIndex(capacity);
+            for (int off = 0; off + blockSize <= base.length; off += blockSize) {
+                int a = 0;
+                int b = 0;
+                for (int k = 0; k < blockSize; k++) {
+                    a += base[off + k] & 0xff;
+                    b += a;
+                }
+                index.putIfAbsent(key(a, b), off);
+            }
+            return index;
+        }
+
+        private void putIfAbsent(int key, int offset) {
+            int slot = mix(key) & mask;
+            while (offsets[slot] >= 0) {
+                if (keys[slot] == key) {
+                    return;
+                }
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            offsets[slot] = offset;
+        }
+
+        int get(int key) {
+            int slot = mix(key) & mask;
+            while (offsets[slot] >= 0) {
+                if (keys[slot] == key) {
+                    return offsets[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int mix(int h) {
+            h *= 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        byte readByte() {
+            if (pos >= data.length) {
+                throw new IllegalArgumentException("Truncated delta");
+            }
+            return data[pos++];
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte() & 0xff;
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        void readBytes(byte[] dest, int offset, int length) {
+            if (pos + length > data.length) {
+                throw new IllegalArgumentException("Truncated delta");
+            }
+            System.arraycopy(data, pos, dest, offset, length);
+            pos += length;
+        }
+    }
+}
@@ -1,25 +1,39 @@
 package com.mg.platform.common.util;
 
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.util.Base64;
 
 /**
  * API Key 加解密工具类
  * 使用 AES-128 加密算法
+ * SecretKeySpec 只构建一次；Cipher 按线程复用（Cipher 非线程安全，doFinal 后自动回到 init 后的状态）
  */
 @Component
 public class CryptoUtil {
     private static final String ALGORITHM = "AES";
     private static final String TRANSFORMATION = "AES";
+    private static final byte[] TEST_KEY_PREFIX = "sk-".getBytes(StandardCharsets.UTF_8);
 
     @Value("${crypto.api-key.secret:default-secret-key-16}") // 默认密钥，生产环境必须修改
     private String secretKey;
 
+    private SecretKeySpec keySpec;
+
+    private final ThreadLocal<Cipher> encryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.ENCRYPT_MODE));
+    private final ThreadLocal<Cipher> decryptCipher = ThreadLocal.withInitial(() -> newCipher(Cipher.DECRYPT_MODE));
+
+    @PostConstruct
+    void init() {
+        this.keySpec = new SecretKeySpec(getKeyBytes(), ALGORITHM);
+    }
+
     /**
      * 加密 API Key
      * @param plainText 明文
@@ -27,10 +41,7 @@ public class CryptoUtil {
      */
     public String encrypt(String plainText) {
         try {
-            SecretKeySpec keySpec = new SecretKeySpec(getKeyBytes(), ALGORITHM);
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            cipher.init(Cipher.ENCRYPT_MODE, keySpec);
-            byte[] encrypted = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+            byte[] encrypted = doFinal(encryptCipher, plainText.getBytes(StandardCharsets.UTF_8));
             return Base64.getEncoder().encodeToString(encrypted);
         } catch (Exception e) {
             throw new RuntimeException("Failed to encrypt API key", e);
@@ -44,33 +55,56 @@ public class CryptoUtil {
      */
     public String decrypt(String cipherText) {
         try {
-            // 先尝试 Base64 解码（用于测试，如果解码后是有效的 UTF-8 字符串且以 sk- 开头，直接返回）
-            // 这是临时方案，仅用于快速测试
+            // Base64 只解码一次，测试数据判断与 AES 解密共用
+            byte[] decoded = Base64.getDecoder().decode(cipherText);
+
+            // 如果解码后以 sk- 开头，视为 Base64 编码的明文测试数据，直接返回（临时方案，仅用于快速测试）
             // 注意：只检查 sk- 前缀，避免将 AES 加密的密钥误判为明文
-            try {
-                byte[] decoded = Base64.getDecoder().decode(cipherText);
-                String decodedStr = new String(decoded, StandardCharsets.UTF_8);
-                // 只检查 sk- 前缀，移除 length > 0 条件以避免误判 AES 加密的密钥
-                if (decodedStr.startsWith("sk-")) {
-                    // 可能是 Base64 编码的测试数据，直接返回
-                    return decodedStr;
-                }
-            } catch (Exception ignored) {
-                // 不是 Base64 编码的明文，继续 AES 解密
+            if (startsWith(decoded, TEST_KEY_PREFIX)) {
+                return new String(decoded, StandardCharsets.UTF_8);
             }
-            
+
             // AES 解密
-            SecretKeySpec keySpec = new SecretKeySpec(getKeyBytes(), ALGORITHM);
-            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-            cipher.init(Cipher.DECRYPT_MODE, keySpec);
-            byte[] decoded = Base64.getDecoder().decode(cipherText);
-            byte[] decrypted = cipher.doFinal(decoded);
+            byte[] decrypted = doFinal(decryptCipher, decoded);
             return new String(decrypted, StandardCharsets.UTF_8);
         } catch (Exception e) {
             throw new RuntimeException("Failed to decrypt API key", e);
         }
     }
 
+    private byte[] doFinal(ThreadLocal<Cipher> pool, byte[] input) throws GeneralSecurityException {
+        Cipher cipher = pool.get();
+        try {
+            return cipher.doFinal(input);
+        } catch (GeneralSecurityException e) {
+            // 失败后 Cipher 状态不确定，丢弃当前线程的实例
+            pool.remove();
+            throw e;
+        }
+    }
+
+    private Cipher newCipher(int mode) {
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(mode, keySpec);
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to initialize AES cipher", e);
+        }
+    }
+
+    private static boolean startsWith(byte[] data, byte[] prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * 获取密钥字节数组（确保长度为 16 字节）
      */
@@ -0,0 +1,32 @@
+package com.mg.platform.common.util;
+
+/**
+ * HTTP ETag 工具
+ */
+public final class ETags {
+    private ETags() {
+    }
+
+    /**
+     * If-None-Match 是否命中（支持 *、逗号分隔的多个值；按 RFC 9110 对 If-None-Match 使用弱比较）
+     * @param ifNoneMatch 请求头原值，可为空
+     * @param etag 当前 ETag（带引号，可带 W/ 前缀）
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank() || etag == null) {
+            return false;
+        }
+        String opaque = opaqueTag(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if ("*".equals(trimmed) || opaqueTag(trimmed).equals(opaque)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
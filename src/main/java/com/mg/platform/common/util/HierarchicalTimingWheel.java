@@ -0,0 +1,131 @@
+package com.mg.platform.common.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮
+ * - 第 0 层每格一个 tick，第 l 层每格 wheelSize^l 个 tick；到期时间超出当前层范围的任务放入上层，
+ *   上层的格子轮到时再按剩余时间分配到下层（cascade）
+ * - 添加任务 O(1)，推进一个 tick 摊还 O(1)，与任务总数无关
+ * - 超出最上层范围的任务放在最上层最远的格子，到期时交给调用方，由调用方判断是否重新加入
+ * 非线程安全，调用方负责同步。
+ */
+public final class HierarchicalTimingWheel<T> {
+    private final long tickMillis;
+    private final int bits;
+    private final int mask;
+    private final int levels;
+    private final List<List<Timer<T>>> buckets;
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis 一个 tick 的毫秒数（到期精度）
+     * @param wheelSize 每层格子数，必须是 2 的幂
+     * @param levels 层数
+     * @param startMillis 起始时间
+     */
+    public HierarchicalTimingWheel(long tickMillis, int wheelSize, int levels, long startMillis) {
+        if (tickMillis <= 0 || wheelSize < 2 || Integer.bitCount(wheelSize) != 1 || levels < 1) {
+            throw new IllegalArgumentException("Invalid timing wheel configuration");
+        }
+        this.tickMillis = tickMillis;
+        this.bits = Integer.numberOfTrailingZeros(wheelSize);
+        this.mask = wheelSize - 1;
+        this.levels = levels;
+        this.buckets = new ArrayList<>(levels * wheelSize);
+        for (int i = 0; i < levels * wheelSize; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.currentTick = startMillis / tickMillis;
+    }
+
+    /**
+     * 添加任务；到期时间不晚于当前时间的任务在下一个 tick 到期
+     */
+    public void schedule(T item, long deadlineMillis) {
+        add(new Timer<>(item, Math.max(deadlineMillis / tickMillis, currentTick + 1)));
+        size++;
+    }
+
+    /**
+     * 推进到 nowMillis，依次交出到期的任务
+     * @return 到期的任务数
+     */
+    public int advance(long nowMillis, Consumer<T> expired) {
+        long targetTick = nowMillis / tickMillis;
+        int fired = 0;
+        while (currentTick < targetTick) {
+            currentTick++;
+            for (int level = 1; level < levels; level++) {
+                if ((currentTick & ((1L << (bits * level)) - 1)) != 0) {
+                    break;
+                }
+                cascade(level);
+            }
+            List<Timer<T>> due = bucket(0, currentTick);
+            if (due.isEmpty()) {
+                continue;
+            }
+            List<Timer<T>> timers = new ArrayList<>(due);
+            due.clear();
+            for (Timer<T> timer : timers) {
+                if (timer.tick > currentTick) {
+                    // 超出最上层范围的任务：重新分配
+                    add(timer);
+                    continue;
+                }
+                size--;
+                fired++;
+                expired.accept(timer.item);
+            }
+        }
+        return fired;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void cascade(int level) {
+        List<Timer<T>> bucket = bucket(level, currentTick >>> (bits * level));
+        if (bucket.isEmpty()) {
+            return;
+        }
+        List<Timer<T>> timers = new ArrayList<>(bucket);
+        bucket.clear();
+        for (Timer<T> timer : timers) {
+            add(timer);
+        }
+    }
+
+    private void add(Timer<T> timer) {
+        long delta = timer.tick - currentTick;
+        for (int level = 0; level < levels; level++) {
+            if (delta < (1L << (bits * (level + 1)))) {
+                bucket(level, timer.tick >>> (bits * level)).add(timer);
+                return;
+            }
+        }
+        // 超出范围：放在最上层最远的格子，轮到时重新分配
+        int top = levels - 1;
+        long farthest = currentTick + (1L << (bits * levels)) - 1;
+        bucket(top, farthest >>> (bits * top)).add(timer);
+    }
+
+    private List<Timer<T>> bucket(int level, long index) {
+        return buckets.get(level * (mask + 1) + (int) (index & mask));
+    }
+
+    private static final class Timer<T> {
+        private final T item;
+        private final long tick;
+
+        Timer(T item, long tick) {
+            this.item = item;
+            this.tick = tick;
+        }
+    }
+}
@@ -1,18 +1,35 @@
 package com.mg.platform.common.util;
 
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
+/**
+ * JWT 签发与校验
+ * - 签名 key 与 parser 在启动时构建一次（两者均线程安全）
+ * - 校验通过的 token 按 SHA-256 摘要缓存其 claims 直到过期，同一设备的重复请求不再重复验签；
+ *   缓存键是完整 token 的摘要，篡改过的 token 不会命中，内存中也不保存 token 原文
+ * - 缓存有上限：写入时先清理已过期的条目，仍然超过上限时淘汰最早过期的条目（按过期时间排序的堆，只在未命中时加锁）
+ */
 @Component
 public class JwtUtil {
     @Value("${jwt.secret}")
@@ -21,8 +38,27 @@ public class JwtUtil {
     @Value("${jwt.expiration}")
     private Long expiration;
 
-    private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+    /**
+     * 已校验 claims 缓存的最大条目数，应不小于同时在线的设备数（每台设备一个 token）加上后台用户数
+     */
+    @Value("${jwt.claims-cache.max-entries:100000}")
+    private int claimsCacheMaxEntries = 100000;
+
+    private SecretKey signingKey;
+    private JwtParser parser;
+    private final ConcurrentHashMap<String, VerifiedClaims> verifiedCache = new ConcurrentHashMap<>();
+
+    /**
+     * 缓存条目按过期时间排序，只在写入缓存时（持有自身的锁）访问；
+     * 命中路径上因过期被移除的条目留在堆中，到达堆顶时丢弃
+     */
+    private final PriorityQueue<CachedEntry> expiryOrder =
+            new PriorityQueue<>(Comparator.comparingLong(CachedEntry::expiresAtMillis));
+
+    @PostConstruct
+    public void init() {
+        signingKey = Keys.hmacShaKeyFor(secret.getBytes(StandardCharsets.UTF_8));
+        parser = Jwts.parser().verifyWith(signingKey).build();
     }
 
     public String generateToken(String email, String role, Long merchantId) {
@@ -40,24 +76,48 @@ public class JwtUtil {
                 .subject(subject)
                 .issuedAt(new Date(System.currentTimeMillis()))
                 .expiration(new Date(System.currentTimeMillis() + expiration))
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
 
+    /**
+     * 验签并解析 token（一次解析得到全部 claims），结果缓存到 token 过期
+     * @param token JWT token
+     * @return 不可变的 claims
+     * @throws io.jsonwebtoken.JwtException 签名无效、格式错误或已过期
+     */
+    public VerifiedClaims verify(String token) {
+        String digest = digest(token);
+        long now = System.currentTimeMillis();
+        VerifiedClaims cached = verifiedCache.get(digest);
+        if (cached != null) {
+            if (!cached.isExpired(now)) {
+                return cached;
+            }
+            verifiedCache.remove(digest, cached);
+        }
+
+        VerifiedClaims claims = VerifiedClaims.of(extractAllClaims(token));
+        if (!claims.isExpired(now)) {
+            cache(digest, claims, now);
+        }
+        return claims;
+    }
+
     public String extractEmail(String token) {
-        return extractClaim(token, Claims::getSubject);
+        return verify(token).getSubject();
     }
 
     public String extractRole(String token) {
-        return extractClaim(token, claims -> claims.get("role", String.class));
+        return verify(token).getRole();
     }
 
     public Long extractMerchantId(String token) {
-        return extractClaim(token, claims -> claims.get("merchantId", Long.class));
+        return verify(token).getMerchantId();
     }
 
     public Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
+        return new Date(verify(token).getExpiresAtMillis());
     }
 
     public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
@@ -66,20 +126,12 @@ public class JwtUtil {
     }
 
     private Claims extractAllClaims(String token) {
-        return Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
-    }
-
-    private Boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
+        return parser.parseSignedClaims(token).getPayload();
     }
 
     public Boolean validateToken(String token, String email) {
-        final String tokenEmail = extractEmail(token);
-        return (tokenEmail.equals(email) && !isTokenExpired(token));
+        final VerifiedClaims claims = verify(token);
+        return (claims.getSubject().equals(email) && !claims.isExpired(System.currentTimeMillis()));
     }
 
     /**
@@ -103,7 +155,7 @@ public class JwtUtil {
      * @return Device ID
      */
     public Long extractDeviceId(String token) {
-        return extractClaim(token, claims -> claims.get("deviceId", Long.class));
+        return verify(token).getDeviceId();
     }
 
     /**
@@ -112,7 +164,7 @@ public class JwtUtil {
      * @return Device type (should be "device")
      */
     public String extractDeviceType(String token) {
-        return extractClaim(token, claims -> claims.get("type", String.class));
+        return verify(token).getType();
     }
 
     /**
@@ -123,11 +175,97 @@ public class JwtUtil {
      */
     public Boolean validateDeviceToken(String token, Long deviceId) {
         try {
-            final Long tokenDeviceId = extractDeviceId(token);
-            final String type = extractDeviceType(token);
-            return ("device".equals(type) && tokenDeviceId != null && tokenDeviceId.equals(deviceId) && !isTokenExpired(token));
+            final VerifiedClaims claims = verify(token);
+            return ("device".equals(claims.getType()) && claims.getDeviceId() != null
+                    && claims.getDeviceId().equals(deviceId) && !claims.isExpired(System.currentTimeMillis()));
         } catch (Exception e) {
             return false;
         }
     }
+
+    /**
+     * 校验设备 token 并返回其中的设备 ID
+     * @param token JWT token
+     * @return 设备 ID；token 无效、已过期或不是设备 token 时返回 null
+     */
+    public Long verifyDeviceToken(String token) {
+        try {
+            final VerifiedClaims claims = verify(token);
+            if (!"device".equals(claims.getType()) || claims.isExpired(System.currentTimeMillis())) {
+                return null;
+            }
+            return claims.getDeviceId();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 当前缓存的已校验 token 数
+     */
+    public int cachedTokenCount() {
+        return verifiedCache.size();
+    }
+
+    private void cache(String digest, VerifiedClaims claims, long now) {
+        verifiedCache.put(digest, claims);
+        synchronized (expiryOrder) {
+            expiryOrder.add(new CachedEntry(claims.getExpiresAtMillis(), digest, claims));
+            while (!expiryOrder.isEmpty()) {
+                CachedEntry soonest = expiryOrder.peek();
+                boolean stale = verifiedCache.get(soonest.digest()) != soonest.claims();
+                if (!stale && !soonest.claims().isExpired(now) && verifiedCache.size() <= claimsCacheMaxEntries) {
+                    break;
+                }
+                // 已被替换 / 移除的条目直接丢弃；已过期或超过上限时淘汰最早过期的条目（只影响该 token 下一次请求多验签一次）
+                expiryOrder.poll();
+                if (!stale) {
+                    verifiedCache.remove(soonest.digest(), soonest.claims());
+                }
+            }
+        }
+    }
+
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * 一次解析得到的 token claims（不可变）
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class VerifiedClaims {
+        private final String subject;
+        private final String role;
+        private final Long merchantId;
+        private final Long deviceId;
+        // "device" 表示设备 token，用户 token 为 null
+        private final String type;
+        private final long expiresAtMillis;
+
+        static VerifiedClaims of(Claims claims) {
+            Date expiresAt = claims.getExpiration();
+            return new VerifiedClaims(
+                    claims.getSubject(),
+                    claims.get("role", String.class),
+                    claims.get("merchantId", Long.class),
+                    claims.get("deviceId", Long.class),
+                    claims.get("type", String.class),
+                    expiresAt != null ? expiresAt.getTime() : Long.MAX_VALUE
+            );
+        }
+
+        public boolean isExpired(long nowMillis) {
+            return expiresAtMillis <= nowMillis;
+        }
+    }
+
+    private record CachedEntry(long expiresAtMillis, String digest, VerifiedClaims claims) {
+    }
 }
@@ -0,0 +1,107 @@
+package com.mg.platform.common.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 只读叠加视图：overlay 中的键覆盖 base 中的同名键
+ * 不复制 base / overlay 的内容，只在构造时统计一次 size；
+ * 调用方需保证两者在视图使用期间不被修改。
+ */
+public final class OverlayMap<K, V> extends AbstractMap<K, V> {
+    private final Map<K, V> base;
+    private final Map<K, V> overlay;
+    private final int size;
+
+    private OverlayMap(Map<K, V> base, Map<K, V> overlay) {
+        this.base = base;
+        this.overlay = overlay;
+        int added = 0;
+        for (K key : overlay.keySet()) {
+            if (!base.containsKey(key)) {
+                added++;
+            }
+        }
+        this.size = base.size() + added;
+    }
+
+    /**
+     * 叠加两个 map；任一为空时直接返回另一个，不创建视图
+     */
+    public static <K, V> Map<K, V> of(Map<K, V> base, Map<K, V> overlay) {
+        if (overlay == null || overlay.isEmpty()) {
+            return base != null ? base : Map.of();
+        }
+        if (base == null || base.isEmpty()) {
+            return overlay;
+        }
+        return new OverlayMap<>(base, overlay);
+    }
+
+    @Override
+    public V get(Object key) {
+        return overlay.containsKey(key) ? overlay.get(key) : base.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return overlay.containsKey(key) || base.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * 先遍历 base（跳过被覆盖的键），再遍历 overlay
+     */
+    private final class EntryIterator implements Iterator<Entry<K, V>> {
+        private final Iterator<Entry<K, V>> baseIt = base.entrySet().iterator();
+        private final Iterator<Entry<K, V>> overlayIt = overlay.entrySet().iterator();
+        private Entry<K, V> next;
+
+        @Override
+        public boolean hasNext() {
+            while (next == null && baseIt.hasNext()) {
+                Entry<K, V> candidate = baseIt.next();
+                if (!overlay.containsKey(candidate.getKey())) {
+                    next = candidate;
+                }
+            }
+            return next != null || overlayIt.hasNext();
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next != null) {
+                Entry<K, V> result = next;
+                next = null;
+                return result;
+            }
+            return overlayIt.next();
+        }
+    }
+}
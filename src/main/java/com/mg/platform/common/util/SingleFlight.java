@@ -0,0 +1,91 @@
+package com.mg.platform.common.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 同 key 并发加载合并：同一时刻只有一个调用方（leader）执行 loader，
+ * 其余调用方等待 leader 的结果（最多等待 timeoutMs）。
+ * 只合并进行中的加载，不缓存结果；loader 抛出的异常会传给所有等待方。
+ */
+public final class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * 执行或加入同 key 的进行中加载
+     * @param key 合并键
+     * @param loader 加载逻辑（在 leader 线程上执行）
+     * @param timeoutMs 非 leader 最长等待时间
+     * @throws RuntimeException 等待超时或被中断
+     */
+    public V execute(K key, Supplier<V> loader, long timeoutMs) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            coalesced.increment();
+            return await(existing, timeoutMs);
+        }
+
+        executions.increment();
+        try {
+            V value = loader.get();
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private V await(CompletableFuture<V> future, long timeoutMs) {
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            timeouts.increment();
+            throw new RuntimeException("Timed out after " + timeoutMs + "ms waiting for in-flight load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for in-flight load", e);
+        }
+    }
+
+    /**
+     * 实际执行 loader 的次数
+     */
+    public long executions() {
+        return executions.sum();
+    }
+
+    /**
+     * 加入进行中加载（未执行 loader）的调用次数
+     */
+    public long coalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 等待超时次数
+     */
+    public long timeouts() {
+        return timeouts.sum();
+    }
+}
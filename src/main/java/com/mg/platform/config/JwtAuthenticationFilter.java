@@ -34,29 +34,29 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         try {
             final String jwt = authHeader.substring(7);
-            final String email = jwtUtil.extractEmail(jwt);
-            final String role = jwtUtil.extractRole(jwt);
+            // 一次验签解析得到全部 claims（过期 / 签名无效时抛出异常）
+            final JwtUtil.VerifiedClaims claims = jwtUtil.verify(jwt);
+            final String email = claims.getSubject();
+            final String role = claims.getRole();
 
             if (email != null && role != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                if (jwtUtil.validateToken(jwt, email)) {
-                    List<SimpleGrantedAuthority> authorities = Collections.singletonList(
-                            new SimpleGrantedAuthority("ROLE_" + role)
-                    );
+                List<SimpleGrantedAuthority> authorities = Collections.singletonList(
+                        new SimpleGrantedAuthority("ROLE_" + role)
+                );
 
-                    UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
-                            email,
-                            null,
-                            authorities
-                    );
-                    authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                    SecurityContextHolder.getContext().setAuthentication(authToken);
-                    logger.debug("Successfully authenticated user: {} with role: {}");
-                } else {
-                    logger.warn("Invalid token for user: {}");
+                UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
+                        email,
+                        null,
+                        authorities
+                );
+                authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                SecurityContextHolder.getContext().setAuthentication(authToken);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Successfully authenticated user: " + email + " with role: " + role);
                 }
             }
         } catch (Exception e) {
-            logger.error("Cannot set user authentication: {}");
+            logger.warn("Cannot set user authentication: " + e.getMessage());
             // 继续执行，让 Spring Security 处理未认证的请求
         }
 
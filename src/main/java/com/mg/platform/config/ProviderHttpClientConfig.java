@@ -0,0 +1,49 @@
+package com.mg.platform.config;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * proxy 模式调用 provider 使用的共享 HttpClient
+ * - 全局一个实例，连接由 HttpClient 内部连接池复用
+ * - 非阻塞 I/O（selector 线程），回调在专用的小线程池上执行
+ * - 线程池不注册为 Bean，避免影响 Spring Boot 默认的 applicationTaskExecutor
+ */
+@Configuration
+public class ProviderHttpClientConfig {
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+    private final ExecutorService executor;
+
+    public ProviderHttpClientConfig(@Value("${routing.proxy.io-threads:4}") int ioThreads) {
+        this.executor = Executors.newFixedThreadPool(ioThreads, r -> {
+            Thread thread = new Thread(r, "provider-http-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Bean
+    public HttpClient providerHttpClient(@Value("${routing.proxy.connect-timeout-ms:3000}") long connectTimeoutMs) {
+        return HttpClient.newBuilder()
+                // provider 请求体是流式上传的图片，不走 h2c 升级
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(executor)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
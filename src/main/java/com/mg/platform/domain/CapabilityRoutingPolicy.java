@@ -33,6 +33,9 @@ public class CapabilityRoutingPolicy extends BaseEntity {
     @Column(name = "prefer_providers_json", columnDefinition = "JSON")
     private String preferProvidersJson;
 
+    @Column(name = "traffic_split_json", columnDefinition = "JSON")
+    private String trafficSplitJson;
+
     @Column(name = "retry_count", nullable = false)
     private Integer retryCount = 0;
 
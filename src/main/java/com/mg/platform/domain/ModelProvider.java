@@ -7,7 +7,12 @@ import lombok.Getter;
 import lombok.Setter;
 
 @Entity
-@Table(name = "model_providers")
+@Table(
+    name = "model_providers",
+    indexes = {
+        @Index(name = "idx_model_providers_cost_tier", columnList = "cost_tier")
+    }
+)
 @Getter
 @Setter
 @JsonIgnoreProperties({"hibernateLazyInitializer", "handler"})
@@ -20,4 +25,10 @@ public class ModelProvider extends BaseEntity {
 
     @Column(nullable = false, length = 32)
     private String status = "ACTIVE";
+
+    /**
+     * 成本等级，数值越大越贵；NULL 表示未设置，不受 maxCostTier 限制
+     */
+    @Column(name = "cost_tier")
+    private Integer costTier;
 }
@@ -24,4 +24,10 @@ public class ProviderApiKey extends BaseEntity {
 
     @Column(nullable = false, length = 32)
     private String status = "ACTIVE";
+
+    /**
+     * 每分钟请求预算，NULL 表示使用默认配置
+     */
+    @Column(name = "rpm_limit")
+    private Integer rpmLimit;
 }
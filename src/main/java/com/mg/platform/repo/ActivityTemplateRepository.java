@@ -1,12 +1,14 @@
 package com.mg.platform.repo;
 
 import com.mg.platform.domain.ActivityTemplate;
+import com.mg.platform.repo.projection.DeviceTemplateRow;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -31,9 +33,85 @@ public interface ActivityTemplateRepository extends JpaRepository<ActivityTempla
            "ORDER BY at.sortOrder ASC")
     List<ActivityTemplate> findByActivityIdAndIsEnabledTrueWithDetails(@Param("activityId") Long activityId);
 
+    /**
+     * 设备端模板列表：一条查询完成权限校验（设备对活动有 ACTIVE 绑定）并投影出模板信息
+     * - 设备无权访问时返回空列表
+     * - 有权访问但活动没有绑定模板时返回一行 activityTemplateId 为空的记录
+     * 按 sortOrder 升序排序
+     */
+    @Query("SELECT new com.mg.platform.repo.projection.DeviceTemplateRow(" +
+           "at.id, at.isEnabled, at.createdAt, at.updatedAt, " +
+           "tv.version, tv.packageUrl, tv.checksum, tv.createdAt, tv.updatedAt, " +
+           "t.id, t.code, t.name, t.coverUrl, t.status, t.createdAt, t.updatedAt) " +
+           "FROM DeviceActivityAssignment da " +
+           "LEFT JOIN ActivityTemplate at ON at.activity.id = da.activity.id " +
+           "LEFT JOIN at.templateVersion tv " +
+           "LEFT JOIN tv.template t " +
+           "WHERE da.device.id = :deviceId AND da.activity.id = :activityId AND da.status = 'ACTIVE' " +
+           "ORDER BY at.sortOrder ASC, at.id ASC")
+    List<DeviceTemplateRow> findDeviceTemplateRows(@Param("deviceId") Long deviceId, @Param("activityId") Long activityId);
+
+    /**
+     * 活动当前绑定的模板版本 ID（不加载实体）
+     */
+    @Query("SELECT at.templateVersion.id FROM ActivityTemplate at WHERE at.activity.id = :activityId")
+    List<Long> findTemplateVersionIdsByActivityId(@Param("activityId") Long activityId);
+
+    /**
+     * 活动当前的模板绑定状态（标量投影，不加载实体），用于全量覆盖绑定时比较差异
+     * 返回每行：[template_version_id, sort_order, is_enabled]
+     */
+    @Query("SELECT at.templateVersion.id, at.sortOrder, at.isEnabled FROM ActivityTemplate at WHERE at.activity.id = :activityId")
+    List<Object[]> findBindingStatesByActivityId(@Param("activityId") Long activityId);
+
+    /**
+     * 查询活动在 since（含）之后新增或变化的模板绑定（绑定本身、模板版本或模板的 updated_at 任一变化）
+     * 使用 JOIN FETCH 避免 N+1 问题，按 sortOrder 升序排序
+     */
+    @Query("SELECT at FROM ActivityTemplate at " +
+           "JOIN FETCH at.templateVersion tv " +
+           "JOIN FETCH tv.template t " +
+           "WHERE at.activity.id = :activityId " +
+           "AND (at.updatedAt >= :since OR tv.updatedAt >= :since OR t.updatedAt >= :since) " +
+           "ORDER BY at.sortOrder ASC")
+    List<ActivityTemplate> findChangedSince(@Param("activityId") Long activityId, @Param("since") LocalDateTime since);
+
+    /**
+     * 删除活动的部分模板版本绑定
+     */
+    @Modifying
+    @Query("DELETE FROM ActivityTemplate at WHERE at.activity.id = :activityId AND at.templateVersion.id IN :templateVersionIds")
+    int deleteByActivityIdAndTemplateVersionIdIn(
+            @Param("activityId") Long activityId,
+            @Param("templateVersionIds") List<Long> templateVersionIds
+    );
+
+    /**
+     * 批量查询多个活动的模板绑定（含禁用的），使用 JOIN FETCH 一次取出版本与模板
+     * 按活动 ID、sortOrder 升序排序
+     */
+    @Query("SELECT at FROM ActivityTemplate at " +
+           "JOIN FETCH at.templateVersion tv " +
+           "JOIN FETCH tv.template t " +
+           "WHERE at.activity.id IN :activityIds " +
+           "ORDER BY at.activity.id ASC, at.sortOrder ASC")
+    List<ActivityTemplate> findByActivityIdInWithDetails(@Param("activityIds") List<Long> activityIds);
+
+    /**
+     * 同步清单 ETag 用：活动的所有模板绑定行（标量投影，不加载实体），按绑定 ID 排序
+     * 返回每行：[at.id, activity_id, template_version_id, tv.checksum, tv.packageUrl, at.isEnabled, at.sortOrder,
+     *           at.updatedAt, tv.updatedAt, t.updatedAt, t.status]
+     */
+    @Query("SELECT at.id, at.activity.id, tv.id, tv.checksum, tv.packageUrl, at.isEnabled, at.sortOrder, " +
+           "at.updatedAt, tv.updatedAt, t.updatedAt, t.status " +
+           "FROM ActivityTemplate at JOIN at.templateVersion tv JOIN tv.template t " +
+           "WHERE at.activity.id IN :activityIds ORDER BY at.id")
+    List<Object[]> findManifestFingerprintRows(@Param("activityIds") List<Long> activityIds);
+
     /**
      * 使用 INSERT ... ON DUPLICATE KEY UPDATE 语法插入或更新活动模板绑定
-     * 如果 (activity_id, template_version_id) 已存在，则更新 sort_order 和 is_enabled
+     * 如果 (activity_id, template_version_id) 已存在，则更新 sort_order 和 is_enabled；
+     * updated_at 由列定义的 ON UPDATE CURRENT_TIMESTAMP 维护，值未变化时保持不变（设备增量同步依赖此行为）
      * 
      * @param activityId 活动ID
      * @param templateId 模板ID
@@ -46,8 +124,7 @@ public interface ActivityTemplateRepository extends JpaRepository<ActivityTempla
                    "VALUES (:activityId, :templateId, :templateVersionId, :sortOrder, :isEnabled, NOW(), NOW()) " +
                    "ON DUPLICATE KEY UPDATE " +
                    "sort_order = VALUES(sort_order), " +
-                   "is_enabled = VALUES(is_enabled), " +
-                   "updated_at = NOW()",
+                   "is_enabled = VALUES(is_enabled)",
            nativeQuery = true)
     void insertOrUpdateActivityTemplate(
             @Param("activityId") Long activityId,
@@ -0,0 +1,47 @@
+package com.mg.platform.repo;
+
+import com.mg.platform.domain.ActivityTemplateTombstone;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ActivityTemplateTombstoneRepository extends JpaRepository<ActivityTemplateTombstone, Long> {
+    /**
+     * 查询活动在 since（含）之后删除的绑定，使用 JOIN FETCH 一次取出版本与模板
+     */
+    @Query("SELECT tb FROM ActivityTemplateTombstone tb " +
+           "JOIN FETCH tb.templateVersion tv " +
+           "JOIN FETCH tv.template t " +
+           "WHERE tb.activity.id = :activityId AND tb.deletedAt >= :since " +
+           "ORDER BY tb.deletedAt ASC")
+    List<ActivityTemplateTombstone> findByActivityIdDeletedSince(
+            @Param("activityId") Long activityId,
+            @Param("since") LocalDateTime since
+    );
+
+    /**
+     * 在删除绑定之前为其写入墓碑（templateVersionIds 为空时不会匹配任何行）
+     */
+    @Modifying
+    @Query(value = "INSERT INTO activity_template_tombstones (activity_id, template_id, template_version_id, deleted_at) " +
+                   "SELECT activity_id, template_id, template_version_id, NOW() FROM activity_templates " +
+                   "WHERE activity_id = :activityId AND template_version_id IN (:templateVersionIds)",
+           nativeQuery = true)
+    int recordRemovals(
+            @Param("activityId") Long activityId,
+            @Param("templateVersionIds") List<Long> templateVersionIds
+    );
+
+    /**
+     * 清理 before 之前的墓碑
+     */
+    @Modifying
+    @Query("DELETE FROM ActivityTemplateTombstone tb WHERE tb.deletedAt < :before")
+    int deleteByDeletedAtBefore(@Param("before") LocalDateTime before);
+}
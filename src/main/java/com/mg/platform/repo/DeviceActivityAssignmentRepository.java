@@ -1,9 +1,13 @@
 package com.mg.platform.repo;
 
+import com.mg.platform.domain.Activity;
 import com.mg.platform.domain.DeviceActivityAssignment;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
 
 @Repository
@@ -13,4 +17,34 @@ public interface DeviceActivityAssignmentRepository extends JpaRepository<Device
     List<DeviceActivityAssignment> findByActivityId(Long activityId);
     List<DeviceActivityAssignment> findByActivityIdAndStatus(Long activityId, String status);
     java.util.Optional<DeviceActivityAssignment> findByActivityIdAndDeviceId(Long activityId, Long deviceId);
+
+    /**
+     * 活动当前绑定（指定状态）的设备 ID，不加载设备实体
+     */
+    @Query("SELECT da.device.id FROM DeviceActivityAssignment da WHERE da.activity.id = :activityId AND da.status = :status")
+    List<Long> findDeviceIdsByActivityIdAndStatus(@Param("activityId") Long activityId, @Param("status") String status);
+
+    /**
+     * 设备是否绑定（ACTIVE）到活动：与 ActivityTemplateRepository.findDeviceTemplateRows 相同的访问条件，
+     * 走 idx_daa_device_status，不加载设备和绑定实体
+     */
+    @Query("SELECT COUNT(da) > 0 FROM DeviceActivityAssignment da " +
+           "WHERE da.device.id = :deviceId AND da.activity.id = :activityId AND da.status = 'ACTIVE'")
+    boolean existsActiveAssignment(@Param("deviceId") Long deviceId, @Param("activityId") Long activityId);
+
+    /**
+     * 设备当前绑定（ACTIVE）且状态为 ACTIVE、时间窗与 [earliestLocalNow, latestLocalNow] 有交集的活动及其商家时区，按活动 ID 升序
+     * 返回 [Activity, merchants.timezone]；start_at / end_at 为商家本地时间，
+     * 调用方传入所有时区下"当前本地时间"的上下界，数据库侧裁掉窗口外的行，精确判断由调用方按商家时区完成
+     */
+    @Query("SELECT a, m.timezone FROM DeviceActivityAssignment da JOIN da.activity a JOIN a.merchant m " +
+           "WHERE da.device.id = :deviceId AND da.status = 'ACTIVE' AND a.status = 'ACTIVE' " +
+           "AND (a.startAt IS NULL OR a.startAt <= :latestLocalNow) " +
+           "AND (a.endAt IS NULL OR a.endAt >= :earliestLocalNow) " +
+           "ORDER BY a.id ASC")
+    List<Object[]> findActiveActivitiesInWindow(
+            @Param("deviceId") Long deviceId,
+            @Param("earliestLocalNow") LocalDateTime earliestLocalNow,
+            @Param("latestLocalNow") LocalDateTime latestLocalNow
+    );
 }
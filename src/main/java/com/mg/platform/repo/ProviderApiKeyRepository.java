@@ -10,5 +10,6 @@ import java.util.Optional;
 @Repository
 public interface ProviderApiKeyRepository extends JpaRepository<ProviderApiKey, Long> {
     List<ProviderApiKey> findByProviderIdAndStatus(Long providerId, String status);
+    List<ProviderApiKey> findByStatus(String status);
     Optional<ProviderApiKey> findFirstByProviderIdAndStatusOrderByCreatedAtDesc(Long providerId, String status);
 }
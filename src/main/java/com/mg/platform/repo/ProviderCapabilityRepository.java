@@ -2,6 +2,8 @@ package com.mg.platform.repo;
 
 import com.mg.platform.domain.ProviderCapability;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -12,4 +14,10 @@ public interface ProviderCapabilityRepository extends JpaRepository<ProviderCapa
     List<ProviderCapability> findByCapabilityAndStatusOrderByPriorityAsc(String capability, String status);
     List<ProviderCapability> findByProviderId(Long providerId);
     Optional<ProviderCapability> findByProviderIdAndCapability(Long providerId, String capability);
+
+    /**
+     * 按状态查询所有 capability，使用 JOIN FETCH 一次性加载 provider（用于构建路由快照）
+     */
+    @Query("SELECT c FROM ProviderCapability c JOIN FETCH c.provider WHERE c.status = :status")
+    List<ProviderCapability> findByStatusWithProvider(@Param("status") String status);
 }
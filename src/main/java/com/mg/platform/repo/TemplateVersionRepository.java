@@ -2,6 +2,7 @@ package com.mg.platform.repo;
 
 import com.mg.platform.domain.TemplateVersion;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -12,4 +13,12 @@ public interface TemplateVersionRepository extends JpaRepository<TemplateVersion
     List<TemplateVersion> findByTemplateIdAndStatus(Long templateId, String status);
     Optional<TemplateVersion> findByTemplateIdAndVersion(Long templateId, String version);
     List<TemplateVersion> findByTemplateIdOrderByIdDesc(Long templateId);
+
+    /**
+     * 所有已登记 checksum 的包：[packageUrl, checksum]，按 id 升序（同一文件以最新版本为准）
+     * 启动时加载一次，供包下载使用，下载路径不再查库
+     */
+    @Query("SELECT tv.packageUrl, tv.checksum FROM TemplateVersion tv " +
+           "WHERE tv.packageUrl IS NOT NULL AND tv.checksum IS NOT NULL ORDER BY tv.id")
+    List<Object[]> findPackageChecksums();
 }
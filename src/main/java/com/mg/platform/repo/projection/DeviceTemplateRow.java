@@ -0,0 +1,48 @@
+package com.mg.platform.repo.projection;
+
+import com.mg.platform.domain.ActivityTemplate;
+import com.mg.platform.domain.Template;
+import com.mg.platform.domain.TemplateVersion;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * 设备端模板列表的一行（activity_templates + template_versions + templates 的投影）
+ * 由 JPQL 构造表达式直接生成，不加载实体；activityTemplateId 为空表示设备有权访问但活动没有绑定模板
+ */
+@Getter
+@AllArgsConstructor
+public class DeviceTemplateRow {
+    private Long activityTemplateId;
+    private Boolean enabled;
+    private LocalDateTime bindingCreatedAt;
+    private LocalDateTime bindingUpdatedAt;
+
+    private String version;
+    private String packageUrl;
+    private String checksum;
+    private LocalDateTime versionCreatedAt;
+    private LocalDateTime versionUpdatedAt;
+
+    private Long templateId;
+    private String templateCode;
+    private String templateName;
+    private String coverUrl;
+    private String templateStatus;
+    private LocalDateTime templateCreatedAt;
+    private LocalDateTime templateUpdatedAt;
+
+    /**
+     * 从已加载的实体构造（实体已通过 JOIN FETCH 取出时使用）
+     */
+    public static DeviceTemplateRow of(ActivityTemplate at) {
+        TemplateVersion tv = at.getTemplateVersion();
+        Template t = tv.getTemplate();
+        return new DeviceTemplateRow(
+                at.getId(), at.getIsEnabled(), at.getCreatedAt(), at.getUpdatedAt(),
+                tv.getVersion(), tv.getPackageUrl(), tv.getChecksum(), tv.getCreatedAt(), tv.getUpdatedAt(),
+                t.getId(), t.getCode(), t.getName(), t.getCoverUrl(), t.getStatus(), t.getCreatedAt(), t.getUpdatedAt());
+    }
+}
@@ -4,10 +4,12 @@ import com.mg.platform.domain.Template;
 import com.mg.platform.domain.TemplateVersion;
 import com.mg.platform.repo.TemplateRepository;
 import com.mg.platform.repo.TemplateVersionRepository;
+import com.mg.platform.service.device.TemplatePackageStore;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
 import java.util.List;
 
 @Service
@@ -15,6 +17,7 @@ import java.util.List;
 public class AdminService {
     private final TemplateRepository templateRepository;
     private final TemplateVersionRepository templateVersionRepository;
+    private final TemplatePackageStore packageStore;
 
     public List<Template> getAllTemplates() {
         return templateRepository.findAll();
@@ -40,10 +43,27 @@ public class AdminService {
         version.setTemplate(template);
         version.setVersion(request.getVersion());
         version.setPackageUrl(request.getPackageUrl());
-        version.setChecksum(request.getChecksum());
+        version.setChecksum(resolveChecksum(request));
         version.setManifestJson(request.getManifestJson());
         version.setStatus("ACTIVE");
-        return templateVersionRepository.save(version);
+        TemplateVersion saved = templateVersionRepository.save(version);
+        // 登记到包下载的 ETag 表，下载路径不再查库或计算摘要
+        packageStore.recordChecksum(saved.getPackageUrl(), saved.getChecksum());
+        return saved;
+    }
+
+    /**
+     * 请求未提供 checksum 时，按包文件计算 SHA-256（文件不在本机包目录时保持为空）
+     */
+    private String resolveChecksum(CreateVersionRequest request) {
+        if (request.getChecksum() != null && !request.getChecksum().isBlank()) {
+            return request.getChecksum();
+        }
+        try {
+            return packageStore.computeChecksum(request.getPackageUrl()).orElse(null);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read template package: " + e.getMessage(), e);
+        }
     }
 
     public List<TemplateVersion> listTemplateVersions(Long templateId) {
@@ -1,30 +1,57 @@
 package com.mg.platform.service;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.mg.platform.common.util.ETags;
 import com.mg.platform.common.util.JwtUtil;
 import com.mg.platform.domain.Activity;
 import com.mg.platform.domain.ActivityTemplate;
+import com.mg.platform.domain.ActivityTemplateTombstone;
 import com.mg.platform.domain.Device;
-import com.mg.platform.domain.DeviceActivityAssignment;
 import com.mg.platform.domain.Template;
 import com.mg.platform.domain.TemplateVersion;
 import com.mg.platform.repo.*;
+import com.mg.platform.repo.projection.DeviceTemplateRow;
+import com.mg.platform.service.device.DeviceHeartbeatAggregator;
+import com.mg.platform.service.device.DevicePresenceIndex;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.DateTimeException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
+@Slf4j
 @Service
 @RequiredArgsConstructor
 public class DeviceService {
+    /**
+     * 数据库时间戳的时区：Hibernate 按 JVM 默认时区读写 LocalDateTime
+     */
+    private static final ZoneId DB_ZONE = ZoneId.systemDefault();
+
     private final DeviceRepository deviceRepository;
     private final DeviceActivityAssignmentRepository assignmentRepository;
     private final ActivityRepository activityRepository;
@@ -32,95 +59,296 @@ public class DeviceService {
     private final TemplateRepository templateRepository;
     private final TemplateVersionRepository templateVersionRepository;
     private final JwtUtil jwtUtil;
+    private final DeviceHeartbeatAggregator heartbeatAggregator;
+    private final ActivityTemplateTombstoneRepository tombstoneRepository;
+    private final DevicePresenceIndex presenceIndex;
 
     @Value("${jwt.expiration}")
     private Long jwtExpiration;
 
+    /**
+     * 模板绑定墓碑保留天数；增量同步的 since 早于此范围时返回全量
+     */
+    @Value("${device.sync.tombstone-retention-days:30}")
+    private int tombstoneRetentionDays = 30;
+
+    /**
+     * 增量同步 cursor 的安全窗口：cursor 不超过 now - 此值，
+     * 避免 updated_at 较早、但提交较晚的事务写入的行落在 cursor 之前而被跳过
+     */
+    @Value("${device.sync.cursor-safety-window-ms:5000}")
+    private long cursorSafetyWindowMs = 5000;
+
+    /**
+     * 设备当前生效的活动（ACTIVE 绑定、ACTIVE 状态、处于开始 / 结束时间之间），按活动 ID 升序
+     */
+    @Transactional(readOnly = true)
     public List<Activity> getDeviceActivities(Long deviceId) {
-        List<DeviceActivityAssignment> assignments = assignmentRepository.findByDeviceIdAndStatus(deviceId, "ACTIVE");
-        List<Long> activityIds = assignments.stream()
-                .map(a -> a.getActivity().getId())
-                .collect(Collectors.toList());
+        return findActivitiesInWindow(deviceId, Instant.now());
+    }
+
+    /**
+     * 一条查询联结 assignments 与 activities（按 idx_daa_device_status 取设备的 ACTIVE 绑定）。
+     * start_at / end_at 是商家时区下的本地时间：数据库侧先按所有时区的"当前本地时间"范围
+     * （UTC-12 ~ UTC+14）裁掉不可能生效的活动，再按商家时区精确判断。
+     */
+    private List<Activity> findActivitiesInWindow(Long deviceId, Instant now) {
+        LocalDateTime utcNow = LocalDateTime.ofInstant(now, ZoneOffset.UTC);
+        List<Object[]> rows = assignmentRepository.findActiveActivitiesInWindow(
+                deviceId, utcNow.minusHours(12), utcNow.plusHours(14));
+
+        List<Activity> activities = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            Activity activity = (Activity) row[0];
+            LocalDateTime merchantNow = LocalDateTime.ofInstant(now, merchantZone((String) row[1]));
+            if (isInWindow(activity, merchantNow)) {
+                activities.add(activity);
+            }
+        }
+        return activities;
+    }
+
+    private static boolean isInWindow(Activity a, LocalDateTime now) {
+        return (a.getStartAt() == null || !a.getStartAt().isAfter(now))
+                && (a.getEndAt() == null || !a.getEndAt().isBefore(now));
+    }
+
+    /**
+     * 商家时区；为空或无法识别时退回服务器时区
+     */
+    private static ZoneId merchantZone(String timezone) {
+        if (timezone != null && !timezone.isBlank()) {
+            try {
+                return ZoneId.of(timezone);
+            } catch (DateTimeException e) {
+                log.warn("Unknown merchant timezone '{}', using server timezone", timezone);
+            }
+        }
+        return ZoneId.systemDefault();
+    }
+
+    /**
+     * 设备同步清单：当前生效的活动及其绑定的模板版本（一次请求代替 activities + 每个活动的 templates）
+     * ETag 是清单实际内容（生效活动、每个模板绑定的 ID / 版本 ID / checksum / 启用状态及各行 updated_at）的摘要，
+     * 计算时只执行两条查询（绑定行为标量投影，不加载实体）；ifNoneMatch 命中时不加载模板，返回的 manifest 为 null
+     * @param deviceId 设备 ID
+     * @param ifNoneMatch If-None-Match 请求头，可为空
+     */
+    @Transactional(readOnly = true)
+    public SyncManifestResult getSyncManifest(Long deviceId, String ifNoneMatch) {
+        List<Activity> activities = findActivitiesInWindow(deviceId, Instant.now());
+        List<Long> activityIds = activities.stream().map(Activity::getId).collect(Collectors.toList());
+
+        String etag = syncManifestEtag(activities, activityIds);
+        if (ETags.matches(ifNoneMatch, etag)) {
+            return new SyncManifestResult(etag, null);
+        }
+
+        Map<Long, List<TemplateInfo>> templatesByActivity = new HashMap<>();
+        if (!activityIds.isEmpty()) {
+            for (ActivityTemplate at : activityTemplateRepository.findByActivityIdInWithDetails(activityIds)) {
+                if ("ACTIVE".equals(at.getTemplateVersion().getTemplate().getStatus())) {
+                    templatesByActivity.computeIfAbsent(at.getActivity().getId(), k -> new ArrayList<>())
+                            .add(toTemplateInfo(at));
+                }
+            }
+        }
 
-        List<Activity> activities = activityRepository.findAllById(activityIds);
-        LocalDateTime now = LocalDateTime.now();
-        return activities.stream()
-                .filter(a -> "ACTIVE".equals(a.getStatus()))
-                .filter(a -> a.getStartAt() == null || a.getStartAt().isBefore(now) || a.getStartAt().isEqual(now))
-                .filter(a -> a.getEndAt() == null || a.getEndAt().isAfter(now) || a.getEndAt().isEqual(now))
+        List<SyncActivity> syncActivities = activities.stream()
+                .map(a -> new SyncActivity(a.getId(), a.getName(), a.getStatus(), a.getStartAt(), a.getEndAt(),
+                        templatesByActivity.getOrDefault(a.getId(), List.of())))
                 .collect(Collectors.toList());
+        String generatedAt = ZonedDateTime.now(ZoneOffset.UTC).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+        return new SyncManifestResult(etag, new SyncManifest(etag, generatedAt, syncActivities));
+    }
+
+    /**
+     * 强 ETag：清单各行内容的 SHA-256（取前 128 位）
+     * 逐行摘要覆盖只改变 ID / 版本 / checksum 而不改变最大 updated_at 的变化（如改绑到更早更新过的版本、删除绑定）
+     */
+    private String syncManifestEtag(List<Activity> activities, List<Long> activityIds) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        StringBuilder line = new StringBuilder(128);
+        for (Activity a : activities) {
+            line.setLength(0);
+            line.append('A').append(a.getId()).append('|').append(a.getName()).append('|').append(a.getStatus())
+                    .append('|').append(a.getStartAt()).append('|').append(a.getEndAt())
+                    .append('|').append(a.getUpdatedAt()).append('\n');
+            digest.update(line.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (!activityIds.isEmpty()) {
+            for (Object[] row : activityTemplateRepository.findManifestFingerprintRows(activityIds)) {
+                line.setLength(0);
+                line.append('T');
+                for (Object column : row) {
+                    line.append(column).append('|');
+                }
+                line.append('\n');
+                digest.update(line.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return "\"" + HexFormat.of().formatHex(digest.digest(), 0, 16) + "\"";
     }
 
     @Transactional(readOnly = true)
     public List<TemplateInfo> getActivityTemplates(Long deviceId, Long activityId) {
-        // 验证设备是否有权限访问该活动
-        Device device = deviceRepository.findById(deviceId)
-                .orElseThrow(() -> new RuntimeException("Device not found"));
+        // 一条查询：验证设备是否有权限访问该活动，并投影出活动的模板（已绑定到具体 TemplateVersion）
+        // 查询所有 activity_templates，返回 enabled 字段
+        List<DeviceTemplateRow> rows = activityTemplateRepository.findDeviceTemplateRows(deviceId, activityId);
+        if (rows.isEmpty()) {
+            throw new RuntimeException("Device does not have access to this activity");
+        }
+
+        return rows.stream()
+                .filter(row -> row.getActivityTemplateId() != null)
+                .filter(row -> "ACTIVE".equals(row.getTemplateStatus()))
+                .map(this::toTemplateInfo)
+                .collect(Collectors.toList());
+    }
 
-        List<DeviceActivityAssignment> assignments = assignmentRepository.findByDeviceIdAndStatus(deviceId, "ACTIVE");
-        boolean hasAccess = assignments.stream()
-                .anyMatch(a -> a.getActivity().getId().equals(activityId));
+    /**
+     * 增量同步：返回 since（含）之后新增 / 变化的模板绑定以及被删除的绑定（墓碑）
+     * - since 为上一次响应的 cursor（ISO8601），设备按 changed 覆盖、按 removed 删除本地模板
+     * - cursor 取本次涉及行的最大时间戳，但不超过 now - 安全窗口（仍在提交中的事务可能写入更早的时间戳）；
+     *   边界及安全窗口内的行可能被重复下发（覆盖是幂等的）
+     * - 数据库时间戳（Hibernate 读写的 LocalDateTime、CURRENT_TIMESTAMP / NOW() 写入的列）都是 JVM 时区的本地时间，
+     *   now、cursor 的解析与格式化、墓碑清理都使用同一时区（DB_ZONE），不混用 UTC
+     * - since 早于墓碑保留期时无法保证删除项完整，返回全量（full = true），设备应以其替换本地列表
+     */
+    @Transactional(readOnly = true)
+    public TemplateDelta getActivityTemplateChanges(Long deviceId, Long activityId, String since) {
+        checkActivityAccess(deviceId, activityId);
+        LocalDateTime cursor = parseCursor(since);
+        LocalDateTime now = LocalDateTime.now(DB_ZONE);
+        LocalDateTime horizon = now.minusDays(tombstoneRetentionDays);
 
-        if (!hasAccess) {
-            throw new RuntimeException("Device does not have access to this activity");
+        boolean full = cursor.isBefore(horizon);
+        List<ActivityTemplate> changedBindings = full
+                ? activityTemplateRepository.findByActivityIdInWithDetails(List.of(activityId))
+                : activityTemplateRepository.findChangedSince(activityId, cursor);
+        LocalDateTime nextCursor = full ? horizon : cursor;
+
+        List<TemplateInfo> changed = new ArrayList<>();
+        List<RemovedTemplate> removed = new ArrayList<>();
+        for (ActivityTemplate at : changedBindings) {
+            TemplateVersion tv = at.getTemplateVersion();
+            Template t = tv.getTemplate();
+            nextCursor = latest(nextCursor, at.getUpdatedAt(), tv.getUpdatedAt(), t.getUpdatedAt());
+            if ("ACTIVE".equals(t.getStatus())) {
+                changed.add(toTemplateInfo(at));
+            } else if (!full) {
+                // 模板被停用：与全量接口一致不再下发，按删除处理
+                removed.add(new RemovedTemplate(t.getId(), t.getCode(), tv.getVersion(), toIso(t.getUpdatedAt())));
+            }
         }
 
-        // 获取活动的模板（已绑定到具体 TemplateVersion）
-        // 查询所有 activity_templates，返回 enabled 字段
-        List<ActivityTemplate> activityTemplates =
-                activityTemplateRepository.findByActivityId(activityId);
-
-        return activityTemplates.stream()
-                .filter(at -> "ACTIVE".equals(at.getTemplate().getStatus()))
-                .map(at -> {
-                    // 直接从 ActivityTemplate 获取绑定的 TemplateVersion
-                    TemplateVersion tv = at.getTemplateVersion();
+        if (!full) {
+            Set<Long> boundVersionIds = new HashSet<>(activityTemplateRepository.findTemplateVersionIdsByActivityId(activityId));
+            for (ActivityTemplateTombstone tombstone : tombstoneRepository.findByActivityIdDeletedSince(activityId, cursor)) {
+                nextCursor = latest(nextCursor, tombstone.getDeletedAt());
+                TemplateVersion tv = tombstone.getTemplateVersion();
+                // 删除后又重新绑定的版本以当前绑定为准
+                if (!boundVersionIds.contains(tv.getId())) {
                     Template t = tv.getTemplate();
+                    removed.add(new RemovedTemplate(t.getId(), t.getCode(), tv.getVersion(), toIso(tombstone.getDeletedAt())));
+                }
+            }
+        }
 
-                    // 验证 Template.code 非空（设备端输出必需）
-                    String templateCode = t.getCode();
-                    if (templateCode == null || templateCode.isBlank()) {
-                        throw new RuntimeException(
-                                String.format("Template.code is required for device output. Template ID: %d", t.getId()));
-                    }
-
-                    // 获取 updatedAt：优先级 tv.updatedAt > tv.createdAt > at.updatedAt > at.createdAt > t.updatedAt > t.createdAt
-                    LocalDateTime updatedAt = null;
-                    if (tv.getUpdatedAt() != null) {
-                        updatedAt = tv.getUpdatedAt();
-                    } else if (tv.getCreatedAt() != null) {
-                        updatedAt = tv.getCreatedAt();
-                    } else if (at.getUpdatedAt() != null) {
-                        updatedAt = at.getUpdatedAt();
-                    } else if (at.getCreatedAt() != null) {
-                        updatedAt = at.getCreatedAt();
-                    } else if (t.getUpdatedAt() != null) {
-                        updatedAt = t.getUpdatedAt();
-                    } else if (t.getCreatedAt() != null) {
-                        updatedAt = t.getCreatedAt();
-                    }
-
-                    // 转换为 ISO8601 格式（UTC）
-                    String updatedAtStr = null;
-                    if (updatedAt != null) {
-                        ZonedDateTime zonedDateTime = updatedAt.atZone(ZoneOffset.UTC);
-                        updatedAtStr = zonedDateTime.format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
-                    }
-
-                    return new TemplateInfo(
-                            t.getId(),                     // templateId (deprecated, kept for compatibility)
-                            templateCode,                 // templateCode (new: from Template.code)
-                            t.getName(),                  // name
-                            t.getCoverUrl(),              // coverUrl
-                            tv.getVersion(),              // version (deprecated, kept for compatibility)
-                            tv.getVersion(),              // versionSemver (new: from TemplateVersion.version)
-                            tv.getPackageUrl(),           // downloadUrl
-                            tv.getChecksum(),             // checksumSha256 (renamed from checksum)
-                            at.getIsEnabled(),            // enabled (from activity_templates.is_enabled)
-                            updatedAtStr                  // updatedAt (ISO8601 UTC)
-                    );
-                })
-                .collect(Collectors.toList());
+        LocalDateTime safeCursor = now.minusNanos(cursorSafetyWindowMs * 1_000_000L);
+        if (nextCursor.isAfter(safeCursor)) {
+            nextCursor = safeCursor;
+        }
+        return new TemplateDelta(full, toIso(nextCursor), changed, removed);
+    }
+
+    /**
+     * 定时清理超过保留期的模板绑定墓碑
+     */
+    @Scheduled(cron = "${device.sync.tombstone-purge-cron:0 30 3 * * *}")
+    @Transactional
+    public void purgeTemplateTombstones() {
+        tombstoneRepository.deleteByDeletedAtBefore(LocalDateTime.now(DB_ZONE).minusDays(tombstoneRetentionDays));
+    }
+
+    private void checkActivityAccess(Long deviceId, Long activityId) {
+        if (!assignmentRepository.existsActiveAssignment(deviceId, activityId)) {
+            throw new RuntimeException("Device does not have access to this activity");
+        }
+    }
+
+    private static LocalDateTime parseCursor(String since) {
+        try {
+            return OffsetDateTime.parse(since).atZoneSameInstant(DB_ZONE).toLocalDateTime();
+        } catch (DateTimeParseException | NullPointerException e) {
+            throw new RuntimeException("Invalid since cursor, expected ISO8601 with offset: " + since);
+        }
+    }
+
+    private static LocalDateTime latest(LocalDateTime current, LocalDateTime... candidates) {
+        LocalDateTime result = current;
+        for (LocalDateTime candidate : candidates) {
+            if (candidate != null && candidate.isAfter(result)) {
+                result = candidate;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 数据库时间戳（DB_ZONE 本地时间）格式化为带偏移的 ISO8601
+     */
+    private static String toIso(LocalDateTime time) {
+        return time != null ? time.atZone(DB_ZONE).format(DateTimeFormatter.ISO_OFFSET_DATE_TIME) : null;
+    }
+
+    private TemplateInfo toTemplateInfo(ActivityTemplate at) {
+        return toTemplateInfo(DeviceTemplateRow.of(at));
+    }
+
+    private TemplateInfo toTemplateInfo(DeviceTemplateRow row) {
+        // 验证 Template.code 非空（设备端输出必需）
+        String templateCode = row.getTemplateCode();
+        if (templateCode == null || templateCode.isBlank()) {
+            throw new RuntimeException(
+                    String.format("Template.code is required for device output. Template ID: %d", row.getTemplateId()));
+        }
+
+        // 获取 updatedAt：优先级 tv.updatedAt > tv.createdAt > at.updatedAt > at.createdAt > t.updatedAt > t.createdAt
+        LocalDateTime updatedAt = firstNonNull(
+                row.getVersionUpdatedAt(), row.getVersionCreatedAt(),
+                row.getBindingUpdatedAt(), row.getBindingCreatedAt(),
+                row.getTemplateUpdatedAt(), row.getTemplateCreatedAt());
+
+        // 转换为 ISO8601 格式（带数据库时区偏移）
+        String updatedAtStr = toIso(updatedAt);
+
+        return new TemplateInfo(
+                row.getTemplateId(),          // templateId (deprecated, kept for compatibility)
+                templateCode,                 // templateCode (new: from Template.code)
+                row.getTemplateName(),        // name
+                row.getCoverUrl(),            // coverUrl
+                row.getVersion(),             // version (deprecated, kept for compatibility)
+                row.getVersion(),             // versionSemver (new: from TemplateVersion.version)
+                row.getPackageUrl(),          // downloadUrl
+                row.getChecksum(),            // checksumSha256 (renamed from checksum)
+                row.getEnabled(),             // enabled (from activity_templates.is_enabled)
+                updatedAtStr                  // updatedAt (ISO8601 with offset)
+        );
+    }
+
+    private static LocalDateTime firstNonNull(LocalDateTime... candidates) {
+        for (LocalDateTime candidate : candidates) {
+            if (candidate != null) {
+                return candidate;
+            }
+        }
+        return null;
     }
 
     @Transactional
@@ -142,6 +370,7 @@ public class DeviceService {
         // Update last seen time
         device.setLastSeenAt(LocalDateTime.now());
         deviceRepository.save(device);
+        presenceIndex.touch(device.getId(), device.getMerchant().getId());
 
         // Generate device token
         String deviceToken = jwtUtil.generateDeviceToken(device.getId(), device.getMerchant().getId());
@@ -161,14 +390,19 @@ public class DeviceService {
         );
     }
 
+    /**
+     * 记录设备心跳（只写内存：刷新在线索引，由 DeviceHeartbeatAggregator 定时批量写库）
+     */
     public void updateDeviceHeartbeat(Long deviceId, String version) {
-        Device device = deviceRepository.findById(deviceId)
-                .orElseThrow(() -> new RuntimeException("Device not found"));
-        device.setLastSeenAt(LocalDateTime.now());
-        if (version != null) {
-            device.setClientVersion(version);
+        if (deviceId == null) {
+            throw new RuntimeException("deviceId is required");
         }
-        deviceRepository.save(device);
+        // 在线索引确认设备存在（未登记的设备查一次库，不存在的设备有负缓存），不存在时不进入写合并缓冲
+        if (!presenceIndex.touch(deviceId)) {
+            heartbeatAggregator.rejectUnknown(deviceId);
+            throw new RuntimeException("Device not found");
+        }
+        heartbeatAggregator.record(deviceId, version);
     }
 
     public static class TemplateInfo {
@@ -189,7 +423,7 @@ public class DeviceService {
         private String coverUrl;
         private String downloadUrl;
         private Boolean enabled;
-        private String updatedAt;          // ISO8601 format (UTC)
+        private String updatedAt;          // ISO8601 format (with offset)
 
         public TemplateInfo(Long templateId, String templateCode, String name, String coverUrl,
                            String version, String versionSemver, String downloadUrl, String checksumSha256,
@@ -249,4 +483,54 @@ public class DeviceService {
         public Long getExpiresIn() { return expiresIn; }
         public String getServerTime() { return serverTime; }
     }
+
+    /**
+     * 同步清单查询结果：manifest 为 null 表示 If-None-Match 命中（未变化）
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class SyncManifestResult {
+        private final String etag;
+        private final SyncManifest manifest;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class SyncManifest {
+        private String etag;
+        private String generatedAt;        // ISO8601 format (UTC)
+        private List<SyncActivity> activities;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class SyncActivity {
+        private Long activityId;
+        private String name;
+        private String status;
+        private LocalDateTime startAt;
+        private LocalDateTime endAt;
+        private List<TemplateInfo> templates;
+    }
+
+    /**
+     * 增量同步结果
+     */
+    @Getter
+    @AllArgsConstructor
+    public static class TemplateDelta {
+        private boolean full;              // true 表示 changed 为全量，设备应替换本地列表
+        private String cursor;             // 下一次请求的 since（ISO8601，带偏移）
+        private List<TemplateInfo> changed;
+        private List<RemovedTemplate> removed;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class RemovedTemplate {
+        private Long templateId;
+        private String templateCode;
+        private String versionSemver;
+        private String removedAt;          // ISO8601 format (with offset)
+    }
 }
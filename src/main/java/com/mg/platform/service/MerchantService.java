@@ -10,9 +10,13 @@ import com.mg.platform.domain.Template;
 import com.mg.platform.domain.TemplateVersion;
 import com.mg.platform.repo.ActivityRepository;
 import com.mg.platform.repo.ActivityTemplateRepository;
+import com.mg.platform.repo.ActivityTemplateTombstoneRepository;
 import com.mg.platform.repo.DeviceActivityAssignmentRepository;
 import com.mg.platform.repo.DeviceRepository;
 import com.mg.platform.repo.TemplateVersionRepository;
+import com.mg.platform.service.device.DeviceEventHub;
+import com.mg.platform.service.device.DevicePresenceIndex;
+import com.mg.platform.service.device.DeviceProvisioningService;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.springframework.data.domain.Page;
@@ -25,9 +29,13 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 
 import jakarta.persistence.criteria.Predicate;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -39,6 +47,10 @@ public class MerchantService {
     private final DeviceRepository deviceRepository;
     private final DeviceActivityAssignmentRepository assignmentRepository;
     private final TemplateVersionRepository templateVersionRepository;
+    private final ActivityTemplateTombstoneRepository tombstoneRepository;
+    private final DeviceEventHub deviceEventHub;
+    private final DevicePresenceIndex presenceIndex;
+    private final DeviceProvisioningService provisioningService;
 
     public List<Activity> getMerchantActivities(Long merchantId) {
         return activityRepository.findByMerchantId(merchantId);
@@ -149,28 +161,37 @@ public class MerchantService {
     /**
      * 全量覆盖绑定模板版本：
      * 前端传入当前"完整选中"的 templateVersionIds 列表，
-     * 后端采用全量覆盖语义：先删除所有旧绑定，再按顺序插入新绑定。
-     * 这样支持：取消绑定（提交更少的ids）、增加绑定（提交更多的ids）、不会重复插入。
+     * 后端采用全量覆盖语义：删除不再选中的旧绑定（并写入墓碑供设备增量同步），再按顺序插入 / 更新选中的绑定。
+     * 这样支持：取消绑定（提交更少的ids）、增加绑定（提交更多的ids）、不会重复插入；
+     * 未变化的绑定不写库、保持原 updated_at，设备增量同步不会重复下发；没有任何变化时不通知设备。
      */
     @Transactional
     public void bindTemplateVersionsToActivity(Long activityId, List<Long> templateVersionIds) {
         Activity activity = activityRepository.findById(activityId)
                 .orElseThrow(() -> new RuntimeException("Activity not found"));
 
-        // 1) 先删除该活动的所有旧绑定（全量覆盖语义）
-        activityTemplateRepository.deleteByActivityId(activityId);
+        // 1) 去重并保持前端顺序
+        Set<Long> desiredIds = templateVersionIds != null ? new LinkedHashSet<>(templateVersionIds) : Set.of();
 
-        // 2) 如果传入空列表，表示全部取消绑定，直接返回
-        if (templateVersionIds == null || templateVersionIds.isEmpty()) {
-            return;
+        // 2) 删除不再选中的旧绑定（全量覆盖语义），删除前写入墓碑
+        Map<Long, Object[]> current = new HashMap<>();
+        for (Object[] row : activityTemplateRepository.findBindingStatesByActivityId(activityId)) {
+            current.put((Long) row[0], row);
         }
+        List<Long> removedIds = current.keySet().stream()
+                .filter(id -> !desiredIds.contains(id))
+                .collect(Collectors.toList());
+        removeTemplateBindings(activityId, removedIds);
+        boolean changed = !removedIds.isEmpty();
 
-        // 3) 去重并保持前端顺序
-        Set<Long> desiredIds = new LinkedHashSet<>(templateVersionIds);
-
-        // 4) 按顺序批量插入新绑定（使用 INSERT ... ON DUPLICATE KEY UPDATE 避免重复键错误）
+        // 3) 按顺序插入新绑定 / 更新顺序或启用状态变化的绑定（使用 INSERT ... ON DUPLICATE KEY UPDATE 避免重复键错误）
         int sortOrder = 0;
         for (Long versionId : desiredIds) {
+            int order = sortOrder++;
+            Object[] existing = current.get(versionId);
+            if (existing != null && Integer.valueOf(order).equals(existing[1]) && Boolean.TRUE.equals(existing[2])) {
+                continue;
+            }
             TemplateVersion templateVersion = templateVersionRepository.findById(versionId)
                     .orElseThrow(() -> new RuntimeException("TemplateVersion not found: " + versionId));
 
@@ -179,9 +200,15 @@ public class MerchantService {
                     activityId,
                     templateVersion.getTemplate().getId(),
                     versionId,
-                    sortOrder++,
+                    order,
                     true
             );
+            changed = true;
+        }
+
+        // 4) 绑定有变化时才通知设备（重复提交同一列表不触发设备重新同步）
+        if (changed) {
+            notifyActivityDevices(activityId);
         }
     }
 
@@ -229,6 +256,9 @@ public class MerchantService {
                 assignment.setDeactivatedAt(java.time.LocalDateTime.now());
                 assignmentRepository.save(assignment);
             }
+            deviceEventHub.publishAfterCommit(
+                    existing.stream().map(a -> a.getDevice().getId()).collect(Collectors.toList()),
+                    DeviceEventHub.ASSIGNMENT_CHANGED, activityId);
             return;
         }
 
@@ -239,17 +269,24 @@ public class MerchantService {
         List<DeviceActivityAssignment> existing = assignmentRepository.findByActivityIdAndStatus(activityId, "ACTIVE");
 
         // 2) 取消不再需要的绑定（软删除）
+        Set<Long> activeIds = new HashSet<>();
+        List<Long> changedDeviceIds = new ArrayList<>();
         for (DeviceActivityAssignment assignment : existing) {
             Long deviceId = assignment.getDevice().getId();
+            activeIds.add(deviceId);
             if (!desiredIds.contains(deviceId)) {
                 assignment.setStatus("INACTIVE");
                 assignment.setDeactivatedAt(java.time.LocalDateTime.now());
                 assignmentRepository.save(assignment);
+                changedDeviceIds.add(deviceId);
             }
         }
 
         // 3) 新增或恢复需要的绑定
         for (Long deviceId : desiredIds) {
+            if (!activeIds.contains(deviceId)) {
+                changedDeviceIds.add(deviceId);
+            }
             Device device = deviceRepository.findById(deviceId)
                     .orElseThrow(() -> new RuntimeException("Device not found: " + deviceId));
 
@@ -274,6 +311,9 @@ public class MerchantService {
             }
             assignmentRepository.save(assignment);
         }
+
+        // 4) 只通知绑定关系实际变化的设备
+        deviceEventHub.publishAfterCommit(changedDeviceIds, DeviceEventHub.ASSIGNMENT_CHANGED, activityId);
     }
 
     /**
@@ -304,7 +344,39 @@ public class MerchantService {
         device.setName(request.getName());
         device.setStatus("ACTIVE");
 
-        return deviceRepository.save(device);
+        Device saved = deviceRepository.save(device);
+        presenceIndex.register(saved.getId(), merchantId);
+        return saved;
+    }
+
+    /**
+     * 批量开通设备（逐行返回结果，见 DeviceProvisioningService）
+     */
+    public DeviceProvisioningService.ProvisionResult provisionDevices(
+            Long merchantId, List<DeviceProvisioningService.ProvisionRow> rows, boolean generateSecrets) {
+        return provisioningService.provision(merchantId, rows, generateSecrets);
+    }
+
+    /**
+     * 从 CSV（deviceCode,name[,secret]）批量开通设备
+     */
+    public DeviceProvisioningService.ProvisionResult provisionDevicesFromCsv(
+            Long merchantId, Reader csv, boolean generateSecrets) {
+        return provisioningService.provision(merchantId, provisioningService.parseCsv(csv), generateSecrets);
+    }
+
+    /**
+     * 商户的在线设备（读内存在线索引，不查库）
+     */
+    public List<DevicePresenceIndex.PresenceView> getOnlineDevices(Long merchantId) {
+        return presenceIndex.onlineDevices(merchantId);
+    }
+
+    /**
+     * 商户的离线设备（读内存在线索引，不查库）
+     */
+    public List<DevicePresenceIndex.PresenceView> getOfflineDevices(Long merchantId) {
+        return presenceIndex.offlineDevices(merchantId);
     }
 
     /**
@@ -316,7 +388,28 @@ public class MerchantService {
         activityRepository.findById(activityId)
                 .orElseThrow(() -> new RuntimeException("Activity not found"));
 
-        activityTemplateRepository.deleteByActivityId(activityId);
+        removeTemplateBindings(activityId, activityTemplateRepository.findTemplateVersionIdsByActivityId(activityId));
+        notifyActivityDevices(activityId);
+    }
+
+    /**
+     * 活动的模板绑定变化后（事务提交时）通知该活动当前绑定的设备
+     */
+    private void notifyActivityDevices(Long activityId) {
+        deviceEventHub.publishAfterCommit(
+                assignmentRepository.findDeviceIdsByActivityIdAndStatus(activityId, "ACTIVE"),
+                DeviceEventHub.TEMPLATES_CHANGED, activityId);
+    }
+
+    /**
+     * 删除活动的模板版本绑定，并写入墓碑供设备增量同步下发删除项
+     */
+    private void removeTemplateBindings(Long activityId, List<Long> templateVersionIds) {
+        if (templateVersionIds.isEmpty()) {
+            return;
+        }
+        tombstoneRepository.recordRemovals(activityId, templateVersionIds);
+        activityTemplateRepository.deleteByActivityIdAndTemplateVersionIdIn(activityId, templateVersionIds);
     }
 
     /**
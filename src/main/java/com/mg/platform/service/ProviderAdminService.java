@@ -7,6 +7,9 @@ import com.mg.platform.domain.ProviderCapability;
 import com.mg.platform.repo.ModelProviderRepository;
 import com.mg.platform.repo.ProviderApiKeyRepository;
 import com.mg.platform.repo.ProviderCapabilityRepository;
+import com.mg.platform.service.routing.ApiKeyMaterialCache;
+import com.mg.platform.service.routing.RoutingSnapshot;
+import com.mg.platform.service.routing.RoutingSnapshotManager;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
@@ -22,6 +25,8 @@ public class ProviderAdminService {
     private final ProviderCapabilityRepository capabilityRepository;
     private final ProviderApiKeyRepository apiKeyRepository;
     private final CryptoUtil cryptoUtil;
+    private final RoutingSnapshotManager snapshotManager;
+    private final ApiKeyMaterialCache apiKeyCache;
 
     // ========== Providers ==========
 
@@ -40,7 +45,10 @@ public class ProviderAdminService {
         provider.setCode(request.getCode());
         provider.setName(request.getName());
         provider.setStatus(request.getStatus() != null ? request.getStatus() : "ACTIVE");
-        return providerRepository.save(provider);
+        provider.setCostTier(request.getCostTier());
+        ModelProvider saved = providerRepository.save(provider);
+        snapshotManager.refreshAfterCommit();
+        return saved;
     }
 
     @Transactional
@@ -54,8 +62,13 @@ public class ProviderAdminService {
         if (request.getStatus() != null) {
             provider.setStatus(request.getStatus());
         }
+        if (request.getCostTier() != null) {
+            provider.setCostTier(request.getCostTier());
+        }
         // code 不允许修改
-        return providerRepository.save(provider);
+        ModelProvider saved = providerRepository.save(provider);
+        snapshotManager.refreshAfterCommit();
+        return saved;
     }
 
     // ========== Capabilities ==========
@@ -76,6 +89,8 @@ public class ProviderAdminService {
             throw new RuntimeException("Capability already exists for this provider: " + request.getCapability());
         }
 
+        validateDefaultParamsJson(request.getDefaultParamsJson());
+
         ProviderCapability capability = new ProviderCapability();
         capability.setProvider(provider);
         capability.setCapability(request.getCapability());
@@ -84,7 +99,9 @@ public class ProviderAdminService {
         capability.setPriority(request.getPriority() != null ? request.getPriority() : 100);
         capability.setDefaultTimeoutMs(request.getDefaultTimeoutMs() != null ? request.getDefaultTimeoutMs() : 8000);
         capability.setDefaultParamsJson(request.getDefaultParamsJson());
-        return capabilityRepository.save(capability);
+        ProviderCapability saved = capabilityRepository.save(capability);
+        snapshotManager.refreshAfterCommit();
+        return saved;
     }
 
     @Transactional
@@ -113,11 +130,25 @@ public class ProviderAdminService {
             capability.setDefaultTimeoutMs(request.getDefaultTimeoutMs());
         }
         if (request.getDefaultParamsJson() != null) {
+            validateDefaultParamsJson(request.getDefaultParamsJson());
             capability.setDefaultParamsJson(request.getDefaultParamsJson());
         }
         // capability 字段不允许修改
 
-        return capabilityRepository.save(capability);
+        ProviderCapability saved = capabilityRepository.save(capability);
+        snapshotManager.refreshAfterCommit();
+        return saved;
+    }
+
+    /**
+     * 校验 default_params_json 必须是合法的 JSON 对象（写入时拒绝，避免 resolve 时静默忽略）
+     */
+    private void validateDefaultParamsJson(String defaultParamsJson) {
+        try {
+            RoutingSnapshot.parseDefaultParams(defaultParamsJson);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid defaultParamsJson: " + e.getMessage());
+        }
     }
 
     // ========== API Keys ==========
@@ -141,7 +172,11 @@ public class ProviderAdminService {
         apiKey.setName(request.getName());
         apiKey.setApiKeyCipher(encryptedKey);
         apiKey.setStatus("ACTIVE");
-        return apiKeyRepository.save(apiKey);
+        apiKey.setRpmLimit(request.getRpmLimit());
+        ProviderApiKey saved = apiKeyRepository.save(apiKey);
+        // 快照替换后再清理，避免旧快照把明文重新放回缓存
+        snapshotManager.refreshAfterCommit(() -> apiKeyCache.invalidate(saved.getId()));
+        return saved;
     }
 
     @Transactional
@@ -158,7 +193,10 @@ public class ProviderAdminService {
         }
 
         apiKey.setStatus("INACTIVE");
-        return apiKeyRepository.save(apiKey);
+        ProviderApiKey saved = apiKeyRepository.save(apiKey);
+        // 快照替换后再清理，避免旧快照把明文重新放回缓存
+        snapshotManager.refreshAfterCommit(() -> apiKeyCache.invalidate(saved.getId()));
+        return saved;
     }
 
     // ========== DTOs ==========
@@ -168,12 +206,14 @@ public class ProviderAdminService {
         private String code;
         private String name;
         private String status;
+        private Integer costTier;
     }
 
     @Data
     public static class UpdateProviderRequest {
         private String name;
         private String status;
+        private Integer costTier;
     }
 
     @Data
@@ -199,5 +239,6 @@ public class ProviderAdminService {
     public static class CreateApiKeyRequest {
         private String name;
         private String apiKey; // 明文，后端加密
+        private Integer rpmLimit; // 每分钟请求预算，为空表示使用默认配置
     }
 }
@@ -0,0 +1,330 @@
+package com.mg.platform.service;
+
+import com.mg.platform.common.exception.NoActiveApiKeyException;
+import com.mg.platform.common.exception.ProviderCallException;
+import com.mg.platform.service.routing.ApiKeyMaterialCache;
+import com.mg.platform.service.routing.ApiKeyPool;
+import com.mg.platform.service.routing.ProviderCircuitBreaker;
+import com.mg.platform.service.routing.ProviderHealthScoreboard;
+import com.mg.platform.service.routing.ProviderProxyMetrics;
+import com.mg.platform.service.routing.RoutingSnapshot;
+import com.mg.platform.service.routing.RoutingSnapshot.ApiKeyEntry;
+import com.mg.platform.service.routing.RoutingSnapshot.CapabilityRoute;
+import com.mg.platform.service.routing.RoutingSnapshotManager;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * proxy 模式：由平台携带 provider API Key 调用 provider，设备拿不到明文 key
+ * - 使用共享的非阻塞 HttpClient（连接池复用）
+ * - 请求体 / 响应体均按流转发，不在堆中缓存整张图片
+ * - 超时取 resolve 返回的 timeoutMs（不超过 routing.proxy.max-timeout-ms），覆盖到响应体读完为止：
+ *   截止时间到达时关闭 provider 响应流，阻塞中的读取立即失败
+ * - 熔断中的 provider 直接拒绝；调用结果写入 ProviderProxyMetrics、健康记分板和熔断器
+ * - 只有 provider 侧的信号（5xx、429、读响应体失败、超时）计为失败；设备断开、设备请求导致的 4xx
+ *   不计入健康记分板和熔断器
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProviderProxyService {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final RoutingSnapshotManager snapshotManager;
+    private final ApiKeyPool apiKeyPool;
+    private final ApiKeyMaterialCache apiKeyCache;
+    private final ProviderHealthScoreboard healthScoreboard;
+    private final ProviderProxyMetrics proxyMetrics;
+    private final ProviderCircuitBreaker circuitBreaker;
+    private final HttpClient providerHttpClient;
+    private final AtomicInteger threadIndex = new AtomicInteger();
+    // 响应体截止时间到达时关闭 provider 响应流
+    private final ScheduledThreadPoolExecutor deadlines = newDeadlineScheduler(threadIndex);
+
+    @Value("${routing.proxy.max-timeout-ms:120000}")
+    private long maxTimeoutMs = 120000;
+
+    @Value("${routing.proxy.auth-header:Authorization}")
+    private String authHeader = "Authorization";
+
+    @Value("${routing.proxy.auth-scheme:Bearer}")
+    private String authScheme = "Bearer";
+
+    /**
+     * 将设备请求转发给 provider，返回时 provider 的响应头已到达，响应体尚未读取
+     * @param capability 能力名称
+     * @param providerCode resolve 选中的 provider
+     * @param timeoutMs resolve 返回的 timeoutMs，为空时使用 default_timeout_ms
+     * @param contentType 请求体 Content-Type
+     * @param contentLength 请求体长度，未知时为 -1
+     * @param body 请求体（按流读取）
+     * @return 转发中的调用，调用方必须调用 {@link ProxyCall#transferTo}
+     * @throws NoActiveApiKeyException provider 没有可用 key 或预算已耗尽
+     * @throws ProviderCallException provider 超时、不可达或熔断中
+     */
+    public ProxyCall relay(String capability, String providerCode, Integer timeoutMs,
+                           String contentType, long contentLength, InputStream body) {
+        RoutingSnapshot snapshot = snapshotManager.current();
+        CapabilityRoute route = snapshot.findRoute(capability, providerCode)
+                .orElseThrow(() -> new RuntimeException("Unknown provider " + providerCode
+                        + " for capability: " + capability));
+
+        // 先分配 key 再占用熔断试探名额：key 预算耗尽 / 解密失败时不会占住 HALF_OPEN 的名额而不上报结果
+        if (!circuitBreaker.isCallPermitted(route.getCapabilityId())) {
+            throw circuitOpen(providerCode);
+        }
+        long effectiveTimeoutMs = effectiveTimeoutMs(timeoutMs, route);
+        ApiKeyEntry apiKey = apiKeyPool.acquire(route.getProviderId(), snapshot.getActiveApiKeys(route.getProviderId()));
+        String plaintext = apiKeyCache.getPlaintext(apiKey);
+        if (!circuitBreaker.tryAcquire(route.getCapabilityId())) {
+            throw circuitOpen(providerCode);
+        }
+
+        CountingInputStream requestBody = new CountingInputStream(body);
+        HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofInputStream(() -> requestBody);
+        if (contentLength > 0) {
+            publisher = HttpRequest.BodyPublishers.fromPublisher(publisher, contentLength);
+        }
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(route.getEndpoint()))
+                .timeout(Duration.ofMillis(effectiveTimeoutMs))
+                .header(authHeader, authScheme.isEmpty() ? plaintext : authScheme + " " + plaintext)
+                .POST(publisher);
+        if (contentType != null) {
+            builder.header("Content-Type", contentType);
+        }
+
+        proxyMetrics.started(providerCode);
+        long startNanos = System.nanoTime();
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(effectiveTimeoutMs);
+        CompletableFuture<HttpResponse<InputStream>> future =
+                providerHttpClient.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        try {
+            // HttpRequest.timeout 已覆盖到响应头到达为止，这里最多等到同一截止时间
+            HttpResponse<InputStream> response = future.get(
+                    Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            return new ProxyCall(route, response, requestBody, startNanos, deadlineNanos);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw failed(route, startNanos, requestBody, timeout(route, effectiveTimeoutMs, e));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            ProviderCallException failure = cause instanceof HttpTimeoutException
+                    ? timeout(route, effectiveTimeoutMs, cause)
+                    : new ProviderCallException("Provider " + route.getProviderCode() + " unavailable: "
+                            + cause.getMessage(), ProviderCallException.UNAVAILABLE, cause);
+            throw failed(route, startNanos, requestBody, failure);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw failed(route, startNanos, requestBody, new ProviderCallException(
+                    "Interrupted while calling provider " + route.getProviderCode(), ProviderCallException.UNAVAILABLE, e));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deadlines.shutdownNow();
+    }
+
+    private static ScheduledThreadPoolExecutor newDeadlineScheduler(AtomicInteger threadIndex) {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "provider-proxy-deadline-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 正常结束的转发会取消任务，不在队列中堆积到截止时间
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
+    }
+
+    /**
+     * provider 侧的失败状态码：5xx 与 429（限流）；其余 4xx 多由设备请求本身导致，不计入
+     */
+    static boolean isProviderFailure(int status) {
+        return status >= 500 || status == 429;
+    }
+
+    private ProviderCallException circuitOpen(String providerCode) {
+        return new ProviderCallException("Circuit for provider " + providerCode + " is open",
+                ProviderCallException.CIRCUIT_OPEN);
+    }
+
+    private long effectiveTimeoutMs(Integer timeoutMs, CapabilityRoute route) {
+        long value = timeoutMs != null && timeoutMs > 0
+                ? timeoutMs
+                : route.getDefaultTimeoutMs() != null ? route.getDefaultTimeoutMs() : maxTimeoutMs;
+        return Math.min(value, maxTimeoutMs);
+    }
+
+    private ProviderCallException timeout(CapabilityRoute route, long timeoutMs, Throwable cause) {
+        return new ProviderCallException("Provider " + route.getProviderCode() + " timed out after " + timeoutMs + "ms",
+                ProviderCallException.TIMEOUT, cause);
+    }
+
+    private ProviderCallException failed(CapabilityRoute route, long startNanos, CountingInputStream requestBody,
+                                         ProviderCallException failure) {
+        long latencyNanos = System.nanoTime() - startNanos;
+        proxyMetrics.finished(route.getProviderCode(), latencyNanos, false, failure.isTimeout(), requestBody.count(), 0);
+        healthScoreboard.record(route.getCapabilityId(), TimeUnit.NANOSECONDS.toMillis(latencyNanos), false);
+        circuitBreaker.record(route.getCapabilityId(), false);
+        log.warn("Proxy call failed: {}", failure.getMessage());
+        return failure;
+    }
+
+    /**
+     * 已收到响应头的转发调用
+     */
+    public class ProxyCall {
+        private final CapabilityRoute route;
+        private final HttpResponse<InputStream> response;
+        private final CountingInputStream requestBody;
+        private final long startNanos;
+        private final long deadlineNanos;
+
+        ProxyCall(CapabilityRoute route, HttpResponse<InputStream> response, CountingInputStream requestBody,
+                  long startNanos, long deadlineNanos) {
+            this.route = route;
+            this.response = response;
+            this.requestBody = requestBody;
+            this.startNanos = startNanos;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public int getStatus() {
+            return response.statusCode();
+        }
+
+        public String getContentType() {
+            return response.headers().firstValue("Content-Type").orElse(null);
+        }
+
+        /**
+         * provider 返回的 Content-Length，未知时为 -1
+         */
+        public long getContentLength() {
+            return response.headers().firstValueAsLong("Content-Length").orElse(-1L);
+        }
+
+        /**
+         * 将响应体按块写入 out，截止时间到达时关闭响应流（阻塞中的读取随即失败）；结束后记录统计
+         * - 读 provider 响应体失败或超时：计为 provider 失败
+         * - 写 out 失败（设备断开）：向上抛出，不计入健康记分板和熔断器
+         */
+        public void transferTo(OutputStream out) throws IOException {
+            int status = getStatus();
+            // null：结果与 provider 健康无关，不计入
+            Boolean providerSuccess = isProviderFailure(status) ? Boolean.FALSE : null;
+            long bytesOut = 0;
+            boolean completed = false;
+            boolean timedOut = false;
+            InputStream in = response.body();
+            AtomicBoolean expired = new AtomicBoolean();
+            ScheduledFuture<?> watchdog = deadlines.schedule(() -> {
+                expired.set(true);
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.debug("Failed to close provider response: {}", e.getMessage());
+                }
+            }, Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            try (in) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (true) {
+                    int read;
+                    try {
+                        read = in.read(buffer);
+                    } catch (IOException e) {
+                        providerSuccess = Boolean.FALSE;
+                        if (expired.get()) {
+                            timedOut = true;
+                            throw new ProviderCallException("Provider " + route.getProviderCode()
+                                    + " response exceeded deadline", ProviderCallException.TIMEOUT, e);
+                        }
+                        throw e;
+                    }
+                    if (read == -1) {
+                        break;
+                    }
+                    out.write(buffer, 0, read);
+                    bytesOut += read;
+                }
+                out.flush();
+                completed = true;
+                if (providerSuccess == null && status < 400) {
+                    providerSuccess = Boolean.TRUE;
+                }
+            } finally {
+                watchdog.cancel(false);
+                finish(completed && status < 400, providerSuccess, timedOut, bytesOut);
+            }
+        }
+
+        private void finish(boolean success, Boolean providerSuccess, boolean timedOut, long bytesOut) {
+            long latencyNanos = System.nanoTime() - startNanos;
+            proxyMetrics.finished(route.getProviderCode(), latencyNanos, success, timedOut, requestBody.count(), bytesOut);
+            if (providerSuccess == null) {
+                // 不计结果，归还可能占用的 HALF_OPEN 试探名额
+                circuitBreaker.release(route.getCapabilityId());
+                return;
+            }
+            healthScoreboard.record(route.getCapabilityId(), TimeUnit.NANOSECONDS.toMillis(latencyNanos), providerSuccess);
+            circuitBreaker.record(route.getCapabilityId(), providerSuccess);
+        }
+    }
+
+    /**
+     * 统计请求体字节数
+     */
+    static final class CountingInputStream extends FilterInputStream {
+        private final LongAdder count = new LongAdder();
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count.add(n);
+            }
+            return n;
+        }
+
+        long count() {
+            return count.sum();
+        }
+    }
+}
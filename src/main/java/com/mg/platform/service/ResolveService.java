@@ -1,26 +1,33 @@
 package com.mg.platform.service;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mg.platform.common.dto.AiOutcomeReport;
+import com.mg.platform.common.dto.AiResolveBatchRequest;
+import com.mg.platform.common.dto.AiResolveBatchResponse;
 import com.mg.platform.common.dto.AiResolveRequest;
 import com.mg.platform.common.dto.AiResolveResponse;
+import com.mg.platform.common.exception.ApiKeyRateLimitedException;
 import com.mg.platform.common.exception.NoActiveApiKeyException;
-import com.mg.platform.common.util.CryptoUtil;
-import com.mg.platform.domain.CapabilityRoutingPolicy;
-import com.mg.platform.domain.ModelProvider;
-import com.mg.platform.domain.ProviderApiKey;
-import com.mg.platform.domain.ProviderCapability;
-import com.mg.platform.domain.Merchant;
-import com.mg.platform.repo.CapabilityRoutingPolicyRepository;
-import com.mg.platform.repo.MerchantRepository;
-import com.mg.platform.repo.ProviderApiKeyRepository;
-import com.mg.platform.repo.ProviderCapabilityRepository;
+import com.mg.platform.common.exception.ProviderCallException;
+import com.mg.platform.common.util.OverlayMap;
+import com.mg.platform.service.routing.ApiKeyMaterialCache;
+import com.mg.platform.service.routing.ApiKeyPool;
+import com.mg.platform.service.routing.ProviderCircuitBreaker;
+import com.mg.platform.service.routing.ProviderHealthScoreboard;
+import com.mg.platform.service.routing.RoutePlanCache;
+import com.mg.platform.service.routing.RoutingSnapshot;
+import com.mg.platform.service.routing.RoutingSnapshot.ApiKeyEntry;
+import com.mg.platform.service.routing.RoutingSnapshot.CapabilityRoute;
+import com.mg.platform.service.routing.RoutingSnapshot.PolicyRule;
+import com.mg.platform.service.routing.RoutingSnapshotManager;
+import com.mg.platform.service.routing.TrafficSplit;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.util.UriUtils;
+
+import java.nio.charset.StandardCharsets;
 
-import java.lang.reflect.Field;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -28,236 +35,405 @@ import java.util.stream.Collectors;
 @Service
 @RequiredArgsConstructor
 public class ResolveService {
-    private final ProviderCapabilityRepository capabilityRepository;
-    private final CapabilityRoutingPolicyRepository routingPolicyRepository;
-    private final ProviderApiKeyRepository apiKeyRepository;
-    private final MerchantRepository merchantRepository;
-    private final CryptoUtil cryptoUtil;
-    private final ObjectMapper objectMapper = new ObjectMapper();
-
-    @Transactional(readOnly = true)
+    private static final String MODE_DIRECT = "direct";
+    private static final String MODE_PROXY = "proxy";
+
+    private final RoutingSnapshotManager snapshotManager;
+    private final ApiKeyMaterialCache apiKeyCache;
+    private final ProviderHealthScoreboard healthScoreboard;
+    private final ApiKeyPool apiKeyPool;
+    private final RoutePlanCache routePlanCache;
+    private final ProviderCircuitBreaker circuitBreaker;
+
+    @Value("${routing.batch.max-size:32}")
+    private int maxBatchSize = 32;
+
+    /**
+     * proxy 模式转发地址前缀，为空时返回相对路径
+     */
+    @Value("${routing.proxy.base-url:}")
+    private String proxyBaseUrl = "";
+
     public AiResolveResponse resolve(AiResolveRequest request) {
-        // 1. 根据 request.capability 查询 provider_capabilities(status='ACTIVE') 按 priority ASC
-        List<ProviderCapability> capabilities = capabilityRepository
-                .findByCapabilityAndStatusOrderByPriorityAsc(request.getCapability(), "ACTIVE");
+        // 整个 resolve 只读同一份路由快照，不访问数据库
+        return resolve(request, request.getMerchantCode(), snapshotManager.current());
+    }
 
-        if (capabilities.isEmpty()) {
-            throw new RuntimeException("No active provider found for capability: " + request.getCapability());
+    /**
+     * 批量 resolve：所有子请求共用同一份路由快照（一致视图），结果按请求顺序返回
+     * 单个子请求失败不影响其他子请求
+     */
+    public AiResolveBatchResponse resolveBatch(AiResolveBatchRequest batchRequest) {
+        List<AiResolveRequest> requests = batchRequest.getRequests();
+        if (requests == null || requests.isEmpty()) {
+            throw new RuntimeException("requests must not be empty");
+        }
+        if (requests.size() > maxBatchSize) {
+            throw new RuntimeException("Too many requests in batch: " + requests.size() + " (max " + maxBatchSize + ")");
         }
 
-        // 2. 根据优先级获取 prefer：请求 prefer > merchant policy > global policy
-        List<String> finalPrefer = getPreferWithPriority(
-                request.getPrefer(),
-                request.getMerchantCode(),
-                request.getCapability()
-        );
-
-        // 3. 按 prefer 顺序筛选和排序 capabilities
-        List<ProviderCapability> sortedCapabilities = sortByPrefer(capabilities, finalPrefer);
-
-        // 4. 如果 constraints.maxCostTier 有值，过滤超出成本的 provider
-        if (request.getConstraints() != null && request.getConstraints().getMaxCostTier() != null) {
-            sortedCapabilities = filterByCostTier(sortedCapabilities, request.getConstraints().getMaxCostTier());
-            if (sortedCapabilities.isEmpty()) {
-                throw new RuntimeException("No provider found within cost tier: " + request.getConstraints().getMaxCostTier());
+        RoutingSnapshot snapshot = snapshotManager.current();
+        List<AiResolveBatchResponse.Item> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            AiResolveRequest request = requests.get(i);
+            if (request == null) {
+                results.add(AiResolveBatchResponse.Item.error(i, "request must not be null"));
+                continue;
+            }
+            String merchantCode = request.getMerchantCode() != null
+                    ? request.getMerchantCode()
+                    : batchRequest.getMerchantCode();
+            try {
+                results.add(AiResolveBatchResponse.Item.success(i, resolve(request, merchantCode, snapshot)));
+            } catch (NoActiveApiKeyException e) {
+                results.add(AiResolveBatchResponse.Item.error(i, e.getErrorCode() + ": " + e.getMessage()));
+            } catch (ProviderCallException e) {
+                results.add(AiResolveBatchResponse.Item.error(i, e.getErrorCode() + ": " + e.getMessage()));
+            } catch (RuntimeException e) {
+                results.add(AiResolveBatchResponse.Item.error(i, e.getMessage()));
             }
         }
+        return new AiResolveBatchResponse(results);
+    }
 
-        // 5. 选择第一个可用 provider
-        ProviderCapability selectedCapability = sortedCapabilities.get(0);
-        ModelProvider provider = selectedCapability.getProvider();
-
-        // 6. providerCode 来自 model_providers.code
-        String providerCode = provider.getCode();
+    private AiResolveResponse resolve(AiResolveRequest request, String merchantCode, RoutingSnapshot snapshot) {
+        boolean proxy = isProxyMode(request.getMode());
 
-        // 7. endpoint 来自 provider_capabilities.endpoint
-        String endpoint = selectedCapability.getEndpoint();
+        // 生效 policy：(merchantCode, capability) 一次查表，GLOBAL 回退已在快照构建时合并
+        PolicyRule policy = snapshot.getEffectivePolicy(merchantCode, request.getCapability());
 
-        // 8. timeoutMs = request.constraints.timeoutMs ?? provider_capabilities.default_timeout_ms
-        Integer timeoutMs = request.getConstraints() != null && request.getConstraints().getTimeoutMs() != null
-                ? request.getConstraints().getTimeoutMs()
-                : selectedCapability.getDefaultTimeoutMs();
+        // 1-4. 候选路由（cost tier 过滤 + prefer 排序），按 (merchantCode, capability, prefer) 缓存，并发未命中只计算一次
+        Integer requestMaxCostTier = request.getConstraints() != null ? request.getConstraints().getMaxCostTier() : null;
+        List<String> prefer = normalizePrefer(request.getPrefer(), request.getCapability(), snapshot);
+        List<CapabilityRoute> sortedCapabilities = routePlanCache.get(snapshot, merchantCode, request.getCapability(),
+                prefer, requestMaxCostTier, () -> planRoutes(request, prefer, policy, snapshot));
 
-        // 9. params = merge(provider_capabilities.default_params_json, request.hintParams)（hint 覆盖同名键）
-        Map<String, Object> params = mergeParams(selectedCapability.getDefaultParamsJson(), request.getHintParams());
+        // 4.1 未指定请求 prefer 时，按 policy 的 traffic_split_json 加权选出主 provider（alias 表 O(1) 选择）
+        if (prefer.isEmpty()) {
+            TrafficSplit split = policy.getTrafficSplit();
+            if (split != null) {
+                sortedCapabilities = moveToFront(sortedCapabilities, split.pick());
+            }
+        }
 
-        // 10. 查询并解密 API Key
-        AiResolveResponse.Auth auth = getApiKeyAuth(provider.getId());
+        // 5. 记分板判定为降级（错误率 / 延迟过高）的 provider 移到末尾
+        sortedCapabilities = healthScoreboard.demoteDegraded(sortedCapabilities);
+
+        // 6. 选择第一个可用 provider：跳过熔断中的 provider；若其所有 key 预算已耗尽，顺延到下一个 provider
+        //    direct 模式在分配到 key 之后才占用熔断试探名额（key 耗尽时不会占住名额而没有调用结果）；
+        //    proxy 模式由转发时占用，这里只检查
+        int selected = 0;
+        AiResolveResponse.Direct direct = null;
+        ApiKeyRateLimitedException rateLimited = null;
+        for (; selected < sortedCapabilities.size(); selected++) {
+            CapabilityRoute route = sortedCapabilities.get(selected);
+            if (!circuitBreaker.isCallPermitted(route.getCapabilityId())) {
+                continue;
+            }
+            AiResolveResponse.Direct candidate;
+            try {
+                candidate = buildDirect(route, request, snapshot, proxy, true);
+            } catch (ApiKeyRateLimitedException e) {
+                if (rateLimited == null) {
+                    rateLimited = e;
+                }
+                continue;
+            }
+            // 检查与占用之间名额可能被其他请求抢走，此时顺延（已扣减的 key 预算不退回）
+            if (proxy || circuitBreaker.tryAcquire(route.getCapabilityId())) {
+                direct = candidate;
+                break;
+            }
+        }
+        if (direct == null) {
+            if (rateLimited != null) {
+                throw rateLimited;
+            }
+            throw new ProviderCallException("All providers for capability " + request.getCapability()
+                    + " have open circuits", ProviderCallException.CIRCUIT_OPEN);
+        }
+        if (selected > 0) {
+            sortedCapabilities = sortedCapabilities.subList(selected, sortedCapabilities.size());
+        }
 
-        // 11. 构建响应
+        // 7. 构建响应
         AiResolveResponse response = new AiResolveResponse();
-        response.setMode("direct");
+        response.setMode(proxy ? MODE_PROXY : MODE_DIRECT);
         response.setCapability(request.getCapability());
-
-        AiResolveResponse.Direct direct = new AiResolveResponse.Direct();
-        direct.setProviderCode(providerCode);
-        direct.setEndpoint(endpoint);
-        direct.setAuth(auth);
-        direct.setTimeoutMs(timeoutMs);
-        direct.setParams(params);
-
         response.setDirect(direct);
 
+        // 8. 备选 provider：按生效 policy 的 retry_count / failover_on_http_codes_json 返回
+        if (policy.getRetryCount() > 0 && sortedCapabilities.size() > 1) {
+            response.setFailover(buildFailover(sortedCapabilities, policy, request, snapshot, proxy));
+        }
+
         return response;
     }
 
     /**
-     * 根据优先级获取 prefer：请求 prefer > merchant policy > global policy
-     * @param requestPrefer 请求的 prefer
-     * @param merchantCode 商家代码
-     * @param capability 能力名称
-     * @return 最终的 prefer 列表
+     * 当前 resolve 结果的指纹（用于租约 ETag），不分配 key、不占用熔断名额：
+     * 覆盖候选路由（endpoint / 默认参数 / 超时）、各候选的熔断与降级状态、候选 provider 的 ACTIVE key、
+     * 生效 policy 的分流与失败切换配置，以及影响响应内容的请求参数；只有这些变化时 ETag 才变化
+     * @param merchantCode 生效的商家代码
      */
-    private List<String> getPreferWithPriority(List<String> requestPrefer, String merchantCode, String capability) {
-        // 优先级 1: 请求 prefer（最高优先级）
-        if (requestPrefer != null && !requestPrefer.isEmpty()) {
-            return requestPrefer;
+    public int routeFingerprint(AiResolveRequest request, String merchantCode) {
+        RoutingSnapshot snapshot = snapshotManager.current();
+        boolean proxy = isProxyMode(request.getMode());
+        PolicyRule policy = snapshot.getEffectivePolicy(merchantCode, request.getCapability());
+        Integer requestMaxCostTier = request.getConstraints() != null ? request.getConstraints().getMaxCostTier() : null;
+        List<String> prefer = normalizePrefer(request.getPrefer(), request.getCapability(), snapshot);
+        List<CapabilityRoute> routes = routePlanCache.get(snapshot, merchantCode, request.getCapability(),
+                prefer, requestMaxCostTier, () -> planRoutes(request, prefer, policy, snapshot));
+
+        int hash = Objects.hash(proxy,
+                request.getConstraints() != null ? request.getConstraints().getTimeoutMs() : null,
+                request.getHintParams(),
+                policy.getRetryCount(),
+                policy.getFailoverOnHttpCodes(),
+                prefer.isEmpty() ? policy.getTrafficSplit() : null);
+        for (int i = 0; i < routes.size(); i++) {
+            CapabilityRoute route = routes.get(i);
+            hash = 31 * hash + route.hashCode();
+            hash = 31 * hash + (circuitBreaker.isCallPermitted(route.getCapabilityId()) ? 1 : 0);
+            hash = 31 * hash + (healthScoreboard.isDegraded(route) ? 1 : 0);
+            hash = 31 * hash + snapshot.getActiveApiKeys(route.getProviderId()).hashCode();
         }
+        return hash;
+    }
 
-        // 优先级 2: Merchant policy
-        if (merchantCode != null && !merchantCode.trim().isEmpty()) {
-            List<String> merchantPrefer = getMerchantPreferFromPolicy(merchantCode, capability);
-            if (!merchantPrefer.isEmpty()) {
-                return merchantPrefer;
+    /**
+     * 请求 prefer 归一化：只保留该能力在快照中存在的 provider code，按首次出现去重
+     * 归一化后才作为路由方案缓存的键，任意组合的未知 / 重复 code 不会占满缓存；全部无效时视为未指定
+     */
+    private static List<String> normalizePrefer(List<String> prefer, String capability, RoutingSnapshot snapshot) {
+        if (prefer == null || prefer.isEmpty()) {
+            return List.of();
+        }
+        List<CapabilityRoute> routes = snapshot.getRoutes(capability);
+        List<String> normalized = new ArrayList<>(Math.min(prefer.size(), routes.size()));
+        for (String code : prefer) {
+            if (code == null || normalized.contains(code)) {
+                continue;
+            }
+            for (CapabilityRoute route : routes) {
+                if (code.equals(route.getProviderCode())) {
+                    normalized.add(code);
+                    break;
+                }
             }
         }
+        return normalized;
+    }
+
+    /**
+     * 计算候选路由：按 capability 取路由，按生效的 maxCostTier 过滤，再按生效的 prefer 排序
+     * @param prefer 归一化后的请求 prefer
+     */
+    private List<CapabilityRoute> planRoutes(AiResolveRequest request, List<String> prefer, PolicyRule policy,
+                                             RoutingSnapshot snapshot) {
+        // 1. 根据 request.capability 获取 provider_capabilities(status='ACTIVE') 按 priority ASC
+        List<CapabilityRoute> capabilities = snapshot.getRoutes(request.getCapability());
+
+        if (capabilities.isEmpty()) {
+            throw new RuntimeException("No active provider found for capability: " + request.getCapability());
+        }
 
-        // 优先级 3: Global policy
-        List<String> globalPrefer = getGlobalPreferFromPolicy(capability);
-        if (!globalPrefer.isEmpty()) {
-            return globalPrefer;
+        // 2. maxCostTier：request.constraints.maxCostTier > merchant policy > global policy
+        //    路由已按 cost_tier 预分桶，直接取出限制内的候选（cost_tier 未设置的 provider 不受限制）
+        Integer maxCostTier = request.getConstraints() != null && request.getConstraints().getMaxCostTier() != null
+                ? request.getConstraints().getMaxCostTier()
+                : policy.getMaxCostTier();
+        if (maxCostTier != null) {
+            capabilities = snapshot.getRoutes(request.getCapability(), maxCostTier);
+            if (capabilities.isEmpty()) {
+                throw new RuntimeException("No provider found within cost tier: " + maxCostTier);
+            }
         }
 
-        // 无 prefer，返回空列表（将按 priority 排序）
-        return Collections.emptyList();
+        // 3. 根据优先级获取 prefer：请求 prefer > merchant policy > global policy
+        //    policy 无 prefer 时为空列表（按 priority 排序）
+        List<String> finalPrefer = !prefer.isEmpty() ? prefer : policy.getPrefer();
+
+        // 4. 按 prefer 顺序筛选和排序 capabilities
+        return sortByPrefer(capabilities, finalPrefer);
     }
 
     /**
-     * 从 Merchant routing policy 获取 prefer
+     * 解析 request.mode：为空时为 direct
      */
-    private List<String> getMerchantPreferFromPolicy(String merchantCode, String capability) {
-        // 根据 merchantCode 查询 merchant_id
-        Optional<Merchant> merchantOpt = merchantRepository.findByCode(merchantCode);
-        if (merchantOpt.isEmpty()) {
-            log.debug("Merchant not found for code: {}", merchantCode);
-            return Collections.emptyList();
+    private boolean isProxyMode(String mode) {
+        if (mode == null || mode.isBlank() || MODE_DIRECT.equalsIgnoreCase(mode)) {
+            return false;
+        }
+        if (MODE_PROXY.equalsIgnoreCase(mode)) {
+            return true;
         }
+        throw new RuntimeException("Unsupported mode: " + mode);
+    }
 
-        Long merchantId = merchantOpt.get().getId();
+    /**
+     * 根据路由构建调用信息
+     * proxy 模式下 endpoint 为平台转发地址，不下发 API Key（key 在转发时分配）
+     * acquireKey=false 时只选出当前有预算的 key，不扣减（备选 provider）
+     */
+    private AiResolveResponse.Direct buildDirect(CapabilityRoute route, AiResolveRequest request, RoutingSnapshot snapshot,
+                                                 boolean proxy, boolean acquireKey) {
+        // providerCode 来自 model_providers.code，endpoint 来自 provider_capabilities.endpoint
+        AiResolveResponse.Direct direct = new AiResolveResponse.Direct();
+        direct.setProviderCode(route.getProviderCode());
 
-        // 查询 MERCHANT scope 的 policy（使用 findFirst 避免重复记录问题）
-        Optional<CapabilityRoutingPolicy> policyOpt = routingPolicyRepository
-                .findFirstByScopeAndMerchantIdAndCapabilityOrderByCreatedAtDesc("MERCHANT", merchantId, capability);
+        // timeoutMs = request.constraints.timeoutMs ?? provider_capabilities.default_timeout_ms
+        Integer timeoutMs = request.getConstraints() != null && request.getConstraints().getTimeoutMs() != null
+                ? request.getConstraints().getTimeoutMs()
+                : route.getDefaultTimeoutMs();
+        direct.setTimeoutMs(timeoutMs);
+        direct.setEndpoint(proxy ? buildProxyEndpoint(route, timeoutMs) : route.getEndpoint());
 
-        if (policyOpt.isEmpty()) {
-            return Collections.emptyList();
-        }
+        // params = merge(provider_capabilities.default_params_json, request.hintParams)（hint 覆盖同名键）
+        direct.setParams(mergeParams(route.getDefaultParams(), request.getHintParams()));
 
-        CapabilityRoutingPolicy policy = policyOpt.get();
-        if (!"ACTIVE".equals(policy.getStatus())) {
-            return Collections.emptyList();
+        if (proxy) {
+            if (snapshot.getActiveApiKeys(route.getProviderId()).isEmpty()) {
+                throw new NoActiveApiKeyException("No active API key found for provider");
+            }
+            return direct;
         }
 
-        String preferProvidersJson = policy.getPreferProvidersJson();
-        if (preferProvidersJson == null || preferProvidersJson.trim().isEmpty()) {
-            return Collections.emptyList();
-        }
+        // 获取并解密 API Key
+        direct.setAuth(getApiKeyAuth(route.getProviderId(), snapshot, acquireKey));
+        return direct;
+    }
 
-        try {
-            return objectMapper.readValue(preferProvidersJson, new TypeReference<List<String>>() {});
-        } catch (Exception e) {
-            log.warn("Failed to parse preferProvidersJson for merchant policy: {}", e.getMessage());
-            return Collections.emptyList();
+    /**
+     * proxy 转发地址：{base-url}/api/v1/ai/proxy/{capability}/{providerCode}?timeoutMs=
+     */
+    private String buildProxyEndpoint(CapabilityRoute route, Integer timeoutMs) {
+        StringBuilder url = new StringBuilder(proxyBaseUrl)
+                .append("/api/v1/ai/proxy/")
+                .append(UriUtils.encodePathSegment(route.getCapability(), StandardCharsets.UTF_8))
+                .append('/')
+                .append(UriUtils.encodePathSegment(route.getProviderCode(), StandardCharsets.UTF_8));
+        if (timeoutMs != null) {
+            url.append("?timeoutMs=").append(timeoutMs);
         }
+        return url.toString();
     }
 
     /**
-     * 从 GLOBAL routing policy 获取 prefer
+     * 构建备选列表：主 provider 之后的前 retryCount 个可用 provider（无 ACTIVE key 或 key 预算已耗尽的跳过）
+     * 备选 key 只查看不扣减预算：设备只有在主 provider 失败时才会使用备选，提前扣减会让每次 resolve 消耗 1 + retryCount 份预算
      */
-    private List<String> getGlobalPreferFromPolicy(String capability) {
-        // 使用 findFirst 避免重复记录问题（按创建时间降序，获取最新的）
-        Optional<CapabilityRoutingPolicy> policyOpt = routingPolicyRepository
-                .findFirstByScopeAndMerchantIdAndCapabilityOrderByCreatedAtDesc("GLOBAL", null, capability);
-
-        if (policyOpt.isEmpty()) {
-            return Collections.emptyList();
+    private AiResolveResponse.Failover buildFailover(List<CapabilityRoute> sortedCapabilities, PolicyRule policy,
+                                                     AiResolveRequest request, RoutingSnapshot snapshot,
+                                                     boolean proxy) {
+        List<AiResolveResponse.Direct> candidates = new ArrayList<>(policy.getRetryCount());
+        for (int i = 1; i < sortedCapabilities.size() && candidates.size() < policy.getRetryCount(); i++) {
+            CapabilityRoute route = sortedCapabilities.get(i);
+            if (!circuitBreaker.isCallPermitted(route.getCapabilityId())) {
+                continue;
+            }
+            try {
+                candidates.add(buildDirect(route, request, snapshot, proxy, false));
+            } catch (NoActiveApiKeyException e) {
+                // 该备选没有可用 key 或预算已耗尽，跳过
+            }
         }
-
-        CapabilityRoutingPolicy policy = policyOpt.get();
-        if (!"ACTIVE".equals(policy.getStatus())) {
-            return Collections.emptyList();
+        if (candidates.isEmpty()) {
+            return null;
         }
 
-        String preferProvidersJson = policy.getPreferProvidersJson();
-        if (preferProvidersJson == null || preferProvidersJson.trim().isEmpty()) {
-            return Collections.emptyList();
+        AiResolveResponse.Failover failover = new AiResolveResponse.Failover();
+        failover.setRetryCount(policy.getRetryCount());
+        failover.setOnHttpCodes(policy.getFailoverOnHttpCodes());
+        failover.setCandidates(candidates);
+        return failover;
+    }
+
+    /**
+     * 记录设备上报的调用结果
+     */
+    public void reportOutcome(AiOutcomeReport report) {
+        if (report.getCapability() == null || report.getProviderCode() == null) {
+            throw new RuntimeException("capability and providerCode are required");
         }
+        CapabilityRoute route = snapshotManager.current()
+                .findRoute(report.getCapability(), report.getProviderCode())
+                .orElseThrow(() -> new RuntimeException("Unknown provider " + report.getProviderCode()
+                        + " for capability: " + report.getCapability()));
+
+        boolean success = report.getSuccess() != null
+                ? report.getSuccess()
+                : report.getHttpStatus() != null && report.getHttpStatus() < 400;
+        long latencyMs = report.getLatencyMs() != null ? report.getLatencyMs() : 0L;
+        healthScoreboard.record(route.getCapabilityId(), latencyMs, success);
+        circuitBreaker.record(route.getCapabilityId(), success);
+    }
 
-        try {
-            return objectMapper.readValue(preferProvidersJson, new TypeReference<List<String>>() {});
-        } catch (Exception e) {
-            log.warn("Failed to parse preferProvidersJson for global policy: {}", e.getMessage());
-            return Collections.emptyList();
+    /**
+     * 将指定 provider 移到首位，其余保持原顺序；不在候选中（如超出 cost tier）时返回原列表
+     * 返回按下标换算的只读视图，不复制候选列表
+     */
+    private List<CapabilityRoute> moveToFront(List<CapabilityRoute> routes, String providerCode) {
+        for (int i = 0; i < routes.size(); i++) {
+            if (routes.get(i).getProviderCode().equals(providerCode)) {
+                return i == 0 ? routes : new MovedToFront(routes, i);
+            }
         }
+        return routes;
     }
 
     /**
-     * 根据 cost_tier 过滤 provider（如果字段存在）
-     * 如果 cost_tier 字段不存在，则忽略过滤
+     * routes[front] 在首位、其余保持原顺序的只读视图：
+     * 位置 0 -> front，位置 1..front -> 原位置 0..front-1，之后的位置不变
      */
-    private List<ProviderCapability> filterByCostTier(List<ProviderCapability> capabilities, Integer maxCostTier) {
-        if (maxCostTier == null) {
-            return capabilities;
+    private static final class MovedToFront extends AbstractList<CapabilityRoute> implements RandomAccess {
+        private final List<CapabilityRoute> routes;
+        private final int front;
+
+        MovedToFront(List<CapabilityRoute> routes, int front) {
+            this.routes = routes;
+            this.front = front;
         }
 
-        // 检查 ModelProvider 是否有 cost_tier 字段
-        try {
-            Field costTierField = ModelProvider.class.getDeclaredField("costTier");
-            // 字段存在，进行过滤
-            return capabilities.stream()
-                    .filter(cap -> {
-                        ModelProvider provider = cap.getProvider();
-                        try {
-                            costTierField.setAccessible(true);
-                            Integer costTier = (Integer) costTierField.get(provider);
-                            return costTier == null || costTier <= maxCostTier;
-                        } catch (Exception e) {
-                            // 获取字段值失败，保留该 provider
-                            return true;
-                        }
-                    })
-                    .collect(Collectors.toList());
-        } catch (NoSuchFieldException e) {
-            // cost_tier 字段不存在，忽略过滤
-            log.debug("cost_tier field not found in ModelProvider, ignoring maxCostTier filter");
-            return capabilities;
+        @Override
+        public CapabilityRoute get(int index) {
+            if (index == 0) {
+                return routes.get(front);
+            }
+            return routes.get(index <= front ? index - 1 : index);
+        }
+
+        @Override
+        public int size() {
+            return routes.size();
         }
     }
 
     /**
      * 根据 prefer 列表对 capabilities 进行排序
      * prefer 中的 provider code 优先，然后按原有 priority 顺序
+     * （包内可见，供基准测试使用）
      */
-    private List<ProviderCapability> sortByPrefer(List<ProviderCapability> capabilities, List<String> prefer) {
+    List<CapabilityRoute> sortByPrefer(List<CapabilityRoute> capabilities, List<String> prefer) {
         if (prefer == null || prefer.isEmpty()) {
             return capabilities;
         }
 
         // 获取所有 provider codes 的映射
-        Map<String, ProviderCapability> capabilityMap = capabilities.stream()
+        Map<String, CapabilityRoute> capabilityMap = capabilities.stream()
                 .collect(Collectors.toMap(
-                        c -> c.getProvider().getCode(),
+                        CapabilityRoute::getProviderCode,
                         c -> c,
                         (c1, c2) -> c1 // 如果有重复，保留第一个
                 ));
 
-        List<ProviderCapability> result = new ArrayList<>();
+        List<CapabilityRoute> result = new ArrayList<>();
         Set<String> added = new HashSet<>();
         List<String> missingProviders = new ArrayList<>();
 
         // 先添加 prefer 中的（按 prefer 顺序）
         for (String preferCode : prefer) {
-            ProviderCapability cap = capabilityMap.get(preferCode);
+            CapabilityRoute cap = capabilityMap.get(preferCode);
             if (cap != null && !added.contains(preferCode)) {
                 result.add(cap);
                 added.add(preferCode);
@@ -278,8 +454,8 @@ public class ResolveService {
         }
 
         // 再添加剩余的（保持原有 priority 顺序）
-        for (ProviderCapability cap : capabilities) {
-            String code = cap.getProvider().getCode();
+        for (CapabilityRoute cap : capabilities) {
+            String code = cap.getProviderCode();
             if (!added.contains(code)) {
                 result.add(cap);
                 added.add(code);
@@ -290,51 +466,37 @@ public class ResolveService {
     }
 
     /**
-     * 合并参数：defaultParamsJson + hintParams（hint 覆盖同名键）
+     * 合并参数：default_params_json（已预解析）+ hintParams（hint 覆盖同名键）（包内可见，供基准测试使用）
      */
-    private Map<String, Object> mergeParams(String defaultParamsJson, Map<String, Object> hintParams) {
-        Map<String, Object> params = new HashMap<>();
-
-        // 先解析 defaultParamsJson
-        if (defaultParamsJson != null && !defaultParamsJson.trim().isEmpty()) {
-            try {
-                Map<String, Object> defaultParams = objectMapper.readValue(
-                        defaultParamsJson,
-                        new TypeReference<Map<String, Object>>() {}
-                );
-                params.putAll(defaultParams);
-            } catch (Exception e) {
-                // JSON 解析失败，忽略
-            }
-        }
-
-        // 然后合并 hintParams（覆盖同名键）
-        if (hintParams != null) {
-            params.putAll(hintParams);
-        }
-
-        return params;
+    Map<String, Object> mergeParams(Map<String, Object> defaultParams, Map<String, Object> hintParams) {
+        // defaultParams 已在快照构建时解析为不可变 Map；无 hint 时直接返回，有 hint 时返回叠加视图，不复制默认参数
+        return OverlayMap.of(defaultParams, hintParams);
     }
 
     /**
      * 获取 API Key 认证信息
      * @param providerId Provider ID
+     * @param snapshot 路由快照
+     * @param acquire true 时扣减 key 预算；false 时只选出剩余预算最多的 key
      * @return Auth 对象
      * @throws NoActiveApiKeyException 如果找不到可用的 API Key
+     * @throws ApiKeyRateLimitedException 如果所有 key 的预算都已耗尽
      */
-    private AiResolveResponse.Auth getApiKeyAuth(Long providerId) {
-        // 查询 provider_api_keys(status='ACTIVE') 取最新的一条
-        ProviderApiKey apiKey = apiKeyRepository
-                .findFirstByProviderIdAndStatusOrderByCreatedAtDesc(providerId, "ACTIVE")
-                .orElseThrow(() -> {
-                    log.warn("No active API key found for provider ID: {}", providerId);
-                    return new NoActiveApiKeyException("No active API key found for provider");
-                });
-
-        // 解密 api_key_cipher
+    private AiResolveResponse.Auth getApiKeyAuth(Long providerId, RoutingSnapshot snapshot, boolean acquire) {
+        // 在 provider 的所有 ACTIVE key 之间分配（轮询 + 每 key 令牌桶）
+        List<ApiKeyEntry> keys = snapshot.getActiveApiKeys(providerId);
+        ApiKeyEntry apiKey;
+        try {
+            apiKey = acquire ? apiKeyPool.acquire(providerId, keys) : apiKeyPool.peek(keys);
+        } catch (NoActiveApiKeyException e) {
+            log.warn("No usable API key for provider ID: {} ({})", providerId, e.getErrorCode());
+            throw e;
+        }
+
+        // 解密 api_key_cipher（按 key id + updated_at 缓存明文）
         String decryptedApiKey;
         try {
-            decryptedApiKey = cryptoUtil.decrypt(apiKey.getApiKeyCipher());
+            decryptedApiKey = apiKeyCache.getPlaintext(apiKey);
         } catch (Exception e) {
             log.error("Failed to decrypt API key for provider ID: {}", providerId, e);
             throw new RuntimeException("Failed to decrypt API key", e);
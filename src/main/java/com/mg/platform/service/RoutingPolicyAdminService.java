@@ -4,6 +4,9 @@ import com.mg.platform.domain.CapabilityRoutingPolicy;
 import com.mg.platform.domain.Merchant;
 import com.mg.platform.repo.CapabilityRoutingPolicyRepository;
 import com.mg.platform.repo.MerchantRepository;
+import com.mg.platform.service.routing.RoutingSnapshot;
+import com.mg.platform.service.routing.RoutingSnapshotManager;
+import com.mg.platform.service.routing.TrafficSplit;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
@@ -16,6 +19,7 @@ import java.util.List;
 public class RoutingPolicyAdminService {
     private final CapabilityRoutingPolicyRepository policyRepository;
     private final MerchantRepository merchantRepository;
+    private final RoutingSnapshotManager snapshotManager;
 
     public List<CapabilityRoutingPolicy> listPolicies() {
         return policyRepository.findAll();
@@ -38,16 +42,22 @@ public class RoutingPolicyAdminService {
                     ", merchantId=" + merchantId + ", capability=" + request.getCapability());
         }
 
+        validateFailoverOnHttpCodesJson(request.getFailoverOnHttpCodesJson());
+        validateTrafficSplitJson(request.getTrafficSplitJson());
+
         CapabilityRoutingPolicy policy = new CapabilityRoutingPolicy();
         policy.setScope(request.getScope() != null ? request.getScope() : "GLOBAL");
         policy.setMerchant(merchant);
         policy.setCapability(request.getCapability());
         policy.setPreferProvidersJson(request.getPreferProvidersJson());
+        policy.setTrafficSplitJson(blankToNull(request.getTrafficSplitJson()));
         policy.setRetryCount(request.getRetryCount() != null ? request.getRetryCount() : 0);
         policy.setFailoverOnHttpCodesJson(request.getFailoverOnHttpCodesJson());
         policy.setMaxCostTier(request.getMaxCostTier());
         policy.setStatus(request.getStatus() != null ? request.getStatus() : "ACTIVE");
-        return policyRepository.save(policy);
+        CapabilityRoutingPolicy saved = policyRepository.save(policy);
+        snapshotManager.refreshAfterCommit();
+        return saved;
     }
 
     @Transactional
@@ -58,10 +68,16 @@ public class RoutingPolicyAdminService {
         if (request.getPreferProvidersJson() != null) {
             policy.setPreferProvidersJson(request.getPreferProvidersJson());
         }
+        if (request.getTrafficSplitJson() != null) {
+            // 传空字符串表示取消分流
+            validateTrafficSplitJson(request.getTrafficSplitJson());
+            policy.setTrafficSplitJson(blankToNull(request.getTrafficSplitJson()));
+        }
         if (request.getRetryCount() != null) {
             policy.setRetryCount(request.getRetryCount());
         }
         if (request.getFailoverOnHttpCodesJson() != null) {
+            validateFailoverOnHttpCodesJson(request.getFailoverOnHttpCodesJson());
             policy.setFailoverOnHttpCodesJson(request.getFailoverOnHttpCodesJson());
         }
         if (request.getMaxCostTier() != null) {
@@ -72,7 +88,36 @@ public class RoutingPolicyAdminService {
         }
         // scope, merchant, capability 不允许修改
 
-        return policyRepository.save(policy);
+        // 快照重建时同时重建分流 alias 表
+        CapabilityRoutingPolicy saved = policyRepository.save(policy);
+        snapshotManager.refreshAfterCommit();
+        return saved;
+    }
+
+    /**
+     * 校验 traffic_split_json 必须是 provider code -> 非负权重 的对象（如 {"volc": 90, "new_model": 10}）
+     */
+    private void validateTrafficSplitJson(String trafficSplitJson) {
+        try {
+            TrafficSplit.parse(trafficSplitJson);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid trafficSplitJson: " + e.getMessage());
+        }
+    }
+
+    private String blankToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value;
+    }
+
+    /**
+     * 校验 failover_on_http_codes_json 必须是整数数组（如 [429, 502, 503]）
+     */
+    private void validateFailoverOnHttpCodesJson(String failoverOnHttpCodesJson) {
+        try {
+            RoutingSnapshot.parseHttpCodes(failoverOnHttpCodesJson);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Invalid failoverOnHttpCodesJson: " + e.getMessage());
+        }
     }
 
     @Data
@@ -81,6 +126,7 @@ public class RoutingPolicyAdminService {
         private String merchantCode; // 如果 scope=MERCHANT，必须提供
         private String capability;
         private String preferProvidersJson;
+        private String trafficSplitJson; // 如 {"volc": 90, "new_model": 10}
         private Integer retryCount;
         private String failoverOnHttpCodesJson;
         private Integer maxCostTier;
@@ -90,6 +136,7 @@ public class RoutingPolicyAdminService {
     @Data
     public static class UpdatePolicyRequest {
         private String preferProvidersJson;
+        private String trafficSplitJson;
         private Integer retryCount;
         private String failoverOnHttpCodesJson;
         private Integer maxCostTier;
@@ -0,0 +1,424 @@
+package com.mg.platform.service.device;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 设备配置变更推送（SSE，另提供 long-poll 兜底）
+ * - 商户端修改活动的模板 / 设备绑定后，只通知受影响的设备；设备收到事件后用 ETag 重新拉取 sync-manifest
+ * - 连接基于 Servlet 异步请求，空闲连接不占用请求线程
+ * - 每次发布分配一个事件 ID，格式为 "{epoch}:{seq}"：epoch 为本次启动的毫秒时间戳，seq 在进程内递增
+ * - 每台设备只保留最近一条事件：重连时 Last-Event-ID（或 since）的 seq 小于它就立即补发，
+ *   因此断线期间的多次变更合并为一次通知
+ * - Last-Event-ID 的 epoch 与本进程不同（重启或其他节点）、无法解析，或对应的记录已被清理时补发 RESYNC
+ * - 事务提交后只记录事件，向连接写出在推送线程池中进行，不占用提交事务的请求线程
+ * - 没有连接、且最近事件超过 device.push.idle-retention-ms 的设备记录定期清理
+ */
+@Slf4j
+@Component
+public class DeviceEventHub {
+    public static final String TEMPLATES_CHANGED = "TEMPLATES_CHANGED";
+    public static final String ASSIGNMENT_CHANGED = "ASSIGNMENT_CHANGED";
+    public static final String RESYNC = "RESYNC";
+
+    @Value("${device.push.max-connections:50000}")
+    private int maxConnections = 50000;
+
+    @Value("${device.push.stream-timeout-ms:1800000}")
+    private long streamTimeoutMs = 1800000;
+
+    @Value("${device.push.long-poll-timeout-ms:30000}")
+    private long longPollTimeoutMs = 30000;
+
+    @Value("${device.push.idle-retention-ms:86400000}")
+    private long idleRetentionMs = 86400000L;
+
+    @Value("${device.push.fanout-threads:2}")
+    private int fanoutThreads = 2;
+
+    @Value("${device.push.fanout-queue:10000}")
+    private int fanoutQueue = 10000;
+
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong sequence = new AtomicLong();
+    // 已清理的设备记录中最大的事件 seq：设备的 Last-Event-ID 早于它且没有记录时补发 RESYNC
+    private final AtomicLong prunedSequence = new AtomicLong();
+    private final ConcurrentHashMap<Long, Channel> channels = new ConcurrentHashMap<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicInteger threadIndex = new AtomicInteger();
+    private final LongAdder published = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder pruned = new LongAdder();
+
+    private Executor fanout;
+
+    @PostConstruct
+    public void init() {
+        int threads = Math.max(1, fanoutThreads);
+        // 队列满时由发布线程自己写出，不丢通知
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, fanoutQueue)), r -> {
+                    Thread thread = new Thread(r, "device-push-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        fanout = executor;
+    }
+
+    /**
+     * 在当前事务提交后通知设备；不在事务中时立即通知
+     * 提交后再发送，保证设备收到通知后拉取到的是新配置；事务回滚时不发送
+     */
+    public void publishAfterCommit(Collection<Long> deviceIds, String type, Long activityId) {
+        if (deviceIds == null || deviceIds.isEmpty()) {
+            return;
+        }
+        List<Long> ids = List.copyOf(deviceIds);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        publish(ids, type, activityId);
+                    } catch (Exception e) {
+                        log.error("Failed to push {} to {} devices", type, ids.size(), e);
+                    }
+                }
+            });
+        } else {
+            publish(ids, type, activityId);
+        }
+    }
+
+    /**
+     * 通知设备：同一次发布的所有设备共用一个事件 ID；记录事件后在推送线程池中写出
+     */
+    public void publish(Collection<Long> deviceIds, String type, Long activityId) {
+        long seq = sequence.incrementAndGet();
+        DeviceEvent event = new DeviceEvent(seq, eventId(seq), type, activityId, System.currentTimeMillis());
+        List<Channel> connected = new ArrayList<>();
+        for (Long deviceId : deviceIds) {
+            Channel channel = channels.compute(deviceId, (k, c) -> {
+                Channel target = c != null ? c : new Channel();
+                target.latest = event;
+                return target;
+            });
+            published.increment();
+            if (channel.stream.get() != null || !channel.waiters.isEmpty()) {
+                connected.add(channel);
+            }
+        }
+        if (!connected.isEmpty()) {
+            fanout.execute(() -> connected.forEach(this::deliver));
+        }
+    }
+
+    /**
+     * 打开设备的 SSE 连接，同一设备的旧连接会被关闭
+     * @param lastEventId 设备收到的最后一条事件 ID（首次连接为空）
+     * @throws RuntimeException 连接数达到上限
+     */
+    public SseEmitter openStream(Long deviceId, String lastEventId) {
+        acquireConnection();
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        SseEmitter[] previous = new SseEmitter[1];
+        // 在 compute 中挂上连接，避免与清理并发时挂到已移除的记录上
+        Channel channel = channels.compute(deviceId, (k, c) -> {
+            Channel target = c != null ? c : new Channel();
+            previous[0] = target.stream.getAndSet(emitter);
+            return target;
+        });
+        emitter.onCompletion(() -> {
+            connections.decrementAndGet();
+            channel.stream.compareAndSet(emitter, null);
+        });
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> emitter.complete());
+
+        if (previous[0] != null) {
+            previous[0].complete();
+        }
+        DeviceEvent missed = missedEvent(channel, lastEventId);
+        if (missed != null) {
+            send(emitter, missed);
+        }
+        return emitter;
+    }
+
+    /**
+     * long-poll：有比 since 新的事件时立即返回，否则等待下一条事件或超时
+     * @param since 设备收到的最后一条事件 ID（首次请求为空）
+     * @param onEvent 事件到达时的响应
+     * @param onTimeout 超时时的响应
+     * @throws RuntimeException 连接数达到上限
+     */
+    public <T> DeferredResult<T> poll(Long deviceId, String since, Function<DeviceEvent, T> onEvent, T onTimeout) {
+        DeferredResult<T> result = new DeferredResult<>(longPollTimeoutMs, onTimeout);
+        Channel existing = channels.get(deviceId);
+        DeviceEvent missed = missedEvent(existing, since);
+        if (missed != null) {
+            delivered.increment();
+            result.setResult(onEvent.apply(missed));
+            return result;
+        }
+
+        acquireConnection();
+        Waiter waiter = event -> {
+            if (result.setResult(onEvent.apply(event))) {
+                delivered.increment();
+            }
+        };
+        Channel channel = channels.compute(deviceId, (k, c) -> {
+            Channel target = c != null ? c : new Channel();
+            target.waiters.add(waiter);
+            return target;
+        });
+        result.onCompletion(() -> {
+            connections.decrementAndGet();
+            channel.waiters.remove(waiter);
+        });
+        // 注册前可能刚好有事件发布，再检查一次
+        DeviceEvent raced = missedEvent(channel, since);
+        if (raced != null) {
+            waiter.accept(raced);
+        }
+        return result;
+    }
+
+    /**
+     * 定期向 SSE 连接发送注释行：保持代理 / NAT 不断开空闲连接，并及时发现已断开的设备
+     * 同时清理没有连接、最近事件已超过保留时间的设备记录
+     */
+    @Scheduled(
+            initialDelayString = "${device.push.keepalive-ms:25000}",
+            fixedDelayString = "${device.push.keepalive-ms:25000}"
+    )
+    public void keepAlive() {
+        for (Channel channel : channels.values()) {
+            SseEmitter emitter = channel.stream.get();
+            if (emitter != null) {
+                try {
+                    emitter.send(SseEmitter.event().comment("ping"));
+                } catch (IOException | IllegalStateException e) {
+                    emitter.completeWithError(e);
+                }
+            }
+        }
+        pruneIdle(System.currentTimeMillis() - idleRetentionMs);
+    }
+
+    /**
+     * 清理没有 SSE 连接、没有等待中的 long-poll、且最近事件早于 cutoffMillis 的设备记录
+     */
+    void pruneIdle(long cutoffMillis) {
+        for (Long deviceId : channels.keySet()) {
+            channels.computeIfPresent(deviceId, (k, c) -> {
+                DeviceEvent latest = c.latest;
+                if (c.stream.get() != null || !c.waiters.isEmpty()
+                        || (latest != null && latest.getCreatedAtMillis() >= cutoffMillis)) {
+                    return c;
+                }
+                if (latest != null) {
+                    prunedSequence.accumulateAndGet(latest.getSequence(), Math::max);
+                }
+                pruned.increment();
+                return null;
+            });
+        }
+    }
+
+    /**
+     * 关闭时结束所有连接，设备会重连到其他节点
+     */
+    @PreDestroy
+    public void closeAll() {
+        if (fanout instanceof ExecutorService executor) {
+            executor.shutdown();
+        }
+        for (Channel channel : channels.values()) {
+            SseEmitter emitter = channel.stream.getAndSet(null);
+            if (emitter != null) {
+                emitter.complete();
+            }
+        }
+    }
+
+    public Stats stats() {
+        int streams = 0;
+        int waiters = 0;
+        for (Channel channel : channels.values()) {
+            if (channel.stream.get() != null) {
+                streams++;
+            }
+            waiters += channel.waiters.size();
+        }
+        return new Stats(connections.get(), streams, waiters, channels.size(),
+                published.sum(), delivered.sum(), rejected.sum(), pruned.sum());
+    }
+
+    private void acquireConnection() {
+        while (true) {
+            int current = connections.get();
+            if (current >= maxConnections) {
+                rejected.increment();
+                throw new RuntimeException("Too many device connections");
+            }
+            if (connections.compareAndSet(current, current + 1)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 设备尚未收到的事件
+     * - lastEventId 为空：有记录时补发最近一条
+     * - epoch 不是本进程、无法解析，或早于已清理的记录且没有更新的事件：补发 RESYNC
+     */
+    private DeviceEvent missedEvent(Channel channel, String lastEventId) {
+        DeviceEvent latest = channel != null ? channel.latest : null;
+        if (lastEventId == null || lastEventId.isBlank()) {
+            return latest;
+        }
+        long seq = parseSequence(lastEventId);
+        if (seq < 0) {
+            return resync();
+        }
+        if (latest != null && seq < latest.getSequence()) {
+            return latest;
+        }
+        if (latest == null && seq < prunedSequence.get()) {
+            return resync();
+        }
+        return null;
+    }
+
+    /**
+     * 解析本进程发出的事件 ID 的 seq；不是本进程的 ID 或格式不合法时返回 -1
+     */
+    private long parseSequence(String eventId) {
+        String value = eventId.trim();
+        int colon = value.indexOf(':');
+        if (colon <= 0) {
+            return -1;
+        }
+        try {
+            if (Long.parseLong(value.substring(0, colon)) != epoch) {
+                return -1;
+            }
+            long seq = Long.parseLong(value.substring(colon + 1));
+            return seq >= 0 && seq <= sequence.get() ? seq : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private DeviceEvent resync() {
+        long seq = sequence.get();
+        return new DeviceEvent(seq, eventId(seq), RESYNC, null, System.currentTimeMillis());
+    }
+
+    private String eventId(long seq) {
+        return epoch + ":" + seq;
+    }
+
+    /**
+     * 向设备当前的连接写出最近一条事件（多次发布并发写出时不会回退到较旧的事件）
+     */
+    private void deliver(Channel channel) {
+        DeviceEvent event = channel.latest;
+        if (event == null) {
+            return;
+        }
+        SseEmitter emitter = channel.stream.get();
+        if (emitter != null) {
+            send(emitter, event);
+        }
+        if (!channel.waiters.isEmpty()) {
+            for (Waiter waiter : new ArrayList<>(channel.waiters)) {
+                waiter.accept(event);
+            }
+        }
+    }
+
+    private void send(SseEmitter emitter, DeviceEvent event) {
+        try {
+            emitter.send(SseEmitter.event()
+                    .id(event.getId())
+                    .name(event.getType())
+                    .data(event));
+            delivered.increment();
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Failed to push event {} to device stream: {}", event.getId(), e.getMessage());
+            emitter.completeWithError(e);
+        }
+    }
+
+    private interface Waiter {
+        void accept(DeviceEvent event);
+    }
+
+    private static final class Channel {
+        private volatile DeviceEvent latest;
+        private final AtomicReference<SseEmitter> stream = new AtomicReference<>();
+        private final Set<Waiter> waiters = ConcurrentHashMap.newKeySet();
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class DeviceEvent {
+        @JsonIgnore
+        private long sequence;
+        // "{epoch}:{seq}"，设备重连时作为 Last-Event-ID / since 带回
+        private String id;
+        // TEMPLATES_CHANGED / ASSIGNMENT_CHANGED / RESYNC
+        private String type;
+        private Long activityId;
+        private long createdAtMillis;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Stats {
+        private int connections;
+        private int streams;
+        // 等待中的 long-poll 请求数
+        private int waiters;
+        // 保留的设备记录数
+        private int channels;
+        private long published;
+        private long delivered;
+        private long rejected;
+        // 已清理的空闲设备记录数
+        private long pruned;
+    }
+}
@@ -0,0 +1,251 @@
+package com.mg.platform.service.device;
+
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 设备心跳写合并（write-behind）
+ * - 心跳只写入内存（每台设备保留最近一次的时间与客户端版本），接口不访问数据库
+ * - 定时任务每 flush-interval-ms 将积累的心跳用一条批量 UPDATE 写入 devices 表，
+ *   因此 last_seen_at 最多落后一个刷新周期；应用关闭时再刷新一次
+ * - 数据库不可用时心跳放回内存，下一周期重试（期间收到的更新心跳优先）；
+ *   其他写库失败时逐行重写该批，只丢弃写不进去的行，不影响其他设备
+ * - 不存在的设备的心跳不进入内存（由调用方经在线索引确认），只计数
+ * - 客户端版本超过 devices.client_version 列宽（32）时不记录版本，只更新心跳时间
+ */
+@Slf4j
+@Component
+public class DeviceHeartbeatAggregator {
+    private static final String UPDATE_SQL =
+            "UPDATE devices SET last_seen_at = ?, client_version = COALESCE(?, client_version) WHERE id = ?";
+
+    /**
+     * devices.client_version 的列宽
+     */
+    static final int MAX_CLIENT_VERSION_LENGTH = 32;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 内存中最多暂存的设备数，超过后丢弃新设备的心跳（已暂存设备的心跳仍会更新）
+     */
+    @Value("${device.heartbeat.max-pending:100000}")
+    private int maxPending = 100000;
+
+    /**
+     * 单条批量 UPDATE 的最大行数
+     */
+    @Value("${device.heartbeat.batch-size:500}")
+    private int batchSize = 500;
+
+    private final ConcurrentHashMap<Long, Beat> pending = new ConcurrentHashMap<>();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder unknown = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder invalidVersions = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    public DeviceHeartbeatAggregator(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 记录一次心跳（只写内存）
+     * @param deviceId 设备 ID
+     * @param clientVersion 客户端版本，为空或超过列宽时保留上一次上报的版本
+     * @return 是否已记录（暂存设备数达到上限时返回 false）
+     */
+    public boolean record(Long deviceId, String clientVersion) {
+        if (deviceId == null) {
+            throw new IllegalArgumentException("deviceId is required");
+        }
+        if (pending.size() >= maxPending && !pending.containsKey(deviceId)) {
+            dropped.increment();
+            return false;
+        }
+        Beat beat = new Beat(LocalDateTime.now(), normalizeVersion(deviceId, clientVersion));
+        pending.merge(deviceId, beat, DeviceHeartbeatAggregator::newer);
+        recorded.increment();
+        return true;
+    }
+
+    /**
+     * 记录一次被拒绝的心跳（设备不存在），不进入内存
+     */
+    public void rejectUnknown(Long deviceId) {
+        unknown.increment();
+        log.debug("Ignoring heartbeat from unknown device {}", deviceId);
+    }
+
+    /**
+     * 将暂存的心跳批量写入数据库
+     * @return 写入的设备数
+     */
+    @Scheduled(
+            initialDelayString = "${device.heartbeat.flush-interval-ms:5000}",
+            fixedDelayString = "${device.heartbeat.flush-interval-ms:5000}"
+    )
+    public synchronized int flush() {
+        if (pending.isEmpty()) {
+            return 0;
+        }
+
+        // 逐个移除：与 record 并发时，移除之后到达的心跳留在 map 中等下一周期
+        List<Map.Entry<Long, Beat>> drained = new ArrayList<>(pending.size());
+        for (Long deviceId : pending.keySet()) {
+            Beat beat = pending.remove(deviceId);
+            if (beat != null) {
+                drained.add(Map.entry(deviceId, beat));
+            }
+        }
+
+        int count = 0;
+        for (int from = 0; from < drained.size(); from += batchSize) {
+            List<Map.Entry<Long, Beat>> batch = drained.subList(from, Math.min(from + batchSize, drained.size()));
+            List<Object[]> args = new ArrayList<>(batch.size());
+            for (Map.Entry<Long, Beat> entry : batch) {
+                args.add(toArgs(entry));
+            }
+            try {
+                jdbcTemplate.batchUpdate(UPDATE_SQL, args);
+                count += args.size();
+            } catch (RuntimeException e) {
+                if (isRetryable(e)) {
+                    return requeue(drained, from, count, e);
+                }
+                // 批中个别行写不进去：逐行写入，只丢弃失败的行
+                log.warn("Batched heartbeat update failed, retrying {} rows one by one: {}", args.size(), e.getMessage());
+                for (int i = 0; i < batch.size(); i++) {
+                    try {
+                        jdbcTemplate.update(UPDATE_SQL, args.get(i));
+                        count++;
+                    } catch (RuntimeException rowFailure) {
+                        if (isRetryable(rowFailure)) {
+                            return requeue(drained, from + i, count, rowFailure);
+                        }
+                        discarded.increment();
+                        log.warn("Discarding heartbeat of device {}: {}", batch.get(i).getKey(), rowFailure.getMessage());
+                    }
+                }
+            }
+        }
+        written.add(count);
+        log.debug("Flushed {} device heartbeats", count);
+        return count;
+    }
+
+    /**
+     * 数据库暂时不可用：从 fromIndex 起未写入的心跳放回内存，期间收到的更新心跳优先
+     */
+    private int requeue(List<Map.Entry<Long, Beat>> drained, int fromIndex, int count, RuntimeException e) {
+        flushFailures.increment();
+        for (Map.Entry<Long, Beat> entry : drained.subList(fromIndex, drained.size())) {
+            pending.merge(entry.getKey(), entry.getValue(), (current, failed) -> newer(failed, current));
+        }
+        written.add(count);
+        log.warn("Failed to flush {} device heartbeats, will retry: {}", drained.size() - fromIndex, e.getMessage());
+        return count;
+    }
+
+    /**
+     * 连接 / 资源类错误下一周期可能恢复；约束、数据截断等错误重试也不会成功
+     */
+    private static boolean isRetryable(RuntimeException e) {
+        return !(e instanceof DataAccessException)
+                || e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException;
+    }
+
+    private static Object[] toArgs(Map.Entry<Long, Beat> entry) {
+        Beat beat = entry.getValue();
+        return new Object[]{Timestamp.valueOf(beat.lastSeenAt), beat.clientVersion, entry.getKey()};
+    }
+
+    private String normalizeVersion(Long deviceId, String clientVersion) {
+        if (clientVersion == null) {
+            return null;
+        }
+        String version = clientVersion.trim();
+        if (version.isEmpty()) {
+            return null;
+        }
+        if (version.length() > MAX_CLIENT_VERSION_LENGTH) {
+            invalidVersions.increment();
+            log.debug("Ignoring client version of device {}: longer than {} characters", deviceId, MAX_CLIENT_VERSION_LENGTH);
+            return null;
+        }
+        return version;
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        int count = flush();
+        if (!pending.isEmpty()) {
+            log.warn("{} device heartbeats not persisted on shutdown", pending.size());
+        } else if (count > 0) {
+            log.info("Flushed {} device heartbeats on shutdown", count);
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(recorded.sum(), dropped.sum(), unknown.sum(), written.sum(), flushFailures.sum(),
+                invalidVersions.sum(), discarded.sum(), pending.size());
+    }
+
+    /**
+     * 合并两次心跳：时间取后者，后者未上报版本时沿用前者的版本
+     */
+    private static Beat newer(Beat previous, Beat next) {
+        if (next.clientVersion == null && previous.clientVersion != null) {
+            return new Beat(next.lastSeenAt, previous.clientVersion);
+        }
+        return next;
+    }
+
+    private static final class Beat {
+        private final LocalDateTime lastSeenAt;
+        private final String clientVersion;
+
+        private Beat(LocalDateTime lastSeenAt, String clientVersion) {
+            this.lastSeenAt = lastSeenAt;
+            this.clientVersion = clientVersion;
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Stats {
+        private long recorded;
+        private long dropped;
+        // 设备不存在而被拒绝的心跳
+        private long unknown;
+        private long written;
+        private long flushFailures;
+        // 超过列宽而未记录的客户端版本
+        private long invalidVersions;
+        // 写库失败且无法重试而丢弃的心跳
+        private long discarded;
+        private int pending;
+    }
+}
@@ -0,0 +1,293 @@
+package com.mg.platform.service.device;
+
+import com.mg.platform.common.util.HierarchicalTimingWheel;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 设备在线索引（内存）
+ * - 握手 / 心跳时 touch，超过 ttl 没有新心跳的设备由分层时间轮过期为离线
+ * - 在线设备再次心跳只更新 deadline（无锁）；时间轮到期时发现 deadline 已延后就按新 deadline 重新加入，
+ *   因此心跳不产生时间轮操作，只有上线 / 离线切换时加锁
+ * - 每个商户维护在线计数，上线 / 离线时增减，查询 O(1)
+ * - 启动时从 devices 表加载设备与商户的对应关系，last_seen_at 在 ttl 内的设备直接视为在线；
+ *   之后在线 / 离线列表只读内存
+ */
+@Slf4j
+@Component
+public class DevicePresenceIndex {
+    private static final String LOAD_SQL = "SELECT id, merchant_id, last_seen_at FROM devices";
+    private static final String LOAD_ONE_SQL = "SELECT merchant_id FROM devices WHERE id = ?";
+    private static final int MAX_UNKNOWN = 10000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * 超过此时长没有心跳视为离线
+     */
+    @Value("${device.presence.ttl-ms:90000}")
+    private long ttlMs = 90000;
+
+    @Value("${device.presence.tick-ms:1000}")
+    private long tickMs = 1000;
+
+    private final ConcurrentHashMap<Long, Entry> devices = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, MerchantPresence> merchants = new ConcurrentHashMap<>();
+    /**
+     * 未登记的设备 ID（已在数据库中确认不存在），避免伪造的心跳反复查库
+     */
+    private final Set<Long> unknown = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger totalOnline = new AtomicInteger();
+    private HierarchicalTimingWheel<Entry> wheel;
+
+    public DevicePresenceIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            load();
+        } catch (Exception e) {
+            // 加载失败不阻止启动：设备在下一次握手 / 心跳时登记
+            log.warn("Failed to load device presence index: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 从 devices 表加载设备登记，last_seen_at 在 ttl 内的设备视为在线
+     */
+    public void load() {
+        long now = System.currentTimeMillis();
+        List<Object[]> rows = jdbcTemplate.query(LOAD_SQL, (rs, i) -> new Object[]{
+                rs.getLong(1), rs.getLong(2), rs.getTimestamp(3)});
+        int online = 0;
+        for (Object[] row : rows) {
+            Long deviceId = (Long) row[0];
+            Entry entry = register(deviceId, (Long) row[1]);
+            Timestamp lastSeen = (Timestamp) row[2];
+            if (lastSeen != null && lastSeen.getTime() > entry.lastSeenMillis) {
+                entry.lastSeenMillis = lastSeen.getTime();
+            }
+            if (lastSeen != null && now - lastSeen.getTime() < ttlMs) {
+                touch(entry, lastSeen.getTime());
+                online++;
+            }
+        }
+        log.info("Device presence index loaded: {} devices, {} online", rows.size(), online);
+    }
+
+    /**
+     * 登记设备（新建设备时调用；重复登记返回已有记录）
+     */
+    public Entry register(Long deviceId, Long merchantId) {
+        unknown.remove(deviceId);
+        return devices.computeIfAbsent(deviceId, id -> {
+            Entry entry = new Entry(id, merchantId);
+            merchant(merchantId).devices.add(entry);
+            return entry;
+        });
+    }
+
+    /**
+     * 握手时调用（已知商户，未登记的设备直接登记）
+     */
+    public void touch(Long deviceId, Long merchantId) {
+        touch(register(deviceId, merchantId), System.currentTimeMillis());
+    }
+
+    /**
+     * 心跳时调用；未登记的设备查一次库确认归属，不存在的设备忽略
+     * @return 设备是否存在
+     */
+    public boolean touch(Long deviceId) {
+        Entry entry = devices.get(deviceId);
+        if (entry == null) {
+            if (unknown.contains(deviceId)) {
+                return false;
+            }
+            List<Long> merchantIds = jdbcTemplate.queryForList(LOAD_ONE_SQL, Long.class, deviceId);
+            if (merchantIds.isEmpty()) {
+                if (unknown.size() >= MAX_UNKNOWN) {
+                    unknown.clear();
+                }
+                unknown.add(deviceId);
+                return false;
+            }
+            entry = register(deviceId, merchantIds.get(0));
+        }
+        touch(entry, System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * 推进时间轮，过期超时未心跳的设备
+     * @return 本次转为离线的设备数
+     */
+    @Scheduled(fixedDelayString = "${device.presence.tick-ms:1000}")
+    public int expire() {
+        return expire(System.currentTimeMillis());
+    }
+
+    synchronized int expire(long now) {
+        if (wheel == null) {
+            return 0;
+        }
+        int[] offline = {0};
+        wheel.advance(now, entry -> {
+            // 先置为离线再检查 deadline：与 touch 中"先写 deadline 再读 online"配对，
+            // 两边至少有一方看到对方的写入，不会漏掉并发的心跳
+            entry.online = false;
+            if (entry.deadline > now) {
+                entry.online = true;
+                wheel.schedule(entry, entry.deadline);
+                return;
+            }
+            entry.scheduled = false;
+            merchant(entry.merchantId).online.decrementAndGet();
+            totalOnline.decrementAndGet();
+            offline[0]++;
+        });
+        return offline[0];
+    }
+
+    public int onlineCount(Long merchantId) {
+        MerchantPresence presence = merchants.get(merchantId);
+        return presence != null ? presence.online.get() : 0;
+    }
+
+    public int totalOnline() {
+        return totalOnline.get();
+    }
+
+    /**
+     * 各商户在线设备数（只包含有登记设备的商户）
+     */
+    public Map<Long, Integer> onlineCounts() {
+        Map<Long, Integer> result = new HashMap<>();
+        merchants.forEach((merchantId, presence) -> result.put(merchantId, presence.online.get()));
+        return result;
+    }
+
+    /**
+     * 商户的在线设备，按最近心跳时间倒序
+     */
+    public List<PresenceView> onlineDevices(Long merchantId) {
+        return list(merchantId, true);
+    }
+
+    /**
+     * 商户的离线设备，按最近心跳时间倒序（从未上报过的在最后）
+     */
+    public List<PresenceView> offlineDevices(Long merchantId) {
+        return list(merchantId, false);
+    }
+
+    public boolean isOnline(Long deviceId) {
+        Entry entry = devices.get(deviceId);
+        return entry != null && entry.online;
+    }
+
+    private List<PresenceView> list(Long merchantId, boolean online) {
+        MerchantPresence presence = merchants.get(merchantId);
+        if (presence == null) {
+            return List.of();
+        }
+        List<Entry> matched = new ArrayList<>();
+        for (Entry entry : presence.devices) {
+            if (entry.online == online) {
+                matched.add(entry);
+            }
+        }
+        matched.sort(Comparator.comparingLong((Entry e) -> e.lastSeenMillis).reversed());
+        List<PresenceView> result = new ArrayList<>(matched.size());
+        for (Entry entry : matched) {
+            long lastSeen = entry.lastSeenMillis;
+            result.add(new PresenceView(entry.deviceId, lastSeen > 0 ? Instant.ofEpochMilli(lastSeen).toString() : null));
+        }
+        return result;
+    }
+
+    private void touch(Entry entry, long seenAt) {
+        if (seenAt > entry.lastSeenMillis) {
+            entry.lastSeenMillis = seenAt;
+        }
+        entry.deadline = Math.max(entry.deadline, seenAt + ttlMs);
+        if (entry.online) {
+            return;
+        }
+        synchronized (this) {
+            if (entry.online) {
+                return;
+            }
+            entry.online = true;
+            merchant(entry.merchantId).online.incrementAndGet();
+            totalOnline.incrementAndGet();
+            // 过期回调里 online 临时置为 false 时 entry 仍在时间轮中，不重复加入
+            if (!entry.scheduled) {
+                entry.scheduled = true;
+                wheel().schedule(entry, entry.deadline);
+            }
+        }
+    }
+
+    private HierarchicalTimingWheel<Entry> wheel() {
+        if (wheel == null) {
+            // 每层 64 格、3 层：1 秒 tick 时覆盖约 3 天
+            wheel = new HierarchicalTimingWheel<>(tickMs, 64, 3, System.currentTimeMillis());
+        }
+        return wheel;
+    }
+
+    private MerchantPresence merchant(Long merchantId) {
+        return merchants.computeIfAbsent(merchantId, k -> new MerchantPresence());
+    }
+
+    /**
+     * 设备在线状态；online / scheduled 的修改在索引锁内完成，deadline / lastSeenMillis 由心跳无锁更新
+     */
+    static final class Entry {
+        private final Long deviceId;
+        private final Long merchantId;
+        private volatile long deadline;
+        private volatile long lastSeenMillis;
+        private volatile boolean online;
+        private boolean scheduled;
+
+        Entry(Long deviceId, Long merchantId) {
+            this.deviceId = deviceId;
+            this.merchantId = merchantId;
+        }
+    }
+
+    private static final class MerchantPresence {
+        private final Set<Entry> devices = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger online = new AtomicInteger();
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class PresenceView {
+        private Long deviceId;
+        // 最近一次握手 / 心跳时间（ISO-8601 UTC），从未上报时为空
+        private String lastSeenAt;
+    }
+}
@@ -0,0 +1,328 @@
+package com.mg.platform.service.device;
+
+import com.mg.platform.repo.MerchantRepository;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.security.SecureRandom;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 批量开通设备
+ * - 一次查询取出商户已有的 device_code（命中 uk_devices_merchant_code 索引），在内存中校验重复
+ * - 通过校验的行按 batch-size 分批用 JDBC 批量 INSERT（MySQL 需开启 rewriteBatchedStatements 合并为多行 INSERT），
+ *   并取回自增 ID；全部行在一个事务内写入
+ * - 校验后、写入前其他请求插入了相同 device_code 时（唯一键冲突），整批回滚并重新校验一次
+ * - 可选为未提供 secret 的设备生成随机 secret，生成的 secret 只在本次响应中返回
+ */
+@Slf4j
+@Service
+public class DeviceProvisioningService {
+    public static final String CREATED = "CREATED";
+    public static final String INVALID = "INVALID";
+    public static final String DUPLICATE = "DUPLICATE";
+    public static final String EXISTS = "EXISTS";
+
+    private static final String EXISTING_CODES_SQL = "SELECT device_code FROM devices WHERE merchant_id = ?";
+    private static final String INSERT_SQL =
+            "INSERT INTO devices (merchant_id, device_code, name, secret, status, created_at, updated_at) " +
+            "VALUES (?, ?, ?, ?, 'ACTIVE', ?, ?)";
+    private static final int MAX_CODE_LENGTH = 64;
+    private static final int MAX_NAME_LENGTH = 128;
+    private static final int MAX_SECRET_LENGTH = 255;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MerchantRepository merchantRepository;
+    private final DevicePresenceIndex presenceIndex;
+    private final TransactionTemplate transactionTemplate;
+    private final SecureRandom secureRandom = new SecureRandom();
+
+    /**
+     * 单次请求最多行数
+     */
+    @Value("${device.provisioning.max-rows:5000}")
+    private int maxRows = 5000;
+
+    /**
+     * 每个 JDBC 批次的行数
+     */
+    @Value("${device.provisioning.batch-size:500}")
+    private int batchSize = 500;
+
+    public DeviceProvisioningService(JdbcTemplate jdbcTemplate,
+                                     MerchantRepository merchantRepository,
+                                     DevicePresenceIndex presenceIndex,
+                                     PlatformTransactionManager transactionManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.merchantRepository = merchantRepository;
+        this.presenceIndex = presenceIndex;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * 批量开通设备
+     * @param merchantId 商户 ID
+     * @param rows 待开通的设备（顺序即结果顺序）
+     * @param generateSecrets 是否为未提供 secret 的设备生成 secret
+     * @return 每行的结果；校验失败的行不影响其他行
+     */
+    public ProvisionResult provision(Long merchantId, List<ProvisionRow> rows, boolean generateSecrets) {
+        if (merchantId == null || !merchantRepository.existsById(merchantId)) {
+            throw new RuntimeException("Merchant not found: " + merchantId);
+        }
+        if (rows == null || rows.isEmpty()) {
+            throw new RuntimeException("No devices to provision");
+        }
+        if (rows.size() > maxRows) {
+            throw new RuntimeException("Too many devices: " + rows.size() + " (max " + maxRows + ")");
+        }
+
+        // secret 在重试前生成，重试时保持不变
+        List<String> secrets = new ArrayList<>(rows.size());
+        for (ProvisionRow row : rows) {
+            String secret = trimToNull(row.getSecret());
+            secrets.add(secret == null && generateSecrets ? generateSecret() : secret);
+        }
+
+        ProvisionResult result;
+        try {
+            result = transactionTemplate.execute(status -> insert(merchantId, rows, secrets, generateSecrets));
+        } catch (DuplicateKeyException e) {
+            log.info("Concurrent device provisioning for merchant {}, re-validating: {}", merchantId, e.getMessage());
+            result = transactionTemplate.execute(status -> insert(merchantId, rows, secrets, generateSecrets));
+        }
+
+        // 提交后登记到在线索引
+        for (RowResult row : result.getRows()) {
+            if (CREATED.equals(row.getStatus()) && row.getDeviceId() != null) {
+                presenceIndex.register(row.getDeviceId(), merchantId);
+            }
+        }
+        return result;
+    }
+
+    private ProvisionResult insert(Long merchantId, List<ProvisionRow> rows, List<String> secrets, boolean generateSecrets) {
+        Set<String> existing = new HashSet<>(jdbcTemplate.queryForList(EXISTING_CODES_SQL, String.class, merchantId));
+        Set<String> seen = new HashSet<>();
+        List<RowResult> results = new ArrayList<>(rows.size());
+        List<Integer> accepted = new ArrayList<>();
+
+        for (int i = 0; i < rows.size(); i++) {
+            ProvisionRow row = rows.get(i);
+            String code = trimToNull(row.getDeviceCode());
+            RowResult result = new RowResult(i + 1, code, null, null, null, null);
+            results.add(result);
+            String invalid = validate(code, trimToNull(row.getName()), secrets.get(i));
+            if (invalid != null) {
+                result.setStatus(INVALID);
+                result.setMessage(invalid);
+            } else if (!seen.add(code)) {
+                result.setStatus(DUPLICATE);
+                result.setMessage("Duplicate deviceCode in request");
+            } else if (existing.contains(code)) {
+                result.setStatus(EXISTS);
+                result.setMessage("Device code already exists");
+            } else {
+                accepted.add(i);
+            }
+        }
+
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (int from = 0; from < accepted.size(); from += batchSize) {
+            List<Integer> batch = accepted.subList(from, Math.min(from + batchSize, accepted.size()));
+            KeyHolder keys = new GeneratedKeyHolder();
+            jdbcTemplate.batchUpdate(
+                    con -> con.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS),
+                    new BatchPreparedStatementSetter() {
+                        @Override
+                        public void setValues(PreparedStatement ps, int j) throws SQLException {
+                            int index = batch.get(j);
+                            ProvisionRow row = rows.get(index);
+                            ps.setLong(1, merchantId);
+                            ps.setString(2, results.get(index).getDeviceCode());
+                            ps.setString(3, trimToNull(row.getName()));
+                            ps.setString(4, secrets.get(index));
+                            ps.setTimestamp(5, now);
+                            ps.setTimestamp(6, now);
+                        }
+
+                        @Override
+                        public int getBatchSize() {
+                            return batch.size();
+                        }
+                    },
+                    keys);
+            List<Map<String, Object>> keyList = keys.getKeyList();
+            for (int j = 0; j < batch.size(); j++) {
+                int index = batch.get(j);
+                RowResult result = results.get(index);
+                result.setStatus(CREATED);
+                if (j < keyList.size()) {
+                    result.setDeviceId(((Number) keyList.get(j).values().iterator().next()).longValue());
+                }
+                // 只返回本次生成的 secret；调用方自带的 secret 不回显
+                if (generateSecrets && trimToNull(rows.get(index).getSecret()) == null) {
+                    result.setSecret(secrets.get(index));
+                }
+            }
+        }
+
+        return new ProvisionResult(rows.size(), accepted.size(), rows.size() - accepted.size(), results);
+    }
+
+    /**
+     * 解析 CSV（逐行读取，不整体缓存请求体）
+     * 列：deviceCode,name[,secret]；首行为表头（deviceCode / device_code）时跳过；字段可用双引号包裹，"" 表示引号
+     * @throws RuntimeException 行数超过上限或读取失败
+     */
+    public List<ProvisionRow> parseCsv(Reader reader) {
+        List<ProvisionRow> rows = new ArrayList<>();
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        try {
+            String line;
+            boolean first = true;
+            while ((line = in.readLine()) != null) {
+                if (first && line.startsWith("\uFEFF")) {
+                    line = line.substring(1);
+                }
+                if (line.isBlank()) {
+                    first = false;
+                    continue;
+                }
+                List<String> fields = splitCsvLine(line);
+                if (first) {
+                    first = false;
+                    String head = fields.get(0).trim();
+                    if ("deviceCode".equalsIgnoreCase(head) || "device_code".equalsIgnoreCase(head)) {
+                        continue;
+                    }
+                }
+                if (rows.size() >= maxRows) {
+                    throw new RuntimeException("Too many devices (max " + maxRows + ")");
+                }
+                rows.add(new ProvisionRow(fields.get(0),
+                        fields.size() > 1 ? fields.get(1) : null,
+                        fields.size() > 2 ? fields.get(2) : null));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read CSV: " + e.getMessage(), e);
+        }
+        return rows;
+    }
+
+    static List<String> splitCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String validate(String code, String name, String secret) {
+        if (code == null) {
+            return "deviceCode is required";
+        }
+        if (code.length() > MAX_CODE_LENGTH) {
+            return "deviceCode is longer than " + MAX_CODE_LENGTH + " characters";
+        }
+        if (name != null && name.length() > MAX_NAME_LENGTH) {
+            return "name is longer than " + MAX_NAME_LENGTH + " characters";
+        }
+        if (secret != null && secret.length() > MAX_SECRET_LENGTH) {
+            return "secret is longer than " + MAX_SECRET_LENGTH + " characters";
+        }
+        return null;
+    }
+
+    private String generateSecret() {
+        byte[] bytes = new byte[24];
+        secureRandom.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    private static String trimToNull(String value) {
+        if (value == null) {
+            return null;
+        }
+        String trimmed = value.trim();
+        return trimmed.isEmpty() ? null : trimmed;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ProvisionRow {
+        private String deviceCode;
+        private String name;
+        private String secret;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class RowResult {
+        // 行号（从 1 开始，CSV 不计表头）
+        private int row;
+        private String deviceCode;
+        // CREATED / INVALID / DUPLICATE / EXISTS
+        private String status;
+        private Long deviceId;
+        // 本次生成的 secret（仅 generateSecrets 且未提供 secret 时返回）
+        private String secret;
+        private String message;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class ProvisionResult {
+        private int requested;
+        private int created;
+        private int rejected;
+        private List<RowResult> rows;
+    }
+}
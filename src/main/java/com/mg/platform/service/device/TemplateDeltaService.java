@@ -0,0 +1,325 @@
+package com.mg.platform.service.device;
+
+import com.mg.platform.common.util.BinaryDelta;
+import com.mg.platform.domain.TemplateVersion;
+import com.mg.platform.repo.TemplateVersionRepository;
+import com.mg.platform.service.device.TemplatePackageStore.PackageFile;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 模板版本间的二进制差量包
+ * - 设备已安装 from 版本时，下载 from -> to 的差量（BinaryDelta 格式）代替完整包
+ * - 只提供相邻版本（to 是 from 的下一个版本）或升级到模板当前版本（最新的 ACTIVE 版本）的差量，
+ *   任意版本对不会触发计算
+ * - 差量在后台线程池中计算（线程数与排队数有上限，队列满时不计算），计算完成前返回空，设备先下载完整包
+ * - 差量按 (from 文件名 + checksum, to 文件名 + checksum) 缓存在 packages.delta.dir 下，重启后仍可复用；
+ *   目录总大小超过 max-dir-bytes 时删除最早生成的差量
+ * - 差量大于完整包的 max-ratio 时不提供（记录标记文件，不再重复计算），设备回退到完整包
+ */
+@Slf4j
+@Component
+public class TemplateDeltaService {
+    /**
+     * 差量格式版本，变更编码方式时递增，使旧的缓存文件失效
+     */
+    private static final String FORMAT = "mgd1";
+
+    private final TemplateVersionRepository templateVersionRepository;
+    private final TemplatePackageStore packageStore;
+    // 已排队或计算中的差量 key
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger threadIndex = new AtomicInteger();
+
+    @Value("${packages.delta.dir:}")
+    private String deltaDir = "";
+
+    @Value("${packages.delta.block-size:128}")
+    private int blockSize = 128;
+
+    @Value("${packages.delta.max-ratio:0.5}")
+    private double maxRatio = 0.5;
+
+    @Value("${packages.delta.max-source-bytes:134217728}")
+    private long maxSourceBytes = 134217728L;
+
+    @Value("${packages.delta.compute-threads:1}")
+    private int computeThreads = 1;
+
+    @Value("${packages.delta.queue-capacity:32}")
+    private int queueCapacity = 32;
+
+    @Value("${packages.delta.max-dir-bytes:1073741824}")
+    private long maxDirBytes = 1073741824L;
+
+    private Path root;
+    private ThreadPoolExecutor executor;
+
+    private final LongAdder computed = new LongAdder();
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder notWorthwhile = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    public TemplateDeltaService(TemplateVersionRepository templateVersionRepository,
+                                TemplatePackageStore packageStore) {
+        this.templateVersionRepository = templateVersionRepository;
+        this.packageStore = packageStore;
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        root = (deltaDir == null || deltaDir.isBlank()
+                ? Paths.get(System.getProperty("java.io.tmpdir"), "mg-template-deltas")
+                : Paths.get(deltaDir)).toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        int threads = Math.max(1, computeThreads);
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), r -> {
+                    Thread thread = new Thread(r, "template-delta-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * 查找 from -> to 的差量包；尚未生成时提交后台计算并返回空
+     * @return 版本对不提供差量、包文件不存在、差量不划算或尚未计算完成时为空
+     */
+    public Optional<PackageFile> findDelta(Long fromVersionId, Long toVersionId) throws IOException {
+        if (fromVersionId == null || toVersionId == null || fromVersionId.equals(toVersionId)) {
+            return Optional.empty();
+        }
+        TemplateVersion from = templateVersionRepository.findById(fromVersionId).orElse(null);
+        TemplateVersion to = templateVersionRepository.findById(toVersionId).orElse(null);
+        if (from == null || to == null || !from.getTemplate().getId().equals(to.getTemplate().getId())
+                || !offered(from, to)) {
+            return Optional.empty();
+        }
+        Optional<PackageFile> base = packageStore.findByPackageUrl(from.getPackageUrl());
+        Optional<PackageFile> target = packageStore.findByPackageUrl(to.getPackageUrl());
+        if (base.isEmpty() || target.isEmpty()) {
+            return Optional.empty();
+        }
+        String fromId = identity(base.get());
+        String toId = identity(target.get());
+        if (fromId.equals(toId)) {
+            return Optional.empty();
+        }
+
+        String key = cacheKey(fromId, toId);
+        Path deltaFile = root.resolve(key + ".delta");
+        Path skipMarker = root.resolve(key + ".none");
+        if (Files.exists(skipMarker)) {
+            return Optional.empty();
+        }
+        if (Files.isRegularFile(deltaFile)) {
+            reused.increment();
+            return Optional.of(describe(deltaFile, key));
+        }
+        schedule(base.get(), target.get(), key, deltaFile, skipMarker);
+        return Optional.empty();
+    }
+
+    public Stats stats() {
+        return new Stats(computed.sum(), reused.sum(), notWorthwhile.sum(), bytesSaved.sum(),
+                pending.size(), rejected.sum(), evicted.sum());
+    }
+
+    /**
+     * to 是 from 的下一个版本，或 to 是模板当前版本且比 from 新
+     */
+    private boolean offered(TemplateVersion from, TemplateVersion to) {
+        if (to.getId() <= from.getId()) {
+            return false;
+        }
+        // 按 id 降序：下标越小越新
+        List<TemplateVersion> versions = templateVersionRepository.findByTemplateIdOrderByIdDesc(to.getTemplate().getId());
+        Optional<TemplateVersion> current = versions.stream().filter(v -> "ACTIVE".equals(v.getStatus())).findFirst();
+        if (current.isPresent() && current.get().getId().equals(to.getId())) {
+            return true;
+        }
+        for (int i = 1; i < versions.size(); i++) {
+            if (versions.get(i).getId().equals(from.getId())) {
+                return versions.get(i - 1).getId().equals(to.getId());
+            }
+        }
+        return false;
+    }
+
+    private void schedule(PackageFile base, PackageFile target, String key, Path deltaFile, Path skipMarker) {
+        if (!pending.add(key)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    compute(base, target, key, deltaFile, skipMarker);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Failed to compute template delta {}: {}", key, e.getMessage());
+                } finally {
+                    pending.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // 队列已满：本次不计算，设备下载完整包，后续请求再提交
+            pending.remove(key);
+            rejected.increment();
+        }
+    }
+
+    private void compute(PackageFile base, PackageFile target, String key,
+                         Path deltaFile, Path skipMarker) throws IOException {
+        // 排队期间可能已由其他实例写好
+        if (Files.isRegularFile(deltaFile) || Files.exists(skipMarker)) {
+            return;
+        }
+        if (base.getSize() > maxSourceBytes || target.getSize() > maxSourceBytes) {
+            log.info("Skipping template delta {}: package larger than {} bytes", key, maxSourceBytes);
+            Files.write(skipMarker, new byte[0]);
+            return;
+        }
+        long startedAt = System.nanoTime();
+        byte[] delta = BinaryDelta.encode(Files.readAllBytes(base.getPath()),
+                Files.readAllBytes(target.getPath()), blockSize);
+        computed.increment();
+        log.info("Computed template delta {}: {} -> {} bytes in {}ms", key, target.getSize(), delta.length,
+                (System.nanoTime() - startedAt) / 1_000_000);
+        if (delta.length > target.getSize() * maxRatio) {
+            notWorthwhile.increment();
+            Files.write(skipMarker, new byte[0]);
+            return;
+        }
+        bytesSaved.add(target.getSize() - delta.length);
+        // 先写临时文件再原子改名，下载方不会读到写了一半的差量
+        Path tmp = Files.createTempFile(root, key, ".tmp");
+        try {
+            Files.write(tmp, delta);
+            Files.move(tmp, deltaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        evict(deltaFile);
+    }
+
+    /**
+     * 差量目录超过 max-dir-bytes 时按生成时间从旧到新删除差量文件（刚生成的除外）
+     * 正在下载的文件已打开，删除后仍可读完
+     */
+    private void evict(Path keep) throws IOException {
+        List<CachedDelta> deltas = new ArrayList<>();
+        long total = 0;
+        try (Stream<Path> files = Files.list(root)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!file.getFileName().toString().endsWith(".delta")) {
+                    continue;
+                }
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    deltas.add(new CachedDelta(file, attrs.lastModifiedTime().toMillis(), attrs.size()));
+                    total += attrs.size();
+                } catch (IOException e) {
+                    // 已被其他实例删除
+                }
+            }
+        }
+        if (total <= maxDirBytes) {
+            return;
+        }
+        deltas.sort(Comparator.comparingLong(CachedDelta::lastModified));
+        for (CachedDelta delta : deltas) {
+            if (total <= maxDirBytes) {
+                break;
+            }
+            if (!delta.path().equals(keep) && Files.deleteIfExists(delta.path())) {
+                total -= delta.size();
+                evicted.increment();
+            }
+        }
+    }
+
+    private record CachedDelta(Path path, long lastModified, long size) {
+    }
+
+    private static PackageFile describe(Path deltaFile, String key) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(deltaFile, BasicFileAttributes.class);
+        return new PackageFile(deltaFile, attrs.size(), attrs.lastModifiedTime().toMillis(), key);
+    }
+
+    /**
+     * 包文件标识：未登记 checksum 的文件只有 "{大小}-{修改时间}"，不同文件可能相同，因此带上文件名
+     */
+    private static String identity(PackageFile file) {
+        return file.getPath().getFileName() + "/" + file.getChecksum();
+    }
+
+    /**
+     * checksum 来自数据库，不直接用作文件名；取 (格式, from, to) 的 SHA-256
+     */
+    private static String cacheKey(String fromChecksum, String toChecksum) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((FORMAT + "\n" + fromChecksum + "\n" + toChecksum)
+                    .getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Stats {
+        private long computed;
+        // 命中磁盘缓存的次数
+        private long reused;
+        // 差量超过 max-ratio 而不提供的次数
+        private long notWorthwhile;
+        // 已计算差量相对完整包节省的字节数（每对版本计一次）
+        private long bytesSaved;
+        // 排队或计算中的差量数
+        private long pending;
+        // 计算队列已满而未提交的次数
+        private long rejected;
+        // 因差量目录超过 max-dir-bytes 删除的文件数
+        private long evicted;
+    }
+}
@@ -0,0 +1,103 @@
+package com.mg.platform.service.device;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 模板包下载统计：吞吐、并发连接数与限流拒绝次数
+ * 计数全部使用 LongAdder / CAS，下载热路径无锁
+ */
+@Component
+public class TemplatePackageMetrics {
+    private final long createdAtNanos = System.nanoTime();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder partial = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder sendfile = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final AtomicLong peakActive = new AtomicLong();
+
+    /**
+     * 一次下载开始（已获得并发许可）
+     */
+    public void started() {
+        requests.increment();
+        active.increment();
+        peakActive.accumulateAndGet(active.sum(), Math::max);
+    }
+
+    /**
+     * 一次下载结束
+     * @param bytes 写出（或交给容器 sendfile）的响应体字节数
+     * @param success 响应体是否完整写出
+     */
+    public void finished(long bytes, boolean success) {
+        active.decrement();
+        bytesSent.add(bytes);
+        if (!success) {
+            failures.increment();
+        }
+    }
+
+    public void notModified() {
+        requests.increment();
+        notModified.increment();
+    }
+
+    public void partial() {
+        partial.increment();
+    }
+
+    public void sendfile() {
+        sendfile.increment();
+    }
+
+    /**
+     * 并发连接数达到上限被拒绝
+     */
+    public void rejected() {
+        rejected.increment();
+    }
+
+    public PackageView view() {
+        double elapsedSeconds = Math.max(1.0, (System.nanoTime() - createdAtNanos) / 1e9);
+        long bytes = bytesSent.sum();
+        return new PackageView(
+                requests.sum(),
+                notModified.sum(),
+                partial.sum(),
+                rejected.sum(),
+                sendfile.sum(),
+                failures.sum(),
+                active.sum(),
+                peakActive.get(),
+                bytes,
+                bytes / elapsedSeconds);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class PackageView {
+        private long requests;
+        // If-None-Match 命中（304）次数
+        private long notModified;
+        // Range 请求（206）次数
+        private long partial;
+        private long rejected;
+        // 交给容器 sendfile 发送的次数（仅不限并发时使用，其余为 FileChannel.transferTo 写出）
+        private long sendfile;
+        private long failures;
+        private long active;
+        private long peakActive;
+        private long bytesSent;
+        // 自启动以来的平均每秒发送字节数
+        private double bytesPerSecond;
+    }
+}
@@ -0,0 +1,200 @@
+package com.mg.platform.service.device;
+
+import com.mg.platform.repo.TemplateVersionRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 模板包文件目录
+ * - 文件位于 packages.dir（为空时使用 classpath 下的 static/packages，仅在未打包运行时可用）
+ * - 每个文件的强 ETag 取对应 TemplateVersion.checksum：启动时一次加载全部已登记的 checksum，
+ *   新建版本时由管理端登记；下载路径只读文件属性，不查库、不计算摘要
+ * - 没有登记 checksum 的文件用 "{大小}-{修改时间}" 作为标识（同 nginx 的强 ETag）
+ * - 元数据按文件名缓存，文件大小或修改时间变化后重新生成
+ */
+@Slf4j
+@Component
+public class TemplatePackageStore {
+    private static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,254}");
+
+    private final TemplateVersionRepository templateVersionRepository;
+
+    @Value("${packages.dir:}")
+    private String packagesDir = "";
+
+    private Path root;
+    private final ConcurrentHashMap<String, PackageFile> cache = new ConcurrentHashMap<>();
+    // 文件名 -> TemplateVersion.checksum
+    private final ConcurrentHashMap<String, String> recordedChecksums = new ConcurrentHashMap<>();
+
+    public TemplatePackageStore(TemplateVersionRepository templateVersionRepository) {
+        this.templateVersionRepository = templateVersionRepository;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (packagesDir != null && !packagesDir.isBlank()) {
+            root = Paths.get(packagesDir).toAbsolutePath().normalize();
+        } else {
+            try {
+                root = new ClassPathResource("static/packages").getFile().toPath().toAbsolutePath().normalize();
+            } catch (IOException e) {
+                log.warn("packages.dir is not set and classpath static/packages is not a directory; template packages will not be served");
+                return;
+            }
+        }
+        log.info("Serving template packages from {}", root);
+    }
+
+    /**
+     * 加载所有已登记的 checksum（一条查询）；失败时不影响启动，未登记的文件按大小 + 修改时间生成 ETag
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadChecksums() {
+        try {
+            List<Object[]> rows = templateVersionRepository.findPackageChecksums();
+            for (Object[] row : rows) {
+                recordChecksum((String) row[0], (String) row[1]);
+            }
+            log.info("Loaded {} template package checksums", recordedChecksums.size());
+        } catch (RuntimeException e) {
+            log.warn("Failed to load template package checksums: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 登记包文件的 checksum（新建模板版本后调用）
+     */
+    public void recordChecksum(String packageUrl, String checksum) {
+        String fileName = fileName(packageUrl);
+        if (fileName == null || checksum == null || checksum.isBlank()) {
+            return;
+        }
+        recordedChecksums.put(fileName, checksum.trim());
+        cache.remove(fileName);
+    }
+
+    /**
+     * 计算包文件的 SHA-256（管理端新建版本未提供 checksum 时调用，不在下载路径上）
+     * @return 文件不存在时为空
+     */
+    public Optional<String> computeChecksum(String packageUrl) throws IOException {
+        String fileName = fileName(packageUrl);
+        Optional<Path> path = resolve(fileName);
+        if (path.isEmpty()) {
+            return Optional.empty();
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path.get()), MessageDigest.getInstance("SHA-256"))) {
+            byte[] buffer = new byte[64 * 1024];
+            while (in.read(buffer) >= 0) {
+                // 读取过程中计算摘要
+            }
+            return Optional.of(HexFormat.of().formatHex(((DigestInputStream) in).getMessageDigest().digest()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * 查找包文件
+     * @param fileName 文件名（不含路径）
+     * @return 文件不存在、文件名不合法或未配置目录时为空
+     */
+    public Optional<PackageFile> find(String fileName) throws IOException {
+        Optional<Path> resolved = resolve(fileName);
+        if (resolved.isEmpty()) {
+            return Optional.empty();
+        }
+        Path path = resolved.get();
+
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long size = attrs.size();
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        PackageFile cached = cache.get(fileName);
+        if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+            return Optional.of(cached);
+        }
+
+        String checksum = recordedChecksums.get(fileName);
+        PackageFile file = new PackageFile(path, size, lastModified,
+                checksum != null ? checksum : Long.toHexString(size) + "-" + Long.toHexString(lastModified));
+        cache.put(fileName, file);
+        return Optional.of(file);
+    }
+
+    /**
+     * 按 TemplateVersion.packageUrl 查找包文件（取 URL 最后一段作为文件名）
+     */
+    public Optional<PackageFile> findByPackageUrl(String packageUrl) throws IOException {
+        String fileName = fileName(packageUrl);
+        return fileName != null ? find(fileName) : Optional.empty();
+    }
+
+    private Optional<Path> resolve(String fileName) {
+        if (root == null || fileName == null || !FILE_NAME.matcher(fileName).matches()) {
+            return Optional.empty();
+        }
+        Path path = root.resolve(fileName).normalize();
+        if (!path.startsWith(root) || !Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        return Optional.of(path);
+    }
+
+    /**
+     * packageUrl 的最后一段（去掉查询串）
+     */
+    private static String fileName(String packageUrl) {
+        if (packageUrl == null) {
+            return null;
+        }
+        String path = packageUrl;
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * 包文件元数据（不可变）
+     */
+    @Getter
+    @AllArgsConstructor
+    public static final class PackageFile {
+        private final Path path;
+        private final long size;
+        private final long lastModified;
+        // TemplateVersion.checksum；未登记时为 "{大小}-{修改时间}"（十六进制）
+        private final String checksum;
+
+        /**
+         * 强 ETag（带引号的 checksum）
+         */
+        public String getEtag() {
+            return "\"" + checksum + "\"";
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.common.util.CryptoUtil;
+import com.mg.platform.service.routing.RoutingSnapshot.ApiKeyEntry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 已解密 API Key 缓存
+ * 以 provider_api_keys.id + updated_at 为键：key 被修改（updated_at 变化）后自动视为未命中并重新解密。
+ * 明文只保存在内存中，不写日志。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ApiKeyMaterialCache {
+    private final CryptoUtil cryptoUtil;
+
+    private final ConcurrentHashMap<Long, CachedKey> cache = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * 获取解密后的 API Key，未命中时解密并缓存
+     * @param apiKey 路由快照中的 key 项
+     * @return 明文 API Key
+     */
+    public String getPlaintext(ApiKeyEntry apiKey) {
+        CachedKey cached = cache.get(apiKey.getKeyId());
+        if (cached != null && Objects.equals(cached.updatedAt, apiKey.getUpdatedAt())) {
+            hits.increment();
+            return cached.plaintext;
+        }
+
+        misses.increment();
+        String plaintext = cryptoUtil.decrypt(apiKey.getApiKeyCipher());
+        cache.put(apiKey.getKeyId(), new CachedKey(apiKey.getUpdatedAt(), plaintext));
+        return plaintext;
+    }
+
+    /**
+     * 移除某个 key 的缓存（创建 / 禁用 key 时调用）
+     */
+    public void invalidate(Long keyId) {
+        if (keyId != null && cache.remove(keyId) != null) {
+            log.debug("Evicted decrypted API key cache entry for key ID: {}", keyId);
+        }
+    }
+
+    public void invalidateAll() {
+        cache.clear();
+    }
+
+    public Stats stats() {
+        long h = hits.sum();
+        long m = misses.sum();
+        long total = h + m;
+        return new Stats(h, m, cache.size(), total == 0 ? 0.0 : (double) h / total);
+    }
+
+    private static final class CachedKey {
+        private final LocalDateTime updatedAt;
+        private final String plaintext;
+
+        private CachedKey(LocalDateTime updatedAt, String plaintext) {
+            this.updatedAt = updatedAt;
+            this.plaintext = plaintext;
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Stats {
+        private long hits;
+        private long misses;
+        private int size;
+        private double hitRate;
+    }
+}
@@ -0,0 +1,229 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.common.exception.ApiKeyRateLimitedException;
+import com.mg.platform.common.exception.NoActiveApiKeyException;
+import com.mg.platform.service.routing.RoutingSnapshot.ApiKeyEntry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provider API Key 池
+ * - 在 provider 的所有 ACTIVE key 之间轮询分配，避免所有设备集中使用同一个 key
+ * - 每个 key 一个令牌桶（GCRA 实现，单个 AtomicLong + CAS，无锁无分配），预算为 rpm_limit
+ * - 剩余预算低于 reserve-ratio 的 key 优先跳过；全部接近耗尽时选剩余最多的，全部耗尽时抛出 ApiKeyRateLimitedException
+ * - peek 只查看、不扣减预算，用于下发备选 provider（设备多数情况下不会用到备选，不应提前占用预算）
+ * - 快照替换时清理已停用 / 删除的 key 和 provider 对应的令牌桶与游标
+ */
+@Component
+public class ApiKeyPool {
+    /**
+     * rpm_limit 为空时使用的默认预算，0 表示不限制
+     */
+    @Value("${routing.key-pool.default-rpm:0}")
+    private int defaultRpm = 0;
+
+    /**
+     * 剩余预算比例低于此值的 key 视为接近耗尽
+     */
+    @Value("${routing.key-pool.reserve-ratio:0.1}")
+    private double reserveRatio = 0.1;
+
+    private final ConcurrentHashMap<Long, AtomicInteger> cursors = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, KeyBucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * 为 provider 分配一个 key 并扣减其预算
+     * @param providerId Provider ID
+     * @param keys provider 的 ACTIVE key（来自路由快照）
+     * @return 选中的 key
+     * @throws NoActiveApiKeyException 没有 ACTIVE key
+     * @throws ApiKeyRateLimitedException 所有 key 预算已耗尽
+     */
+    public ApiKeyEntry acquire(Long providerId, List<ApiKeyEntry> keys) {
+        if (keys.isEmpty()) {
+            throw new NoActiveApiKeyException("No active API key found for provider");
+        }
+        if (keys.size() == 1) {
+            ApiKeyEntry only = keys.get(0);
+            long now = System.nanoTime();
+            if (bucket(only).tryAcquire(now)) {
+                return only;
+            }
+            throw rateLimited(keys, now);
+        }
+
+        long now = System.nanoTime();
+        int size = keys.size();
+        int start = Math.floorMod(cursors.computeIfAbsent(providerId, k -> new AtomicInteger()).getAndIncrement(), size);
+
+        // 第一轮：从游标位置开始轮询，跳过接近耗尽的 key
+        for (int i = 0; i < size; i++) {
+            ApiKeyEntry key = keys.get((start + i) % size);
+            KeyBucket bucket = bucket(key);
+            if (bucket.availableRatio(now) >= reserveRatio && bucket.tryAcquire(now)) {
+                return key;
+            }
+        }
+
+        // 第二轮：所有 key 都接近耗尽，按剩余预算从多到少尝试
+        List<ApiKeyEntry> byHeadroom = new ArrayList<>(keys);
+        byHeadroom.sort((a, b) -> Double.compare(bucket(b).availableRatio(now), bucket(a).availableRatio(now)));
+        for (ApiKeyEntry key : byHeadroom) {
+            if (bucket(key).tryAcquire(now)) {
+                return key;
+            }
+        }
+        throw rateLimited(keys, now);
+    }
+
+    /**
+     * 选出剩余预算最多的可用 key，但不扣减预算
+     * @param keys provider 的 ACTIVE key（来自路由快照）
+     * @return 剩余预算最多的 key
+     * @throws NoActiveApiKeyException 没有 ACTIVE key
+     * @throws ApiKeyRateLimitedException 所有 key 预算已耗尽
+     */
+    public ApiKeyEntry peek(List<ApiKeyEntry> keys) {
+        if (keys.isEmpty()) {
+            throw new NoActiveApiKeyException("No active API key found for provider");
+        }
+        long now = System.nanoTime();
+        ApiKeyEntry best = null;
+        double bestRatio = -1;
+        for (ApiKeyEntry key : keys) {
+            KeyBucket bucket = bucket(key);
+            double ratio = bucket.availableRatio(now);
+            if (bucket.canAcquire(now) && ratio > bestRatio) {
+                best = key;
+                bestRatio = ratio;
+            }
+        }
+        if (best == null) {
+            throw rateLimited(keys, now);
+        }
+        return best;
+    }
+
+    /**
+     * 只保留仍然 ACTIVE 的 key 和 provider 的状态（路由快照替换后调用）
+     * 与旧快照上并发的 acquire 可能重新创建刚清理的条目，下次替换时再清理
+     * @param providerIds 有 ACTIVE key 的 provider
+     * @param keyIds ACTIVE key
+     */
+    public void retain(Set<Long> providerIds, Set<Long> keyIds) {
+        cursors.keySet().retainAll(providerIds);
+        buckets.keySet().retainAll(keyIds);
+    }
+
+    /**
+     * 当前各 key 的预算情况（管理端查看）
+     */
+    public List<KeyView> view() {
+        long now = System.nanoTime();
+        List<KeyView> result = new ArrayList<>();
+        buckets.forEach((keyId, bucket) ->
+                result.add(new KeyView(keyId, bucket.rpm, bucket.rpm > 0 ? bucket.available(now) : -1)));
+        return result;
+    }
+
+    /**
+     * Retry-After 取最早恢复预算的 key 还需等待的时间（向上取整到秒，至少 1 秒）
+     */
+    private ApiKeyRateLimitedException rateLimited(List<ApiKeyEntry> keys, long now) {
+        long waitNanos = Long.MAX_VALUE;
+        for (ApiKeyEntry key : keys) {
+            waitNanos = Math.min(waitNanos, bucket(key).waitNanos(now));
+        }
+        long retryAfterSeconds = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        return new ApiKeyRateLimitedException("All API keys for provider are rate limited", retryAfterSeconds);
+    }
+
+    private KeyBucket bucket(ApiKeyEntry key) {
+        int rpm = key.getRpmLimit() != null ? key.getRpmLimit() : defaultRpm;
+        KeyBucket bucket = buckets.get(key.getKeyId());
+        if (bucket != null && bucket.rpm == rpm) {
+            return bucket;
+        }
+        // 首次使用或 rpm_limit 变更（快照重建）时创建新的令牌桶
+        return buckets.compute(key.getKeyId(), (k, prev) -> prev != null && prev.rpm == rpm ? prev : new KeyBucket(rpm));
+    }
+
+    /**
+     * GCRA 令牌桶：tat 为理论到达时间，容量 = rpm（允许一分钟预算内的突发）
+     */
+    static final class KeyBucket {
+        private final int rpm;
+        private final long intervalNanos;
+        private final long toleranceNanos;
+        private final AtomicLong tat;
+
+        KeyBucket(int rpm) {
+            this.rpm = rpm;
+            this.intervalNanos = rpm > 0 ? TimeUnit.MINUTES.toNanos(1) / rpm : 0;
+            this.toleranceNanos = rpm > 0 ? intervalNanos * (rpm - 1) : 0;
+            // 初始 tat 取最小值：新建的桶预算是满的，且不受调用方取 now 的先后影响
+            this.tat = new AtomicLong(Long.MIN_VALUE);
+        }
+
+        boolean tryAcquire(long now) {
+            if (rpm <= 0) {
+                return true;
+            }
+            while (true) {
+                long current = tat.get();
+                long base = Math.max(current, now);
+                if (base - now > toleranceNanos) {
+                    return false;
+                }
+                if (tat.compareAndSet(current, base + intervalNanos)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 现在是否有令牌（与 tryAcquire 的判断相同，但不扣减）
+         */
+        boolean canAcquire(long now) {
+            return rpm <= 0 || Math.max(tat.get(), now) - now <= toleranceNanos;
+        }
+
+        /**
+         * 距离下一个令牌可用还需等待的时间
+         */
+        long waitNanos(long now) {
+            return rpm <= 0 ? 0 : Math.max(0, Math.max(tat.get(), now) - now - toleranceNanos);
+        }
+
+        /**
+         * 当前可用令牌数
+         */
+        double available(long now) {
+            long base = Math.max(tat.get(), now);
+            return Math.max(0.0, (double) (toleranceNanos - (base - now)) / intervalNanos + 1);
+        }
+
+        double availableRatio(long now) {
+            return rpm <= 0 ? 1.0 : available(now) / rpm;
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class KeyView {
+        private Long keyId;
+        private int rpmLimit;
+        // 当前可用令牌数，不限制时为 -1
+        private double available;
+    }
+}
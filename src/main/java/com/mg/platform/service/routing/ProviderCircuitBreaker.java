@@ -0,0 +1,265 @@
+package com.mg.platform.service.routing;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Provider 熔断器，按 (provider, capability)（即 provider_capabilities.id）维护
+ * - CLOSED：正常放行，连续失败达到 failure-threshold 后进入 OPEN
+ * - OPEN：不放行，open-ms 后进入 HALF_OPEN
+ * - HALF_OPEN：只放行 half-open-max-calls 个试探请求，成功则 CLOSED，失败则重新 OPEN；
+ *   试探请求超过 open-ms 没有结果（设备未上报）时重新发放试探名额
+ * 状态为不可变对象，通过 AtomicReference CAS 切换，无锁。
+ */
+@Slf4j
+@Component
+public class ProviderCircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final int TRANSITION_LOG_SIZE = 256;
+
+    @Value("${routing.circuit-breaker.failure-threshold:5}")
+    private int failureThreshold = 5;
+
+    @Value("${routing.circuit-breaker.open-ms:30000}")
+    private long openMs = 30000;
+
+    @Value("${routing.circuit-breaker.half-open-max-calls:1}")
+    private int halfOpenMaxCalls = 1;
+
+    private final ConcurrentHashMap<Long, AtomicReference<Status>> breakers = new ConcurrentHashMap<>();
+
+    // 最近的状态切换（环形缓冲）
+    private final AtomicReferenceArray<Transition> transitions = new AtomicReferenceArray<>(TRANSITION_LOG_SIZE);
+    private final AtomicLong transitionSequence = new AtomicLong();
+
+    /**
+     * 申请一次调用：CLOSED 直接放行；OPEN 冷却结束后转为 HALF_OPEN 并占用一个试探名额
+     * @param capabilityId provider_capabilities.id
+     * @return 是否放行
+     */
+    public boolean tryAcquire(Long capabilityId) {
+        AtomicReference<Status> ref = breakers.get(capabilityId);
+        if (ref == null) {
+            return true;
+        }
+        while (true) {
+            Status current = ref.get();
+            long now = System.currentTimeMillis();
+            Status next;
+            switch (current.state) {
+                case CLOSED:
+                    return true;
+                case OPEN:
+                    if (now - current.sinceMillis < openMs) {
+                        return false;
+                    }
+                    next = new Status(State.HALF_OPEN, 0, now, 1);
+                    break;
+                default:
+                    if (current.trials < halfOpenMaxCalls) {
+                        next = new Status(State.HALF_OPEN, 0, current.sinceMillis, current.trials + 1);
+                    } else if (now - current.sinceMillis >= openMs) {
+                        // 试探请求迟迟没有结果，重新发放名额
+                        next = new Status(State.HALF_OPEN, 0, now, 1);
+                    } else {
+                        return false;
+                    }
+            }
+            if (ref.compareAndSet(current, next)) {
+                if (current.state != next.state) {
+                    logTransition(capabilityId, current.state, next.state, "cool-down elapsed");
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 是否可能放行（不占用试探名额），用于备选列表、proxy 模式 resolve 等不直接发起调用的场景
+     */
+    public boolean isCallPermitted(Long capabilityId) {
+        AtomicReference<Status> ref = breakers.get(capabilityId);
+        if (ref == null) {
+            return true;
+        }
+        Status current = ref.get();
+        long now = System.currentTimeMillis();
+        switch (current.state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return now - current.sinceMillis >= openMs;
+            default:
+                return current.trials < halfOpenMaxCalls || now - current.sinceMillis >= openMs;
+        }
+    }
+
+    /**
+     * 记录一次调用结果（设备上报或 proxy 转发结果）
+     */
+    public void record(Long capabilityId, boolean success) {
+        AtomicReference<Status> ref = breakers.computeIfAbsent(capabilityId,
+                k -> new AtomicReference<>(new Status(State.CLOSED, 0, System.currentTimeMillis(), 0)));
+        while (true) {
+            Status current = ref.get();
+            long now = System.currentTimeMillis();
+            Status next;
+            String reason;
+            switch (current.state) {
+                case CLOSED:
+                    if (success) {
+                        if (current.failures == 0) {
+                            return;
+                        }
+                        next = new Status(State.CLOSED, 0, current.sinceMillis, 0);
+                        reason = null;
+                    } else if (current.failures + 1 >= failureThreshold) {
+                        next = new Status(State.OPEN, current.failures + 1, now, 0);
+                        reason = (current.failures + 1) + " consecutive failures";
+                    } else {
+                        next = new Status(State.CLOSED, current.failures + 1, current.sinceMillis, 0);
+                        reason = null;
+                    }
+                    break;
+                case OPEN:
+                    // 打开前已发出的调用迟到的结果，忽略
+                    return;
+                default:
+                    if (success) {
+                        next = new Status(State.CLOSED, 0, now, 0);
+                        reason = "trial call succeeded";
+                    } else {
+                        next = new Status(State.OPEN, current.failures + 1, now, 0);
+                        reason = "trial call failed";
+                    }
+            }
+            if (ref.compareAndSet(current, next)) {
+                if (current.state != next.state) {
+                    logTransition(capabilityId, current.state, next.state, reason);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 调用结束但结果与 provider 健康无关（设备断开、设备请求导致的 4xx）：不计成功或失败，
+     * HALF_OPEN 下归还 tryAcquire 占用的试探名额
+     */
+    public void release(Long capabilityId) {
+        AtomicReference<Status> ref = breakers.get(capabilityId);
+        if (ref == null) {
+            return;
+        }
+        while (true) {
+            Status current = ref.get();
+            if (current.state != State.HALF_OPEN || current.trials == 0) {
+                return;
+            }
+            Status next = new Status(State.HALF_OPEN, current.failures, current.sinceMillis, current.trials - 1);
+            if (ref.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 手动重置为 CLOSED（管理端）
+     * @return 重置前是否存在熔断记录
+     */
+    public boolean reset(Long capabilityId) {
+        AtomicReference<Status> ref = breakers.remove(capabilityId);
+        if (ref != null && ref.get().state != State.CLOSED) {
+            logTransition(capabilityId, ref.get().state, State.CLOSED, "manual reset");
+        }
+        return ref != null;
+    }
+
+    /**
+     * 当前各熔断器状态（key 为 provider_capabilities.id）
+     */
+    public Map<Long, BreakerView> view() {
+        Map<Long, BreakerView> result = new HashMap<>();
+        breakers.forEach((capabilityId, ref) -> {
+            Status s = ref.get();
+            result.put(capabilityId, new BreakerView(s.state.name(), s.failures, s.sinceMillis));
+        });
+        return result;
+    }
+
+    /**
+     * 最近的状态切换，按时间先后排列
+     */
+    public List<Transition> recentTransitions() {
+        long end = transitionSequence.get();
+        long start = Math.max(0, end - TRANSITION_LOG_SIZE);
+        List<Transition> result = new ArrayList<>();
+        for (long i = start; i < end; i++) {
+            Transition t = transitions.get((int) (i % TRANSITION_LOG_SIZE));
+            if (t != null) {
+                result.add(t);
+            }
+        }
+        result.sort((a, b) -> Long.compare(a.getSequence(), b.getSequence()));
+        return result;
+    }
+
+    private void logTransition(Long capabilityId, State from, State to, String reason) {
+        long sequence = transitionSequence.getAndIncrement();
+        transitions.set((int) (sequence % TRANSITION_LOG_SIZE),
+                new Transition(sequence, capabilityId, from.name(), to.name(), reason, System.currentTimeMillis()));
+        if (to == State.OPEN) {
+            log.warn("Circuit for capability {} opened: {}", capabilityId, reason);
+        } else {
+            log.info("Circuit for capability {} {} -> {}: {}", capabilityId, from, to, reason);
+        }
+    }
+
+    private static final class Status {
+        private final State state;
+        private final int failures;
+        private final long sinceMillis;
+        // HALF_OPEN 下已发放的试探名额
+        private final int trials;
+
+        private Status(State state, int failures, long sinceMillis, int trials) {
+            this.state = state;
+            this.failures = failures;
+            this.sinceMillis = sinceMillis;
+            this.trials = trials;
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class BreakerView {
+        private String state;
+        private int consecutiveFailures;
+        // 进入当前状态的时间
+        private long sinceMillis;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Transition {
+        private long sequence;
+        private Long capabilityId;
+        private String from;
+        private String to;
+        private String reason;
+        private long atMillis;
+    }
+}
@@ -0,0 +1,154 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.service.routing.RoutingSnapshot.CapabilityRoute;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Provider 健康记分板，按 (provider, capability)（即 provider_capabilities.id）统计
+ * EWMA 延迟与 EWMA 错误率，数据来自设备上报的调用结果。
+ * 全部使用 CAS 更新，无锁；与路由快照独立，快照重建不会清空统计。
+ */
+@Component
+public class ProviderHealthScoreboard {
+    @Value("${routing.health.alpha:0.2}")
+    private double alpha = 0.2;
+
+    @Value("${routing.health.min-samples:5}")
+    private long minSamples = 5;
+
+    @Value("${routing.health.error-rate-threshold:0.5}")
+    private double errorRateThreshold = 0.5;
+
+    /**
+     * EWMA 延迟超过 default_timeout_ms * 此比例视为降级
+     */
+    @Value("${routing.health.latency-threshold-ratio:0.8}")
+    private double latencyThresholdRatio = 0.8;
+
+    /**
+     * 降级的 provider 超过此时长没有新样本时重新视为健康（让它重新获得流量以便恢复）
+     */
+    @Value("${routing.health.recovery-ms:30000}")
+    private long recoveryMs = 30000;
+
+    private final ConcurrentHashMap<Long, HealthStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * 记录一次调用结果
+     * @param capabilityId provider_capabilities.id
+     * @param latencyMs 调用耗时（超时按实际等待时间上报）
+     * @param success 是否成功
+     */
+    public void record(Long capabilityId, long latencyMs, boolean success) {
+        stats.computeIfAbsent(capabilityId, k -> new HealthStats())
+                .record(alpha, Math.max(0, latencyMs), success, System.currentTimeMillis());
+    }
+
+    /**
+     * 判断路由是否处于降级状态
+     */
+    public boolean isDegraded(CapabilityRoute route) {
+        HealthStats s = stats.get(route.getCapabilityId());
+        if (s == null || s.samples.get() < minSamples) {
+            return false;
+        }
+        if (System.currentTimeMillis() - s.lastSampleAtMillis > recoveryMs) {
+            return false;
+        }
+        if (s.errorRate() > errorRateThreshold) {
+            return true;
+        }
+        Integer timeoutMs = route.getDefaultTimeoutMs();
+        return timeoutMs != null && s.latencyMs() > timeoutMs * latencyThresholdRatio;
+    }
+
+    /**
+     * 将降级的路由移到末尾（相对顺序不变），全部健康时返回原列表
+     */
+    public List<CapabilityRoute> demoteDegraded(List<CapabilityRoute> routes) {
+        List<CapabilityRoute> healthy = null;
+        List<CapabilityRoute> degraded = null;
+        for (int i = 0; i < routes.size(); i++) {
+            CapabilityRoute route = routes.get(i);
+            if (isDegraded(route)) {
+                if (degraded == null) {
+                    degraded = new ArrayList<>();
+                    healthy = new ArrayList<>(routes.subList(0, i));
+                }
+                degraded.add(route);
+            } else if (healthy != null) {
+                healthy.add(route);
+            }
+        }
+        if (degraded == null) {
+            return routes;
+        }
+        healthy.addAll(degraded);
+        return healthy;
+    }
+
+    /**
+     * 当前统计快照（管理端查看）
+     */
+    public Map<Long, HealthView> view() {
+        Map<Long, HealthView> result = new HashMap<>();
+        stats.forEach((capabilityId, s) -> result.put(capabilityId,
+                new HealthView(s.latencyMs(), s.errorRate(), s.samples.get(), s.lastSampleAtMillis)));
+        return result;
+    }
+
+    static final class HealthStats {
+        // double 以 raw bits 形式保存在 AtomicLong 中，便于 CAS
+        private final AtomicLong latencyBits = new AtomicLong(Double.doubleToRawLongBits(-1.0));
+        private final AtomicLong errorRateBits = new AtomicLong(Double.doubleToRawLongBits(0.0));
+        private final AtomicLong samples = new AtomicLong();
+        private volatile long lastSampleAtMillis;
+
+        void record(double alpha, long latencyMs, boolean success, long now) {
+            // 首个样本直接作为初值，之后按 EWMA 平滑
+            update(latencyBits, prev -> prev < 0 ? latencyMs : prev + alpha * (latencyMs - prev));
+            double outcome = success ? 0.0 : 1.0;
+            update(errorRateBits, prev -> prev + alpha * (outcome - prev));
+            samples.incrementAndGet();
+            lastSampleAtMillis = now;
+        }
+
+        double latencyMs() {
+            return Math.max(0.0, Double.longBitsToDouble(latencyBits.get()));
+        }
+
+        double errorRate() {
+            return Double.longBitsToDouble(errorRateBits.get());
+        }
+
+        private static void update(AtomicLong bits, DoubleUnaryOperator fn) {
+            while (true) {
+                long prevBits = bits.get();
+                double next = fn.applyAsDouble(Double.longBitsToDouble(prevBits));
+                if (bits.compareAndSet(prevBits, Double.doubleToRawLongBits(next))) {
+                    return;
+                }
+            }
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class HealthView {
+        private double ewmaLatencyMs;
+        private double ewmaErrorRate;
+        private long samples;
+        private long lastSampleAtMillis;
+    }
+}
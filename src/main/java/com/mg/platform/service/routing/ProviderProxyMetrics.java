@@ -0,0 +1,108 @@
+package com.mg.platform.service.routing;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * proxy 模式下按 provider 统计的吞吐与延迟
+ * 计数全部使用 LongAdder / CAS，转发热路径无锁
+ */
+@Component
+public class ProviderProxyMetrics {
+    private final ConcurrentHashMap<String, ProviderStats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * 一次转发开始
+     */
+    public void started(String providerCode) {
+        stats(providerCode).inFlight.increment();
+    }
+
+    /**
+     * 一次转发结束
+     * @param latencyNanos 从发出请求到响应体转发完成的耗时
+     * @param success provider 返回非错误状态码且响应体完整转发
+     * @param timeout 是否因超时失败
+     */
+    public void finished(String providerCode, long latencyNanos, boolean success, boolean timeout,
+                         long bytesIn, long bytesOut) {
+        ProviderStats s = stats(providerCode);
+        s.inFlight.decrement();
+        s.requests.increment();
+        if (!success) {
+            s.failures.increment();
+        }
+        if (timeout) {
+            s.timeouts.increment();
+        }
+        s.bytesIn.add(bytesIn);
+        s.bytesOut.add(bytesOut);
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+        s.latencyTotalMs.add(latencyMs);
+        s.maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+    }
+
+    /**
+     * 当前统计（管理端查看），key 为 provider code
+     */
+    public Map<String, ProxyView> view() {
+        long now = System.nanoTime();
+        Map<String, ProxyView> result = new HashMap<>();
+        stats.forEach((providerCode, s) -> {
+            long requests = s.requests.sum();
+            double elapsedSeconds = Math.max(1.0, (now - s.createdAtNanos) / 1e9);
+            result.put(providerCode, new ProxyView(
+                    requests,
+                    s.failures.sum(),
+                    s.timeouts.sum(),
+                    s.inFlight.sum(),
+                    s.bytesIn.sum(),
+                    s.bytesOut.sum(),
+                    requests > 0 ? (double) s.latencyTotalMs.sum() / requests : 0.0,
+                    s.maxLatencyMs.get(),
+                    requests / elapsedSeconds));
+        });
+        return result;
+    }
+
+    private ProviderStats stats(String providerCode) {
+        return stats.computeIfAbsent(providerCode, k -> new ProviderStats());
+    }
+
+    static final class ProviderStats {
+        private final long createdAtNanos = System.nanoTime();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder timeouts = new LongAdder();
+        private final LongAdder inFlight = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder latencyTotalMs = new LongAdder();
+        private final AtomicLong maxLatencyMs = new AtomicLong();
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class ProxyView {
+        private long requests;
+        private long failures;
+        private long timeouts;
+        private long inFlight;
+        // 设备 -> provider 的请求体字节数
+        private long bytesIn;
+        // provider -> 设备的响应体字节数
+        private long bytesOut;
+        private double avgLatencyMs;
+        private long maxLatencyMs;
+        // 自首次转发以来的平均每秒请求数
+        private double requestsPerSecond;
+    }
+}
@@ -0,0 +1,204 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.common.dto.AiResolveRequest;
+import com.mg.platform.common.dto.AiResolveResponse;
+import com.mg.platform.common.util.ETags;
+import com.mg.platform.service.ResolveService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * resolve 结果的租约：设备可在 TTL 内缓存路由决策，过期后带 If-None-Match 重新验证
+ * - ETag 由本次请求实际对应的候选路由派生（含各候选的熔断 / 降级状态、ACTIVE key），不含全局版本号：
+ *   其他能力 / 商家的变更、无关 provider 的熔断切换不会让设备的缓存失效；计算时不分配 key、不占用熔断名额
+ * - 同一 ETag 下每次 resolve 的 key 分配 / 分流结果可能不同，因此使用弱 ETag
+ * - 带设备 token 的 resolve 签发租约 ID，记录设备和下发的 provider；调用结果上报必须对应一个未过期的租约，
+ *   且只能上报该租约内的 provider，每个租约的上报次数有上限（防止伪造上报把 provider 打入熔断）
+ * - 租约按签发顺序排队（TTL 固定，即到期顺序）：签发时从队首清理已过期的租约，超过上限时淘汰最早到期的，
+ *   续期过的租约移到队尾；查询不加锁
+ */
+@Component
+@RequiredArgsConstructor
+public class ResolveLease {
+    private final ResolveService resolveService;
+
+    @Value("${routing.lease.ttl-seconds:60}")
+    private int ttlSeconds = 60;
+
+    /**
+     * 租约过期后仍接受上报的宽限时间（覆盖租约末尾发起、尚未返回的调用）
+     */
+    @Value("${routing.lease.report-grace-seconds:120}")
+    private int reportGraceSeconds = 120;
+
+    /**
+     * 每个租约最多接受的上报次数
+     */
+    @Value("${routing.lease.max-reports:100}")
+    private int maxReports = 100;
+
+    /**
+     * 内存中保存的租约数上限
+     */
+    @Value("${routing.lease.max-entries:100000}")
+    private int maxEntries = 100000;
+
+    private final ConcurrentHashMap<String, IssuedLease> issued = new ConcurrentHashMap<>();
+
+    /**
+     * 租约 ID 按签发顺序排列，只在签发时（持有自身的锁）访问
+     */
+    private final ArrayDeque<String> expiryOrder = new ArrayDeque<>();
+
+    public int getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * 计算请求当前对应的 ETag
+     * @param request resolve 请求
+     * @param merchantCode 生效的商家代码
+     */
+    public String etag(AiResolveRequest request, String merchantCode) {
+        int requestHash = Objects.hash(request.getCapability(), merchantCode);
+        return "W/\"" + Integer.toHexString(requestHash)
+                + "-" + Integer.toHexString(resolveService.routeFingerprint(request, merchantCode)) + "\"";
+    }
+
+    /**
+     * 为设备签发租约，记录本次下发的主 provider 和备选 provider
+     * @param deviceId 设备 ID（来自已校验的设备 token）
+     * @param etag 本次响应的 ETag，批量 resolve 为 null（不支持续期）
+     * @param response resolve 结果
+     * @return 租约 ID
+     */
+    public String issue(Long deviceId, String etag, AiResolveResponse response) {
+        Set<String> providerCodes = new HashSet<>();
+        if (response.getDirect() != null) {
+            providerCodes.add(response.getDirect().getProviderCode());
+        }
+        if (response.getFailover() != null && response.getFailover().getCandidates() != null) {
+            for (AiResolveResponse.Direct candidate : response.getFailover().getCandidates()) {
+                providerCodes.add(candidate.getProviderCode());
+            }
+        }
+        long now = System.currentTimeMillis();
+        String leaseId = UUID.randomUUID().toString();
+        IssuedLease lease = new IssuedLease(deviceId, etag, response.getCapability(), Set.copyOf(providerCodes));
+        lease.expiresAtMillis = now + ttlSeconds * 1000L;
+        store(leaseId, lease, now);
+        return leaseId;
+    }
+
+    /**
+     * 304 重新验证时续期：租约属于该设备且 ETag 未变（下发的 provider 不变）时延长有效期
+     * @return 是否续期成功；失败时调用方应返回完整响应并签发新租约
+     */
+    public boolean renew(String leaseId, Long deviceId, String etag) {
+        if (leaseId == null || deviceId == null || etag == null) {
+            return false;
+        }
+        IssuedLease lease = issued.get(leaseId);
+        long now = System.currentTimeMillis();
+        if (lease == null || !deviceId.equals(lease.deviceId) || !etag.equals(lease.etag)
+                || lease.isExpired(now, reportGraceSeconds)) {
+            return false;
+        }
+        lease.expiresAtMillis = now + ttlSeconds * 1000L;
+        lease.renewed = true;
+        lease.reports.set(0);
+        return true;
+    }
+
+    /**
+     * 校验一次调用结果上报并计数
+     * @return 租约存在、属于该设备、未过期、包含该 provider 且未超过上报次数时返回 true
+     */
+    public boolean acceptReport(String leaseId, Long deviceId, String capability, String providerCode) {
+        if (leaseId == null || deviceId == null) {
+            return false;
+        }
+        IssuedLease lease = issued.get(leaseId);
+        if (lease == null || !deviceId.equals(lease.deviceId)
+                || lease.isExpired(System.currentTimeMillis(), reportGraceSeconds)
+                || !Objects.equals(capability, lease.capability)
+                || !lease.providerCodes.contains(providerCode)) {
+            return false;
+        }
+        return lease.reports.incrementAndGet() <= maxReports;
+    }
+
+    /**
+     * 当前保存的租约数
+     */
+    public int issuedCount() {
+        return issued.size();
+    }
+
+    private void store(String leaseId, IssuedLease lease, long now) {
+        issued.put(leaseId, lease);
+        synchronized (expiryOrder) {
+            expiryOrder.addLast(leaseId);
+            while (!expiryOrder.isEmpty()) {
+                String oldestId = expiryOrder.peekFirst();
+                IssuedLease oldest = issued.get(oldestId);
+                boolean expired = oldest == null || oldest.isExpired(now, reportGraceSeconds);
+                if (!expired && issued.size() <= maxEntries) {
+                    break;
+                }
+                expiryOrder.pollFirst();
+                if (expired) {
+                    issued.remove(oldestId, oldest);
+                } else if (oldest.renewed) {
+                    // 续期过的租约到期时间已推后，移到队尾（每次续期只移动一次，循环有界）
+                    oldest.renewed = false;
+                    expiryOrder.addLast(oldestId);
+                } else {
+                    // 超过上限：淘汰最早到期的租约（设备下次重新验证时会拿到新租约）
+                    issued.remove(oldestId, oldest);
+                }
+            }
+        }
+    }
+
+    /**
+     * If-None-Match 是否命中（支持 *、逗号分隔的多个值、弱比较）
+     */
+    public boolean matches(String ifNoneMatch, String etag) {
+        return ETags.matches(ifNoneMatch, etag);
+    }
+
+    /**
+     * 已签发的租约
+     */
+    private static final class IssuedLease {
+        private final Long deviceId;
+        private final String etag;
+        private final String capability;
+        private final Set<String> providerCodes;
+        private final AtomicInteger reports = new AtomicInteger();
+        private volatile long expiresAtMillis;
+        // 自进入签发队列后是否续期过
+        private volatile boolean renewed;
+
+        IssuedLease(Long deviceId, String etag, String capability, Set<String> providerCodes) {
+            this.deviceId = deviceId;
+            this.etag = etag;
+            this.capability = capability;
+            this.providerCodes = providerCodes;
+        }
+
+        boolean isExpired(long nowMillis, int graceSeconds) {
+            return expiresAtMillis + graceSeconds * 1000L <= nowMillis;
+        }
+    }
+}
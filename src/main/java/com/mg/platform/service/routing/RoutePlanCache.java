@@ -0,0 +1,151 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.common.util.SingleFlight;
+import com.mg.platform.service.routing.RoutingSnapshot.CapabilityRoute;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 路由方案缓存：按 (merchantCode, capability, prefer, maxCostTier) 缓存 cost tier 过滤 + prefer 排序后的候选列表
+ * - 只对当前路由快照有效，快照替换后整体失效
+ * - 未命中时通过 SingleFlight 合并并发加载：活动开场时大量设备同时 resolve 同一能力，只计算一次
+ * - 健康降级、key 分配仍按请求实时计算，不进缓存
+ */
+@Component
+public class RoutePlanCache {
+    /**
+     * 最多缓存的方案数（超出后只合并不缓存）；调用方传入的 prefer 已按快照中的 provider 归一化，组合数受 provider 数限制
+     */
+    @Value("${routing.plan-cache.max-entries:4096}")
+    private int maxEntries = 4096;
+
+    /**
+     * 等待进行中加载的最长时间
+     */
+    @Value("${routing.plan-cache.wait-timeout-ms:2000}")
+    private long waitTimeoutMs = 2000;
+
+    private final SingleFlight<PlanKey, List<CapabilityRoute>> singleFlight = new SingleFlight<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private volatile Plans plans = new Plans(null);
+
+    /**
+     * 获取路由方案，未命中时调用 loader（并发未命中只有一个调用方执行 loader）
+     */
+    public List<CapabilityRoute> get(RoutingSnapshot snapshot, String merchantCode, String capability,
+                                     List<String> prefer, Integer maxCostTier,
+                                     Supplier<List<CapabilityRoute>> loader) {
+        Plans current = plansFor(snapshot);
+        PlanKey key = new PlanKey(snapshot.getVersion(), merchantCode, capability,
+                prefer != null ? new ArrayList<>(prefer) : List.of(), maxCostTier);
+
+        List<CapabilityRoute> plan = current.entries.get(key);
+        if (plan != null) {
+            hits.increment();
+            return plan;
+        }
+
+        misses.increment();
+        return singleFlight.execute(key, () -> {
+            List<CapabilityRoute> loaded = List.copyOf(loader.get());
+            if (current.entries.size() < maxEntries) {
+                current.entries.put(key, loaded);
+            }
+            return loaded;
+        }, waitTimeoutMs);
+    }
+
+    private Plans plansFor(RoutingSnapshot snapshot) {
+        Plans current = plans;
+        if (current.snapshot == snapshot) {
+            return current;
+        }
+        synchronized (this) {
+            current = plans;
+            // 只前进不后退：旧快照上的请求不替换新快照的方案
+            if (current.snapshot != snapshot
+                    && (current.snapshot == null || current.snapshot.getVersion() <= snapshot.getVersion())) {
+                current = new Plans(snapshot);
+                plans = current;
+            }
+            return current.snapshot == snapshot ? current : new Plans(snapshot);
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), singleFlight.executions(), singleFlight.coalesced(),
+                singleFlight.timeouts(), plans.entries.size());
+    }
+
+    private static final class Plans {
+        private final RoutingSnapshot snapshot;
+        private final ConcurrentHashMap<PlanKey, List<CapabilityRoute>> entries = new ConcurrentHashMap<>();
+
+        private Plans(RoutingSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+
+    private static final class PlanKey {
+        private final long version;
+        private final String merchantCode;
+        private final String capability;
+        private final List<String> prefer;
+        private final Integer maxCostTier;
+        private final int hash;
+
+        private PlanKey(long version, String merchantCode, String capability, List<String> prefer, Integer maxCostTier) {
+            this.version = version;
+            this.merchantCode = merchantCode;
+            this.capability = capability;
+            this.prefer = prefer;
+            this.maxCostTier = maxCostTier;
+            this.hash = Objects.hash(version, merchantCode, capability, prefer, maxCostTier);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey other = (PlanKey) o;
+            return version == other.version
+                    && Objects.equals(merchantCode, other.merchantCode)
+                    && Objects.equals(capability, other.capability)
+                    && Objects.equals(prefer, other.prefer)
+                    && Objects.equals(maxCostTier, other.maxCostTier);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Stats {
+        private long hits;
+        private long misses;
+        // 实际计算次数
+        private long loads;
+        // 未命中但合并到进行中计算的调用数
+        private long coalesced;
+        private long waitTimeouts;
+        private long size;
+    }
+}
@@ -0,0 +1,593 @@
+package com.mg.platform.service.routing;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mg.platform.common.BaseEntity;
+import com.mg.platform.domain.CapabilityRoutingPolicy;
+import com.mg.platform.domain.ProviderApiKey;
+import com.mg.platform.domain.ProviderCapability;
+import lombok.Getter;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.LocalDateTime;
+import java.util.*;
+
+/**
+ * 路由快照（不可变）
+ * 一次性从数据库加载 provider_capabilities / capability_routing_policies / provider_api_keys，
+ * 预先完成排序与 prefer_providers_json 解析，resolve 热路径只读此对象，不访问 JPA。
+ */
+@Slf4j
+public final class RoutingSnapshot {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    public static final RoutingSnapshot EMPTY = new RoutingSnapshot(
+            0L, Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(),
+            Collections.emptyList());
+
+    /**
+     * 快照版本号，单调递增；只在内容变化时更新（内容相同的重建保留原版本号，依赖版本号的缓存不失效）
+     */
+    @Getter
+    private final long version;
+
+    /**
+     * 加载序号：每次重建分配一个，用于丢弃过期的重建结果
+     */
+    @Getter
+    private final long loadSequence;
+
+    // 内容摘要（路由 / policy / key），用于快速判断重建结果是否有变化
+    private final int contentHash;
+
+    // capability -> 按 priority ASC 排好序、并按 cost_tier 预分桶的 ACTIVE 路由
+    private final Map<String, TieredRoutes> routesByCapability;
+
+    // merchantCode -> capability -> 生效 policy（已合并 GLOBAL 回退），只包含有 MERCHANT policy 的商家
+    private final Map<String, Map<String, PolicyRule>> effectiveByMerchant;
+
+    // capability -> GLOBAL policy（无 MERCHANT policy 的商家 / 未传 merchantCode 时使用）
+    private final Map<String, PolicyRule> globalPolicies;
+
+    // providerId -> 所有 ACTIVE API Key（按创建时间降序）
+    private final Map<Long, List<ApiKeyEntry>> activeKeysByProvider;
+
+    /**
+     * 同一 (scope, merchant, capability) 下的重复 policy 记录（构建时已选出生效的一条）
+     */
+    @Getter
+    private final List<DuplicatePolicy> duplicatePolicies;
+
+    private RoutingSnapshot(long version,
+                            Map<String, TieredRoutes> routesByCapability,
+                            Map<String, Map<String, PolicyRule>> effectiveByMerchant,
+                            Map<String, PolicyRule> globalPolicies,
+                            Map<Long, List<ApiKeyEntry>> activeKeysByProvider,
+                            List<DuplicatePolicy> duplicatePolicies) {
+        this(version, version, routesByCapability, effectiveByMerchant, globalPolicies, activeKeysByProvider,
+                duplicatePolicies, Objects.hash(routesByCapability, effectiveByMerchant, globalPolicies,
+                        activeKeysByProvider, duplicatePolicies));
+    }
+
+    private RoutingSnapshot(long version,
+                            long loadSequence,
+                            Map<String, TieredRoutes> routesByCapability,
+                            Map<String, Map<String, PolicyRule>> effectiveByMerchant,
+                            Map<String, PolicyRule> globalPolicies,
+                            Map<Long, List<ApiKeyEntry>> activeKeysByProvider,
+                            List<DuplicatePolicy> duplicatePolicies,
+                            int contentHash) {
+        this.version = version;
+        this.loadSequence = loadSequence;
+        this.routesByCapability = routesByCapability;
+        this.effectiveByMerchant = effectiveByMerchant;
+        this.globalPolicies = globalPolicies;
+        this.activeKeysByProvider = activeKeysByProvider;
+        this.duplicatePolicies = duplicatePolicies;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * 与另一快照的路由、policy、key 是否完全相同
+     */
+    public boolean sameContent(RoutingSnapshot other) {
+        return other != null
+                && contentHash == other.contentHash
+                && routesByCapability.equals(other.routesByCapability)
+                && effectiveByMerchant.equals(other.effectiveByMerchant)
+                && globalPolicies.equals(other.globalPolicies)
+                && activeKeysByProvider.equals(other.activeKeysByProvider)
+                && duplicatePolicies.equals(other.duplicatePolicies);
+    }
+
+    /**
+     * 内容相同的重建结果：共享本快照的数据和版本号，只推进加载序号
+     */
+    RoutingSnapshot reloaded(long loadSequence) {
+        return new RoutingSnapshot(version, loadSequence, routesByCapability, effectiveByMerchant, globalPolicies,
+                activeKeysByProvider, duplicatePolicies, contentHash);
+    }
+
+    /**
+     * 获取某个能力的 ACTIVE 路由（priority ASC）
+     */
+    public List<CapabilityRoute> getRoutes(String capability) {
+        TieredRoutes routes = capability != null ? routesByCapability.get(capability) : null;
+        return routes != null ? routes.all() : Collections.emptyList();
+    }
+
+    /**
+     * 获取某个能力在 maxCostTier 限制内的 ACTIVE 路由（priority ASC）
+     * cost_tier 为 NULL 的 provider 不受限制
+     * @param maxCostTier 最大成本等级，为 null 时不限制
+     */
+    public List<CapabilityRoute> getRoutes(String capability, Integer maxCostTier) {
+        TieredRoutes routes = capability != null ? routesByCapability.get(capability) : null;
+        if (routes == null) {
+            return Collections.emptyList();
+        }
+        return maxCostTier != null ? routes.withinTier(maxCostTier) : routes.all();
+    }
+
+    /**
+     * 按 providerCode 查找某个能力的 ACTIVE 路由
+     */
+    public Optional<CapabilityRoute> findRoute(String capability, String providerCode) {
+        for (CapabilityRoute route : getRoutes(capability)) {
+            if (route.getProviderCode().equals(providerCode)) {
+                return Optional.of(route);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * 获取 (merchantCode, capability) 的生效 policy：MERCHANT policy 优先，缺失的字段已在构建时用 GLOBAL policy 补齐
+     * @param merchantCode 商家代码，可为空（只使用 GLOBAL policy）
+     * @return 生效 policy；没有任何 policy 时返回 {@link PolicyRule#NONE}
+     */
+    public PolicyRule getEffectivePolicy(String merchantCode, String capability) {
+        if (capability == null) {
+            return PolicyRule.NONE;
+        }
+        Map<String, PolicyRule> byCapability = merchantCode != null
+                ? effectiveByMerchant.getOrDefault(merchantCode, globalPolicies)
+                : globalPolicies;
+        PolicyRule rule = byCapability.get(capability);
+        return rule != null ? rule : PolicyRule.NONE;
+    }
+
+    /**
+     * 获取 provider 的所有 ACTIVE API Key（按创建时间降序），没有时返回空列表
+     */
+    public List<ApiKeyEntry> getActiveApiKeys(Long providerId) {
+        List<ApiKeyEntry> keys = providerId != null ? activeKeysByProvider.get(providerId) : null;
+        return keys != null ? keys : Collections.emptyList();
+    }
+
+    /**
+     * 有 ACTIVE API Key 的 provider ID
+     */
+    public Set<Long> getApiKeyProviderIds() {
+        return activeKeysByProvider.keySet();
+    }
+
+    /**
+     * 所有 ACTIVE API Key 的 ID
+     */
+    public Set<Long> getActiveApiKeyIds() {
+        Set<Long> keyIds = new HashSet<>();
+        activeKeysByProvider.values().forEach(keys -> keys.forEach(k -> keyIds.add(k.getKeyId())));
+        return keyIds;
+    }
+
+    /**
+     * 由数据库实体构建快照
+     * @param version 快照版本号
+     * @param capabilities ACTIVE 的 provider_capabilities（需已加载 provider）
+     * @param policies 所有 capability_routing_policies
+     * @param merchantCodes merchantId -> merchantCode
+     * @param activeKeys ACTIVE 的 provider_api_keys
+     */
+    public static RoutingSnapshot build(long version,
+                                        List<ProviderCapability> capabilities,
+                                        List<CapabilityRoutingPolicy> policies,
+                                        Map<Long, String> merchantCodes,
+                                        List<ProviderApiKey> activeKeys) {
+        // 1. capability -> routes，按 priority ASC 排序（priority 相同按 id，保证稳定）
+        Map<String, List<CapabilityRoute>> routes = new HashMap<>();
+        for (ProviderCapability cap : capabilities) {
+            if (!"ACTIVE".equals(cap.getStatus())) {
+                continue;
+            }
+            routes.computeIfAbsent(cap.getCapability(), k -> new ArrayList<>()).add(CapabilityRoute.from(cap));
+        }
+        Map<String, TieredRoutes> sortedRoutes = new HashMap<>();
+        routes.forEach((capability, list) -> {
+            list.sort(Comparator.comparing(CapabilityRoute::getPriority)
+                    .thenComparing(CapabilityRoute::getCapabilityId));
+            sortedRoutes.put(capability, TieredRoutes.of(list));
+        });
+
+        // 2. policies：同一 (scope, merchantId, capability) 可能有重复记录（fix_duplicate_policies.sql 清理的那类数据），
+        //    构建时取最新的一条（created_at 最大，相同时 id 最大），其余记录到 duplicatePolicies
+        Map<String, List<CapabilityRoutingPolicy>> policyGroups = new LinkedHashMap<>();
+        for (CapabilityRoutingPolicy policy : policies) {
+            Long merchantId = policy.getMerchant() != null ? policy.getMerchant().getId() : null;
+            String key = policy.getScope() + "|" + merchantId + "|" + policy.getCapability();
+            policyGroups.computeIfAbsent(key, k -> new ArrayList<>(1)).add(policy);
+        }
+        List<CapabilityRoutingPolicy> latestPolicies = new ArrayList<>(policyGroups.size());
+        List<DuplicatePolicy> duplicates = new ArrayList<>();
+        for (List<CapabilityRoutingPolicy> group : policyGroups.values()) {
+            CapabilityRoutingPolicy winner = group.get(0);
+            for (CapabilityRoutingPolicy candidate : group) {
+                if (isNewer(candidate, winner)) {
+                    winner = candidate;
+                }
+            }
+            latestPolicies.add(winner);
+            if (group.size() > 1) {
+                duplicates.add(DuplicatePolicy.of(winner, group, merchantCodes));
+            }
+        }
+
+        Map<String, Map<String, PolicyRule>> merchantPolicies = new HashMap<>();
+        Map<String, PolicyRule> globalPolicies = new HashMap<>();
+        for (CapabilityRoutingPolicy policy : latestPolicies) {
+            if (!"ACTIVE".equals(policy.getStatus())) {
+                continue;
+            }
+            PolicyRule rule = new PolicyRule(
+                    policy.getId(),
+                    parsePrefer(policy),
+                    policy.getMaxCostTier(),
+                    policy.getRetryCount() != null ? Math.max(0, policy.getRetryCount()) : 0,
+                    parseFailoverCodes(policy),
+                    parseTrafficSplit(policy)
+            );
+            if ("GLOBAL".equals(policy.getScope()) && policy.getMerchant() == null) {
+                globalPolicies.put(policy.getCapability(), rule);
+            } else if ("MERCHANT".equals(policy.getScope()) && policy.getMerchant() != null) {
+                String merchantCode = merchantCodes.get(policy.getMerchant().getId());
+                if (merchantCode == null) {
+                    continue;
+                }
+                merchantPolicies.computeIfAbsent(merchantCode, k -> new HashMap<>())
+                        .put(policy.getCapability(), rule);
+            }
+        }
+        // 合并 GLOBAL 回退：每个有 MERCHANT policy 的商家得到一张完整的 capability -> 生效 policy 表
+        Map<String, Map<String, PolicyRule>> effectiveByMerchant = new HashMap<>();
+        merchantPolicies.forEach((code, byCapability) -> {
+            Map<String, PolicyRule> effective = new HashMap<>(globalPolicies);
+            byCapability.forEach((capability, rule) ->
+                    effective.put(capability, rule.withFallback(globalPolicies.get(capability))));
+            effectiveByMerchant.put(code, Map.copyOf(effective));
+        });
+
+        // 3. providerId -> ACTIVE keys（最新的在前）
+        Map<Long, List<ProviderApiKey>> keysByProvider = new HashMap<>();
+        for (ProviderApiKey key : activeKeys) {
+            if (!"ACTIVE".equals(key.getStatus())) {
+                continue;
+            }
+            keysByProvider.computeIfAbsent(key.getProvider().getId(), k -> new ArrayList<>()).add(key);
+        }
+        Map<Long, List<ApiKeyEntry>> keys = new HashMap<>();
+        keysByProvider.forEach((providerId, list) -> {
+            list.sort((a, b) -> isNewer(a, b) ? -1 : (isNewer(b, a) ? 1 : 0));
+            keys.put(providerId, list.stream().map(k -> ApiKeyEntry.from(providerId, k)).toList());
+        });
+
+        return new RoutingSnapshot(
+                version,
+                Map.copyOf(sortedRoutes),
+                Map.copyOf(effectiveByMerchant),
+                Map.copyOf(globalPolicies),
+                Map.copyOf(keys),
+                List.copyOf(duplicates)
+        );
+    }
+
+    private static boolean isNewer(BaseEntity candidate, BaseEntity current) {
+        LocalDateTime c = candidate.getCreatedAt();
+        LocalDateTime p = current.getCreatedAt();
+        if (c != null && p != null && !c.isEqual(p)) {
+            return c.isAfter(p);
+        }
+        if (c != null && p == null) {
+            return true;
+        }
+        if (c == null && p != null) {
+            return false;
+        }
+        // 创建时间相同时按 id 降序
+        return candidate.getId() != null && (current.getId() == null || candidate.getId() > current.getId());
+    }
+
+    /**
+     * 解析 default_params_json 为不可变 Map（嵌套的对象/数组同样不可变）
+     * @param json default_params_json，可为空
+     * @return 解析结果；json 为空时返回空 Map
+     * @throws IllegalArgumentException JSON 非法或不是对象
+     */
+    public static Map<String, Object> parseDefaultParams(String json) {
+        if (json == null || json.trim().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> parsed;
+        try {
+            parsed = OBJECT_MAPPER.readValue(json, new TypeReference<Map<String, Object>>() {});
+        } catch (Exception e) {
+            throw new IllegalArgumentException("default_params_json must be a JSON object: " + e.getMessage(), e);
+        }
+        if (parsed == null) {
+            return Collections.emptyMap();
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, Object> frozen = (Map<String, Object>) freeze(parsed);
+        return frozen;
+    }
+
+    private static Object freeze(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            map.forEach((k, v) -> copy.put(k, freeze(v)));
+            return Collections.unmodifiableMap(copy);
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            list.forEach(v -> copy.add(freeze(v)));
+            return Collections.unmodifiableList(copy);
+        }
+        return value;
+    }
+
+    /**
+     * 解析 failover_on_http_codes_json（如 [429, 502, 503]）
+     * @throws IllegalArgumentException JSON 非法或不是整数数组
+     */
+    public static List<Integer> parseHttpCodes(String json) {
+        if (json == null || json.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            List<Integer> codes = OBJECT_MAPPER.readValue(json, new TypeReference<List<Integer>>() {});
+            return codes != null ? List.copyOf(codes) : Collections.emptyList();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("failover_on_http_codes_json must be a JSON array of integers: " + e.getMessage(), e);
+        }
+    }
+
+    private static List<Integer> parseFailoverCodes(CapabilityRoutingPolicy policy) {
+        try {
+            return parseHttpCodes(policy.getFailoverOnHttpCodesJson());
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring invalid failoverOnHttpCodesJson for {} policy {}: {}",
+                    policy.getScope(), policy.getId(), e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    private static TrafficSplit parseTrafficSplit(CapabilityRoutingPolicy policy) {
+        try {
+            return TrafficSplit.parse(policy.getTrafficSplitJson());
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring invalid trafficSplitJson for {} policy {}: {}",
+                    policy.getScope(), policy.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private static List<String> parsePrefer(CapabilityRoutingPolicy policy) {
+        String preferProvidersJson = policy.getPreferProvidersJson();
+        if (preferProvidersJson == null || preferProvidersJson.trim().isEmpty()) {
+            return Collections.emptyList();
+        }
+        try {
+            List<String> prefer = OBJECT_MAPPER.readValue(preferProvidersJson, new TypeReference<List<String>>() {});
+            return prefer != null ? List.copyOf(prefer) : Collections.emptyList();
+        } catch (Exception e) {
+            log.warn("Failed to parse preferProvidersJson for {} policy {}: {}",
+                    policy.getScope(), policy.getId(), e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * 预编译的路由项（provider_capabilities + model_providers.code）
+     */
+    @Value
+    public static class CapabilityRoute {
+        Long capabilityId;
+        Long providerId;
+        String providerCode;
+        String capability;
+        String endpoint;
+        Integer priority;
+        Integer defaultTimeoutMs;
+        // model_providers.cost_tier，NULL 表示未设置
+        Integer costTier;
+        // default_params_json 预解析结果（不可变）
+        Map<String, Object> defaultParams;
+
+        static CapabilityRoute from(ProviderCapability cap) {
+            Map<String, Object> defaultParams;
+            try {
+                defaultParams = parseDefaultParams(cap.getDefaultParamsJson());
+            } catch (IllegalArgumentException e) {
+                // 历史数据可能不合法（新写入在管理端已校验），记录后按无默认参数处理
+                log.warn("Ignoring invalid default_params_json for capability {}: {}", cap.getId(), e.getMessage());
+                defaultParams = Collections.emptyMap();
+            }
+            return new CapabilityRoute(
+                    cap.getId(),
+                    cap.getProvider().getId(),
+                    cap.getProvider().getCode(),
+                    cap.getCapability(),
+                    cap.getEndpoint(),
+                    cap.getPriority() != null ? cap.getPriority() : 100,
+                    cap.getDefaultTimeoutMs(),
+                    cap.getProvider().getCostTier(),
+                    defaultParams
+            );
+        }
+    }
+
+    /**
+     * 生效的 routing policy（已解析）
+     */
+    @Value
+    public static class PolicyRule {
+        Long policyId;
+        // prefer_providers_json 解析结果，可能为空列表
+        List<String> prefer;
+        // max_cost_tier，NULL 表示不限制
+        Integer maxCostTier;
+        // retry_count：主 provider 失败后最多再尝试几个备选 provider
+        int retryCount;
+        // failover_on_http_codes_json 解析结果
+        List<Integer> failoverOnHttpCodes;
+        // traffic_split_json 预计算的 alias 表，NULL 表示不分流
+        TrafficSplit trafficSplit;
+
+        /**
+         * 没有任何 policy 时的生效值
+         */
+        public static final PolicyRule NONE = new PolicyRule(null, Collections.emptyList(), null, 0,
+                Collections.emptyList(), null);
+
+        /**
+         * 用 GLOBAL policy 补齐 MERCHANT policy 未配置的字段：
+         * prefer（为空时）、maxCostTier、trafficSplit；retryCount / failoverOnHttpCodes 以 MERCHANT policy 为准
+         */
+        PolicyRule withFallback(PolicyRule global) {
+            if (global == null) {
+                return this;
+            }
+            return new PolicyRule(
+                    policyId,
+                    prefer.isEmpty() ? global.prefer : prefer,
+                    maxCostTier != null ? maxCostTier : global.maxCostTier,
+                    retryCount,
+                    failoverOnHttpCodes,
+                    trafficSplit != null ? trafficSplit : global.trafficSplit
+            );
+        }
+    }
+
+    /**
+     * 重复的 policy 记录：同一 (scope, merchant, capability) 存在多条
+     */
+    @Value
+    public static class DuplicatePolicy {
+        String scope;
+        Long merchantId;
+        String merchantCode;
+        String capability;
+        // 生效的一条（最新）
+        Long winnerPolicyId;
+        // 被忽略的其余记录
+        List<Long> ignoredPolicyIds;
+
+        static DuplicatePolicy of(CapabilityRoutingPolicy winner, List<CapabilityRoutingPolicy> group,
+                                  Map<Long, String> merchantCodes) {
+            Long merchantId = winner.getMerchant() != null ? winner.getMerchant().getId() : null;
+            List<Long> ignored = new ArrayList<>(group.size() - 1);
+            for (CapabilityRoutingPolicy policy : group) {
+                if (policy != winner) {
+                    ignored.add(policy.getId());
+                }
+            }
+            return new DuplicatePolicy(winner.getScope(), merchantId,
+                    merchantId != null ? merchantCodes.get(merchantId) : null,
+                    winner.getCapability(), winner.getId(), Collections.unmodifiableList(ignored));
+        }
+    }
+
+    /**
+     * 某个能力的路由表：priority 顺序的全集 + 按 cost_tier 预先计算的候选列表
+     * tiers 为所有出现过的 cost_tier（升序），eligible[i] 为 cost_tier <= tiers[i]（或未设置）的路由；
+     * 查询时只需在 tiers 上定位一次，返回预先计算好的列表，不做逐条过滤。
+     */
+    static final class TieredRoutes {
+        private final List<CapabilityRoute> all;
+        private final int[] tiers;
+        private final List<List<CapabilityRoute>> eligible;
+        // 低于最小 tier 时，仅 cost_tier 未设置的路由可用
+        private final List<CapabilityRoute> untiered;
+
+        private TieredRoutes(List<CapabilityRoute> all, int[] tiers,
+                             List<List<CapabilityRoute>> eligible, List<CapabilityRoute> untiered) {
+            this.all = all;
+            this.tiers = tiers;
+            this.eligible = eligible;
+            this.untiered = untiered;
+        }
+
+        static TieredRoutes of(List<CapabilityRoute> sortedByPriority) {
+            List<CapabilityRoute> all = List.copyOf(sortedByPriority);
+            int[] tiers = all.stream()
+                    .map(CapabilityRoute::getCostTier)
+                    .filter(Objects::nonNull)
+                    .mapToInt(Integer::intValue)
+                    .distinct()
+                    .sorted()
+                    .toArray();
+            List<List<CapabilityRoute>> eligible = new ArrayList<>(tiers.length);
+            for (int tier : tiers) {
+                eligible.add(all.stream()
+                        .filter(r -> r.getCostTier() == null || r.getCostTier() <= tier)
+                        .toList());
+            }
+            List<CapabilityRoute> untiered = all.stream()
+                    .filter(r -> r.getCostTier() == null)
+                    .toList();
+            return new TieredRoutes(all, tiers, List.copyOf(eligible), untiered);
+        }
+
+        List<CapabilityRoute> all() {
+            return all;
+        }
+
+        // 分桶结果由 all 决定，比较 / 摘要只看 all
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TieredRoutes other && all.equals(other.all);
+        }
+
+        @Override
+        public int hashCode() {
+            return all.hashCode();
+        }
+
+        List<CapabilityRoute> withinTier(int maxCostTier) {
+            if (tiers.length == 0 || maxCostTier >= tiers[tiers.length - 1]) {
+                return all;
+            }
+            int idx = Arrays.binarySearch(tiers, maxCostTier);
+            // 未命中时 idx = -(插入点) - 1，取插入点前一个（最大的 <= maxCostTier 的 tier）
+            int floor = idx >= 0 ? idx : -idx - 2;
+            return floor >= 0 ? eligible.get(floor) : untiered;
+        }
+    }
+
+    /**
+     * API Key 快照项（仅保存密文，解密在使用时进行）
+     */
+    @Value
+    public static class ApiKeyEntry {
+        Long keyId;
+        Long providerId;
+        String apiKeyCipher;
+        LocalDateTime updatedAt;
+        // 每分钟请求预算，NULL 表示使用默认配置
+        Integer rpmLimit;
+
+        static ApiKeyEntry from(Long providerId, ProviderApiKey key) {
+            return new ApiKeyEntry(key.getId(), providerId, key.getApiKeyCipher(), key.getUpdatedAt(), key.getRpmLimit());
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.common.util.SingleFlight;
+import com.mg.platform.domain.CapabilityRoutingPolicy;
+import com.mg.platform.domain.Merchant;
+import com.mg.platform.domain.ProviderApiKey;
+import com.mg.platform.domain.ProviderCapability;
+import com.mg.platform.repo.CapabilityRoutingPolicyRepository;
+import com.mg.platform.repo.MerchantRepository;
+import com.mg.platform.repo.ProviderApiKeyRepository;
+import com.mg.platform.repo.ProviderCapabilityRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * 路由快照管理器
+ * - 启动时加载，管理端写操作提交后重建，另有定时兜底刷新（覆盖手工 SQL 修改）
+ * - 重建结果通过 AtomicReference 原子替换；加载序号较旧的重建结果会被丢弃
+ * - 内容与当前快照相同的重建结果不产生新版本（定时刷新不会让计划缓存 / 租约 ETag 失效）
+ * - 替换后清理 API Key 池中已不在快照内的 key / provider 状态
+ */
+@Slf4j
+@Component
+public class RoutingSnapshotManager {
+    private final ProviderCapabilityRepository capabilityRepository;
+    private final CapabilityRoutingPolicyRepository routingPolicyRepository;
+    private final ProviderApiKeyRepository apiKeyRepository;
+    private final MerchantRepository merchantRepository;
+    private final ApiKeyPool apiKeyPool;
+    private final TransactionTemplate readOnlyTx;
+
+    private final AtomicReference<RoutingSnapshot> current = new AtomicReference<>();
+    private final AtomicLong versionSequence = new AtomicLong();
+    private final SingleFlight<Boolean, RoutingSnapshot> coldLoad = new SingleFlight<>();
+
+    /**
+     * 快照尚未加载时，并发请求等待同一次加载的最长时间
+     */
+    @Value("${routing.snapshot.cold-load-timeout-ms:10000}")
+    private long coldLoadTimeoutMs = 10000;
+
+    public RoutingSnapshotManager(ProviderCapabilityRepository capabilityRepository,
+                                  CapabilityRoutingPolicyRepository routingPolicyRepository,
+                                  ProviderApiKeyRepository apiKeyRepository,
+                                  MerchantRepository merchantRepository,
+                                  ApiKeyPool apiKeyPool,
+                                  PlatformTransactionManager transactionManager) {
+        this.capabilityRepository = capabilityRepository;
+        this.routingPolicyRepository = routingPolicyRepository;
+        this.apiKeyRepository = apiKeyRepository;
+        this.merchantRepository = merchantRepository;
+        this.apiKeyPool = apiKeyPool;
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+        // 在 afterCommit 回调中调用时，原事务资源仍绑定在线程上，必须新开事务
+        this.readOnlyTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * 获取当前快照（首次访问时同步加载，并发的首次访问合并为一次加载）
+     */
+    public RoutingSnapshot current() {
+        RoutingSnapshot snapshot = current.get();
+        if (snapshot == null) {
+            snapshot = coldLoad.execute(Boolean.TRUE, () -> {
+                RoutingSnapshot loaded = current.get();
+                return loaded != null ? loaded : refresh();
+            }, coldLoadTimeoutMs);
+        }
+        return snapshot;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            // 启动时加载失败不阻止应用启动，首次 resolve 时会重试
+            log.warn("Failed to load routing snapshot on startup: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 定时兜底刷新，覆盖绕过管理端 API 的数据修改（如手工执行 SQL）
+     */
+    @Scheduled(
+            initialDelayString = "${routing.snapshot.refresh-interval-ms:60000}",
+            fixedDelayString = "${routing.snapshot.refresh-interval-ms:60000}"
+    )
+    public void scheduledRefresh() {
+        try {
+            refresh();
+        } catch (Exception e) {
+            log.warn("Scheduled routing snapshot refresh failed, keeping version {}: {}",
+                    currentVersion(), e.getMessage());
+        }
+    }
+
+    /**
+     * 在当前事务提交后重建快照；不在事务中时立即重建
+     * 管理端写操作（provider / capability / api key / routing policy）调用此方法
+     */
+    public void refreshAfterCommit() {
+        refreshAfterCommit(null);
+    }
+
+    /**
+     * 同 {@link #refreshAfterCommit()}，快照替换后再执行 afterRefresh（如清理依赖旧快照的缓存）
+     */
+    public void refreshAfterCommit(Runnable afterRefresh) {
+        Runnable task = () -> {
+            refresh();
+            if (afterRefresh != null) {
+                afterRefresh.run();
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        log.error("Failed to refresh routing snapshot after commit", e);
+                    }
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * 从数据库重建快照并原子替换
+     * @return 替换后的当前快照（若有更新版本已安装，则返回该版本）
+     */
+    public RoutingSnapshot refresh() {
+        // 先分配序号再读库：后开始的重建一定拥有更大的序号（内容有变化时同时作为新版本号）
+        long version = versionSequence.incrementAndGet();
+        RoutingSnapshot next = readOnlyTx.execute(status -> load(version));
+        return install(next);
+    }
+
+    /**
+     * 当前快照版本号（未加载时为 0）
+     */
+    public long currentVersion() {
+        RoutingSnapshot snapshot = current.get();
+        return snapshot != null ? snapshot.getVersion() : 0L;
+    }
+
+    /**
+     * 首次加载时被合并（未自行读库）的调用次数
+     */
+    public long coalescedColdLoads() {
+        return coldLoad.coalesced();
+    }
+
+    private RoutingSnapshot install(RoutingSnapshot next) {
+        while (true) {
+            RoutingSnapshot prev = current.get();
+            if (prev != null && prev.getLoadSequence() >= next.getLoadSequence()) {
+                log.debug("Discarding stale routing snapshot load #{} (current #{})",
+                        next.getLoadSequence(), prev.getLoadSequence());
+                return prev;
+            }
+            if (next.sameContent(prev)) {
+                // 内容未变：保留原版本号，只推进加载序号（更早开始的重建结果仍会被丢弃）
+                RoutingSnapshot reloaded = prev.reloaded(next.getLoadSequence());
+                if (current.compareAndSet(prev, reloaded)) {
+                    log.debug("Routing snapshot unchanged, keeping v{}", prev.getVersion());
+                    return reloaded;
+                }
+                continue;
+            }
+            if (current.compareAndSet(prev, next)) {
+                log.info("Routing snapshot v{} installed", next.getVersion());
+                apiKeyPool.retain(next.getApiKeyProviderIds(), next.getActiveApiKeyIds());
+                int duplicates = next.getDuplicatePolicies().size();
+                if (duplicates > 0 && (prev == null || prev.getDuplicatePolicies().size() != duplicates)) {
+                    log.warn("{} duplicate routing policy groups found, newest record of each group is used: {}",
+                            duplicates, next.getDuplicatePolicies());
+                }
+                return next;
+            }
+        }
+    }
+
+    private RoutingSnapshot load(long version) {
+        List<ProviderCapability> capabilities = capabilityRepository.findByStatusWithProvider("ACTIVE");
+        List<CapabilityRoutingPolicy> policies = routingPolicyRepository.findAll();
+        List<ProviderApiKey> activeKeys = apiKeyRepository.findByStatus("ACTIVE");
+
+        Set<Long> merchantIds = policies.stream()
+                .map(CapabilityRoutingPolicy::getMerchant)
+                .filter(Objects::nonNull)
+                .map(Merchant::getId)
+                .collect(Collectors.toSet());
+        Map<Long, String> merchantCodes = new HashMap<>();
+        if (!merchantIds.isEmpty()) {
+            for (Merchant merchant : merchantRepository.findAllById(merchantIds)) {
+                merchantCodes.put(merchant.getId(), merchant.getCode());
+            }
+        }
+
+        return RoutingSnapshot.build(version, capabilities, policies, merchantCodes, activeKeys);
+    }
+}
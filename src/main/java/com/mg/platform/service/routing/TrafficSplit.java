@@ -0,0 +1,153 @@
+package com.mg.platform.service.routing;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 按权重分流（traffic_split_json），构建时预计算 Walker alias 表：
+ * pick 为 O(1) 且不分配对象（一次随机数 + 两次数组访问）。
+ * 不可变，随路由快照一起重建。
+ */
+public final class TrafficSplit {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final String[] providerCodes;
+    private final double[] probability;
+    private final int[] alias;
+    // 归一化后的权重（百分比），仅用于展示
+    private final Map<String, Double> percentages;
+
+    private TrafficSplit(String[] providerCodes, double[] probability, int[] alias, Map<String, Double> percentages) {
+        this.providerCodes = providerCodes;
+        this.probability = probability;
+        this.alias = alias;
+        this.percentages = percentages;
+    }
+
+    /**
+     * 解析 traffic_split_json（如 {"volc": 90, "new_model": 10}）
+     * @return 分流表；json 为空时返回 null
+     * @throws IllegalArgumentException JSON 非法、权重为负或权重之和为 0
+     */
+    public static TrafficSplit parse(String json) {
+        if (json == null || json.trim().isEmpty()) {
+            return null;
+        }
+        Map<String, Double> weights;
+        try {
+            weights = OBJECT_MAPPER.readValue(json, new TypeReference<LinkedHashMap<String, Double>>() {});
+        } catch (Exception e) {
+            throw new IllegalArgumentException("traffic_split_json must be a JSON object of provider code -> weight: "
+                    + e.getMessage(), e);
+        }
+        if (weights == null || weights.isEmpty()) {
+            return null;
+        }
+        return of(weights);
+    }
+
+    /**
+     * 由权重构建 alias 表（Vose 算法）
+     * @throws IllegalArgumentException 权重为负 / 非数字，或权重之和为 0
+     */
+    public static TrafficSplit of(Map<String, Double> weights) {
+        List<String> codes = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        double total = 0;
+        for (Map.Entry<String, Double> entry : weights.entrySet()) {
+            Double weight = entry.getValue();
+            if (weight == null || weight.isNaN() || weight.isInfinite() || weight < 0) {
+                throw new IllegalArgumentException("Invalid weight for provider " + entry.getKey() + ": " + weight);
+            }
+            if (weight == 0) {
+                continue;
+            }
+            codes.add(entry.getKey());
+            values.add(weight);
+            total += weight;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Sum of traffic split weights must be positive");
+        }
+
+        int n = codes.size();
+        double[] scaled = new double[n];
+        Map<String, Double> percentages = new LinkedHashMap<>();
+        for (int i = 0; i < n; i++) {
+            scaled[i] = values.get(i) * n / total;
+            percentages.put(codes.get(i), values.get(i) * 100 / total);
+        }
+
+        double[] probability = new double[n];
+        int[] alias = new int[n];
+        Deque<Integer> small = new ArrayDeque<>();
+        Deque<Integer> large = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            (scaled[i] < 1.0 ? small : large).push(i);
+        }
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int s = small.pop();
+            int l = large.pop();
+            probability[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] = scaled[l] + scaled[s] - 1.0;
+            (scaled[l] < 1.0 ? small : large).push(l);
+        }
+        // 剩余项（含浮点误差）概率为 1
+        while (!large.isEmpty()) {
+            int i = large.pop();
+            probability[i] = 1.0;
+            alias[i] = i;
+        }
+        while (!small.isEmpty()) {
+            int i = small.pop();
+            probability[i] = 1.0;
+            alias[i] = i;
+        }
+
+        return new TrafficSplit(codes.toArray(new String[0]), probability, alias,
+                Collections.unmodifiableMap(percentages));
+    }
+
+    /**
+     * 按权重随机选择一个 provider code
+     */
+    public String pick() {
+        return pick(ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * 按给定的 [0, 1) 随机数选择 provider code
+     */
+    String pick(double u) {
+        double scaled = u * providerCodes.length;
+        int column = (int) scaled;
+        return scaled - column < probability[column] ? providerCodes[column] : providerCodes[alias[column]];
+    }
+
+    public Map<String, Double> getPercentages() {
+        return percentages;
+    }
+
+    /**
+     * 归一化权重相同即视为相同的分流（快照重建时比较内容）
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TrafficSplit other && percentages.equals(other.percentages);
+    }
+
+    @Override
+    public int hashCode() {
+        return percentages.hashCode();
+    }
+}
@@ -4,17 +4,27 @@ import com.mg.platform.common.dto.ApiResponse;
 import com.mg.platform.domain.Template;
 import com.mg.platform.domain.TemplateVersion;
 import com.mg.platform.service.AdminService;
+import com.mg.platform.service.device.DeviceEventHub;
+import com.mg.platform.service.device.DevicePresenceIndex;
+import com.mg.platform.service.device.TemplateDeltaService;
+import com.mg.platform.service.device.TemplatePackageMetrics;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/v1/admin")
 @RequiredArgsConstructor
 public class AdminController {
     private final AdminService adminService;
+    private final TemplatePackageMetrics packageMetrics;
+    private final TemplateDeltaService deltaService;
+    private final DeviceEventHub deviceEventHub;
+    private final DevicePresenceIndex presenceIndex;
 
     @GetMapping("/templates")
     public ApiResponse<List<Template>> getAllTemplates() {
@@ -58,4 +68,49 @@ public class AdminController {
             return ApiResponse.error(e.getMessage());
         }
     }
+
+    /**
+     * 模板包下载统计（吞吐、并发数、304 / 206 / 限流次数）
+     */
+    @GetMapping("/packages/stats")
+    public ApiResponse<TemplatePackageMetrics.PackageView> getPackageStats() {
+        return ApiResponse.success(packageMetrics.view());
+    }
+
+    /**
+     * 差量包统计（计算次数、缓存复用次数、节省字节数）
+     */
+    @GetMapping("/packages/delta-stats")
+    public ApiResponse<TemplateDeltaService.Stats> getDeltaStats() {
+        return ApiResponse.success(deltaService.stats());
+    }
+
+    /**
+     * 设备推送连接数与事件投递统计
+     */
+    @GetMapping("/devices/push-stats")
+    public ApiResponse<DeviceEventHub.Stats> getDevicePushStats() {
+        return ApiResponse.success(deviceEventHub.stats());
+    }
+
+    /**
+     * 在线设备总数及各商户在线数（内存在线索引）
+     */
+    @GetMapping("/devices/presence")
+    public ApiResponse<Map<String, Object>> getDevicePresence() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("totalOnline", presenceIndex.totalOnline());
+        result.put("onlineByMerchant", presenceIndex.onlineCounts());
+        return ApiResponse.success(result);
+    }
+
+    @GetMapping("/merchants/{merchantId}/devices/online")
+    public ApiResponse<List<DevicePresenceIndex.PresenceView>> getOnlineDevices(@PathVariable Long merchantId) {
+        return ApiResponse.success(presenceIndex.onlineDevices(merchantId));
+    }
+
+    @GetMapping("/merchants/{merchantId}/devices/offline")
+    public ApiResponse<List<DevicePresenceIndex.PresenceView>> getOfflineDevices(@PathVariable Long merchantId) {
+        return ApiResponse.success(presenceIndex.offlineDevices(merchantId));
+    }
 }
@@ -0,0 +1,119 @@
+package com.mg.platform.web.admin;
+
+import com.mg.platform.common.dto.ApiResponse;
+import com.mg.platform.service.routing.ApiKeyMaterialCache;
+import com.mg.platform.service.routing.ApiKeyPool;
+import com.mg.platform.service.routing.ProviderCircuitBreaker;
+import com.mg.platform.service.routing.ProviderHealthScoreboard;
+import com.mg.platform.service.routing.ProviderProxyMetrics;
+import com.mg.platform.service.routing.RoutePlanCache;
+import com.mg.platform.service.routing.RoutingSnapshot;
+import com.mg.platform.service.routing.RoutingSnapshotManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 路由运行时状态（快照版本、缓存统计等）
+ */
+@RestController
+@RequestMapping("/api/v1/admin/routing")
+@RequiredArgsConstructor
+public class RoutingAdminController {
+    private final RoutingSnapshotManager snapshotManager;
+    private final ApiKeyMaterialCache apiKeyCache;
+    private final ProviderHealthScoreboard healthScoreboard;
+    private final ApiKeyPool apiKeyPool;
+    private final ProviderProxyMetrics proxyMetrics;
+    private final RoutePlanCache routePlanCache;
+    private final ProviderCircuitBreaker circuitBreaker;
+
+    @GetMapping("/snapshot")
+    public ApiResponse<Map<String, Object>> getSnapshot() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("version", snapshotManager.currentVersion());
+        result.put("coalescedColdLoads", snapshotManager.coalescedColdLoads());
+        return ApiResponse.success(result);
+    }
+
+    /**
+     * 当前快照中重复的 routing policy（同一 scope / merchant / capability 多条记录）及生效的那条
+     */
+    @GetMapping("/duplicate-policies")
+    public ApiResponse<List<RoutingSnapshot.DuplicatePolicy>> getDuplicatePolicies() {
+        return ApiResponse.success(snapshotManager.current().getDuplicatePolicies());
+    }
+
+    @PostMapping("/snapshot/refresh")
+    public ApiResponse<Map<String, Object>> refreshSnapshot() {
+        try {
+            Map<String, Object> result = new HashMap<>();
+            result.put("version", snapshotManager.refresh().getVersion());
+            return ApiResponse.success(result);
+        } catch (Exception e) {
+            return ApiResponse.error(e.getMessage());
+        }
+    }
+
+    @GetMapping("/key-cache/stats")
+    public ApiResponse<ApiKeyMaterialCache.Stats> getKeyCacheStats() {
+        return ApiResponse.success(apiKeyCache.stats());
+    }
+
+    /**
+     * 路由方案缓存命中率与并发合并次数
+     */
+    @GetMapping("/plan-cache/stats")
+    public ApiResponse<RoutePlanCache.Stats> getPlanCacheStats() {
+        return ApiResponse.success(routePlanCache.stats());
+    }
+
+    /**
+     * API Key 池各 key 的剩余预算
+     */
+    @GetMapping("/key-pool")
+    public ApiResponse<List<ApiKeyPool.KeyView>> getKeyPool() {
+        return ApiResponse.success(apiKeyPool.view());
+    }
+
+    /**
+     * 健康记分板（key 为 provider_capabilities.id）
+     */
+    @GetMapping("/health")
+    public ApiResponse<Map<Long, ProviderHealthScoreboard.HealthView>> getHealth() {
+        return ApiResponse.success(healthScoreboard.view());
+    }
+
+    /**
+     * 熔断器状态与最近的状态切换（key 为 provider_capabilities.id）
+     */
+    @GetMapping("/circuit-breakers")
+    public ApiResponse<Map<String, Object>> getCircuitBreakers() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("breakers", circuitBreaker.view());
+        result.put("transitions", circuitBreaker.recentTransitions());
+        return ApiResponse.success(result);
+    }
+
+    /**
+     * 手动将熔断器重置为 CLOSED
+     */
+    @PostMapping("/circuit-breakers/{capabilityId}/reset")
+    public ApiResponse<Void> resetCircuitBreaker(@PathVariable Long capabilityId) {
+        if (!circuitBreaker.reset(capabilityId)) {
+            return ApiResponse.error("No circuit breaker state for capability: " + capabilityId);
+        }
+        return ApiResponse.success(null);
+    }
+
+    /**
+     * proxy 模式按 provider 的吞吐与延迟（key 为 provider code）
+     */
+    @GetMapping("/proxy")
+    public ApiResponse<Map<String, ProviderProxyMetrics.ProxyView>> getProxyMetrics() {
+        return ApiResponse.success(proxyMetrics.view());
+    }
+}
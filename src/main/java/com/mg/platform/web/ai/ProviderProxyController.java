@@ -0,0 +1,90 @@
+package com.mg.platform.web.ai;
+
+import com.mg.platform.common.dto.ApiResponse;
+import com.mg.platform.common.exception.ApiKeyRateLimitedException;
+import com.mg.platform.common.exception.NoActiveApiKeyException;
+import com.mg.platform.common.exception.ProviderCallException;
+import com.mg.platform.common.util.JwtUtil;
+import com.mg.platform.service.ProviderProxyService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+
+/**
+ * proxy 模式转发入口：resolve(mode=proxy) 返回的 endpoint 指向这里
+ * 转发使用平台的 API Key，只接受带有效设备 token 的请求
+ */
+@RestController
+@RequestMapping("/api/v1/ai")
+@RequiredArgsConstructor
+public class ProviderProxyController {
+    private final ProviderProxyService proxyService;
+    private final JwtUtil jwtUtil;
+
+    @PostMapping("/proxy/{capability}/{providerCode}")
+    public ResponseEntity<?> proxy(@PathVariable String capability,
+                                   @PathVariable String providerCode,
+                                   @RequestParam(required = false) Integer timeoutMs,
+                                   HttpServletRequest request) {
+        String token = extractBearerToken(request);
+        if (token == null || jwtUtil.verifyDeviceToken(token) == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(ApiResponse.error("Missing or invalid device token"));
+        }
+
+        ProviderProxyService.ProxyCall call;
+        try {
+            call = proxyService.relay(capability, providerCode, timeoutMs,
+                    request.getContentType(), request.getContentLengthLong(), request.getInputStream());
+        } catch (ApiKeyRateLimitedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(ApiResponse.error(e.getErrorCode() + ": " + e.getMessage()));
+        } catch (NoActiveApiKeyException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getErrorCode() + ": " + e.getMessage()));
+        } catch (ProviderCallException e) {
+            HttpStatus status = e.isTimeout() ? HttpStatus.GATEWAY_TIMEOUT
+                    : ProviderCallException.CIRCUIT_OPEN.equals(e.getErrorCode()) ? HttpStatus.SERVICE_UNAVAILABLE
+                    : HttpStatus.BAD_GATEWAY;
+            return ResponseEntity.status(status)
+                    .body(ApiResponse.error(e.getErrorCode() + ": " + e.getMessage()));
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error("Failed to read request body: " + e.getMessage()));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+
+        // 状态码 / Content-Type 透传，响应体在异步线程中按块写回
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(call.getStatus());
+        try {
+            if (call.getContentType() != null) {
+                builder.contentType(MediaType.parseMediaType(call.getContentType()));
+            }
+        } catch (RuntimeException e) {
+            // provider 返回的 Content-Type 不合法时不透传
+        }
+        if (call.getContentLength() >= 0) {
+            builder.contentLength(call.getContentLength());
+        }
+        StreamingResponseBody body = call::transferTo;
+        return builder.body(body);
+    }
+
+    private String extractBearerToken(HttpServletRequest request) {
+        String authHeader = request.getHeader("Authorization");
+        if (authHeader != null && authHeader.startsWith("Bearer ")) {
+            return authHeader.substring(7);
+        }
+        return null;
+    }
+}
@@ -1,30 +1,95 @@
 package com.mg.platform.web.ai;
 
+import com.mg.platform.common.dto.AiOutcomeReport;
+import com.mg.platform.common.dto.AiResolveBatchRequest;
+import com.mg.platform.common.dto.AiResolveBatchResponse;
 import com.mg.platform.common.dto.AiResolveRequest;
 import com.mg.platform.common.dto.AiResolveResponse;
 import com.mg.platform.common.dto.ApiResponse;
+import com.mg.platform.common.exception.ApiKeyRateLimitedException;
 import com.mg.platform.common.exception.NoActiveApiKeyException;
+import com.mg.platform.common.exception.ProviderCallException;
+import com.mg.platform.common.util.JwtUtil;
 import com.mg.platform.service.ResolveService;
+import com.mg.platform.service.routing.ResolveLease;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.concurrent.TimeUnit;
+
 @RestController
 @RequestMapping("/api/v1/ai")
 @RequiredArgsConstructor
 public class ResolveController {
+    /**
+     * 304 重新验证时携带 / 返回的租约 ID
+     */
+    static final String LEASE_HEADER = "X-Route-Lease";
+
     private final ResolveService resolveService;
+    private final ResolveLease resolveLease;
+    private final JwtUtil jwtUtil;
 
+    /**
+     * 响应带 ETag 和租约 TTL；设备在租约过期后带 If-None-Match 重新验证，路由未变化时返回 304（不执行 resolve）
+     * 带设备 token 时签发租约 ID（上报调用结果必须携带），304 时续期 X-Route-Lease 指定的租约
+     */
     @PostMapping("/resolve")
-    public ResponseEntity<ApiResponse<AiResolveResponse>> resolve(@RequestBody AiResolveRequest request) {
+    public ResponseEntity<ApiResponse<AiResolveResponse>> resolve(
+            @RequestBody AiResolveRequest request,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            @RequestHeader(value = LEASE_HEADER, required = false) String leaseId,
+            HttpServletRequest httpRequest) {
+        String token = extractBearerToken(httpRequest);
+        Long deviceId = token != null ? jwtUtil.verifyDeviceToken(token) : null;
+        if (token != null && deviceId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(ApiResponse.error("Invalid or unauthorized device token"));
+        }
         try {
+            // ETag 在 resolve 之前计算：即使期间快照被替换，标签也不会比数据新
+            String etag = resolveLease.etag(request, request.getMerchantCode());
+            CacheControl cacheControl = CacheControl.maxAge(resolveLease.getTtlSeconds(), TimeUnit.SECONDS).cachePrivate();
+            // 设备持有的租约无法续期（已失效 / 服务重启）时返回完整响应，让设备拿到新租约
+            if (resolveLease.matches(ifNoneMatch, etag)
+                    && (deviceId == null || resolveLease.renew(leaseId, deviceId, etag))) {
+                ResponseEntity.HeadersBuilder<?> notModified = ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(etag)
+                        .cacheControl(cacheControl);
+                if (deviceId != null) {
+                    notModified.header(LEASE_HEADER, leaseId);
+                }
+                return notModified.build();
+            }
+
             AiResolveResponse response = resolveService.resolve(request);
-            return ResponseEntity.ok(ApiResponse.success(response));
+            response.setVersion(etag);
+            response.setLeaseTtlSeconds(resolveLease.getTtlSeconds());
+            if (deviceId != null) {
+                response.setLeaseId(resolveLease.issue(deviceId, etag, response));
+            }
+            return ResponseEntity.ok()
+                    .eTag(etag)
+                    .cacheControl(cacheControl)
+                    .body(ApiResponse.success(response));
+        } catch (ApiKeyRateLimitedException e) {
+            // key 预算耗尽是暂时的，返回 429 让设备按 Retry-After 重试
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(ApiResponse.error(e.getErrorCode() + ": " + e.getMessage()));
         } catch (NoActiveApiKeyException e) {
             // 返回 400 错误，包含错误码
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
-                    .body(ApiResponse.error("NO_ACTIVE_API_KEY: " + e.getMessage()));
+                    .body(ApiResponse.error(e.getErrorCode() + ": " + e.getMessage()));
+        } catch (ProviderCallException e) {
+            // 所有候选 provider 均在熔断中
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(ApiResponse.error(e.getErrorCode() + ": " + e.getMessage()));
         } catch (RuntimeException e) {
             return ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(ApiResponse.error(e.getMessage()));
@@ -33,4 +98,68 @@ public class ResolveController {
                     .body(ApiResponse.error("Internal server error: " + e.getMessage()));
         }
     }
+
+    /**
+     * 批量 resolve；带设备 token 时为每个成功的子结果签发租约
+     */
+    @PostMapping("/resolve/batch")
+    public ResponseEntity<ApiResponse<AiResolveBatchResponse>> resolveBatch(@RequestBody AiResolveBatchRequest request,
+                                                                         HttpServletRequest httpRequest) {
+        String token = extractBearerToken(httpRequest);
+        Long deviceId = token != null ? jwtUtil.verifyDeviceToken(token) : null;
+        if (token != null && deviceId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(ApiResponse.error("Invalid or unauthorized device token"));
+        }
+        try {
+            AiResolveBatchResponse response = resolveService.resolveBatch(request);
+            if (deviceId != null) {
+                for (AiResolveBatchResponse.Item item : response.getResults()) {
+                    if (item.isSuccess()) {
+                        item.getData().setLeaseId(resolveLease.issue(deviceId, null, item.getData()));
+                    }
+                }
+            }
+            return ResponseEntity.ok(ApiResponse.success(response));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error("Internal server error: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 设备上报 provider 调用结果（延迟 / 成功与否），用于健康路由
+     * 需要设备 token，且必须对应该设备持有的、包含该 provider 的租约
+     */
+    @PostMapping("/report")
+    public ResponseEntity<ApiResponse<Void>> report(@RequestBody AiOutcomeReport report, HttpServletRequest httpRequest) {
+        String token = extractBearerToken(httpRequest);
+        Long deviceId = token != null ? jwtUtil.verifyDeviceToken(token) : null;
+        if (deviceId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(ApiResponse.error("Missing or invalid device token"));
+        }
+        if (!resolveLease.acceptReport(report.getLeaseId(), deviceId, report.getCapability(), report.getProviderCode())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(ApiResponse.error("Unknown or expired lease for provider " + report.getProviderCode()));
+        }
+        try {
+            resolveService.reportOutcome(report);
+            return ResponseEntity.ok(ApiResponse.success(null));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
+    private String extractBearerToken(HttpServletRequest request) {
+        String authHeader = request.getHeader("Authorization");
+        if (authHeader != null && authHeader.startsWith("Bearer ")) {
+            return authHeader.substring(7);
+        }
+        return null;
+    }
 }
@@ -4,12 +4,18 @@ import com.mg.platform.common.dto.ApiResponse;
 import com.mg.platform.common.util.JwtUtil;
 import com.mg.platform.domain.Activity;
 import com.mg.platform.service.DeviceService;
+import com.mg.platform.service.device.DeviceEventHub;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.HashMap;
 import java.util.List;
@@ -21,6 +27,7 @@ import java.util.Map;
 public class DeviceController {
     private final DeviceService deviceService;
     private final JwtUtil jwtUtil;
+    private final DeviceEventHub deviceEventHub;
 
     @PostMapping("/handshake")
     public ApiResponse<DeviceService.HandshakeResponse> handshake(@RequestBody HandshakeRequest request) {
@@ -80,6 +87,49 @@ public class DeviceController {
         }
     }
 
+    /**
+     * 同步清单：设备当前生效的活动及其绑定的模板版本
+     * 带强 ETag；设备轮询时带 If-None-Match，未变化时返回 304
+     */
+    @GetMapping("/{deviceId}/sync-manifest")
+    public ResponseEntity<ApiResponse<DeviceService.SyncManifest>> getSyncManifest(
+            @PathVariable Long deviceId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch,
+            HttpServletRequest request
+    ) {
+        try {
+            String token = extractBearerToken(request);
+            if (token == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(ApiResponse.error("Missing or invalid Authorization header"));
+            }
+            if (!jwtUtil.validateDeviceToken(token, deviceId)) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(ApiResponse.error("Invalid or unauthorized device token"));
+            }
+
+            DeviceService.SyncManifestResult result = deviceService.getSyncManifest(deviceId, ifNoneMatch);
+            // 每次轮询都需重新验证
+            CacheControl cacheControl = CacheControl.noCache().cachePrivate();
+            if (result.getManifest() == null) {
+                return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                        .eTag(result.getEtag())
+                        .cacheControl(cacheControl)
+                        .build();
+            }
+            return ResponseEntity.ok()
+                    .eTag(result.getEtag())
+                    .cacheControl(cacheControl)
+                    .body(ApiResponse.success(result.getManifest()));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
     @GetMapping("/{deviceId}/activities/{activityId}/templates")
     public ResponseEntity<ApiResponse<List<DeviceService.TemplateInfo>>> getActivityTemplates(
             @PathVariable Long deviceId,
@@ -118,6 +168,43 @@ public class DeviceController {
         }
     }
 
+    /**
+     * 增量同步：带 since（上一次响应的 cursor）时只返回之后新增 / 变化 / 删除的模板绑定
+     * 首次同步可传 since=1970-01-01T00:00:00Z 获取全量及 cursor
+     */
+    @GetMapping(value = "/{deviceId}/activities/{activityId}/templates", params = "since")
+    public ResponseEntity<ApiResponse<DeviceService.TemplateDelta>> getActivityTemplateChanges(
+            @PathVariable Long deviceId,
+            @PathVariable Long activityId,
+            @RequestParam String since,
+            HttpServletRequest request
+    ) {
+        try {
+            String token = extractBearerToken(request);
+            if (token == null) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(ApiResponse.error("Missing or invalid Authorization header"));
+            }
+            if (!jwtUtil.validateDeviceToken(token, deviceId)) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                        .body(ApiResponse.error("Invalid or unauthorized device token"));
+            }
+
+            DeviceService.TemplateDelta delta = deviceService.getActivityTemplateChanges(deviceId, activityId, since);
+            return ResponseEntity.ok(ApiResponse.success(delta));
+        } catch (RuntimeException e) {
+            if (e.getMessage() != null && e.getMessage().contains("does not have access")) {
+                return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                        .body(ApiResponse.error("Device does not have access to this activity"));
+            }
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(ApiResponse.error(e.getMessage()));
+        } catch (Exception e) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(ApiResponse.error(e.getMessage()));
+        }
+    }
+
     @Data
     static class HandshakeRequest {
         private String deviceCode;
@@ -131,6 +218,63 @@ public class DeviceController {
         private String status;
     }
 
+    /**
+     * 配置变更推送（SSE）：绑定的模板或活动变化时推送事件，设备收到后重新拉取 sync-manifest
+     * 重连时带上 Last-Event-ID，断线期间的变更会立即补发
+     */
+    @GetMapping(value = "/{deviceId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamEvents(
+            @PathVariable Long deviceId,
+            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+            HttpServletRequest request
+    ) {
+        String token = extractBearerToken(request);
+        if (token == null || !jwtUtil.validateDeviceToken(token, deviceId)) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        try {
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                    // 关闭 nginx 等反向代理的响应缓冲
+                    .header("X-Accel-Buffering", "no")
+                    .body(deviceEventHub.openStream(deviceId, lastEventId));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "10")
+                    .build();
+        }
+    }
+
+    /**
+     * 配置变更推送的 long-poll 兜底（无法使用 SSE 的网络环境）
+     * since 为上一次收到的事件 ID（"{epoch}:{seq}"）；有新事件时返回事件，等待超时返回 204，设备随即发起下一次请求
+     */
+    @GetMapping("/{deviceId}/events/poll")
+    public DeferredResult<ResponseEntity<ApiResponse<DeviceEventHub.DeviceEvent>>> pollEvents(
+            @PathVariable Long deviceId,
+            @RequestParam(required = false) String since,
+            HttpServletRequest request
+    ) {
+        String token = extractBearerToken(request);
+        if (token == null || !jwtUtil.validateDeviceToken(token, deviceId)) {
+            DeferredResult<ResponseEntity<ApiResponse<DeviceEventHub.DeviceEvent>>> result = new DeferredResult<>();
+            result.setResult(ResponseEntity.status(HttpStatus.UNAUTHORIZED)
+                    .body(ApiResponse.error("Invalid or unauthorized device token")));
+            return result;
+        }
+        try {
+            return deviceEventHub.poll(deviceId, since,
+                    event -> ResponseEntity.ok(ApiResponse.success(event)),
+                    ResponseEntity.noContent().build());
+        } catch (RuntimeException e) {
+            DeferredResult<ResponseEntity<ApiResponse<DeviceEventHub.DeviceEvent>>> result = new DeferredResult<>();
+            result.setResult(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "10")
+                    .body(ApiResponse.error(e.getMessage())));
+            return result;
+        }
+    }
+
     /**
      * Extract Bearer token from Authorization header
      */
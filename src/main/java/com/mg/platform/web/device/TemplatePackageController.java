@@ -0,0 +1,285 @@
+package com.mg.platform.web.device;
+
+import com.mg.platform.common.util.ETags;
+import com.mg.platform.service.device.TemplateDeltaService;
+import com.mg.platform.service.device.TemplatePackageMetrics;
+import com.mg.platform.service.device.TemplatePackageStore;
+import com.mg.platform.service.device.TemplatePackageStore.PackageFile;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 模板包下载（替代静态资源处理器提供 /packages/**）
+ * - 强 ETag 为模板版本 checksum，支持 If-None-Match（304）
+ * - 支持单段 Range / If-Range（206 / 416），设备断点续传
+ * - 默认（packages.max-concurrent <= 0）响应体交给 Tomcat sendfile（内核直接从文件拷贝到 socket），
+ *   并发连接数由 server.tomcat.max-connections 约束
+ * - 配置了 packages.max-concurrent 时响应体由 servlet 线程写出（经过用户态缓冲，不是零拷贝），
+ *   写完之前一直占用并发许可，超过上限时返回 503 + Retry-After；
+ *   sendfile 在 servlet 返回后才由容器发送，容器不提供发送结束的回调，无法在那时归还许可，因此两者不能同时使用
+ * - /packages/delta/{from}/{to} 提供版本间的差量包，同样支持以上特性
+ */
+@Slf4j
+@RestController
+public class TemplatePackageController {
+    static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * parseRange 的返回值：Range 无法满足（416）
+     */
+    static final long[] UNSATISFIABLE = new long[0];
+
+    private static final int TRANSFER_BUFFER_BYTES = 64 * 1024;
+    private static final String CACHE_CONTROL = "public, max-age=86400, immutable";
+    private static final String DELTA_CONTENT_TYPE = "application/vnd.mg.template-delta";
+
+    private final TemplatePackageStore packageStore;
+    private final TemplatePackageMetrics metrics;
+    private final TemplateDeltaService deltaService;
+
+    /**
+     * 同时进行的包下载数上限；<= 0 表示不在这里限流，响应体交给 sendfile
+     */
+    @Value("${packages.max-concurrent:0}")
+    private int maxConcurrent = 0;
+
+    @Value("${packages.retry-after-seconds:5}")
+    private int retryAfterSeconds = 5;
+
+    /**
+     * 小于此大小的响应不走 sendfile（交给容器的开销大于收益），仅在不限并发时生效
+     */
+    @Value("${packages.sendfile-min-bytes:49152}")
+    private long sendfileMinBytes = 49152;
+
+    // 不限并发时为 null
+    private Semaphore permits;
+
+    public TemplatePackageController(TemplatePackageStore packageStore,
+                                     TemplatePackageMetrics metrics,
+                                     TemplateDeltaService deltaService) {
+        this.packageStore = packageStore;
+        this.metrics = metrics;
+        this.deltaService = deltaService;
+    }
+
+    @PostConstruct
+    public void init() {
+        // sendfile 在 servlet 返回后由容器异步发送，无法在发送结束时归还许可，因此限流时不使用
+        permits = maxConcurrent > 0 ? new Semaphore(maxConcurrent) : null;
+    }
+
+    @RequestMapping(value = "/packages/{fileName:.+}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void download(@PathVariable String fileName,
+                         HttpServletRequest request,
+                         HttpServletResponse response) throws IOException {
+        Optional<PackageFile> found = packageStore.find(fileName);
+        if (found.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        serve(found.get(), "application/zip", request, response);
+    }
+
+    /**
+     * 差量包下载：设备已安装 fromVersionId，目标为 toVersionId（BinaryDelta 格式）
+     * 没有可用差量（含后台尚未计算完成）时返回 404，设备改为下载完整包（TemplateVersion.packageUrl）
+     */
+    @RequestMapping(value = "/packages/delta/{fromVersionId}/{toVersionId}", method = {RequestMethod.GET, RequestMethod.HEAD})
+    public void downloadDelta(@PathVariable Long fromVersionId,
+                              @PathVariable Long toVersionId,
+                              HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        Optional<PackageFile> found = deltaService.findDelta(fromVersionId, toVersionId);
+        if (found.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        serve(found.get(), DELTA_CONTENT_TYPE, request, response);
+    }
+
+    private void serve(PackageFile file, String contentType,
+                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setHeader(HttpHeaders.ETAG, file.getEtag());
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_CONTROL);
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setDateHeader(HttpHeaders.LAST_MODIFIED, file.getLastModified());
+
+        if (ETags.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), file.getEtag())) {
+            metrics.notModified();
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long size = file.getSize();
+        long start = 0;
+        long end = size - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && rangeApplies(request.getHeader(HttpHeaders.IF_RANGE), file)) {
+            long[] parsed = parseRange(range, size);
+            if (parsed == UNSATISFIABLE) {
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (parsed != null) {
+                start = parsed[0];
+                end = parsed[1];
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+                metrics.partial();
+            }
+        }
+        long length = end - start + 1;
+        response.setContentType(contentType);
+        response.setContentLengthLong(Math.max(0, length));
+        if ("HEAD".equals(request.getMethod()) || length <= 0) {
+            return;
+        }
+
+        if (permits != null && !permits.tryAcquire()) {
+            metrics.rejected();
+            response.reset();
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        metrics.started();
+        long written = 0;
+        boolean success = false;
+        try {
+            if (permits == null && length >= sendfileMinBytes && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+                // 容器在 servlet 返回后异步发送文件，这里计作已写出（active 不包含 sendfile 中的连接）
+                request.setAttribute(SENDFILE_FILENAME, file.getPath().toString());
+                request.setAttribute(SENDFILE_START, start);
+                request.setAttribute(SENDFILE_END, end + 1);
+                metrics.sendfile();
+                written = length;
+            } else {
+                written = transfer(file, start, length, response);
+            }
+            success = written == length;
+        } catch (IOException e) {
+            // 多数是设备断开连接，断点续传会重新请求剩余部分
+            log.debug("Package download interrupted: file={}, written={}/{}: {}", file.getPath().getFileName(), written, length, e.getMessage());
+        } finally {
+            if (permits != null) {
+                permits.release();
+            }
+            metrics.finished(written, success);
+        }
+    }
+
+    /**
+     * 不走 sendfile 时由 servlet 线程写出：直接读入 byte[] 再写给输出流，避免 Channels.newChannel 包装多一次拷贝
+     */
+    private static long transfer(PackageFile file, long start, long length, HttpServletResponse response) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(TRANSFER_BUFFER_BYTES, length));
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+                int n = channel.read(buffer, position);
+                if (n <= 0) {
+                    break;
+                }
+                out.write(buffer.array(), 0, n);
+                position += n;
+                remaining -= n;
+            }
+            return length - remaining;
+        }
+    }
+
+    /**
+     * If-Range 只接受强 ETag（或 HTTP 日期），不匹配时忽略 Range 返回整个文件
+     */
+    private static boolean rangeApplies(String ifRange, PackageFile file) {
+        if (ifRange == null || ifRange.isBlank()) {
+            return true;
+        }
+        String value = ifRange.trim();
+        if (value.startsWith("\"")) {
+            return value.equals(file.getEtag());
+        }
+        if (value.startsWith("W/")) {
+            return false;
+        }
+        try {
+            long since = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)
+                    .toInstant().toEpochMilli();
+            return file.getLastModified() / 1000 <= since / 1000;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 解析单段 Range
+     * @return [start, end]（闭区间）；多段、格式不合法时返回 null（按整个文件响应）；无法满足时返回 UNSATISFIABLE
+     */
+    static long[] parseRange(String header, long size) {
+        String value = header.trim();
+        if (!value.startsWith("bytes=")) {
+            return null;
+        }
+        String spec = value.substring("bytes=".length()).trim();
+        if (spec.isEmpty() || spec.indexOf(',') >= 0) {
+            return null;
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                // bytes=-n：最后 n 个字节
+                if (last.isEmpty()) {
+                    return null;
+                }
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || size == 0) {
+                    return UNSATISFIABLE;
+                }
+                return new long[]{Math.max(0, size - suffix), size - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                return null;
+            }
+            if (start >= size) {
+                return UNSATISFIABLE;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -5,8 +5,12 @@ import com.mg.platform.common.dto.PageResponse;
 import com.mg.platform.domain.Activity;
 import com.mg.platform.domain.Device;
 import com.mg.platform.service.MerchantService;
+import com.mg.platform.service.device.DevicePresenceIndex;
+import com.mg.platform.service.device.DeviceProvisioningService;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -171,6 +175,52 @@ public class MerchantController {
         }
     }
 
+    /**
+     * 批量开通设备（JSON）：返回每行的结果，校验失败的行不影响其他行
+     */
+    @PostMapping(value = "/devices/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ApiResponse<DeviceProvisioningService.ProvisionResult> provisionDevices(@RequestBody BulkDevicesRequest request) {
+        try {
+            return ApiResponse.success(merchantService.provisionDevices(
+                    request.getMerchantId(), request.getDevices(), request.isGenerateSecrets()));
+        } catch (Exception e) {
+            return ApiResponse.error(e.getMessage());
+        }
+    }
+
+    /**
+     * 批量开通设备（CSV 请求体，逐行读取）：列为 deviceCode,name[,secret]，可带表头
+     */
+    @PostMapping(value = "/devices/bulk", consumes = {"text/csv", MediaType.TEXT_PLAIN_VALUE})
+    public ApiResponse<DeviceProvisioningService.ProvisionResult> provisionDevicesFromCsv(
+            @RequestParam Long merchantId,
+            @RequestParam(defaultValue = "false") boolean generateSecrets,
+            HttpServletRequest request
+    ) {
+        try {
+            return ApiResponse.success(merchantService.provisionDevicesFromCsv(
+                    merchantId, request.getReader(), generateSecrets));
+        } catch (Exception e) {
+            return ApiResponse.error(e.getMessage());
+        }
+    }
+
+    /**
+     * 在线设备（内存在线索引，按最近心跳倒序）
+     */
+    @GetMapping("/devices/online")
+    public ApiResponse<List<DevicePresenceIndex.PresenceView>> getOnlineDevices(@RequestParam Long merchantId) {
+        return ApiResponse.success(merchantService.getOnlineDevices(merchantId));
+    }
+
+    /**
+     * 离线设备（内存在线索引，按最近心跳倒序）
+     */
+    @GetMapping("/devices/offline")
+    public ApiResponse<List<DevicePresenceIndex.PresenceView>> getOfflineDevices(@RequestParam Long merchantId) {
+        return ApiResponse.success(merchantService.getOfflineDevices(merchantId));
+    }
+
     @PostMapping("/devices")
     public ApiResponse<Device> createDevice(@RequestBody CreateDeviceRequest request) {
         try {
@@ -191,6 +241,13 @@ public class MerchantController {
         }
     }
 
+    @Data
+    static class BulkDevicesRequest {
+        private Long merchantId;
+        private boolean generateSecrets;
+        private List<DeviceProvisioningService.ProvisionRow> devices;
+    }
+
     @Data
     @lombok.EqualsAndHashCode(callSuper = false)
     static class CreateActivityRequest extends MerchantService.CreateActivityRequest {
@@ -0,0 +1,18 @@
+-- Flyway: V10__activity_template_tombstones.sql
+-- Tombstones for removed activity template bindings (device delta sync with a since cursor)
+SET NAMES utf8mb4;
+SET time_zone = '+00:00';
+
+-- activity_templates 中被删除的绑定；设备增量同步时据此下发删除项，超过保留期后定时清理
+CREATE TABLE activity_template_tombstones (
+  id                  BIGINT UNSIGNED NOT NULL AUTO_INCREMENT,
+  activity_id         BIGINT UNSIGNED NOT NULL,
+  template_id         BIGINT UNSIGNED NOT NULL,
+  template_version_id BIGINT UNSIGNED NOT NULL,
+  deleted_at          TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  PRIMARY KEY (id),
+  KEY idx_att_activity_deleted (activity_id, deleted_at),
+  KEY idx_att_deleted (deleted_at),
+  CONSTRAINT fk_att_activity FOREIGN KEY (activity_id) REFERENCES activities(id)
+    ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
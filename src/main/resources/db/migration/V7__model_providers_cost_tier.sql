@@ -0,0 +1,9 @@
+-- Flyway: V7__model_providers_cost_tier.sql
+-- Add cost_tier to model_providers (used by resolve maxCostTier constraint / policy max_cost_tier)
+SET NAMES utf8mb4;
+SET time_zone = '+00:00';
+
+-- NULL 表示未设置成本等级，不受 maxCostTier 限制
+ALTER TABLE model_providers
+  ADD COLUMN cost_tier INT NULL AFTER status,
+  ADD KEY idx_model_providers_cost_tier (cost_tier);
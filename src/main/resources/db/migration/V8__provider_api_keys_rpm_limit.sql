@@ -0,0 +1,8 @@
+-- Flyway: V8__provider_api_keys_rpm_limit.sql
+-- Per-key request budget (requests per minute) for the provider API key pool
+SET NAMES utf8mb4;
+SET time_zone = '+00:00';
+
+-- NULL 表示不限制（使用 routing.key-pool.default-rpm）
+ALTER TABLE provider_api_keys
+  ADD COLUMN rpm_limit INT NULL AFTER status;
@@ -0,0 +1,8 @@
+-- Flyway: V9__routing_policies_traffic_split.sql
+-- Weighted traffic split per routing policy (canary / load spreading between providers)
+SET NAMES utf8mb4;
+SET time_zone = '+00:00';
+
+-- 形如 {"volc": 90, "new_model": 10}，权重按比例归一化；NULL 表示不分流（仅按 prefer 顺序）
+ALTER TABLE capability_routing_policies
+  ADD COLUMN traffic_split_json JSON NULL AFTER prefer_providers_json;
@@ -0,0 +1,68 @@
+package com.mg.platform.common.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryDeltaTest {
+
+    @Test
+    void testEncode_SmallChangeProducesSmallDelta() {
+        // Given: 256KB 的包，中间替换 1KB、末尾追加 2KB
+        Random random = new Random(42);
+        byte[] base = new byte[256 * 1024];
+        random.nextBytes(base);
+        byte[] target = new byte[base.length + 2048];
+        System.arraycopy(base, 0, target, 0, base.length);
+        byte[] changed = new byte[1024];
+        random.nextBytes(changed);
+        System.arraycopy(changed, 0, target, 100_000, changed.length);
+        byte[] appended = new byte[2048];
+        random.nextBytes(appended);
+        System.arraycopy(appended, 0, target, base.length, appended.length);
+
+        // When
+        byte[] delta = BinaryDelta.encode(base, target, 128);
+
+        // Then: 差量约等于新增内容，还原结果与 target 一致
+        assertTrue(delta.length < 4 * 1024, "delta too large: " + delta.length);
+        assertArrayEquals(target, BinaryDelta.apply(base, delta));
+    }
+
+    @Test
+    void testEncode_HandlesShiftedAndUnrelatedContent() {
+        Random random = new Random(7);
+        byte[] base = new byte[10_000];
+        random.nextBytes(base);
+
+        // 插入若干字节后整体偏移，仍能按滚动哈希匹配
+        byte[] shifted = new byte[base.length + 3];
+        shifted[0] = 1;
+        shifted[1] = 2;
+        shifted[2] = 3;
+        System.arraycopy(base, 0, shifted, 3, base.length);
+        byte[] delta = BinaryDelta.encode(base, shifted, 64);
+        assertTrue(delta.length < 100, "delta too large: " + delta.length);
+        assertArrayEquals(shifted, BinaryDelta.apply(base, delta));
+
+        // 完全不相关、比块还短、空内容
+        byte[] unrelated = new byte[5_000];
+        random.nextBytes(unrelated);
+        assertArrayEquals(unrelated, BinaryDelta.apply(base, BinaryDelta.encode(base, unrelated, 64)));
+        byte[] tiny = {9, 8, 7};
+        assertArrayEquals(tiny, BinaryDelta.apply(base, BinaryDelta.encode(base, tiny, 64)));
+        assertArrayEquals(new byte[0], BinaryDelta.apply(new byte[0], BinaryDelta.encode(new byte[0], new byte[0], 64)));
+    }
+
+    @Test
+    void testApply_RejectsDeltaForDifferentBase() {
+        byte[] base = new byte[1000];
+        new Random(1).nextBytes(base);
+        byte[] delta = BinaryDelta.encode(base, base, 64);
+
+        assertThrows(IllegalArgumentException.class, () -> BinaryDelta.apply(new byte[10], delta));
+        assertThrows(IllegalArgumentException.class, () -> BinaryDelta.apply(base, new byte[]{1, 2, 3, 4}));
+    }
+}
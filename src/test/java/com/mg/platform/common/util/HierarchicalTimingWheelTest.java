@@ -0,0 +1,59 @@
+package com.mg.platform.common.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HierarchicalTimingWheelTest {
+
+    @Test
+    void testAdvance_FiresEachTimerAtItsTickAcrossLevels() {
+        // Given: tick 10ms，每层 8 格、3 层（覆盖 512 tick），任务分布在各层
+        HierarchicalTimingWheel<Integer> wheel = new HierarchicalTimingWheel<>(10, 8, 3, 0);
+        Random random = new Random(5);
+        Map<Integer, Long> deadlines = new HashMap<>();
+        for (int i = 0; i < 500; i++) {
+            long deadline = 10 + random.nextInt(5000);
+            deadlines.put(i, deadline);
+            wheel.schedule(i, deadline);
+        }
+        assertEquals(500, wheel.size());
+
+        // When: 逐 tick 推进
+        Map<Integer, Long> firedAt = new HashMap<>();
+        for (long now = 0; now <= 5100; now += 10) {
+            long at = now;
+            wheel.advance(now, item -> firedAt.put(item, at));
+        }
+
+        // Then: 每个任务恰好在其到期 tick 触发一次
+        assertEquals(500, firedAt.size());
+        deadlines.forEach((item, deadline) -> assertEquals(deadline / 10 * 10, firedAt.get(item), "item " + item));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void testAdvance_HandlesDeadlinesBeyondRangeAndLargeJumps() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(1, 4, 2, 1000);
+        // 范围只有 16 tick，超出范围的任务不能提前触发
+        wheel.schedule("far", 1100);
+        wheel.schedule("past", 500);
+
+        List<String> fired = new ArrayList<>();
+        wheel.advance(1001, fired::add);
+        assertEquals(List.of("past"), fired);
+
+        wheel.advance(1099, fired::add);
+        assertEquals(List.of("past"), fired);
+
+        // 一次跨越多个 tick
+        wheel.advance(1200, fired::add);
+        assertEquals(List.of("past", "far"), fired);
+    }
+}
@@ -0,0 +1,93 @@
+package com.mg.platform.common.util;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtUtilTest {
+
+    private JwtUtil jwtUtil;
+
+    @BeforeEach
+    void setUp() {
+        jwtUtil = new JwtUtil();
+        ReflectionTestUtils.setField(jwtUtil, "secret", "test-secret-key-change-this-min-256-bits-long");
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 60000L);
+        jwtUtil.init();
+    }
+
+    @Test
+    void testValidateDeviceToken_ParsesOnceAndCachesClaims() {
+        // Given
+        String token = jwtUtil.generateDeviceToken(1001L, 1L);
+
+        // When
+        JwtUtil.VerifiedClaims claims = jwtUtil.verify(token);
+
+        // Then
+        assertEquals(1001L, claims.getDeviceId());
+        assertEquals(1L, claims.getMerchantId());
+        assertEquals("device", claims.getType());
+        assertTrue(jwtUtil.validateDeviceToken(token, 1001L));
+        assertFalse(jwtUtil.validateDeviceToken(token, 1002L));
+        assertSame(claims, jwtUtil.verify(token));
+        assertEquals(1, jwtUtil.cachedTokenCount());
+        assertEquals(1001L, jwtUtil.verifyDeviceToken(token));
+        assertNull(jwtUtil.verifyDeviceToken(jwtUtil.generateToken("admin@example.com", "ADMIN", 1L)));
+        assertNull(jwtUtil.verifyDeviceToken("not-a-token"));
+    }
+
+    @Test
+    void testValidateDeviceToken_RejectsTamperedToken() {
+        // Given: 先让原 token 进入缓存
+        String token = jwtUtil.generateDeviceToken(1001L, 1L);
+        assertTrue(jwtUtil.validateDeviceToken(token, 1001L));
+
+        // When: 篡改签名
+        int pos = token.length() - 5;
+        char c = token.charAt(pos);
+        String tampered = token.substring(0, pos) + (c == 'A' ? 'Q' : 'A') + token.substring(pos + 1);
+
+        // Then
+        assertFalse(jwtUtil.validateDeviceToken(tampered, 1001L));
+        assertEquals(1, jwtUtil.cachedTokenCount());
+    }
+
+    @Test
+    void testValidateToken_UserToken() {
+        // Given
+        String token = jwtUtil.generateToken("admin@example.com", "ADMIN", 5L);
+
+        // Then
+        JwtUtil.VerifiedClaims claims = jwtUtil.verify(token);
+        assertEquals("admin@example.com", claims.getSubject());
+        assertEquals("ADMIN", claims.getRole());
+        assertNull(claims.getType());
+        assertTrue(jwtUtil.validateToken(token, "admin@example.com"));
+        assertFalse(jwtUtil.validateDeviceToken(token, 5L));
+    }
+
+    @Test
+    void testVerify_FullCacheEvictsTokenExpiringFirst() {
+        // Given: 缓存最多 2 个条目，三个 token 的过期时间不同
+        ReflectionTestUtils.setField(jwtUtil, "claimsCacheMaxEntries", 2);
+        String longLived = jwtUtil.generateDeviceToken(1001L, 1L);
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 30000L);
+        String shortLived = jwtUtil.generateDeviceToken(1002L, 1L);
+        ReflectionTestUtils.setField(jwtUtil, "expiration", 90000L);
+        String newest = jwtUtil.generateDeviceToken(1003L, 1L);
+        JwtUtil.VerifiedClaims first = jwtUtil.verify(longLived);
+        JwtUtil.VerifiedClaims second = jwtUtil.verify(shortLived);
+
+        // When
+        JwtUtil.VerifiedClaims third = jwtUtil.verify(newest);
+
+        // Then: 只淘汰最早过期的 token，其余仍然命中缓存
+        assertEquals(2, jwtUtil.cachedTokenCount());
+        assertSame(first, jwtUtil.verify(longLived));
+        assertSame(third, jwtUtil.verify(newest));
+        assertNotSame(second, jwtUtil.verify(shortLived));
+    }
+}
@@ -0,0 +1,192 @@
+package com.mg.platform.service;
+
+import com.mg.platform.common.util.JwtUtil;
+import com.mg.platform.config.JpaConfig;
+import com.mg.platform.domain.Activity;
+import com.mg.platform.domain.ActivityTemplate;
+import com.mg.platform.domain.Device;
+import com.mg.platform.domain.DeviceActivityAssignment;
+import com.mg.platform.domain.Merchant;
+import com.mg.platform.domain.Template;
+import com.mg.platform.domain.TemplateVersion;
+import com.mg.platform.service.device.DeviceHeartbeatAggregator;
+import com.mg.platform.service.device.DevicePresenceIndex;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 设备端模板列表的 SQL 条数回归测试（H2，表结构由实体生成）
+ */
+@DataJpaTest(properties = {
+        "spring.flyway.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true",
+        "spring.datasource.url=jdbc:h2:mem:device_query_count;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "jwt.expiration=86400000"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({DeviceService.class, JpaConfig.class})
+class DeviceServiceQueryCountTest {
+
+    private static final int TEMPLATE_COUNT = 10;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private DeviceService deviceService;
+
+    @MockBean
+    private JwtUtil jwtUtil;
+
+    @MockBean
+    private DeviceHeartbeatAggregator heartbeatAggregator;
+
+    @MockBean
+    private DevicePresenceIndex presenceIndex;
+
+    private Long deviceId;
+    private Long activityId;
+    private Long unboundActivityId;
+
+    @BeforeEach
+    void setUp() {
+        Merchant merchant = new Merchant();
+        merchant.setName("Test Merchant");
+        merchant.setCode("M_QC");
+        entityManager.persist(merchant);
+
+        Device device = new Device();
+        device.setMerchant(merchant);
+        device.setDeviceCode("DEV_QC");
+        entityManager.persist(device);
+
+        Activity activity = activity(merchant, "Bound");
+        Activity unbound = activity(merchant, "Unbound");
+
+        DeviceActivityAssignment assignment = new DeviceActivityAssignment();
+        assignment.setDevice(device);
+        assignment.setActivity(activity);
+        assignment.setActivatedAt(LocalDateTime.now());
+        entityManager.persist(assignment);
+
+        for (int i = 0; i < TEMPLATE_COUNT; i++) {
+            Template template = new Template();
+            template.setCode("T_QC_" + i);
+            template.setName("Template " + i);
+            template.setContentJson("{}");
+            entityManager.persist(template);
+
+            TemplateVersion version = new TemplateVersion();
+            version.setTemplate(template);
+            version.setVersion("1.0." + i);
+            version.setPackageUrl("https://cdn.test.com/" + i + ".zip");
+            entityManager.persist(version);
+
+            ActivityTemplate binding = new ActivityTemplate();
+            binding.setActivity(activity);
+            binding.setTemplateVersion(version);
+            binding.setSortOrder(i);
+            entityManager.persist(binding);
+        }
+
+        entityManager.flush();
+        entityManager.clear();
+        deviceId = device.getId();
+        activityId = activity.getId();
+        unboundActivityId = unbound.getId();
+    }
+
+    private Activity activity(Merchant merchant, String name) {
+        Activity activity = new Activity();
+        activity.setMerchant(merchant);
+        activity.setName(name);
+        entityManager.persist(activity);
+        return activity;
+    }
+
+    private Statistics statistics() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        return statistics;
+    }
+
+    @Test
+    void testGetActivityTemplates_SingleQueryRegardlessOfTemplateCount() {
+        // Given
+        Statistics statistics = statistics();
+
+        // When
+        List<DeviceService.TemplateInfo> templates = deviceService.getActivityTemplates(deviceId, activityId);
+
+        // Then: 权限校验与模板投影在同一条 SQL 中完成，不随模板数量增长
+        assertEquals(TEMPLATE_COUNT, templates.size());
+        assertEquals("T_QC_0", templates.get(0).getTemplateCode());
+        assertEquals("1.0.9", templates.get(TEMPLATE_COUNT - 1).getVersionSemver());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void testGetActivityTemplates_DeniedForUnboundActivity() {
+        // Given
+        Statistics statistics = statistics();
+
+        // When
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> deviceService.getActivityTemplates(deviceId, unboundActivityId));
+
+        // Then
+        assertTrue(e.getMessage().contains("does not have access"));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void testGetActivityTemplateChanges_AccessCheckIsOneQuery() {
+        // Given
+        Statistics statistics = statistics();
+
+        // When: 未绑定的活动
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> deviceService.getActivityTemplateChanges(deviceId, unboundActivityId, "1970-01-01T00:00:00Z"));
+
+        // Then: 一条存在性查询，不加载设备和绑定实体
+        assertTrue(e.getMessage().contains("does not have access"));
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(0, statistics.getEntityLoadCount());
+    }
+
+    @Test
+    void testGetDeviceActivities_SingleQuery() {
+        // Given
+        Statistics statistics = statistics();
+
+        // When
+        List<Activity> activities = deviceService.getDeviceActivities(deviceId);
+
+        // Then: assignments 与 activities 在同一条 SQL 中联结，窗口外 / 未绑定的活动不会加载
+        assertEquals(List.of(activityId), activities.stream().map(Activity::getId).toList());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+}
@@ -0,0 +1,288 @@
+package com.mg.platform.service;
+
+import com.mg.platform.common.util.JwtUtil;
+import com.mg.platform.domain.Activity;
+import com.mg.platform.domain.ActivityTemplate;
+import com.mg.platform.domain.ActivityTemplateTombstone;
+import com.mg.platform.domain.Template;
+import com.mg.platform.domain.TemplateVersion;
+import com.mg.platform.repo.*;
+import com.mg.platform.service.device.DeviceHeartbeatAggregator;
+import com.mg.platform.service.device.DevicePresenceIndex;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceServiceTest {
+
+    @Mock
+    private DeviceRepository deviceRepository;
+    @Mock
+    private DeviceActivityAssignmentRepository assignmentRepository;
+    @Mock
+    private ActivityRepository activityRepository;
+    @Mock
+    private ActivityTemplateRepository activityTemplateRepository;
+    @Mock
+    private TemplateRepository templateRepository;
+    @Mock
+    private TemplateVersionRepository templateVersionRepository;
+    @Mock
+    private JwtUtil jwtUtil;
+    @Mock
+    private DeviceHeartbeatAggregator heartbeatAggregator;
+    @Mock
+    private ActivityTemplateTombstoneRepository tombstoneRepository;
+    @Mock
+    private DevicePresenceIndex presenceIndex;
+
+    private DeviceService deviceService;
+
+    private Activity activity;
+    private ActivityTemplate binding;
+    private final LocalDateTime baseTime = LocalDateTime.of(2026, 1, 1, 0, 0);
+
+    @BeforeEach
+    void setUp() {
+        deviceService = new DeviceService(deviceRepository, assignmentRepository, activityRepository,
+                activityTemplateRepository, templateRepository, templateVersionRepository, jwtUtil,
+                heartbeatAggregator, tombstoneRepository, presenceIndex);
+
+        activity = new Activity();
+        activity.setId(10L);
+        activity.setName("Spring Fair");
+        activity.setUpdatedAt(baseTime);
+
+        Template template = new Template();
+        template.setId(100L);
+        template.setCode("T_PORTRAIT");
+        template.setName("Portrait");
+        TemplateVersion version = new TemplateVersion();
+        version.setId(1000L);
+        version.setTemplate(template);
+        version.setVersion("1.0.0");
+        version.setPackageUrl("https://cdn.test.com/t.zip");
+        version.setUpdatedAt(baseTime);
+
+        binding = new ActivityTemplate();
+        binding.setActivity(activity);
+        binding.setTemplateVersion(version);
+    }
+
+    private void givenActivitiesInWindow() {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{activity, "Asia/Shanghai"});
+        when(assignmentRepository.findActiveActivitiesInWindow(eq(1L), any(), any())).thenReturn(rows);
+    }
+
+    private void givenManifestRows(Long templateVersionId, String checksum) {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{1L, 10L, templateVersionId, checksum, "/packages/t.zip", true, 0,
+                baseTime, baseTime, baseTime, "ACTIVE"});
+        when(activityTemplateRepository.findManifestFingerprintRows(List.of(10L))).thenReturn(rows);
+    }
+
+    @Test
+    void testGetSyncManifest_ReturnsActivitiesWithTemplates() {
+        // Given
+        givenActivitiesInWindow();
+        givenManifestRows(100L, "sha-a");
+        when(activityTemplateRepository.findByActivityIdInWithDetails(List.of(10L))).thenReturn(List.of(binding));
+
+        // When
+        DeviceService.SyncManifestResult result = deviceService.getSyncManifest(1L, null);
+
+        // Then
+        assertNotNull(result.getManifest());
+        assertTrue(result.getEtag().startsWith("\""));
+        assertEquals(result.getEtag(), result.getManifest().getEtag());
+        assertEquals(1, result.getManifest().getActivities().size());
+        DeviceService.SyncActivity synced = result.getManifest().getActivities().get(0);
+        assertEquals(10L, synced.getActivityId());
+        assertEquals(1, synced.getTemplates().size());
+        assertEquals("T_PORTRAIT", synced.getTemplates().get(0).getTemplateCode());
+    }
+
+    @Test
+    void testGetSyncManifest_NotModifiedSkipsTemplateLoad() {
+        // Given
+        givenActivitiesInWindow();
+        givenManifestRows(100L, "sha-a");
+        when(activityTemplateRepository.findByActivityIdInWithDetails(List.of(10L))).thenReturn(List.of(binding));
+        String etag = deviceService.getSyncManifest(1L, null).getEtag();
+        clearInvocations(activityTemplateRepository);
+
+        // When
+        DeviceService.SyncManifestResult result = deviceService.getSyncManifest(1L, etag);
+
+        // Then
+        assertNull(result.getManifest());
+        assertEquals(etag, result.getEtag());
+        verify(activityTemplateRepository, never()).findByActivityIdInWithDetails(anyList());
+    }
+
+    @Test
+    void testGetSyncManifest_EtagChangesWhenBindingChangesOrActivityLeavesWindow() {
+        // Given
+        givenActivitiesInWindow();
+        givenManifestRows(100L, "sha-a");
+        String etag = deviceService.getSyncManifest(1L, "\"stale\"").getEtag();
+
+        // When: 改绑到另一个版本（各行 updated_at 不变）
+        givenManifestRows(101L, "sha-b");
+
+        // Then
+        String updated = deviceService.getSyncManifest(1L, etag).getEtag();
+        assertNotEquals(etag, updated);
+
+        // When: 活动已结束（updated_at 不变）
+        activity.setEndAt(LocalDateTime.now(ZoneId.of("Asia/Shanghai")).minusMinutes(1));
+        DeviceService.SyncManifestResult ended = deviceService.getSyncManifest(1L, updated);
+
+        // Then
+        assertNotEquals(updated, ended.getEtag());
+        assertTrue(ended.getManifest().getActivities().isEmpty());
+    }
+
+    private void givenDeviceBoundToActivity() {
+        when(assignmentRepository.existsActiveAssignment(1L, 10L)).thenReturn(true);
+    }
+
+    private static String iso(LocalDateTime time) {
+        return time.atZone(java.time.ZoneId.systemDefault()).toOffsetDateTime().toString();
+    }
+
+    @Test
+    void testGetActivityTemplateChanges_ReturnsChangesAndTombstones() {
+        // Given: 一个绑定在 cursor 之后变化，另一个版本在 cursor 之后被解绑
+        givenDeviceBoundToActivity();
+        binding.getTemplateVersion().getTemplate().setUpdatedAt(baseTime);
+        binding.setUpdatedAt(baseTime.plusMinutes(1));
+        LocalDateTime since = LocalDateTime.now().minusHours(1);
+        when(activityTemplateRepository.findChangedSince(10L, since)).thenReturn(List.of(binding));
+        when(activityTemplateRepository.findTemplateVersionIdsByActivityId(10L)).thenReturn(List.of(1000L));
+
+        Template oldTemplate = new Template();
+        oldTemplate.setId(200L);
+        oldTemplate.setCode("T_OLD");
+        TemplateVersion oldVersion = new TemplateVersion();
+        oldVersion.setId(2000L);
+        oldVersion.setTemplate(oldTemplate);
+        oldVersion.setVersion("0.9.0");
+        ActivityTemplateTombstone removedBinding = new ActivityTemplateTombstone();
+        removedBinding.setTemplateVersion(oldVersion);
+        removedBinding.setDeletedAt(since.plusMinutes(30));
+        // 被解绑后又重新绑定的版本不应作为删除项下发
+        ActivityTemplateTombstone rebound = new ActivityTemplateTombstone();
+        rebound.setTemplateVersion(binding.getTemplateVersion());
+        rebound.setDeletedAt(since.plusMinutes(10));
+        when(tombstoneRepository.findByActivityIdDeletedSince(10L, since)).thenReturn(List.of(rebound, removedBinding));
+
+        // When
+        DeviceService.TemplateDelta delta = deviceService.getActivityTemplateChanges(1L, 10L,
+                iso(since));
+
+        // Then
+        assertFalse(delta.isFull());
+        assertEquals(1, delta.getChanged().size());
+        assertEquals("T_PORTRAIT", delta.getChanged().get(0).getTemplateCode());
+        assertEquals(1, delta.getRemoved().size());
+        assertEquals("T_OLD", delta.getRemoved().get(0).getTemplateCode());
+        assertEquals("0.9.0", delta.getRemoved().get(0).getVersionSemver());
+        assertTrue(delta.getCursor().startsWith(since.plusMinutes(30).toString().substring(0, 16)));
+    }
+
+    @Test
+    void testGetActivityTemplateChanges_CursorStaysBehindSafetyWindow() {
+        // Given: 刚刚写入的绑定（时间戳在安全窗口内）
+        givenDeviceBoundToActivity();
+        LocalDateTime now = LocalDateTime.now();
+        binding.getTemplateVersion().getTemplate().setUpdatedAt(baseTime);
+        binding.setUpdatedAt(now);
+        LocalDateTime since = now.minusMinutes(1);
+        when(activityTemplateRepository.findChangedSince(10L, since)).thenReturn(List.of(binding));
+
+        // When
+        DeviceService.TemplateDelta delta = deviceService.getActivityTemplateChanges(1L, 10L,
+                iso(since));
+
+        // Then: cursor 不越过 now - 安全窗口，下一次增量会再次带上该绑定（以及期间提交的更早时间戳）
+        assertEquals(1, delta.getChanged().size());
+        assertTrue(java.time.OffsetDateTime.parse(delta.getCursor()).toLocalDateTime().isBefore(now.minusSeconds(4)));
+    }
+
+    @Test
+    void testGetActivityTemplateChanges_CursorOlderThanRetentionReturnsFullList() {
+        // Given
+        givenDeviceBoundToActivity();
+        when(activityTemplateRepository.findByActivityIdInWithDetails(List.of(10L))).thenReturn(List.of(binding));
+
+        // When
+        DeviceService.TemplateDelta delta = deviceService.getActivityTemplateChanges(1L, 10L, "1970-01-01T00:00:00Z");
+
+        // Then
+        assertTrue(delta.isFull());
+        assertEquals(1, delta.getChanged().size());
+        assertTrue(delta.getRemoved().isEmpty());
+        assertNotNull(delta.getCursor());
+        verifyNoInteractions(tombstoneRepository);
+    }
+
+    @Test
+    void testGetActivityTemplateChanges_RejectsInvalidCursor() {
+        givenDeviceBoundToActivity();
+        assertThrows(RuntimeException.class, () -> deviceService.getActivityTemplateChanges(1L, 10L, "yesterday"));
+    }
+
+    @Test
+    void testGetDeviceActivities_EvaluatesWindowInMerchantTimezone() {
+        // Given: 商家在 UTC+14，活动按其本地时间已开始；按 UTC 计算尚未开始
+        Activity kiritimati = new Activity();
+        kiritimati.setId(11L);
+        kiritimati.setStartAt(LocalDateTime.now(ZoneId.of("Pacific/Kiritimati")).minusHours(1));
+        Activity notStarted = new Activity();
+        notStarted.setId(12L);
+        notStarted.setStartAt(LocalDateTime.now(ZoneId.of("Asia/Shanghai")).plusHours(1));
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{kiritimati, "Pacific/Kiritimati"});
+        rows.add(new Object[]{notStarted, "Asia/Shanghai"});
+        when(assignmentRepository.findActiveActivitiesInWindow(eq(1L), any(), any())).thenReturn(rows);
+
+        // When
+        List<Activity> activities = deviceService.getDeviceActivities(1L);
+
+        // Then
+        assertEquals(List.of(kiritimati), activities);
+    }
+
+    @Test
+    void testUpdateDeviceHeartbeat_IgnoresUnknownDevice() {
+        // Given
+        when(presenceIndex.touch(1L)).thenReturn(true);
+        when(presenceIndex.touch(404L)).thenReturn(false);
+
+        // When
+        deviceService.updateDeviceHeartbeat(1L, "1.2.0");
+
+        // Then: 不存在的设备不进入写合并缓冲，只计数
+        assertThrows(RuntimeException.class, () -> deviceService.updateDeviceHeartbeat(404L, "1.2.0"));
+        verify(heartbeatAggregator).record(1L, "1.2.0");
+        verify(heartbeatAggregator).rejectUnknown(404L);
+        verify(heartbeatAggregator, never()).record(eq(404L), any());
+    }
+}
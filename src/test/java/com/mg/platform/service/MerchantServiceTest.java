@@ -0,0 +1,106 @@
+package com.mg.platform.service;
+
+import com.mg.platform.domain.Activity;
+import com.mg.platform.domain.Template;
+import com.mg.platform.domain.TemplateVersion;
+import com.mg.platform.repo.*;
+import com.mg.platform.service.device.DeviceEventHub;
+import com.mg.platform.service.device.DevicePresenceIndex;
+import com.mg.platform.service.device.DeviceProvisioningService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MerchantServiceTest {
+
+    @Mock
+    private ActivityRepository activityRepository;
+    @Mock
+    private ActivityTemplateRepository activityTemplateRepository;
+    @Mock
+    private DeviceRepository deviceRepository;
+    @Mock
+    private DeviceActivityAssignmentRepository assignmentRepository;
+    @Mock
+    private TemplateVersionRepository templateVersionRepository;
+    @Mock
+    private ActivityTemplateTombstoneRepository tombstoneRepository;
+    @Mock
+    private DeviceEventHub deviceEventHub;
+    @Mock
+    private DevicePresenceIndex presenceIndex;
+    @Mock
+    private DeviceProvisioningService provisioningService;
+
+    private MerchantService merchantService;
+
+    @BeforeEach
+    void setUp() {
+        merchantService = new MerchantService(activityRepository, activityTemplateRepository, deviceRepository,
+                assignmentRepository, templateVersionRepository, tombstoneRepository, deviceEventHub,
+                presenceIndex, provisioningService);
+
+        Activity activity = new Activity();
+        activity.setId(10L);
+        when(activityRepository.findById(10L)).thenReturn(Optional.of(activity));
+    }
+
+    private TemplateVersion version(long id) {
+        Template template = new Template();
+        template.setId(100L + id);
+        TemplateVersion version = new TemplateVersion();
+        version.setId(id);
+        version.setTemplate(template);
+        return version;
+    }
+
+    @Test
+    void testBindTemplateVersions_UnchangedSelectionDoesNotWriteOrNotify() {
+        // Given: 活动已按顺序绑定 1000、1001
+        when(activityTemplateRepository.findBindingStatesByActivityId(10L)).thenReturn(List.of(
+                new Object[]{1000L, 0, true},
+                new Object[]{1001L, 1, true}));
+
+        // When: 重复提交同一列表
+        merchantService.bindTemplateVersionsToActivity(10L, List.of(1000L, 1001L));
+
+        // Then: 不写库、不通知设备
+        verify(activityTemplateRepository, never())
+                .insertOrUpdateActivityTemplate(anyLong(), anyLong(), anyLong(), anyInt(), anyBoolean());
+        verifyNoInteractions(tombstoneRepository, deviceEventHub);
+    }
+
+    @Test
+    void testBindTemplateVersions_ChangedOrderWritesAndNotifies() {
+        // Given
+        when(activityTemplateRepository.findBindingStatesByActivityId(10L)).thenReturn(List.of(
+                new Object[]{1000L, 0, true},
+                new Object[]{1001L, 1, true}));
+        when(templateVersionRepository.findById(1000L)).thenReturn(Optional.of(version(1000L)));
+        when(templateVersionRepository.findById(1001L)).thenReturn(Optional.of(version(1001L)));
+        when(assignmentRepository.findDeviceIdsByActivityIdAndStatus(10L, "ACTIVE")).thenReturn(List.of(1L));
+
+        // When: 调换顺序
+        merchantService.bindTemplateVersionsToActivity(10L, List.of(1001L, 1000L));
+
+        // Then: 两条绑定都更新顺序，提交后通知一次
+        verify(activityTemplateRepository).insertOrUpdateActivityTemplate(10L, 1101L, 1001L, 0, true);
+        verify(activityTemplateRepository).insertOrUpdateActivityTemplate(10L, 1100L, 1000L, 1, true);
+        verify(deviceEventHub, times(1))
+                .publishAfterCommit(eq(List.of(1L)), eq(DeviceEventHub.TEMPLATES_CHANGED), eq(10L));
+        verify(tombstoneRepository, never()).recordRemovals(anyLong(), any());
+    }
+}
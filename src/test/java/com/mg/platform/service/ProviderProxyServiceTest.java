@@ -0,0 +1,247 @@
+package com.mg.platform.service;
+
+import com.mg.platform.common.exception.ProviderCallException;
+import com.mg.platform.common.util.CryptoUtil;
+import com.mg.platform.domain.ModelProvider;
+import com.mg.platform.domain.ProviderApiKey;
+import com.mg.platform.domain.ProviderCapability;
+import com.mg.platform.service.routing.ApiKeyMaterialCache;
+import com.mg.platform.service.routing.ApiKeyPool;
+import com.mg.platform.service.routing.ProviderCircuitBreaker;
+import com.mg.platform.service.routing.ProviderHealthScoreboard;
+import com.mg.platform.service.routing.ProviderProxyMetrics;
+import com.mg.platform.service.routing.RoutingSnapshot;
+import com.mg.platform.service.routing.RoutingSnapshotManager;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+/**
+ * 使用本地 stub provider（JDK HttpServer）验证 proxy 转发
+ */
+@ExtendWith(MockitoExtension.class)
+class ProviderProxyServiceTest {
+
+    @Mock
+    private RoutingSnapshotManager snapshotManager;
+
+    @Mock
+    private CryptoUtil cryptoUtil;
+
+    private HttpServer stubProvider;
+    private HttpClient httpClient;
+    private ProviderProxyMetrics proxyMetrics;
+    private ProviderHealthScoreboard healthScoreboard;
+    private ProviderCircuitBreaker circuitBreaker;
+    private ProviderProxyService proxyService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        stubProvider = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        // 回显：响应体 = Authorization + "|" + 请求体
+        stubProvider.createContext("/echo", exchange -> {
+            byte[] body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+            }
+            byte[] auth = (exchange.getRequestHeaders().getFirst("Authorization") + "|").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/octet-stream");
+            exchange.sendResponseHeaders(200, auth.length + body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(auth);
+                out.write(body);
+            }
+        });
+        stubProvider.createContext("/slow", exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        // 先发出部分响应体，然后停住
+        stubProvider.createContext("/stall", exchange -> {
+            exchange.sendResponseHeaders(200, 1024);
+            OutputStream out = exchange.getResponseBody();
+            out.write(new byte[16]);
+            out.flush();
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            exchange.close();
+        });
+        stubProvider.createContext("/bad-request", exchange -> {
+            exchange.sendResponseHeaders(400, -1);
+            exchange.close();
+        });
+        stubProvider.start();
+
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(2))
+                .build();
+        proxyMetrics = new ProviderProxyMetrics();
+        healthScoreboard = new ProviderHealthScoreboard();
+        circuitBreaker = new ProviderCircuitBreaker();
+        proxyService = new ProviderProxyService(snapshotManager, new ApiKeyPool(), new ApiKeyMaterialCache(cryptoUtil),
+                healthScoreboard, proxyMetrics, circuitBreaker, httpClient);
+    }
+
+    @AfterEach
+    void tearDown() {
+        proxyService.shutdown();
+        stubProvider.stop(0);
+    }
+
+    private void givenRoute(String path) {
+        ModelProvider provider = new ModelProvider();
+        provider.setId(1L);
+        provider.setCode("stub_provider");
+        provider.setStatus("ACTIVE");
+
+        ProviderCapability capability = new ProviderCapability();
+        capability.setId(1L);
+        capability.setProvider(provider);
+        capability.setCapability("segmentation");
+        capability.setEndpoint("http://127.0.0.1:" + stubProvider.getAddress().getPort() + path);
+        capability.setStatus("ACTIVE");
+        capability.setPriority(100);
+        capability.setDefaultTimeoutMs(5000);
+
+        ProviderApiKey apiKey = new ProviderApiKey();
+        apiKey.setId(1L);
+        apiKey.setProvider(provider);
+        apiKey.setApiKeyCipher("encrypted-key");
+        apiKey.setStatus("ACTIVE");
+
+        RoutingSnapshot snapshot = RoutingSnapshot.build(1L, List.of(capability), List.of(), Map.of(), List.of(apiKey));
+        when(snapshotManager.current()).thenReturn(snapshot);
+        // 明文 key 有缓存，同一测试中第二次切换路由时不会再解密
+        lenient().when(cryptoUtil.decrypt("encrypted-key")).thenReturn("stub-api-key");
+    }
+
+    @Test
+    void testRelay_StreamsBodyWithPlatformKey() throws Exception {
+        // Given
+        givenRoute("/echo");
+        byte[] image = new byte[256 * 1024];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) i;
+        }
+
+        // When
+        ProviderProxyService.ProxyCall call = proxyService.relay("segmentation", "stub_provider", null,
+                "image/png", image.length, new ByteArrayInputStream(image));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        call.transferTo(out);
+
+        // Then
+        assertEquals(200, call.getStatus());
+        assertEquals("application/octet-stream", call.getContentType());
+        byte[] prefix = "Bearer stub-api-key|".getBytes(StandardCharsets.UTF_8);
+        byte[] result = out.toByteArray();
+        assertEquals(prefix.length + image.length, result.length);
+        assertEquals("Bearer stub-api-key|", new String(result, 0, prefix.length, StandardCharsets.UTF_8));
+        assertEquals(image[image.length - 1], result[result.length - 1]);
+
+        ProviderProxyMetrics.ProxyView view = proxyMetrics.view().get("stub_provider");
+        assertEquals(1, view.getRequests());
+        assertEquals(0, view.getFailures());
+        assertEquals(0, view.getInFlight());
+        assertEquals(image.length, view.getBytesIn());
+        assertEquals(result.length, view.getBytesOut());
+    }
+
+    @Test
+    void testRelay_EnforcesTimeout() {
+        // Given
+        givenRoute("/slow");
+
+        // When
+        ProviderCallException exception = assertThrows(ProviderCallException.class,
+                () -> proxyService.relay("segmentation", "stub_provider", 200,
+                        "image/png", 3, new ByteArrayInputStream(new byte[]{1, 2, 3})));
+
+        // Then
+        assertEquals(ProviderCallException.TIMEOUT, exception.getErrorCode());
+        ProviderProxyMetrics.ProxyView view = proxyMetrics.view().get("stub_provider");
+        assertEquals(1, view.getTimeouts());
+        assertEquals(1, view.getFailures());
+    }
+
+    @Test
+    void testTransferTo_DeadlineInterruptsStalledBody() throws Exception {
+        // Given: 响应头及时到达，响应体中途停住
+        givenRoute("/stall");
+        ProviderProxyService.ProxyCall call = proxyService.relay("segmentation", "stub_provider", 500,
+                "image/png", 3, new ByteArrayInputStream(new byte[]{1, 2, 3}));
+
+        // When
+        long startedAt = System.nanoTime();
+        ProviderCallException exception = assertThrows(ProviderCallException.class,
+                () -> call.transferTo(new ByteArrayOutputStream()));
+
+        // Then: 在截止时间附近失败，而不是等 provider 恢复
+        assertEquals(ProviderCallException.TIMEOUT, exception.getErrorCode());
+        assertTrue(System.nanoTime() - startedAt < 2_000_000_000L);
+        assertEquals(1, proxyMetrics.view().get("stub_provider").getTimeouts());
+        assertEquals(1, healthScoreboard.view().size());
+        assertEquals(1, circuitBreaker.view().get(1L).getConsecutiveFailures());
+    }
+
+    @Test
+    void testTransferTo_ClientFailuresDoNotCountAgainstProvider() throws Exception {
+        // Given: 设备请求导致的 400
+        givenRoute("/bad-request");
+        ProviderProxyService.ProxyCall badRequest = proxyService.relay("segmentation", "stub_provider", null,
+                "image/png", 3, new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        badRequest.transferTo(new ByteArrayOutputStream());
+        assertEquals(400, badRequest.getStatus());
+
+        // 设备在转发途中断开
+        givenRoute("/echo");
+        ProviderProxyService.ProxyCall disconnected = proxyService.relay("segmentation", "stub_provider", null,
+                "image/png", 3, new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        OutputStream broken = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        assertThrows(IOException.class, () -> disconnected.transferTo(broken));
+
+        // Then: 计入转发统计，但不影响健康记分板和熔断器
+        assertEquals(2, proxyMetrics.view().get("stub_provider").getFailures());
+        assertTrue(healthScoreboard.view().isEmpty());
+        assertTrue(circuitBreaker.view().isEmpty());
+    }
+}
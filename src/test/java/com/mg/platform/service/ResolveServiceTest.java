@@ -1,5 +1,8 @@
 package com.mg.platform.service;
 
+import com.mg.platform.common.dto.AiOutcomeReport;
+import com.mg.platform.common.dto.AiResolveBatchRequest;
+import com.mg.platform.common.dto.AiResolveBatchResponse;
 import com.mg.platform.common.dto.AiResolveRequest;
 import com.mg.platform.common.dto.AiResolveResponse;
 import com.mg.platform.common.exception.NoActiveApiKeyException;
@@ -9,45 +12,45 @@ import com.mg.platform.domain.ProviderApiKey;
 import com.mg.platform.domain.ProviderCapability;
 import com.mg.platform.domain.CapabilityRoutingPolicy;
 import com.mg.platform.domain.Merchant;
-import com.mg.platform.repo.CapabilityRoutingPolicyRepository;
-import com.mg.platform.repo.MerchantRepository;
-import com.mg.platform.repo.ProviderApiKeyRepository;
-import com.mg.platform.repo.ProviderCapabilityRepository;
+import com.mg.platform.service.routing.ApiKeyMaterialCache;
+import com.mg.platform.service.routing.ApiKeyPool;
+import com.mg.platform.service.routing.ProviderCircuitBreaker;
+import com.mg.platform.service.routing.ProviderHealthScoreboard;
+import com.mg.platform.service.routing.RoutePlanCache;
+import com.mg.platform.service.routing.RoutingSnapshot;
+import com.mg.platform.service.routing.RoutingSnapshotManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
-import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class ResolveServiceTest {
 
     @Mock
-    private ProviderCapabilityRepository capabilityRepository;
+    private RoutingSnapshotManager snapshotManager;
 
     @Mock
-    private CapabilityRoutingPolicyRepository routingPolicyRepository;
+    private CryptoUtil cryptoUtil;
 
-    @Mock
-    private ProviderApiKeyRepository apiKeyRepository;
+    private ApiKeyMaterialCache apiKeyCache;
 
-    @Mock
-    private MerchantRepository merchantRepository;
+    private ProviderHealthScoreboard healthScoreboard;
 
-    @Mock
-    private CryptoUtil cryptoUtil;
+    private ProviderCircuitBreaker circuitBreaker;
+
+    private RoutePlanCache routePlanCache;
 
-    @InjectMocks
     private ResolveService resolveService;
 
     private ModelProvider testProvider;
@@ -58,6 +61,13 @@ class ResolveServiceTest {
 
     @BeforeEach
     void setUp() {
+        apiKeyCache = new ApiKeyMaterialCache(cryptoUtil);
+        healthScoreboard = new ProviderHealthScoreboard();
+        circuitBreaker = new ProviderCircuitBreaker();
+        routePlanCache = new RoutePlanCache();
+        resolveService = new ResolveService(snapshotManager, apiKeyCache, healthScoreboard, new ApiKeyPool(),
+                routePlanCache, circuitBreaker);
+
         // 准备测试数据
         testProvider = new ModelProvider();
         testProvider.setId(1L);
@@ -86,18 +96,21 @@ class ResolveServiceTest {
         testApiKey.setStatus("ACTIVE");
     }
 
+    private void givenSnapshot(List<ProviderCapability> capabilities,
+                               List<CapabilityRoutingPolicy> policies,
+                               Map<Long, String> merchantCodes,
+                               List<ProviderApiKey> apiKeys) {
+        RoutingSnapshot snapshot = RoutingSnapshot.build(1L, capabilities, policies, merchantCodes, apiKeys);
+        when(snapshotManager.current()).thenReturn(snapshot);
+    }
+
     @Test
     void testResolve_WithApiKey_Success() {
         // Given
         AiResolveRequest request = new AiResolveRequest();
         request.setCapability("segmentation");
 
-        when(capabilityRepository.findByCapabilityAndStatusOrderByPriorityAsc("segmentation", "ACTIVE"))
-                .thenReturn(List.of(testCapability));
-        when(routingPolicyRepository.findByScopeAndMerchantIdAndCapability("GLOBAL", null, "segmentation"))
-                .thenReturn(Optional.empty());
-        when(apiKeyRepository.findFirstByProviderIdAndStatusOrderByCreatedAtDesc(1L, "ACTIVE"))
-                .thenReturn(Optional.of(testApiKey));
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of(testApiKey));
         when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
 
         // When
@@ -119,18 +132,33 @@ class ResolveServiceTest {
         verify(cryptoUtil, times(1)).decrypt(encryptedApiKey);
     }
 
+    @Test
+    void testResolve_RepeatedResolve_DecryptsOnce() {
+        // Given
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of(testApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        // When
+        resolveService.resolve(request);
+        AiResolveResponse response = resolveService.resolve(request);
+
+        // Then: 第二次命中缓存，不再解密
+        assertEquals(decryptedApiKey, response.getDirect().getAuth().getApiKey());
+        verify(cryptoUtil, times(1)).decrypt(encryptedApiKey);
+        assertEquals(1, apiKeyCache.stats().getHits());
+        assertEquals(1, apiKeyCache.stats().getMisses());
+    }
+
     @Test
     void testResolve_NoApiKey_ThrowsException() {
         // Given
         AiResolveRequest request = new AiResolveRequest();
         request.setCapability("segmentation");
 
-        when(capabilityRepository.findByCapabilityAndStatusOrderByPriorityAsc("segmentation", "ACTIVE"))
-                .thenReturn(List.of(testCapability));
-        when(routingPolicyRepository.findByScopeAndMerchantIdAndCapability("GLOBAL", null, "segmentation"))
-                .thenReturn(Optional.empty());
-        when(apiKeyRepository.findFirstByProviderIdAndStatusOrderByCreatedAtDesc(1L, "ACTIVE"))
-                .thenReturn(Optional.empty());
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of());
 
         // When & Then
         NoActiveApiKeyException exception = assertThrows(NoActiveApiKeyException.class, () -> {
@@ -151,10 +179,7 @@ class ResolveServiceTest {
         request.setCapability("segmentation");
         request.setPrefer(List.of("test_provider"));
 
-        when(capabilityRepository.findByCapabilityAndStatusOrderByPriorityAsc("segmentation", "ACTIVE"))
-                .thenReturn(List.of(testCapability));
-        when(apiKeyRepository.findFirstByProviderIdAndStatusOrderByCreatedAtDesc(1L, "ACTIVE"))
-                .thenReturn(Optional.of(testApiKey));
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of(testApiKey));
         when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
 
         // When
@@ -178,12 +203,7 @@ class ResolveServiceTest {
         globalPolicy.setStatus("ACTIVE");
         globalPolicy.setPreferProvidersJson("[\"test_provider\"]");
 
-        when(capabilityRepository.findByCapabilityAndStatusOrderByPriorityAsc("segmentation", "ACTIVE"))
-                .thenReturn(List.of(testCapability));
-        when(routingPolicyRepository.findByScopeAndMerchantIdAndCapability("GLOBAL", null, "segmentation"))
-                .thenReturn(Optional.of(globalPolicy));
-        when(apiKeyRepository.findFirstByProviderIdAndStatusOrderByCreatedAtDesc(1L, "ACTIVE"))
-                .thenReturn(Optional.of(testApiKey));
+        givenSnapshot(List.of(testCapability), List.of(globalPolicy), Map.of(), List.of(testApiKey));
         when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
 
         // When
@@ -224,10 +244,15 @@ class ResolveServiceTest {
         globalPolicy.setStatus("ACTIVE");
         globalPolicy.setPreferProvidersJson("[\"aliyun\"]");
 
-        when(capabilityRepository.findByCapabilityAndStatusOrderByPriorityAsc("segmentation", "ACTIVE"))
-                .thenReturn(List.of(testCapability, volcCapability));
-        when(apiKeyRepository.findFirstByProviderIdAndStatusOrderByCreatedAtDesc(2L, "ACTIVE"))
-                .thenReturn(Optional.of(testApiKey));
+        ProviderApiKey volcApiKey = new ProviderApiKey();
+        volcApiKey.setId(2L);
+        volcApiKey.setProvider(volcProvider);
+        volcApiKey.setName("Volc API Key");
+        volcApiKey.setApiKeyCipher(encryptedApiKey);
+        volcApiKey.setStatus("ACTIVE");
+
+        givenSnapshot(List.of(testCapability, volcCapability), List.of(globalPolicy), Map.of(),
+                List.of(testApiKey, volcApiKey));
         when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
 
         // When
@@ -258,14 +283,7 @@ class ResolveServiceTest {
         merchantPolicy.setStatus("ACTIVE");
         merchantPolicy.setPreferProvidersJson("[\"test_provider\"]");
 
-        when(capabilityRepository.findByCapabilityAndStatusOrderByPriorityAsc("segmentation", "ACTIVE"))
-                .thenReturn(List.of(testCapability));
-        when(merchantRepository.findByCode("TEST001"))
-                .thenReturn(Optional.of(merchant));
-        when(routingPolicyRepository.findByScopeAndMerchantIdAndCapability("MERCHANT", 1L, "segmentation"))
-                .thenReturn(Optional.of(merchantPolicy));
-        when(apiKeyRepository.findFirstByProviderIdAndStatusOrderByCreatedAtDesc(1L, "ACTIVE"))
-                .thenReturn(Optional.of(testApiKey));
+        givenSnapshot(List.of(testCapability), List.of(merchantPolicy), Map.of(1L, "TEST001"), List.of(testApiKey));
         when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
 
         // When
@@ -286,12 +304,7 @@ class ResolveServiceTest {
         request.setConstraints(constraints);
         request.setHintParams(Collections.singletonMap("quality", "high"));
 
-        when(capabilityRepository.findByCapabilityAndStatusOrderByPriorityAsc("segmentation", "ACTIVE"))
-                .thenReturn(List.of(testCapability));
-        when(routingPolicyRepository.findByScopeAndMerchantIdAndCapability("GLOBAL", null, "segmentation"))
-                .thenReturn(Optional.empty());
-        when(apiKeyRepository.findFirstByProviderIdAndStatusOrderByCreatedAtDesc(1L, "ACTIVE"))
-                .thenReturn(Optional.of(testApiKey));
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of(testApiKey));
         when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
 
         // When
@@ -302,5 +315,418 @@ class ResolveServiceTest {
         assertEquals(15000, response.getDirect().getTimeoutMs());
         assertNotNull(response.getDirect().getParams());
         assertEquals("high", response.getDirect().getParams().get("quality"));
+        assertEquals("test", response.getDirect().getParams().get("model"));
+        assertEquals(2, response.getDirect().getParams().size());
+    }
+
+    @Test
+    void testResolve_HintOverridesDefaultParam() {
+        // Given: hint 覆盖 default_params_json 中的同名键
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+        request.setHintParams(Collections.singletonMap("model", "hint-model"));
+
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of(testApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        // When
+        AiResolveResponse response = resolveService.resolve(request);
+
+        // Then
+        assertEquals(Map.of("model", "hint-model"), response.getDirect().getParams());
+    }
+
+    @Test
+    void testResolve_MaxCostTier_SkipsExpensiveProviders() {
+        // Given: test_provider 更优先但 cost_tier=3，volc cost_tier=1；GLOBAL policy 限制 max_cost_tier=2
+        testProvider.setCostTier(3);
+
+        ModelProvider volcProvider = new ModelProvider();
+        volcProvider.setId(2L);
+        volcProvider.setCode("volc");
+        volcProvider.setCostTier(1);
+
+        ProviderCapability volcCapability = new ProviderCapability();
+        volcCapability.setId(2L);
+        volcCapability.setProvider(volcProvider);
+        volcCapability.setCapability("segmentation");
+        volcCapability.setStatus("ACTIVE");
+        volcCapability.setPriority(200);
+
+        ProviderApiKey volcApiKey = new ProviderApiKey();
+        volcApiKey.setId(2L);
+        volcApiKey.setProvider(volcProvider);
+        volcApiKey.setApiKeyCipher(encryptedApiKey);
+        volcApiKey.setStatus("ACTIVE");
+
+        CapabilityRoutingPolicy globalPolicy = new CapabilityRoutingPolicy();
+        globalPolicy.setScope("GLOBAL");
+        globalPolicy.setCapability("segmentation");
+        globalPolicy.setStatus("ACTIVE");
+        globalPolicy.setMaxCostTier(2);
+
+        givenSnapshot(List.of(testCapability, volcCapability), List.of(globalPolicy), Map.of(),
+                List.of(testApiKey, volcApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+
+        // When & Then: policy 默认值生效
+        assertEquals("volc", resolveService.resolve(request).getDirect().getProviderCode());
+
+        // 请求 constraints 覆盖 policy
+        AiResolveRequest.Constraints constraints = new AiResolveRequest.Constraints();
+        constraints.setMaxCostTier(3);
+        request.setConstraints(constraints);
+        assertEquals("test_provider", resolveService.resolve(request).getDirect().getProviderCode());
+
+        // 低于所有 tier
+        constraints.setMaxCostTier(0);
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> resolveService.resolve(request));
+        assertTrue(exception.getMessage().contains("cost tier"));
+    }
+
+    @Test
+    void testResolve_DegradedProviderDemotedAndReturnedAsFailover() {
+        // Given: test_provider 优先级更高，但连续失败；GLOBAL policy retry_count=1
+        ModelProvider volcProvider = new ModelProvider();
+        volcProvider.setId(2L);
+        volcProvider.setCode("volc");
+
+        ProviderCapability volcCapability = new ProviderCapability();
+        volcCapability.setId(2L);
+        volcCapability.setProvider(volcProvider);
+        volcCapability.setCapability("segmentation");
+        volcCapability.setEndpoint("https://api.volc.com/v1/segmentation");
+        volcCapability.setStatus("ACTIVE");
+        volcCapability.setPriority(200);
+
+        ProviderApiKey volcApiKey = new ProviderApiKey();
+        volcApiKey.setId(2L);
+        volcApiKey.setProvider(volcProvider);
+        volcApiKey.setApiKeyCipher(encryptedApiKey);
+        volcApiKey.setStatus("ACTIVE");
+
+        CapabilityRoutingPolicy globalPolicy = new CapabilityRoutingPolicy();
+        globalPolicy.setScope("GLOBAL");
+        globalPolicy.setCapability("segmentation");
+        globalPolicy.setStatus("ACTIVE");
+        globalPolicy.setRetryCount(1);
+        globalPolicy.setFailoverOnHttpCodesJson("[429, 503]");
+
+        givenSnapshot(List.of(testCapability, volcCapability), List.of(globalPolicy), Map.of(),
+                List.of(testApiKey, volcApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+
+        // 健康时：主 provider 为 test_provider，备选 volc
+        AiResolveResponse healthy = resolveService.resolve(request);
+        assertEquals("test_provider", healthy.getDirect().getProviderCode());
+        assertEquals(1, healthy.getFailover().getCandidates().size());
+        assertEquals("volc", healthy.getFailover().getCandidates().get(0).getProviderCode());
+        assertEquals(List.of(429, 503), healthy.getFailover().getOnHttpCodes());
+
+        // When: test_provider 连续失败
+        for (int i = 0; i < 5; i++) {
+            healthScoreboard.record(1L, 8000, false);
+        }
+        AiResolveResponse degraded = resolveService.resolve(request);
+
+        // Then: volc 成为主 provider，test_provider 作为备选
+        assertEquals("volc", degraded.getDirect().getProviderCode());
+        assertEquals("test_provider", degraded.getFailover().getCandidates().get(0).getProviderCode());
+    }
+
+    @Test
+    void testResolve_TrafficSplitPicksWeightedPrimary() {
+        // Given: volc 优先级更低，但 GLOBAL policy 把 100% 流量分给 volc
+        ModelProvider volcProvider = new ModelProvider();
+        volcProvider.setId(2L);
+        volcProvider.setCode("volc");
+
+        ProviderCapability volcCapability = new ProviderCapability();
+        volcCapability.setId(2L);
+        volcCapability.setProvider(volcProvider);
+        volcCapability.setCapability("segmentation");
+        volcCapability.setEndpoint("https://api.volc.com/v1/segmentation");
+        volcCapability.setStatus("ACTIVE");
+        volcCapability.setPriority(200);
+
+        ProviderApiKey volcApiKey = new ProviderApiKey();
+        volcApiKey.setId(2L);
+        volcApiKey.setProvider(volcProvider);
+        volcApiKey.setApiKeyCipher(encryptedApiKey);
+        volcApiKey.setStatus("ACTIVE");
+
+        CapabilityRoutingPolicy globalPolicy = new CapabilityRoutingPolicy();
+        globalPolicy.setScope("GLOBAL");
+        globalPolicy.setCapability("segmentation");
+        globalPolicy.setStatus("ACTIVE");
+        globalPolicy.setTrafficSplitJson("{\"volc\": 100, \"test_provider\": 0}");
+
+        givenSnapshot(List.of(testCapability, volcCapability), List.of(globalPolicy), Map.of(),
+                List.of(testApiKey, volcApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+
+        // When / Then
+        for (int i = 0; i < 10; i++) {
+            assertEquals("volc", resolveService.resolve(request).getDirect().getProviderCode());
+        }
+
+        // 请求 prefer 优先于分流
+        request.setPrefer(List.of("test_provider"));
+        assertEquals("test_provider", resolveService.resolve(request).getDirect().getProviderCode());
+    }
+
+    @Test
+    void testResolve_SkipsProviderWithOpenCircuit() {
+        // Given: 两个 provider，test_provider 优先
+        ModelProvider volcProvider = new ModelProvider();
+        volcProvider.setId(2L);
+        volcProvider.setCode("volc");
+
+        ProviderCapability volcCapability = new ProviderCapability();
+        volcCapability.setId(2L);
+        volcCapability.setProvider(volcProvider);
+        volcCapability.setCapability("segmentation");
+        volcCapability.setEndpoint("https://api.volc.com/v1/segmentation");
+        volcCapability.setStatus("ACTIVE");
+        volcCapability.setPriority(200);
+
+        ProviderApiKey volcApiKey = new ProviderApiKey();
+        volcApiKey.setId(2L);
+        volcApiKey.setProvider(volcProvider);
+        volcApiKey.setApiKeyCipher(encryptedApiKey);
+        volcApiKey.setStatus("ACTIVE");
+
+        givenSnapshot(List.of(testCapability, volcCapability), List.of(), Map.of(), List.of(testApiKey, volcApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        // When: 设备上报 test_provider 连续超时
+        AiOutcomeReport report = new AiOutcomeReport();
+        report.setCapability("segmentation");
+        report.setProviderCode("test_provider");
+        report.setLatencyMs(8000L);
+        report.setSuccess(false);
+        for (int i = 0; i < 5; i++) {
+            resolveService.reportOutcome(report);
+        }
+
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+        AiResolveResponse response = resolveService.resolve(request);
+
+        // Then
+        assertEquals("volc", response.getDirect().getProviderCode());
+        assertEquals("OPEN", circuitBreaker.view().get(1L).getState());
+        assertEquals(1, circuitBreaker.recentTransitions().size());
+    }
+
+    @Test
+    void testResolve_RateLimitedKeyDoesNotTakeTrialSlot() {
+        // Given: 唯一的 key 每分钟只允许 1 次，熔断冷却时间为 0
+        ReflectionTestUtils.setField(circuitBreaker, "openMs", 0L);
+        testApiKey.setRpmLimit(1);
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of(testApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+        resolveService.resolve(request);
+
+        AiOutcomeReport report = new AiOutcomeReport();
+        report.setCapability("segmentation");
+        report.setProviderCode("test_provider");
+        report.setSuccess(false);
+        for (int i = 0; i < 5; i++) {
+            resolveService.reportOutcome(report);
+        }
+
+        // When: 冷却已结束，但 key 预算已耗尽
+        assertThrows(NoActiveApiKeyException.class, () -> resolveService.resolve(request));
+
+        // Then: 没有占用试探名额（不会进入没有调用结果的 HALF_OPEN）
+        assertEquals("OPEN", circuitBreaker.view().get(1L).getState());
+    }
+
+    @Test
+    void testResolve_FailoverCandidatesDoNotConsumeKeyBudget() {
+        // Given: volc 作为备选，其唯一的 key 每分钟只允许 1 次
+        ModelProvider volcProvider = new ModelProvider();
+        volcProvider.setId(2L);
+        volcProvider.setCode("volc");
+
+        ProviderCapability volcCapability = new ProviderCapability();
+        volcCapability.setId(2L);
+        volcCapability.setProvider(volcProvider);
+        volcCapability.setCapability("segmentation");
+        volcCapability.setEndpoint("https://api.volc.com/v1/segmentation");
+        volcCapability.setStatus("ACTIVE");
+        volcCapability.setPriority(200);
+
+        ProviderApiKey volcApiKey = new ProviderApiKey();
+        volcApiKey.setId(2L);
+        volcApiKey.setProvider(volcProvider);
+        volcApiKey.setApiKeyCipher(encryptedApiKey);
+        volcApiKey.setStatus("ACTIVE");
+        volcApiKey.setRpmLimit(1);
+
+        CapabilityRoutingPolicy globalPolicy = new CapabilityRoutingPolicy();
+        globalPolicy.setScope("GLOBAL");
+        globalPolicy.setCapability("segmentation");
+        globalPolicy.setStatus("ACTIVE");
+        globalPolicy.setRetryCount(1);
+
+        givenSnapshot(List.of(testCapability, volcCapability), List.of(globalPolicy), Map.of(),
+                List.of(testApiKey, volcApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+
+        // When: 多次 resolve，volc 每次都只作为备选下发
+        for (int i = 0; i < 3; i++) {
+            AiResolveResponse response = resolveService.resolve(request);
+            assertEquals("test_provider", response.getDirect().getProviderCode());
+            assertEquals("volc", response.getFailover().getCandidates().get(0).getProviderCode());
+            assertEquals(decryptedApiKey, response.getFailover().getCandidates().get(0).getAuth().getApiKey());
+        }
+
+        // Then: volc 的 key 预算没有被扣减，仍可作为主 provider 使用
+        request.setPrefer(List.of("volc"));
+        assertEquals("volc", resolveService.resolve(request).getDirect().getProviderCode());
+
+        // 预算用完后不再作为备选下发
+        request.setPrefer(null);
+        assertNull(resolveService.resolve(request).getFailover());
+    }
+
+    @Test
+    void testResolve_PreferNormalisedBeforeCaching() {
+        // Given: 两个 provider，test_provider 优先级更高
+        ModelProvider volcProvider = new ModelProvider();
+        volcProvider.setId(2L);
+        volcProvider.setCode("volc");
+
+        ProviderCapability volcCapability = new ProviderCapability();
+        volcCapability.setId(2L);
+        volcCapability.setProvider(volcProvider);
+        volcCapability.setCapability("segmentation");
+        volcCapability.setEndpoint("https://api.volc.com/v1/segmentation");
+        volcCapability.setStatus("ACTIVE");
+        volcCapability.setPriority(200);
+
+        ProviderApiKey volcApiKey = new ProviderApiKey();
+        volcApiKey.setId(2L);
+        volcApiKey.setProvider(volcProvider);
+        volcApiKey.setApiKeyCipher(encryptedApiKey);
+        volcApiKey.setStatus("ACTIVE");
+
+        givenSnapshot(List.of(testCapability, volcCapability), List.of(), Map.of(), List.of(testApiKey, volcApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+
+        // When: prefer 中混入未知 / 重复的 provider code
+        for (List<String> prefer : List.of(List.of("volc"), List.of("unknown", "volc"), List.of("volc", "volc", "other"))) {
+            request.setPrefer(prefer);
+            assertEquals("volc", resolveService.resolve(request).getDirect().getProviderCode());
+        }
+
+        // Then: 归一化后是同一个缓存条目
+        assertEquals(1, routePlanCache.stats().getSize());
+
+        // 全部未知时视为未指定 prefer（按 priority）
+        request.setPrefer(List.of("unknown"));
+        assertEquals("test_provider", resolveService.resolve(request).getDirect().getProviderCode());
+        assertEquals(2, routePlanCache.stats().getSize());
+    }
+
+    @Test
+    void testResolve_SpreadsAcrossKeysAndHonoursRpmLimit() {
+        // Given: 同一 provider 两个 key，第二个 key 每分钟只允许 1 次
+        testApiKey.setRpmLimit(1);
+        ProviderApiKey secondKey = new ProviderApiKey();
+        secondKey.setId(2L);
+        secondKey.setProvider(testProvider);
+        secondKey.setApiKeyCipher("encrypted-key-2");
+        secondKey.setStatus("ACTIVE");
+        secondKey.setRpmLimit(1);
+
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of(testApiKey, secondKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+        when(cryptoUtil.decrypt("encrypted-key-2")).thenReturn("second-api-key");
+
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+
+        // When: 连续两次 resolve，分别使用两个 key
+        String first = resolveService.resolve(request).getDirect().getAuth().getApiKey();
+        String second = resolveService.resolve(request).getDirect().getAuth().getApiKey();
+
+        // Then
+        assertNotEquals(first, second);
+
+        // 两个 key 的预算都已用完
+        NoActiveApiKeyException exception = assertThrows(NoActiveApiKeyException.class,
+                () -> resolveService.resolve(request));
+        assertEquals("API_KEY_RATE_LIMITED", exception.getErrorCode());
+    }
+
+    @Test
+    void testResolve_ProxyMode_DoesNotReturnApiKey() {
+        // Given
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability("segmentation");
+        request.setMode("proxy");
+
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of(testApiKey));
+
+        // When
+        AiResolveResponse response = resolveService.resolve(request);
+
+        // Then: endpoint 指向平台转发地址，不下发 key，也不解密
+        assertEquals("proxy", response.getMode());
+        assertEquals("/api/v1/ai/proxy/segmentation/test_provider?timeoutMs=8000", response.getDirect().getEndpoint());
+        assertNull(response.getDirect().getAuth());
+        verify(cryptoUtil, never()).decrypt(any());
+    }
+
+    @Test
+    void testResolveBatch_PreservesOrderAndIsolatesFailures() {
+        // Given: 第二个子请求的能力不存在
+        AiResolveRequest first = new AiResolveRequest();
+        first.setCapability("segmentation");
+        AiResolveRequest second = new AiResolveRequest();
+        second.setCapability("upscale");
+        AiResolveRequest third = new AiResolveRequest();
+        third.setCapability("segmentation");
+
+        AiResolveBatchRequest batchRequest = new AiResolveBatchRequest();
+        batchRequest.setRequests(List.of(first, second, third));
+
+        givenSnapshot(List.of(testCapability), List.of(), Map.of(), List.of(testApiKey));
+        when(cryptoUtil.decrypt(encryptedApiKey)).thenReturn(decryptedApiKey);
+
+        // When
+        AiResolveBatchResponse response = resolveService.resolveBatch(batchRequest);
+
+        // Then
+        assertEquals(3, response.getResults().size());
+        assertTrue(response.getResults().get(0).isSuccess());
+        assertFalse(response.getResults().get(1).isSuccess());
+        assertTrue(response.getResults().get(1).getMessage().contains("upscale"));
+        assertTrue(response.getResults().get(2).isSuccess());
+        assertEquals(2, response.getResults().get(2).getIndex());
+
+        // 整个批次只取一次快照
+        verify(snapshotManager, times(1)).current();
     }
 }
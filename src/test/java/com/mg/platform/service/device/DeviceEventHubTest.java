@@ -0,0 +1,134 @@
+package com.mg.platform.service.device;
+
+import com.mg.platform.service.device.DeviceEventHub.DeviceEvent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DeviceEventHubTest {
+
+    private DeviceEventHub hub;
+
+    @BeforeEach
+    void setUp() {
+        hub = new DeviceEventHub();
+        // 单元测试中在发布线程上直接写出
+        ReflectionTestUtils.setField(hub, "fanout", (Executor) Runnable::run);
+    }
+
+    @Test
+    void testPoll_WaitsAndNotifiesOnlyAffectedDevices() {
+        // Given: 两台设备都在等待
+        DeferredResult<DeviceEvent> device1 = hub.poll(1L, null, e -> e, null);
+        DeferredResult<DeviceEvent> device2 = hub.poll(2L, null, e -> e, null);
+        assertFalse(device1.hasResult());
+        assertEquals(2, hub.stats().getWaiters());
+
+        // When: 只有设备 1 的绑定变化
+        hub.publish(List.of(1L), DeviceEventHub.TEMPLATES_CHANGED, 100L);
+
+        // Then
+        assertTrue(device1.hasResult());
+        DeviceEvent event = (DeviceEvent) device1.getResult();
+        assertEquals(DeviceEventHub.TEMPLATES_CHANGED, event.getType());
+        assertEquals(100L, event.getActivityId());
+        assertFalse(device2.hasResult());
+    }
+
+    @Test
+    void testPublish_UsesOneIdPerPublishAndFansOutOnExecutor() {
+        // Given: 写出任务先排队，不在发布线程上执行
+        List<Runnable> tasks = new ArrayList<>();
+        ReflectionTestUtils.setField(hub, "fanout", (Executor) tasks::add);
+        DeferredResult<DeviceEvent> waiting = hub.poll(1L, null, e -> e, null);
+
+        // When
+        hub.publish(List.of(1L, 2L), DeviceEventHub.ASSIGNMENT_CHANGED, 100L);
+
+        // Then: 事件已记录但尚未写出；同一次发布的设备共用一个事件 ID
+        assertFalse(waiting.hasResult());
+        assertEquals(1, tasks.size());
+        tasks.forEach(Runnable::run);
+        assertTrue(waiting.hasResult());
+        String id = ((DeviceEvent) waiting.getResult()).getId();
+        DeviceEvent other = (DeviceEvent) hub.poll(2L, null, e -> e, null).getResult();
+        assertEquals(id, other.getId());
+        assertTrue(id.matches("\\d+:1"), id);
+    }
+
+    @Test
+    void testPoll_ReturnsMissedEventImmediately() {
+        // Given: 设备收到第一条事件后离线，期间又发生两次变更
+        hub.publish(List.of(1L), DeviceEventHub.ASSIGNMENT_CHANGED, 100L);
+        String seen = ((DeviceEvent) hub.poll(1L, null, e -> e, null).getResult()).getId();
+        hub.publish(List.of(1L), DeviceEventHub.ASSIGNMENT_CHANGED, 100L);
+        hub.publish(List.of(1L), DeviceEventHub.TEMPLATES_CHANGED, 100L);
+
+        // When: 带着更早的事件 ID 重连
+        DeferredResult<DeviceEvent> result = hub.poll(1L, seen, e -> e, null);
+
+        // Then: 立即返回最新的一条，不占用连接
+        assertTrue(result.hasResult());
+        DeviceEvent latest = (DeviceEvent) result.getResult();
+        assertEquals(DeviceEventHub.TEMPLATES_CHANGED, latest.getType());
+        assertEquals(0, hub.stats().getConnections());
+
+        // 已收到最新事件后再等待则挂起
+        assertFalse(hub.poll(1L, latest.getId(), e -> e, null).hasResult());
+    }
+
+    @Test
+    void testPoll_EventIdFromAnotherEpochTriggersResync() {
+        // Given: 本进程已有事件
+        hub.publish(List.of(1L), DeviceEventHub.TEMPLATES_CHANGED, 100L);
+
+        // When: 设备带着上一个进程（或其他节点）的事件 ID、或无法解析的 ID 连接
+        DeferredResult<DeviceEvent> otherEpoch = hub.poll(1L, "1:99", e -> e, null);
+        DeferredResult<DeviceEvent> malformed = hub.poll(2L, "42", e -> e, null);
+
+        // Then: seq 无法与本进程比较，一律补发 RESYNC
+        assertEquals(DeviceEventHub.RESYNC, ((DeviceEvent) otherEpoch.getResult()).getType());
+        assertEquals(DeviceEventHub.RESYNC, ((DeviceEvent) malformed.getResult()).getType());
+    }
+
+    @Test
+    void testPruneIdle_DropsIdleChannelsAndResyncsStaleCursors() {
+        // Given: 设备 1 收到第一条事件后断开，之后又有一条事件；设备 2 仍在等待
+        hub.publish(List.of(1L), DeviceEventHub.TEMPLATES_CHANGED, 100L);
+        String seen = ((DeviceEvent) hub.poll(1L, null, e -> e, null).getResult()).getId();
+        hub.publish(List.of(1L), DeviceEventHub.TEMPLATES_CHANGED, 100L);
+        hub.poll(2L, null, e -> e, null);
+
+        // When
+        hub.pruneIdle(Long.MAX_VALUE);
+
+        // Then: 只清理没有连接的设备 1；它带着更早的 ID 重连时补发 RESYNC
+        assertEquals(1, hub.stats().getChannels());
+        assertEquals(1, hub.stats().getPruned());
+        DeferredResult<DeviceEvent> result = hub.poll(1L, seen, e -> e, null);
+        assertEquals(DeviceEventHub.RESYNC, ((DeviceEvent) result.getResult()).getType());
+    }
+
+    @Test
+    void testOpenStream_ReplacesPreviousStreamAndEnforcesLimit() {
+        // Given
+        ReflectionTestUtils.setField(hub, "maxConnections", 2);
+
+        // When: 同一设备重连
+        hub.openStream(1L, null);
+        hub.openStream(1L, null);
+
+        // Then: 每台设备只保留一个 SSE 连接
+        // （被替换的连接在容器回调完成后才释放计数，单元测试中没有容器，两个连接都计数，达到上限后拒绝）
+        assertEquals(1, hub.stats().getStreams());
+        assertThrows(RuntimeException.class, () -> hub.openStream(2L, null));
+        assertEquals(1, hub.stats().getRejected());
+    }
+}
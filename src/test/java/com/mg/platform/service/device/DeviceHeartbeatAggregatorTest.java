@@ -0,0 +1,114 @@
+package com.mg.platform.service.device;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DeviceHeartbeatAggregatorTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private DeviceHeartbeatAggregator aggregator;
+
+    @BeforeEach
+    void setUp() {
+        aggregator = new DeviceHeartbeatAggregator(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testFlush_MergesBeatsIntoOneBatchedUpdate() {
+        // Given: 同一设备多次心跳，后一次未上报版本
+        aggregator.record(1L, "1.0.0");
+        aggregator.record(1L, null);
+        aggregator.record(2L, "2.0.0");
+        verifyNoInteractions(jdbcTemplate);
+
+        // When
+        int flushed = aggregator.flush();
+
+        // Then: 每台设备一行，版本沿用上一次上报的值
+        assertEquals(2, flushed);
+        ArgumentCaptor<List<Object[]>> args = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate, times(1)).batchUpdate(anyString(), args.capture());
+        List<Object[]> rows = args.getValue();
+        assertEquals(2, rows.size());
+        Object[] device1 = rows.stream().filter(r -> r[2].equals(1L)).findFirst().orElseThrow();
+        assertEquals("1.0.0", device1[1]);
+        assertEquals(0, aggregator.stats().getPending());
+        assertEquals(0, aggregator.flush());
+    }
+
+    @Test
+    void testFlush_RequeuesBeatsWhenUpdateFails() {
+        // Given
+        aggregator.record(1L, "1.0.0");
+        when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+                .thenThrow(new DataAccessResourceFailureException("db down"))
+                .thenReturn(new int[]{1});
+
+        // When
+        assertEquals(0, aggregator.flush());
+
+        // Then: 心跳留在内存中，下一周期写入
+        assertEquals(1, aggregator.stats().getPending());
+        assertEquals(1, aggregator.stats().getFlushFailures());
+        assertEquals(1, aggregator.flush());
+        assertEquals(0, aggregator.stats().getPending());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testRecord_IgnoresOverlongClientVersion() {
+        // When: 版本超过 devices.client_version 的列宽
+        aggregator.record(1L, "v".repeat(DeviceHeartbeatAggregator.MAX_CLIENT_VERSION_LENGTH + 1));
+        aggregator.flush();
+
+        // Then: 心跳时间照常写入，版本不写
+        ArgumentCaptor<List<Object[]>> args = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(anyString(), args.capture());
+        assertNull(args.getValue().get(0)[1]);
+        assertEquals(1, aggregator.stats().getInvalidVersions());
+    }
+
+    @Test
+    void testFlush_IsolatesRowThatCannotBeWritten() {
+        // Given: 批量写入因某一行失败，逐行写入时只有设备 2 失败
+        aggregator.record(1L, "1.0.0");
+        aggregator.record(2L, "2.0.0");
+        when(jdbcTemplate.batchUpdate(anyString(), anyList()))
+                .thenThrow(new DataIntegrityViolationException("Data too long"));
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenAnswer(invocation -> {
+            Object[] args = (Object[]) invocation.getRawArguments()[1];
+            if (args[2].equals(2L)) {
+                throw new DataIntegrityViolationException("Data too long");
+            }
+            return 1;
+        });
+
+        // When
+        int flushed = aggregator.flush();
+
+        // Then: 设备 1 写入，设备 2 被丢弃而不是放回内存反复失败
+        assertEquals(1, flushed);
+        assertEquals(0, aggregator.stats().getPending());
+        assertEquals(1, aggregator.stats().getDiscarded());
+        assertEquals(0, aggregator.stats().getFlushFailures());
+    }
+}
@@ -0,0 +1,88 @@
+package com.mg.platform.service.device;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class DevicePresenceIndexTest {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private DevicePresenceIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new DevicePresenceIndex(jdbcTemplate);
+        index.register(1L, 100L);
+        index.register(2L, 100L);
+        index.register(3L, 200L);
+    }
+
+    @Test
+    void testTouch_TracksPerMerchantOnlineCounts() {
+        // When
+        index.touch(1L);
+        index.touch(1L);
+        index.touch(3L, 200L);
+
+        // Then: 重复心跳不重复计数，列表不查库
+        assertEquals(1, index.onlineCount(100L));
+        assertEquals(1, index.onlineCount(200L));
+        assertEquals(2, index.totalOnline());
+        assertEquals(List.of(1L), index.onlineDevices(100L).stream().map(DevicePresenceIndex.PresenceView::getDeviceId).toList());
+        assertEquals(List.of(2L), index.offlineDevices(100L).stream().map(DevicePresenceIndex.PresenceView::getDeviceId).toList());
+        assertNotNull(index.onlineDevices(100L).get(0).getLastSeenAt());
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void testExpire_MarksSilentDevicesOfflineAndKeepsRefreshedOnes() throws Exception {
+        // Given
+        index.touch(1L);
+        index.touch(2L);
+        long now = System.currentTimeMillis();
+
+        // When: ttl 内设备 2 再次心跳（只更新 deadline），推进到设备 1 过期之后
+        Thread.sleep(20);
+        index.touch(2L);
+        int offline = index.expire(now + 90_000 + 10);
+
+        // Then
+        assertEquals(1, offline);
+        assertFalse(index.isOnline(1L));
+        assertTrue(index.isOnline(2L));
+        assertEquals(1, index.onlineCount(100L));
+
+        // 离线后重新心跳恢复在线
+        index.touch(1L);
+        assertEquals(2, index.onlineCount(100L));
+    }
+
+    @Test
+    void testTouch_UnknownDeviceLooksUpOnceAndIgnoresMissing() {
+        // Given
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class), eq(9L))).thenReturn(List.of(300L));
+        when(jdbcTemplate.queryForList(anyString(), eq(Long.class), eq(404L))).thenReturn(List.of());
+
+        // When / Then
+        assertTrue(index.touch(9L));
+        assertTrue(index.touch(9L));
+        assertEquals(1, index.onlineCount(300L));
+        assertFalse(index.touch(404L));
+        assertFalse(index.touch(404L));
+        verify(jdbcTemplate, times(1)).queryForList(anyString(), eq(Long.class), eq(9L));
+        verify(jdbcTemplate, times(1)).queryForList(anyString(), eq(Long.class), eq(404L));
+    }
+}
@@ -0,0 +1,153 @@
+package com.mg.platform.service.device;
+
+import com.mg.platform.config.JpaConfig;
+import com.mg.platform.domain.Device;
+import com.mg.platform.domain.Merchant;
+import com.mg.platform.service.device.DeviceProvisioningService.ProvisionResult;
+import com.mg.platform.service.device.DeviceProvisioningService.ProvisionRow;
+import com.mg.platform.service.device.DeviceProvisioningService.RowResult;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * 批量开通设备（H2，表结构由实体生成）
+ */
+@DataJpaTest(properties = {
+        "spring.flyway.enabled=false",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.datasource.url=jdbc:h2:mem:device_provisioning;MODE=MySQL;DATABASE_TO_LOWER=TRUE",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password="
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({DeviceProvisioningService.class, JpaConfig.class})
+@ImportAutoConfiguration(JdbcTemplateAutoConfiguration.class)
+class DeviceProvisioningServiceTest {
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private DeviceProvisioningService provisioningService;
+
+    @MockBean
+    private DevicePresenceIndex presenceIndex;
+
+    private Long merchantId;
+
+    @BeforeEach
+    void setUp() {
+        Merchant merchant = new Merchant();
+        merchant.setName("Venue");
+        merchant.setCode("M_PROV");
+        entityManager.persist(merchant);
+
+        Device existing = new Device();
+        existing.setMerchant(merchant);
+        existing.setDeviceCode("BOOTH_EXISTING");
+        entityManager.persist(existing);
+        entityManager.flush();
+        entityManager.clear();
+        merchantId = merchant.getId();
+    }
+
+    @Test
+    void testProvision_InsertsValidRowsInBatchesAndReportsEachRow() {
+        // Given: 1200 台新设备（3 个批次）+ 已存在 / 请求内重复 / 非法各一行
+        List<ProvisionRow> rows = new ArrayList<>();
+        for (int i = 0; i < 1200; i++) {
+            rows.add(new ProvisionRow("BOOTH_" + i, "Booth " + i, null));
+        }
+        rows.add(new ProvisionRow("BOOTH_EXISTING", "Old", null));
+        rows.add(new ProvisionRow("BOOTH_0", "Again", null));
+        rows.add(new ProvisionRow("  ", "Blank", null));
+        rows.add(new ProvisionRow("BOOTH_OWN_SECRET", null, "my-secret"));
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        // When
+        ProvisionResult result = provisioningService.provision(merchantId, rows, true);
+
+        // Then
+        assertEquals(1204, result.getRequested());
+        assertEquals(1201, result.getCreated());
+        assertEquals(3, result.getRejected());
+        List<RowResult> results = result.getRows();
+        assertEquals(DeviceProvisioningService.CREATED, results.get(0).getStatus());
+        assertNotNull(results.get(0).getDeviceId());
+        assertNotNull(results.get(0).getSecret());
+        assertEquals(DeviceProvisioningService.EXISTS, results.get(1200).getStatus());
+        assertEquals(DeviceProvisioningService.DUPLICATE, results.get(1201).getStatus());
+        assertEquals(DeviceProvisioningService.INVALID, results.get(1202).getStatus());
+        assertEquals(DeviceProvisioningService.CREATED, results.get(1203).getStatus());
+        // 调用方自带的 secret 不回显
+        assertNull(results.get(1203).getSecret());
+
+        // 生成的 ID 与写入的行一一对应
+        assertEquals("BOOTH_999", jdbcTemplate.queryForObject(
+                "SELECT device_code FROM devices WHERE id = ?", String.class, results.get(999).getDeviceId()));
+        assertEquals("my-secret", jdbcTemplate.queryForObject(
+                "SELECT secret FROM devices WHERE device_code = 'BOOTH_OWN_SECRET'", String.class));
+        assertEquals(1202, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM devices WHERE merchant_id = ?", Integer.class, merchantId));
+        // 没有经过 JPA 逐行插入
+        assertEquals(0, statistics.getEntityInsertCount());
+        verify(presenceIndex, times(1201)).register(anyLong(), eq(merchantId));
+    }
+
+    @Test
+    void testParseCsv_SkipsHeaderAndHandlesQuotes() {
+        String csv = "\uFEFFdeviceCode,name,secret\n" +
+                "BOOTH_A,\"Hall 1, left\",\n" +
+                "\n" +
+                "BOOTH_B,\"Say \"\"cheese\"\"\",s3cret\n" +
+                "BOOTH_C\n";
+
+        List<ProvisionRow> rows = provisioningService.parseCsv(new StringReader(csv));
+
+        assertEquals(3, rows.size());
+        assertEquals("Hall 1, left", rows.get(0).getName());
+        assertEquals("", rows.get(0).getSecret());
+        assertEquals("Say \"cheese\"", rows.get(1).getName());
+        assertEquals("s3cret", rows.get(1).getSecret());
+        assertEquals("BOOTH_C", rows.get(2).getDeviceCode());
+        assertNull(rows.get(2).getName());
+    }
+
+    @Test
+    void testProvision_RejectsUnknownMerchant() {
+        assertThrows(RuntimeException.class,
+                () -> provisioningService.provision(-1L, List.of(new ProvisionRow("X", null, null)), false));
+    }
+}
@@ -0,0 +1,176 @@
+package com.mg.platform.service.device;
+
+import com.mg.platform.common.util.BinaryDelta;
+import com.mg.platform.domain.Template;
+import com.mg.platform.domain.TemplateVersion;
+import com.mg.platform.repo.TemplateVersionRepository;
+import com.mg.platform.service.device.TemplatePackageStore.PackageFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TemplateDeltaServiceTest {
+
+    @TempDir
+    Path dir;
+
+    @Mock
+    private TemplateVersionRepository templateVersionRepository;
+
+    private TemplateDeltaService deltaService;
+    private Template template;
+    private byte[] v1;
+    private byte[] v2;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path packages = Files.createDirectories(dir.resolve("packages"));
+        Random random = new Random(3);
+        v1 = new byte[64 * 1024];
+        random.nextBytes(v1);
+        v2 = v1.clone();
+        for (int i = 30_000; i < 30_500; i++) {
+            v2[i] ^= 0x5A;
+        }
+        Files.write(packages.resolve("tpl_001_v1.zip"), v1);
+        Files.write(packages.resolve("tpl_001_v2.zip"), v2);
+
+        template = new Template();
+        template.setId(1L);
+        TemplateVersion first = version(11L, template, "tpl_001_v1.zip");
+        TemplateVersion second = version(12L, template, "tpl_001_v2.zip");
+        lenient().when(templateVersionRepository.findById(11L)).thenReturn(Optional.of(first));
+        when(templateVersionRepository.findById(12L)).thenReturn(Optional.of(second));
+        lenient().when(templateVersionRepository.findByTemplateIdOrderByIdDesc(1L)).thenReturn(List.of(second, first));
+
+        TemplatePackageStore store = new TemplatePackageStore(templateVersionRepository);
+        ReflectionTestUtils.setField(store, "packagesDir", packages.toString());
+        store.init();
+        deltaService = new TemplateDeltaService(templateVersionRepository, store);
+        ReflectionTestUtils.setField(deltaService, "deltaDir", dir.resolve("deltas").toString());
+        deltaService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        deltaService.shutdown();
+    }
+
+    /**
+     * 差量在后台计算：等待排队中的计算结束
+     */
+    private void awaitIdle() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (deltaService.stats().getPending() > 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "delta computation did not finish");
+            Thread.sleep(10);
+        }
+    }
+
+    private static TemplateVersion version(Long id, Template template, String fileName) {
+        TemplateVersion version = new TemplateVersion();
+        version.setId(id);
+        version.setTemplate(template);
+        version.setPackageUrl("/packages/" + fileName);
+        return version;
+    }
+
+    @Test
+    void testFindDelta_ComputesOnceAndReusesCachedFile() throws Exception {
+        // When: 首次请求提交后台计算，计算完成前不提供差量
+        assertTrue(deltaService.findDelta(11L, 12L).isEmpty());
+        awaitIdle();
+        PackageFile first = deltaService.findDelta(11L, 12L).orElseThrow();
+        PackageFile second = deltaService.findDelta(11L, 12L).orElseThrow();
+
+        // Then: 差量远小于完整包，可还原出 v2；之后直接复用缓存文件
+        assertTrue(first.getSize() < v2.length / 10, "delta too large: " + first.getSize());
+        assertArrayEquals(v2, BinaryDelta.apply(v1, Files.readAllBytes(first.getPath())));
+        assertEquals(first.getPath(), second.getPath());
+        assertEquals(first.getEtag(), second.getEtag());
+        assertEquals(1, deltaService.stats().getComputed());
+        assertEquals(2, deltaService.stats().getReused());
+    }
+
+    @Test
+    void testFindDelta_SkipsWhenDeltaNotWorthwhile() throws Exception {
+        // Given: 差量必须小于完整包的 1%
+        ReflectionTestUtils.setField(deltaService, "maxRatio", 0.001);
+
+        // When / Then: 不提供差量，且不重复计算
+        assertTrue(deltaService.findDelta(11L, 12L).isEmpty());
+        awaitIdle();
+        assertTrue(deltaService.findDelta(11L, 12L).isEmpty());
+        awaitIdle();
+        assertEquals(1, deltaService.stats().getComputed());
+        assertEquals(1, deltaService.stats().getNotWorthwhile());
+    }
+
+    @Test
+    void testFindDelta_RejectsVersionsOfDifferentTemplates() throws Exception {
+        // Given
+        Template other = new Template();
+        other.setId(2L);
+        when(templateVersionRepository.findById(21L)).thenReturn(Optional.of(version(21L, other, "tpl_001_v1.zip")));
+
+        // When / Then
+        assertTrue(deltaService.findDelta(21L, 12L).isEmpty());
+        assertEquals(0, deltaService.stats().getComputed());
+    }
+
+    @Test
+    void testFindDelta_OnlyOffersNextOrCurrentVersion() throws Exception {
+        // Given: 11 -> 12 -> 13，13 已回滚，当前版本为 12
+        Files.write(dir.resolve("packages").resolve("tpl_001_v3.zip"), v1);
+        TemplateVersion first = templateVersionRepository.findById(11L).orElseThrow();
+        TemplateVersion second = templateVersionRepository.findById(12L).orElseThrow();
+        TemplateVersion third = version(13L, template, "tpl_001_v3.zip");
+        third.setStatus("ROLLBACK");
+        when(templateVersionRepository.findById(13L)).thenReturn(Optional.of(third));
+        when(templateVersionRepository.findByTemplateIdOrderByIdDesc(1L)).thenReturn(List.of(third, second, first));
+
+        // When / Then: 降级、跳过中间版本升级到非当前版本都不提供，也不提交计算
+        assertTrue(deltaService.findDelta(12L, 11L).isEmpty());
+        assertTrue(deltaService.findDelta(11L, 13L).isEmpty());
+        assertEquals(0, deltaService.stats().getPending() + deltaService.stats().getComputed());
+
+        // 相邻版本都会计算
+        assertTrue(deltaService.findDelta(11L, 12L).isEmpty());
+        assertTrue(deltaService.findDelta(12L, 13L).isEmpty());
+        awaitIdle();
+        assertEquals(2, deltaService.stats().getComputed());
+        assertTrue(deltaService.findDelta(12L, 13L).isPresent());
+    }
+
+    @Test
+    void testFindDelta_EvictsOldestWhenDirectoryFull() throws Exception {
+        // Given: 目录上限小于两个差量
+        ReflectionTestUtils.setField(deltaService, "maxDirBytes", 1L);
+        Files.write(dir.resolve("deltas").resolve("old.delta"), new byte[1024]);
+
+        // When
+        deltaService.findDelta(11L, 12L);
+        awaitIdle();
+
+        // Then: 旧差量被删除，新差量保留
+        assertFalse(Files.exists(dir.resolve("deltas").resolve("old.delta")));
+        assertTrue(deltaService.findDelta(11L, 12L).isPresent());
+        assertEquals(1, deltaService.stats().getEvicted());
+    }
+}
@@ -0,0 +1,51 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.service.routing.RoutingSnapshot.ApiKeyEntry;
+import com.mg.platform.common.exception.ApiKeyRateLimitedException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiKeyPoolTest {
+
+    @Test
+    void testRetain_DropsBucketsOfRemovedKeys() {
+        // Given
+        ApiKeyPool pool = new ApiKeyPool();
+        ApiKeyEntry k1 = new ApiKeyEntry(1L, 10L, "c1", null, 60);
+        ApiKeyEntry k2 = new ApiKeyEntry(2L, 10L, "c2", null, 60);
+        ApiKeyEntry k3 = new ApiKeyEntry(3L, 20L, "c3", null, 60);
+        for (int i = 0; i < 4; i++) {
+            pool.acquire(10L, List.of(k1, k2));
+        }
+        pool.acquire(20L, List.of(k3));
+        assertEquals(3, pool.view().size());
+
+        // When: key 2 停用、provider 20 不再有 ACTIVE key
+        pool.retain(Set.of(10L), Set.of(1L));
+
+        // Then
+        assertEquals(List.of(1L), pool.view().stream().map(ApiKeyPool.KeyView::getKeyId).toList());
+        assertEquals(k1, pool.acquire(10L, List.of(k1)));
+    }
+
+    @Test
+    void testPeek_DoesNotConsumeBudget() {
+        // Given: 每分钟只允许 1 次
+        ApiKeyPool pool = new ApiKeyPool();
+        ApiKeyEntry key = new ApiKeyEntry(1L, 10L, "c1", null, 1);
+
+        // When: 多次 peek
+        for (int i = 0; i < 3; i++) {
+            assertEquals(key, pool.peek(List.of(key)));
+        }
+
+        // Then: 预算仍在；用完后 peek 也报告限流，并给出 Retry-After
+        assertEquals(key, pool.acquire(10L, List.of(key)));
+        ApiKeyRateLimitedException e = assertThrows(ApiKeyRateLimitedException.class, () -> pool.peek(List.of(key)));
+        assertTrue(e.getRetryAfterSeconds() >= 1 && e.getRetryAfterSeconds() <= 60, "retryAfter=" + e.getRetryAfterSeconds());
+    }
+}
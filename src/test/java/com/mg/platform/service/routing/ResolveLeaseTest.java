@@ -0,0 +1,165 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.common.dto.AiResolveRequest;
+import com.mg.platform.common.dto.AiResolveResponse;
+import com.mg.platform.domain.ModelProvider;
+import com.mg.platform.domain.ProviderCapability;
+import com.mg.platform.service.ResolveService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.lenient;
+
+@ExtendWith(MockitoExtension.class)
+class ResolveLeaseTest {
+
+    @Mock
+    private RoutingSnapshotManager snapshotManager;
+
+    private ProviderCircuitBreaker circuitBreaker;
+
+    private ResolveLease resolveLease;
+
+    @BeforeEach
+    void setUp() {
+        circuitBreaker = new ProviderCircuitBreaker();
+        ResolveService resolveService = new ResolveService(snapshotManager, new ApiKeyMaterialCache(null),
+                new ProviderHealthScoreboard(), new ApiKeyPool(), new RoutePlanCache(), circuitBreaker);
+        resolveLease = new ResolveLease(resolveService);
+        givenSnapshot(1L, "https://api.volc.com/v1/upscale");
+    }
+
+    private ProviderCapability capability(long id, ModelProvider provider, String capability, String endpoint) {
+        ProviderCapability cap = new ProviderCapability();
+        cap.setId(id);
+        cap.setProvider(provider);
+        cap.setCapability(capability);
+        cap.setEndpoint(endpoint);
+        cap.setStatus("ACTIVE");
+        cap.setPriority(100);
+        return cap;
+    }
+
+    /**
+     * segmentation / background_removal 路由不变，upscale 的 endpoint 可变
+     */
+    private void givenSnapshot(long version, String upscaleEndpoint) {
+        ModelProvider provider = new ModelProvider();
+        provider.setId(1L);
+        provider.setCode("volc");
+        RoutingSnapshot snapshot = RoutingSnapshot.build(version, List.of(
+                capability(1L, provider, "segmentation", "https://api.volc.com/v1/segmentation"),
+                capability(2L, provider, "background_removal", "https://api.volc.com/v1/matting"),
+                capability(3L, provider, "upscale", upscaleEndpoint)), List.of(), Map.of(), List.of());
+        lenient().when(snapshotManager.current()).thenReturn(snapshot);
+    }
+
+    private AiResolveRequest request(String capability) {
+        AiResolveRequest request = new AiResolveRequest();
+        request.setCapability(capability);
+        request.setPrefer(List.of("volc"));
+        return request;
+    }
+
+    @Test
+    void testEtag_StableUntilResolvedRoutesChange() {
+        // Given
+        String etag = resolveLease.etag(request("segmentation"), "M001");
+
+        // Then: 同一请求同一路由下不变，可用 If-None-Match 命中
+        assertEquals(etag, resolveLease.etag(request("segmentation"), "M001"));
+        assertTrue(resolveLease.matches(etag, etag));
+        assertTrue(resolveLease.matches("\"other\", " + etag.substring(2), etag));
+        assertNotEquals(etag, resolveLease.etag(request("background_removal"), "M001"));
+        assertNotEquals(etag, resolveLease.etag(request("segmentation"), "M002"));
+
+        // 其他能力的路由变化（快照版本变化）不影响
+        String upscale = resolveLease.etag(request("upscale"), "M001");
+        givenSnapshot(2L, "https://api.volc.com/v2/upscale");
+        assertTrue(resolveLease.matches(etag, resolveLease.etag(request("segmentation"), "M001")));
+        assertFalse(resolveLease.matches(upscale, resolveLease.etag(request("upscale"), "M001")));
+    }
+
+    @Test
+    void testEtag_ChangesOnlyWhenReturnedRouteCircuitOpens() {
+        // Given
+        String etag = resolveLease.etag(request("segmentation"), null);
+
+        // When: 其他能力的熔断打开
+        for (int i = 0; i < 5; i++) {
+            circuitBreaker.record(2L, false);
+        }
+
+        // Then
+        assertTrue(resolveLease.matches(etag, resolveLease.etag(request("segmentation"), null)));
+
+        // When: 本请求候选路由的熔断打开
+        for (int i = 0; i < 5; i++) {
+            circuitBreaker.record(1L, false);
+        }
+
+        // Then
+        assertFalse(resolveLease.matches(etag, resolveLease.etag(request("segmentation"), null)));
+        assertFalse(resolveLease.matches(null, etag));
+    }
+
+    @Test
+    void testReport_RequiresIssuedLeaseForDeviceAndProvider() {
+        // Given
+        AiResolveResponse response = new AiResolveResponse();
+        response.setCapability("segmentation");
+        AiResolveResponse.Direct direct = new AiResolveResponse.Direct();
+        direct.setProviderCode("volc");
+        response.setDirect(direct);
+        String leaseId = resolveLease.issue(1001L, "W/\"1\"", response);
+
+        // Then: 只接受该设备、该能力、租约内 provider 的上报
+        assertTrue(resolveLease.acceptReport(leaseId, 1001L, "segmentation", "volc"));
+        assertFalse(resolveLease.acceptReport(leaseId, 1002L, "segmentation", "volc"));
+        assertFalse(resolveLease.acceptReport(leaseId, 1001L, "segmentation", "aliyun"));
+        assertFalse(resolveLease.acceptReport(leaseId, 1001L, "background_removal", "volc"));
+        assertFalse(resolveLease.acceptReport("unknown", 1001L, "segmentation", "volc"));
+        assertFalse(resolveLease.acceptReport(null, 1001L, "segmentation", "volc"));
+
+        // 续期要求同一设备、同一 ETag
+        assertTrue(resolveLease.renew(leaseId, 1001L, "W/\"1\""));
+        assertFalse(resolveLease.renew(leaseId, 1001L, "W/\"2\""));
+        assertFalse(resolveLease.renew(leaseId, 1002L, "W/\"1\""));
+        assertEquals(1, resolveLease.issuedCount());
+    }
+
+    @Test
+    void testIssue_AtCapacityEvictsOldestLeaseOnly() {
+        // Given: 最多保存 3 个租约
+        ReflectionTestUtils.setField(resolveLease, "maxEntries", 3);
+        AiResolveResponse response = new AiResolveResponse();
+        response.setCapability("segmentation");
+        AiResolveResponse.Direct direct = new AiResolveResponse.Direct();
+        direct.setProviderCode("volc");
+        response.setDirect(direct);
+        String first = resolveLease.issue(1L, "W/\"1\"", response);
+        String second = resolveLease.issue(2L, "W/\"1\"", response);
+        String third = resolveLease.issue(3L, "W/\"1\"", response);
+
+        // When: 第一个租约续期后，再签发两个
+        assertTrue(resolveLease.renew(first, 1L, "W/\"1\""));
+        String fourth = resolveLease.issue(4L, "W/\"1\"", response);
+        String fifth = resolveLease.issue(5L, "W/\"1\"", response);
+
+        // Then: 依次淘汰最早到期的 second、third，续期过的和新签发的租约仍然有效
+        assertEquals(3, resolveLease.issuedCount());
+        assertFalse(resolveLease.acceptReport(second, 2L, "segmentation", "volc"));
+        assertFalse(resolveLease.acceptReport(third, 3L, "segmentation", "volc"));
+        assertTrue(resolveLease.acceptReport(first, 1L, "segmentation", "volc"));
+        assertTrue(resolveLease.acceptReport(fourth, 4L, "segmentation", "volc"));
+        assertTrue(resolveLease.acceptReport(fifth, 5L, "segmentation", "volc"));
+    }
+}
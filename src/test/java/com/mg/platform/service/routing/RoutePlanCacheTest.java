@@ -0,0 +1,105 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.domain.ModelProvider;
+import com.mg.platform.domain.ProviderCapability;
+import com.mg.platform.service.routing.RoutingSnapshot.CapabilityRoute;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutePlanCacheTest {
+
+    private RoutingSnapshot snapshot(long version) {
+        ModelProvider provider = new ModelProvider();
+        provider.setId(1L);
+        provider.setCode("test_provider");
+
+        ProviderCapability capability = new ProviderCapability();
+        capability.setId(1L);
+        capability.setProvider(provider);
+        capability.setCapability("segmentation");
+        capability.setEndpoint("https://api.test.com/v1/segmentation");
+        capability.setStatus("ACTIVE");
+        capability.setPriority(100);
+        return RoutingSnapshot.build(version, List.of(capability), List.of(), Map.of(), List.of());
+    }
+
+    @Test
+    void testConcurrentMisses_ShareOneLoad() throws Exception {
+        // Given: leader 的加载被阻塞，其余调用方应等待同一次加载
+        RoutePlanCache cache = new RoutePlanCache();
+        RoutingSnapshot snapshot = snapshot(1L);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        int callers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+
+        try {
+            List<Future<List<CapabilityRoute>>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> cache.get(snapshot, "M001", "segmentation", List.of("test_provider"),
+                        null, () -> {
+                            loads.incrementAndGet();
+                            try {
+                                release.await(5, TimeUnit.SECONDS);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            return snapshot.getRoutes("segmentation");
+                        })));
+            }
+
+            // 等待所有非 leader 进入等待
+            long deadline = System.currentTimeMillis() + 5000;
+            while (cache.stats().getCoalesced() < callers - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            // Then
+            for (Future<List<CapabilityRoute>> result : results) {
+                assertEquals(1, result.get(5, TimeUnit.SECONDS).size());
+            }
+            assertEquals(1, loads.get());
+            assertEquals(callers - 1, cache.stats().getCoalesced());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testCachedPerSnapshot() {
+        // Given
+        RoutePlanCache cache = new RoutePlanCache();
+        RoutingSnapshot v1 = snapshot(1L);
+        AtomicInteger loads = new AtomicInteger();
+
+        // When: 同一快照内重复获取只加载一次，快照替换后重新加载
+        for (int i = 0; i < 3; i++) {
+            cache.get(v1, null, "segmentation", null, null, () -> {
+                loads.incrementAndGet();
+                return v1.getRoutes("segmentation");
+            });
+        }
+        RoutingSnapshot v2 = snapshot(2L);
+        cache.get(v2, null, "segmentation", null, null, () -> {
+            loads.incrementAndGet();
+            return v2.getRoutes("segmentation");
+        });
+
+        // Then
+        assertEquals(2, loads.get());
+        assertEquals(2, cache.stats().getHits());
+        assertEquals(1, cache.stats().getSize());
+    }
+}
@@ -0,0 +1,99 @@
+package com.mg.platform.service.routing;
+
+import com.mg.platform.domain.CapabilityRoutingPolicy;
+import com.mg.platform.domain.Merchant;
+import com.mg.platform.service.routing.RoutingSnapshot.DuplicatePolicy;
+import com.mg.platform.service.routing.RoutingSnapshot.PolicyRule;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoutingSnapshotTest {
+
+    private CapabilityRoutingPolicy policy(long id, String scope, Merchant merchant, String capability,
+                                           String preferJson, LocalDateTime createdAt) {
+        CapabilityRoutingPolicy policy = new CapabilityRoutingPolicy();
+        policy.setId(id);
+        policy.setScope(scope);
+        policy.setMerchant(merchant);
+        policy.setCapability(capability);
+        policy.setPreferProvidersJson(preferJson);
+        policy.setStatus("ACTIVE");
+        policy.setCreatedAt(createdAt);
+        return policy;
+    }
+
+    @Test
+    void testEffectivePolicy_FoldsGlobalFallback() {
+        // Given: M001 只为 segmentation 配置了 retry，没有 prefer；GLOBAL 配置了 prefer 和 max_cost_tier
+        Merchant merchant = new Merchant();
+        merchant.setId(10L);
+        LocalDateTime now = LocalDateTime.now();
+
+        CapabilityRoutingPolicy global = policy(1L, "GLOBAL", null, "segmentation", "[\"volc\"]", now);
+        global.setMaxCostTier(2);
+        CapabilityRoutingPolicy globalUpscale = policy(2L, "GLOBAL", null, "upscale", "[\"aliyun\"]", now);
+        CapabilityRoutingPolicy merchantPolicy = policy(3L, "MERCHANT", merchant, "segmentation", null, now);
+        merchantPolicy.setRetryCount(2);
+
+        RoutingSnapshot snapshot = RoutingSnapshot.build(1L, List.of(),
+                List.of(global, globalUpscale, merchantPolicy), Map.of(10L, "M001"), List.of());
+
+        // When
+        PolicyRule effective = snapshot.getEffectivePolicy("M001", "segmentation");
+
+        // Then: retry 来自 MERCHANT，prefer / max_cost_tier 回退到 GLOBAL
+        assertEquals(3L, effective.getPolicyId());
+        assertEquals(2, effective.getRetryCount());
+        assertEquals(List.of("volc"), effective.getPrefer());
+        assertEquals(2, effective.getMaxCostTier());
+
+        // M001 没有配置的 capability、没有 policy 的商家、未传商家都使用 GLOBAL
+        assertEquals(2L, snapshot.getEffectivePolicy("M001", "upscale").getPolicyId());
+        assertEquals(1L, snapshot.getEffectivePolicy("M999", "segmentation").getPolicyId());
+        assertEquals(1L, snapshot.getEffectivePolicy(null, "segmentation").getPolicyId());
+        assertSame(PolicyRule.NONE, snapshot.getEffectivePolicy("M001", "face_swap"));
+    }
+
+    @Test
+    void testDuplicatePolicies_RecordedAndNewestWins() {
+        // Given: 两条重复的 GLOBAL policy
+        LocalDateTime now = LocalDateTime.now();
+        CapabilityRoutingPolicy older = policy(1L, "GLOBAL", null, "segmentation", "[\"aliyun\"]", now.minusDays(1));
+        CapabilityRoutingPolicy newer = policy(2L, "GLOBAL", null, "segmentation", "[\"volc\"]", now);
+
+        // When
+        RoutingSnapshot snapshot = RoutingSnapshot.build(1L, List.of(), List.of(newer, older), Map.of(), List.of());
+
+        // Then
+        assertEquals(List.of("volc"), snapshot.getEffectivePolicy(null, "segmentation").getPrefer());
+        assertEquals(1, snapshot.getDuplicatePolicies().size());
+        DuplicatePolicy duplicate = snapshot.getDuplicatePolicies().get(0);
+        assertEquals(2L, duplicate.getWinnerPolicyId());
+        assertEquals(List.of(1L), duplicate.getIgnoredPolicyIds());
+    }
+
+    @Test
+    void testSameContent_IgnoresVersionAndDetectsChanges() {
+        // Given
+        LocalDateTime now = LocalDateTime.now();
+        CapabilityRoutingPolicy global = policy(1L, "GLOBAL", null, "segmentation", "[\"volc\"]", now);
+        global.setTrafficSplitJson("{\"volc\": 90, \"aliyun\": 10}");
+        RoutingSnapshot first = RoutingSnapshot.build(1L, List.of(), List.of(global), Map.of(), List.of());
+
+        // Then: 重新加载同样的数据视为相同内容
+        RoutingSnapshot reloaded = RoutingSnapshot.build(2L, List.of(), List.of(global), Map.of(), List.of());
+        assertTrue(first.sameContent(reloaded));
+        assertEquals(1L, first.reloaded(2L).getVersion());
+        assertEquals(2L, first.reloaded(2L).getLoadSequence());
+
+        // 分流权重变化
+        global.setTrafficSplitJson("{\"volc\": 50, \"aliyun\": 50}");
+        RoutingSnapshot changed = RoutingSnapshot.build(3L, List.of(), List.of(global), Map.of(), List.of());
+        assertFalse(first.sameContent(changed));
+    }
+}
@@ -0,0 +1,38 @@
+package com.mg.platform.service.routing;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrafficSplitTest {
+
+    @Test
+    void testPick_MatchesWeights() {
+        // Given
+        TrafficSplit split = TrafficSplit.parse("{\"volc\": 70, \"aliyun\": 20, \"canary\": 10}");
+
+        // When: 在 [0, 1) 上均匀取点
+        int samples = 10000;
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < samples; i++) {
+            counts.merge(split.pick((i + 0.5) / samples), 1, Integer::sum);
+        }
+
+        // Then: alias 表精确对应权重
+        assertEquals(7000, counts.get("volc"));
+        assertEquals(2000, counts.get("aliyun"));
+        assertEquals(1000, counts.get("canary"));
+        assertEquals(10.0, split.getPercentages().get("canary"), 1e-9);
+    }
+
+    @Test
+    void testParse_RejectsInvalidWeights() {
+        assertNull(TrafficSplit.parse(null));
+        assertThrows(IllegalArgumentException.class, () -> TrafficSplit.parse("[\"volc\"]"));
+        assertThrows(IllegalArgumentException.class, () -> TrafficSplit.parse("{\"volc\": -1}"));
+        assertThrows(IllegalArgumentException.class, () -> TrafficSplit.parse("{\"volc\": 0}"));
+    }
+}
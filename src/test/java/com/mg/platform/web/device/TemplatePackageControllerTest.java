@@ -0,0 +1,193 @@
+package com.mg.platform.web.device;
+
+import com.mg.platform.repo.TemplateVersionRepository;
+import com.mg.platform.service.device.TemplateDeltaService;
+import com.mg.platform.service.device.TemplatePackageMetrics;
+import com.mg.platform.service.device.TemplatePackageStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Semaphore;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+class TemplatePackageControllerTest {
+    private static final String CONTENT = "0123456789abcdefghij";
+
+    @TempDir
+    Path dir;
+
+    @Mock
+    private TemplateVersionRepository templateVersionRepository;
+
+    @Mock
+    private TemplateDeltaService deltaService;
+
+    private TemplatePackageStore store;
+    private TemplatePackageMetrics metrics;
+    private TemplatePackageController controller;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Files.writeString(dir.resolve("tpl_001_v1.0.0.zip"), CONTENT, StandardCharsets.UTF_8);
+        store = new TemplatePackageStore(templateVersionRepository);
+        ReflectionTestUtils.setField(store, "packagesDir", dir.toString());
+        store.init();
+        metrics = new TemplatePackageMetrics();
+        controller = new TemplatePackageController(store, metrics, deltaService);
+        controller.init();
+    }
+
+    private MockHttpServletResponse get(MockHttpServletRequest request) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.download("tpl_001_v1.0.0.zip", request, response);
+        return response;
+    }
+
+    @Test
+    void testDownload_UsesVersionChecksumAsStrongEtag() throws Exception {
+        // Given
+        store.recordChecksum("/packages/tpl_001_v1.0.0.zip", "abc123");
+
+        // When
+        MockHttpServletResponse response = get(new MockHttpServletRequest("GET", "/packages/tpl_001_v1.0.0.zip"));
+
+        // Then
+        assertEquals(200, response.getStatus());
+        assertEquals("\"abc123\"", response.getHeader("ETag"));
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertEquals(CONTENT, response.getContentAsString());
+
+        // 再次请求带上 ETag：304，不发送响应体
+        MockHttpServletRequest conditional = new MockHttpServletRequest("GET", "/packages/tpl_001_v1.0.0.zip");
+        conditional.addHeader("If-None-Match", "\"abc123\"");
+        MockHttpServletResponse notModified = get(conditional);
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+        assertEquals(1, metrics.view().getNotModified());
+        assertEquals(CONTENT.length(), metrics.view().getBytesSent());
+    }
+
+    @Test
+    void testDownload_RangeReturnsPartialContent() throws Exception {
+        // Given: 没有登记 checksum 时按文件大小 + 修改时间生成 ETag
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/packages/tpl_001_v1.0.0.zip");
+        request.addHeader("Range", "bytes=10-");
+
+        // When
+        MockHttpServletResponse response = get(request);
+
+        // Then
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/20", response.getHeader("Content-Range"));
+        assertEquals("abcdefghij", response.getContentAsString());
+        assertEquals(1, metrics.view().getPartial());
+
+        // If-Range 与当前 ETag 不一致：忽略 Range 返回整个文件
+        MockHttpServletRequest stale = new MockHttpServletRequest("GET", "/packages/tpl_001_v1.0.0.zip");
+        stale.addHeader("Range", "bytes=10-");
+        stale.addHeader("If-Range", "\"old\"");
+        MockHttpServletResponse full = get(stale);
+        assertEquals(200, full.getStatus());
+        assertEquals(CONTENT, full.getContentAsString());
+    }
+
+    @Test
+    void testDownload_UnsatisfiableRangeReturns416() throws Exception {
+        // Given
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/packages/tpl_001_v1.0.0.zip");
+        request.addHeader("Range", "bytes=20-");
+
+        // When
+        MockHttpServletResponse response = get(request);
+
+        // Then
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */20", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    void testDownload_SendfileByDefaultAndStreamedUnderConcurrencyCap() throws Exception {
+        // Given: 容器支持 sendfile，默认不在这里限流
+        ReflectionTestUtils.setField(controller, "sendfileMinBytes", 1L);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/packages/tpl_001_v1.0.0.zip");
+        request.setAttribute(TemplatePackageController.SENDFILE_SUPPORT, Boolean.TRUE);
+        request.addHeader("Range", "bytes=-5");
+
+        // When
+        MockHttpServletResponse response = get(request);
+
+        // Then: 响应体由容器发送，servlet 不写出任何内容；end 为开区间
+        assertEquals(206, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+        assertEquals(dir.resolve("tpl_001_v1.0.0.zip").toString(),
+                request.getAttribute(TemplatePackageController.SENDFILE_FILENAME));
+        assertEquals(15L, request.getAttribute(TemplatePackageController.SENDFILE_START));
+        assertEquals(20L, request.getAttribute(TemplatePackageController.SENDFILE_END));
+        assertEquals(1, metrics.view().getSendfile());
+        assertEquals(0, metrics.view().getActive());
+
+        // 开启并发上限后：响应体必须在持有许可期间写完，不交给 sendfile
+        ReflectionTestUtils.setField(controller, "maxConcurrent", 10);
+        controller.init();
+        MockHttpServletRequest capped = new MockHttpServletRequest("GET", "/packages/tpl_001_v1.0.0.zip");
+        capped.setAttribute(TemplatePackageController.SENDFILE_SUPPORT, Boolean.TRUE);
+        MockHttpServletResponse written = get(capped);
+        assertEquals(CONTENT, written.getContentAsString());
+        assertNull(capped.getAttribute(TemplatePackageController.SENDFILE_FILENAME));
+        assertEquals(1, metrics.view().getSendfile());
+    }
+
+    @Test
+    void testDownload_RejectsWhenConcurrencyCapReached() throws Exception {
+        // Given: 唯一的许可被占用
+        ReflectionTestUtils.setField(controller, "maxConcurrent", 1);
+        controller.init();
+        Semaphore permits = (Semaphore) ReflectionTestUtils.getField(controller, "permits");
+        assertNotNull(permits);
+        permits.acquire();
+
+        // When
+        MockHttpServletResponse response = get(new MockHttpServletRequest("GET", "/packages/tpl_001_v1.0.0.zip"));
+
+        // Then
+        assertEquals(503, response.getStatus());
+        assertEquals("5", response.getHeader("Retry-After"));
+        assertEquals(1, metrics.view().getRejected());
+    }
+
+    @Test
+    void testComputeChecksum_HashesPackageFile() throws Exception {
+        assertEquals("6bc14bdc4517a7a682c6910de2e2946eb8e1ecd04090728fef6d092a7ceb62c5",
+                store.computeChecksum("/packages/tpl_001_v1.0.0.zip").orElseThrow());
+        assertTrue(store.computeChecksum("/packages/missing.zip").isEmpty());
+    }
+
+    @Test
+    void testDownload_RejectsPathTraversal() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        controller.download("..", new MockHttpServletRequest("GET", "/packages/.."), response);
+        assertEquals(404, response.getStatus());
+    }
+
+    @Test
+    void testParseRange() {
+        assertArrayEquals(new long[]{0, 9}, TemplatePackageController.parseRange("bytes=0-9", 20));
+        assertArrayEquals(new long[]{5, 19}, TemplatePackageController.parseRange("bytes=5-100", 20));
+        assertArrayEquals(new long[]{0, 19}, TemplatePackageController.parseRange("bytes=-100", 20));
+        assertNull(TemplatePackageController.parseRange("bytes=0-1,5-6", 20));
+        assertNull(TemplatePackageController.parseRange("items=0-1", 20));
+        assertSame(TemplatePackageController.UNSATISFIABLE, TemplatePackageController.parseRange("bytes=-0", 20));
+    }
+}